@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspFactory;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.BodyContent;
+import javax.servlet.jsp.tagext.BodyTagSupport;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.ELExpressionCache;
+import org.apache.sling.scripting.jsp.jasper.runtime.HttpJspBase;
+import org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl;
+import org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool;
+
+/**
+ * Pages written like the servlets generated for small JSPs, so the runtime
+ * can be measured without compiling. The {@link PageFixture} must have been
+ * loaded before, as the pages get the default factory when initialized.
+ */
+final class BenchmarkPages {
+
+    private BenchmarkPages() {
+        // nested classes only
+    }
+
+    /**
+     * Template text only.
+     */
+    static final class StaticTextPage extends HttpJspBase {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final JspFactory _jspxFactory = JspFactory.getDefaultFactory();
+
+        @Override
+        public void _jspService(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            PageContext _jspx_page_context = null;
+            try {
+                response.setContentType("text/html;charset=UTF-8");
+                _jspx_page_context = _jspxFactory.getPageContext(this, request, response,
+                        null, false, 8192, true);
+                final JspWriter out = _jspx_page_context.getOut();
+
+                out.write("<!DOCTYPE html>\n<html>\n<head><title>Static</title></head>\n<body>\n");
+                for(int i = 0; i < 10; i++) {
+                    out.write("  <p class=\"text\">Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n");
+                }
+                out.write("</body>\n</html>\n");
+            } catch (final Throwable t) {
+                if (_jspx_page_context != null) _jspx_page_context.handlePageException(t);
+            } finally {
+                _jspxFactory.releasePageContext(_jspx_page_context);
+            }
+        }
+    }
+
+    /**
+     * Template text with EL expressions.
+     */
+    static final class ExpressionPage extends HttpJspBase {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final JspFactory _jspxFactory = JspFactory.getDefaultFactory();
+
+        private static final ELExpressionCache _el_expressioncache = new ELExpressionCache();
+
+        @Override
+        public void _jspService(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            PageContext _jspx_page_context = null;
+            try {
+                response.setContentType("text/html;charset=UTF-8");
+                _jspx_page_context = _jspxFactory.getPageContext(this, request, response,
+                        null, false, 8192, true);
+                final JspWriter out = _jspx_page_context.getOut();
+
+                out.write("<html>\n<body>\n");
+                for(int i = 0; i < 10; i++) {
+                    out.write("  <p title=\"");
+                    out.write((String) PageContextImpl.proprietaryEvaluate("${requestScope.title}",
+                            String.class, _jspx_page_context, null, false, _el_expressioncache));
+                    out.write("\">");
+                    out.write((String) PageContextImpl.proprietaryEvaluate("${requestScope.text}",
+                            String.class, _jspx_page_context, null, false, _el_expressioncache));
+                    out.write("</p>\n");
+                }
+                out.write("</body>\n</html>\n");
+            } catch (final Throwable t) {
+                if (_jspx_page_context != null) _jspx_page_context.handlePageException(t);
+            } finally {
+                _jspxFactory.releasePageContext(_jspx_page_context);
+            }
+        }
+    }
+
+    /**
+     * Template text with a pooled tag buffering its body.
+     */
+    static final class TagPage extends HttpJspBase {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final JspFactory _jspxFactory = JspFactory.getDefaultFactory();
+
+        private TagHandlerPool _jspx_tagPool_echo;
+
+        @Override
+        public void _jspInit() {
+            _jspx_tagPool_echo = TagHandlerPool.getTagHandlerPool(getServletConfig());
+        }
+
+        @Override
+        public void _jspDestroy() {
+            _jspx_tagPool_echo.release();
+        }
+
+        @Override
+        public void _jspService(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException, ServletException {
+            PageContext _jspx_page_context = null;
+            try {
+                response.setContentType("text/html;charset=UTF-8");
+                _jspx_page_context = _jspxFactory.getPageContext(this, request, response,
+                        null, false, 8192, true);
+                final JspWriter out = _jspx_page_context.getOut();
+
+                out.write("<html>\n<body>\n");
+                for(int i = 0; i < 10; i++) {
+                    if (_jspx_meth_echo_0(_jspx_page_context)) {
+                        return;
+                    }
+                    out.write('\n');
+                }
+                out.write("</body>\n</html>\n");
+            } catch (final Throwable t) {
+                if (_jspx_page_context != null) _jspx_page_context.handlePageException(t);
+            } finally {
+                _jspxFactory.releasePageContext(_jspx_page_context);
+            }
+        }
+
+        private boolean _jspx_meth_echo_0(final PageContext _jspx_page_context)
+                throws Throwable {
+            JspWriter out = _jspx_page_context.getOut();
+            final EchoTag _jspx_th_echo_0 = (EchoTag) _jspx_tagPool_echo.get(EchoTag.class);
+            _jspx_th_echo_0.setPageContext(_jspx_page_context);
+            _jspx_th_echo_0.setParent(null);
+            final int _jspx_eval_echo_0 = _jspx_th_echo_0.doStartTag();
+            if (_jspx_eval_echo_0 != Tag.SKIP_BODY) {
+                if (_jspx_eval_echo_0 != Tag.EVAL_BODY_INCLUDE) {
+                    out = _jspx_page_context.pushBody();
+                    _jspx_th_echo_0.setBodyContent((BodyContent) out);
+                    _jspx_th_echo_0.doInitBody();
+                }
+                do {
+                    out.write("<span>Lorem ipsum dolor sit amet</span>");
+                } while (_jspx_th_echo_0.doAfterBody() == BodyTagSupport.EVAL_BODY_AGAIN);
+                if (_jspx_eval_echo_0 != Tag.EVAL_BODY_INCLUDE) {
+                    out = _jspx_page_context.popBody();
+                }
+            }
+            if (_jspx_th_echo_0.doEndTag() == Tag.SKIP_PAGE) {
+                _jspx_tagPool_echo.reuse(_jspx_th_echo_0);
+                return true;
+            }
+            _jspx_tagPool_echo.reuse(_jspx_th_echo_0);
+            return false;
+        }
+    }
+}
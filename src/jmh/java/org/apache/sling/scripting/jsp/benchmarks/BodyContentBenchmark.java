@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.BodyContent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pushing and popping body contents, as done for buffered tag bodies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyContentBenchmark {
+
+    private static final String TEXT = "<li>body content of a tag</li>";
+
+    /** The number of nested tag bodies. */
+    @Param({"1", "3"})
+    public int depth;
+
+    private PageContext pageContext;
+
+    @Setup
+    public void setUp() throws ServletException {
+        this.pageContext = new PageFixture().getPageContext();
+    }
+
+    @TearDown
+    public void tearDown() {
+        PageFixture.FACTORY.releasePageContext(pageContext);
+    }
+
+    @Benchmark
+    public JspWriter pushWritePop() throws IOException {
+        for(int i = 0; i < depth; i++) {
+            final BodyContent body = pageContext.pushBody();
+            body.write(TEXT);
+        }
+        JspWriter out = null;
+        for(int i = 0; i < depth; i++) {
+            final BodyContent body = (BodyContent) pageContext.getOut();
+            out = pageContext.popBody();
+            body.writeOut(out);
+        }
+        out.clearBuffer();
+        return out;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.sling.scripting.jsp.JspServletOptions;
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.apache.sling.scripting.jsp.jasper.compiler.TldLocationsCache;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiling and loading a page from scratch, including its tag files, with
+ * all sources and classes kept in memory.
+ *
+ * Next to the time per compilation measured by JMH, the time spent in each
+ * phase as recorded by the {@link CompileTimings} of the runtime context is
+ * printed at the end of each trial, which shows where the compilation of a
+ * kind of page spends its time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({"SMALL", "LARGE", "TAGS", "INCLUDES"})
+    public CompileCorpus corpus;
+
+    /** Whether the generated source is compiled without writing it. */
+    @Param({"true", "false"})
+    public boolean compileInMemory;
+
+    private InMemoryIOProvider files;
+
+    private ServletContext servletContext;
+
+    private ServletConfig servletConfig;
+
+    private JspServletOptions options;
+
+    private JspRuntimeContext runtimeContext;
+
+    private final long[] times = new long[Phase.values().length];
+
+    private final long[] counts = new long[Phase.values().length];
+
+    private long compilations;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.files = InMemoryIOProvider.withCompiler();
+        corpus.addTo(files);
+        this.servletContext = ServletStubs.servletContext(files);
+        final Map<String, Object> config = new HashMap<String, Object>();
+        config.put("jasper.compileInMemory", String.valueOf(compileInMemory));
+        config.put("jasper.keepgenerated", "false");
+        this.options = new JspServletOptions(servletContext, files, config, new NoTldLocationsCache(), false);
+        this.servletConfig = ServletStubs.servletConfig(servletContext, new HashMap<String, String>());
+    }
+
+    /**
+     * Drops the classes of the last invocation, so the page and its tag
+     * files are compiled again.
+     */
+    @Setup(Level.Invocation)
+    public void clear() {
+        files.reset();
+        this.runtimeContext = new JspRuntimeContext(servletContext, options, files);
+    }
+
+    @TearDown(Level.Invocation)
+    public void collect() {
+        final CompileTimings timings = runtimeContext.getCompileTimings();
+        for(final Phase phase : Phase.values()) {
+            times[phase.ordinal()] += timings.getTime(phase);
+            counts[phase.ordinal()] += timings.getCount(phase);
+        }
+        compilations++;
+        runtimeContext.destroy();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%nPhases of %s (compileInMemory=%s), per compilation:%n", corpus, compileInMemory));
+        for(final Phase phase : Phase.values()) {
+            sb.append(String.format("  %-14s %10.3f ms %8.1f x%n", phase.name().toLowerCase(),
+                    times[phase.ordinal()] / 1e6 / compilations,
+                    (double) counts[phase.ordinal()] / compilations));
+        }
+        System.out.print(sb);
+    }
+
+    @Benchmark
+    public Class<?> compile() throws JasperException {
+        final JspServletWrapper wrapper = new JspServletWrapper(servletConfig, options,
+                CompileCorpus.PAGE, false, runtimeContext);
+        final JasperException ex = wrapper.compile();
+        if ( ex != null ) {
+            throw ex;
+        }
+        return wrapper.getJspEngineContext().load();
+    }
+
+    /**
+     * The pages refer to their tag libraries by the path of the TLD.
+     */
+    static final class NoTldLocationsCache extends TldLocationsCache {
+
+        @Override
+        public String[] getLocation(final String uri) {
+            return null;
+        }
+
+        @Override
+        public URL getTldLocationURL(final String tldLocation) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+/**
+ * Synthetic JSPs of different shapes, which are generated instead of
+ * read from files so every run compiles exactly the same sources.
+ */
+enum CompileCorpus {
+
+    /** A short page with some expressions and a scriptlet. */
+    SMALL {
+        @Override
+        void addTo(final InMemoryIOProvider files) {
+            files.put(PAGE, PAGE_DIRECTIVE + block(0) + "</body></html>\n");
+        }
+    },
+
+    /** A long page with many expressions, scriptlets and standard actions. */
+    LARGE {
+        @Override
+        void addTo(final InMemoryIOProvider files) {
+            final StringBuilder sb = new StringBuilder(PAGE_DIRECTIVE);
+            sb.append("<jsp:useBean id=\"values\" class=\"java.util.HashMap\" scope=\"request\"/>\n");
+            for(int i = 0; i < 200; i++) {
+                sb.append(block(i));
+            }
+            sb.append("</body></html>\n");
+            files.put(PAGE, sb.toString());
+        }
+    },
+
+    /** A page using many custom tags and tag files. */
+    TAGS {
+        @Override
+        void addTo(final InMemoryIOProvider files) {
+            files.put(TLD, TLD_CONTENT);
+            for(int t = 0; t < 5; t++) {
+                files.put(TAG_DIR + "/item" + t + ".tag",
+                        "<%@ tag body-content=\"scriptless\" %>\n"
+                        + "<%@ attribute name=\"label\" required=\"true\" %>\n"
+                        + "<%@ attribute name=\"index\" type=\"java.lang.Integer\" %>\n"
+                        + "<li class=\"item" + t + "\" data-index=\"${index}\">${label}: <jsp:doBody/></li>\n");
+            }
+            final StringBuilder sb = new StringBuilder(PAGE_DIRECTIVE);
+            sb.append("<%@ taglib prefix=\"b\" uri=\"" + TLD + "\" %>\n");
+            sb.append("<%@ taglib prefix=\"t\" tagdir=\"" + TAG_DIR + "\" %>\n");
+            sb.append("<ul>\n");
+            for(int i = 0; i < 100; i++) {
+                final int t = i % 5;
+                sb.append("<t:item").append(t).append(" label=\"Item ").append(i)
+                  .append("\" index=\"").append(i).append("\">\n");
+                sb.append("  <b:echo title=\"${param.title}\">Body ").append(i)
+                  .append(" with ${requestScope.value}</b:echo>\n");
+                sb.append("</t:item").append(t).append(">\n");
+            }
+            sb.append("</ul>\n</body></html>\n");
+            files.put(PAGE, sb.toString());
+        }
+    },
+
+    /** A page built from many statically included fragments. */
+    INCLUDES {
+        @Override
+        void addTo(final InMemoryIOProvider files) {
+            files.put(INCLUDE_DIR + "/header.jspf", "<header><h1>${pageTitle}</h1></header>\n");
+            final StringBuilder sb = new StringBuilder(PAGE_DIRECTIVE);
+            for(int i = 0; i < 40; i++) {
+                files.put(INCLUDE_DIR + "/fragment" + i + ".jspf",
+                        "<%@ include file=\"header.jspf\" %>\n" + block(i));
+                sb.append("<%@ include file=\"includes/fragment").append(i).append(".jspf\" %>\n");
+            }
+            sb.append("</body></html>\n");
+            files.put(PAGE, sb.toString());
+        }
+    };
+
+    /** The path of the page to compile. */
+    static final String PAGE = "/apps/benchmark/page.jsp";
+
+    private static final String INCLUDE_DIR = "/apps/benchmark/includes";
+
+    private static final String TAG_DIR = "/WEB-INF/tags";
+
+    private static final String TLD = "/WEB-INF/tlds/benchmark.tld";
+
+    private static final String PAGE_DIRECTIVE =
+            "<%@ page contentType=\"text/html; charset=UTF-8\" pageEncoding=\"UTF-8\" %>\n"
+            + "<!DOCTYPE html>\n<html><head><title>Benchmark</title></head><body>\n";
+
+    private static final String TLD_CONTENT =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<taglib xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.1\">\n"
+            + "  <tlib-version>1.0</tlib-version>\n"
+            + "  <short-name>b</short-name>\n"
+            + "  <tag>\n"
+            + "    <name>echo</name>\n"
+            + "    <tag-class>" + EchoTag.class.getName() + "</tag-class>\n"
+            + "    <body-content>scriptless</body-content>\n"
+            + "    <attribute>\n"
+            + "      <name>title</name>\n"
+            + "      <rtexprvalue>true</rtexprvalue>\n"
+            + "    </attribute>\n"
+            + "  </tag>\n"
+            + "</taglib>\n";
+
+    /**
+     * Adds the page and the files it uses.
+     */
+    abstract void addTo(InMemoryIOProvider files);
+
+    /**
+     * A block of template text, expressions and a scriptlet.
+     */
+    private static String block(final int index) {
+        return "<section id=\"s" + index + "\">\n"
+            + "  <h2>Section " + index + " of ${param.title}</h2>\n"
+            + "  <p class=\"${empty param.css ? 'plain' : param.css}\">Lorem ipsum dolor sit amet, "
+            + "consectetur adipiscing elit.</p>\n"
+            + "  <ul>\n"
+            + "  <% for (int i = 0; i < " + (index % 5 + 1) + "; i++) { %>\n"
+            + "    <li><%= i %> - ${requestScope.value}</li>\n"
+            + "  <% } %>\n"
+            + "  </ul>\n"
+            + "</section>\n";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.tagext.BodyTagSupport;
+
+/**
+ * Writes its buffered body wrapped into a div, with an optional title.
+ * It is used by the rendered pages and by the compiled JSPs.
+ */
+public class EchoTag extends BodyTagSupport {
+
+    private static final long serialVersionUID = 1L;
+
+    private String title;
+
+    public void setTitle(final String title) {
+        this.title = title;
+    }
+
+    @Override
+    public int doEndTag() throws JspException {
+        try {
+            final JspWriter out = pageContext.getOut();
+            if ( title == null ) {
+                out.write("<div>");
+            } else {
+                out.write("<div title=\"");
+                out.write(title);
+                out.write("\">");
+            }
+            if ( bodyContent != null ) {
+                bodyContent.writeOut(out);
+            }
+            out.write("</div>");
+        } catch (final IOException ioe) {
+            throw new JspException(ioe);
+        }
+        return EVAL_PAGE;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        this.title = null;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.el.ELException;
+import javax.servlet.ServletException;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.ELExpressionCache;
+import org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluating EL expressions and looking up scoped attributes, as done by
+ * generated pages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    /** Whether the parsed expressions are cached, like in generated pages. */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private PageContext pageContext;
+
+    private ELExpressionCache expressionCache;
+
+    @Setup
+    public void setUp() throws ServletException {
+        final PageFixture fixture = new PageFixture();
+        this.pageContext = fixture.getPageContext();
+        this.expressionCache = cached ? new ELExpressionCache() : null;
+        pageContext.setAttribute("bean", new Bean("page"));
+        fixture.request.setAttribute("requestAttribute", "request");
+        fixture.servletContext.setAttribute("applicationAttribute", "application");
+    }
+
+    @TearDown
+    public void tearDown() {
+        PageFixture.FACTORY.releasePageContext(pageContext);
+    }
+
+    @Benchmark
+    public Object evaluateArithmetic() throws ELException {
+        return PageContextImpl.proprietaryEvaluate("${1 + 2}", Object.class,
+                pageContext, null, false, expressionCache);
+    }
+
+    @Benchmark
+    public Object evaluateProperty() throws ELException {
+        return PageContextImpl.proprietaryEvaluate("${bean.name}", String.class,
+                pageContext, null, false, expressionCache);
+    }
+
+    @Benchmark
+    public Object evaluateEscaped() throws ELException {
+        return PageContextImpl.proprietaryEvaluate("<b>${bean.name}</b>", String.class,
+                pageContext, null, true, expressionCache);
+    }
+
+    @Benchmark
+    public Object findPageAttribute() {
+        return pageContext.findAttribute("bean");
+    }
+
+    @Benchmark
+    public Object findRequestAttribute() {
+        return pageContext.findAttribute("requestAttribute");
+    }
+
+    @Benchmark
+    public Object findApplicationAttribute() {
+        return pageContext.findAttribute("applicationAttribute");
+    }
+
+    @Benchmark
+    public Object findMissingAttribute() {
+        return pageContext.findAttribute("missing");
+    }
+
+    public static final class Bean {
+
+        private final String name;
+
+        public Bean(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
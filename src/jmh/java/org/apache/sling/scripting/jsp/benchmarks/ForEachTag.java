@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.TagSupport;
+
+/**
+ * Includes its body for each item of a collection, which is exposed in a
+ * page scope variable, like the JSTL forEach tag.
+ */
+public class ForEachTag extends TagSupport {
+
+    private static final long serialVersionUID = 1L;
+
+    private Collection<?> items;
+
+    private String var;
+
+    private Iterator<?> iterator;
+
+    public void setItems(final Object items) {
+        this.items = (Collection<?>) items;
+    }
+
+    public void setVar(final String var) {
+        this.var = var;
+    }
+
+    @Override
+    public int doStartTag() {
+        this.iterator = items.iterator();
+        return next() ? EVAL_BODY_INCLUDE : SKIP_BODY;
+    }
+
+    @Override
+    public int doAfterBody() {
+        return next() ? EVAL_BODY_AGAIN : SKIP_BODY;
+    }
+
+    @Override
+    public int doEndTag() {
+        pageContext.removeAttribute(var, PageContext.PAGE_SCOPE);
+        this.iterator = null;
+        return EVAL_PAGE;
+    }
+
+    private boolean next() {
+        if ( !iterator.hasNext() ) {
+            return false;
+        }
+        pageContext.setAttribute(var, iterator.next());
+        return true;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        this.items = null;
+        this.var = null;
+    }
+}
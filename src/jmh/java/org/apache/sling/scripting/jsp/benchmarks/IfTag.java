@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import javax.servlet.jsp.tagext.TagSupport;
+
+/**
+ * Includes its body if the test is true, like the JSTL if tag.
+ */
+public class IfTag extends TagSupport {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean test;
+
+    public void setTest(final boolean test) {
+        this.test = test;
+    }
+
+    @Override
+    public int doStartTag() {
+        return test ? EVAL_BODY_INCLUDE : SKIP_BODY;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        this.test = false;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.commons.compiler.CompilationResult;
+import org.apache.sling.commons.compiler.CompilationUnit;
+import org.apache.sling.commons.compiler.JavaCompiler;
+import org.apache.sling.commons.compiler.Options;
+import org.apache.sling.commons.compiler.impl.EclipseJavaCompiler;
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+
+/**
+ * An IO provider and class loader writer keeping all files in memory, so
+ * compilations do not depend on the speed of a repository or disk.
+ *
+ * Sources are added with {@link #put(String, String)}, everything written
+ * by the compiler is dropped by {@link #reset()}, which also replaces the
+ * class loader, so the same pages can be compiled and loaded again.
+ */
+final class InMemoryIOProvider implements IOProvider, ClassLoaderWriter {
+
+    private static final class File {
+
+        final byte[] content;
+
+        final long lastModified;
+
+        File(final byte[] content, final long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Map<String, File> sources = new ConcurrentHashMap<String, File>();
+
+    private final Map<String, File> generated = new ConcurrentHashMap<String, File>();
+
+    private final JavaCompiler javaCompiler;
+
+    private volatile ClassLoader classLoader;
+
+    /**
+     * @param javaCompiler The compiler for the generated sources
+     */
+    InMemoryIOProvider(final JavaCompiler javaCompiler) {
+        this.javaCompiler = javaCompiler;
+        reset();
+    }
+
+    /**
+     * Creates a provider compiling with the JDT compiler of the commons
+     * compiler.
+     */
+    static InMemoryIOProvider withCompiler() {
+        final ClassLoaderSettingCompiler compiler = new ClassLoaderSettingCompiler();
+        compiler.files = new InMemoryIOProvider(compiler);
+        return compiler.files;
+    }
+
+    /**
+     * Adds a source file.
+     */
+    void put(final String path, final String content) {
+        sources.put(path, new File(content.getBytes(StandardCharsets.UTF_8), System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops all generated files and the classes loaded from them.
+     */
+    void reset() {
+        generated.clear();
+        classLoader = new GeneratedClassLoader(InMemoryIOProvider.class.getClassLoader());
+    }
+
+    /**
+     * Returns the paths of the source files directly below a folder, folders
+     * ending with a slash, like {@link javax.servlet.ServletContext#getResourcePaths(String)}.
+     */
+    Set<String> getResourcePaths(final String path) {
+        final String prefix = path.endsWith("/") ? path : path + '/';
+        final Set<String> result = new TreeSet<String>();
+        for(final String name : sources.keySet()) {
+            if ( name.startsWith(prefix) ) {
+                final int slash = name.indexOf('/', prefix.length());
+                result.add(slash == -1 ? name : name.substring(0, slash + 1));
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private File get(final String path) {
+        final File file = generated.get(path);
+        return file != null ? file : sources.get(path);
+    }
+
+    // ---------- IOProvider
+
+    @Override
+    public OutputStream getOutputStream(final String fileName) {
+        return new ByteArrayOutputStream() {
+
+            @Override
+            public void close() {
+                generated.put(fileName, new File(toByteArray(), System.currentTimeMillis()));
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream(final String fileName) throws FileNotFoundException {
+        final File file = get(fileName);
+        if ( file == null ) {
+            throw new FileNotFoundException(fileName);
+        }
+        return new ByteArrayInputStream(file.content);
+    }
+
+    @Override
+    public boolean delete(final String fileName) {
+        return generated.remove(fileName) != null;
+    }
+
+    @Override
+    public boolean rename(final String oldFileName, final String newFileName) {
+        final File file = generated.remove(oldFileName);
+        if ( file == null ) {
+            return false;
+        }
+        generated.put(newFileName, file);
+        return true;
+    }
+
+    @Override
+    public boolean mkdirs(final String path) {
+        return true;
+    }
+
+    @Override
+    public long lastModified(final String fileName) {
+        final File file = get(fileName);
+        return file == null ? -1 : file.lastModified;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    @Override
+    public JavaCompiler getJavaCompiler() {
+        return javaCompiler;
+    }
+
+    @Override
+    public ClassLoaderWriter getClassLoaderWriter() {
+        return this;
+    }
+
+    // ---------- ClassLoaderWriter
+
+    @Override
+    public long getLastModified(final String path) {
+        return lastModified(path);
+    }
+
+    /**
+     * Loads the classes written to the provider, and everything else from
+     * the class path of the benchmarks.
+     */
+    private final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final File file = generated.get('/' + name.replace('.', '/') + ".class");
+            if ( file == null ) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, file.content, 0, file.content.length);
+        }
+
+        @Override
+        public InputStream getResourceAsStream(final String name) {
+            // the Java compiler reads the classes of compiled tag files
+            final File file = generated.get(name.startsWith("/") ? name : '/' + name);
+            if ( file != null ) {
+                return new ByteArrayInputStream(file.content);
+            }
+            return super.getResourceAsStream(name);
+        }
+    }
+
+    /**
+     * The JDT compiler of the commons compiler, loading the classes the
+     * generated sources refer to from the class loader of the provider,
+     * which is otherwise taken from the class loader manager service.
+     */
+    private static final class ClassLoaderSettingCompiler implements JavaCompiler {
+
+        private final EclipseJavaCompiler delegate = new EclipseJavaCompiler();
+
+        private InMemoryIOProvider files;
+
+        @Override
+        public CompilationResult compile(final CompilationUnit[] units, final Options compileOptions) {
+            final Options o = new Options();
+            o.putAll(compileOptions);
+            o.put(Options.KEY_CLASS_LOADER, files.getClassLoader());
+            return delegate.compile(units, o);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl;
+import org.apache.sling.scripting.jsp.jasper.runtime.ServletResponseWrapperInclude;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a tree of nested includes, each writing some template text
+ * before and after including the next level, like nested components.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncludeBenchmark {
+
+    private static final String TEXT = "<div class=\"component\"><span>Some template text</span></div>\n";
+
+    /** The request attribute holding the response wrapper of an include. */
+    private static final String INCLUDE_RESPONSE = ServletResponseWrapperInclude.class.getName();
+
+    /** The number of nested includes. */
+    @Param({"1", "5", "20"})
+    public int depth;
+
+    /**
+     * Whether the includes use the include response wrapper and a factory
+     * letting the included page write into the buffer of the including page.
+     * Otherwise the writer of the including page is wrapped in a plain
+     * PrintWriter, which the included page buffers and copies.
+     */
+    @Param({"true", "false"})
+    public boolean writeThrough;
+
+    private PageFixture fixture;
+
+    private JspFactoryImpl factory;
+
+    private Servlet servlet;
+
+    @Setup
+    public void setUp() throws ServletException {
+        this.fixture = new PageFixture();
+        this.factory = new JspFactoryImpl(null, null, writeThrough);
+        this.servlet = fixture.init(new GenericServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                // not called
+            }
+        });
+    }
+
+    @Benchmark
+    public void render() throws IOException {
+        render(fixture.response, depth);
+    }
+
+    private void render(final HttpServletResponse response, final int level) throws IOException {
+        final PageContext pageContext = factory.getPageContext(servlet, fixture.request, response,
+                null, false, 8192, true);
+        try {
+            final JspWriter out = pageContext.getOut();
+            for (int i = 0; i < 4; i++) {
+                out.write(TEXT);
+            }
+            if (level > 0) {
+                // like JspRuntimeLibrary.include
+                final HttpServletResponse included = wrap(response, out);
+                final Object previous = fixture.request.getAttribute(INCLUDE_RESPONSE);
+                fixture.request.setAttribute(INCLUDE_RESPONSE, included);
+                try {
+                    render(included, level - 1);
+                } finally {
+                    fixture.request.setAttribute(INCLUDE_RESPONSE, previous);
+                }
+            }
+            for (int i = 0; i < 4; i++) {
+                out.write(TEXT);
+            }
+        } finally {
+            factory.releasePageContext(pageContext);
+        }
+    }
+
+    private HttpServletResponse wrap(final HttpServletResponse response, final JspWriter out) {
+        if (writeThrough) {
+            return new ServletResponseWrapperInclude(response, out);
+        }
+        final PrintWriter writer = new PrintWriter(out);
+        return new HttpServletResponseWrapper(response) {
+            @Override
+            public PrintWriter getWriter() {
+                return writer;
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.JspRuntimeLibrary;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspWriterImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing template text and values to the writer of a page.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JspWriterBenchmark {
+
+    private static final String TEXT = "<div class=\"item\"><span>Some template text</span></div>\n";
+
+    private static final char[] CHARS = TEXT.toCharArray();
+
+    private static final String VALUE = "Tom & Jerry's \"Show\" <live>";
+
+    /** The buffer size of the page, 0 for an unbuffered page. */
+    @Param({"8192", "0"})
+    public int bufferSize;
+
+    private JspWriterImpl out;
+
+    @Setup
+    public void setUp() {
+        this.out = new JspWriterImpl(ServletStubs.response(), bufferSize, true);
+    }
+
+    @Benchmark
+    public void writeString() throws IOException {
+        out.write(TEXT);
+    }
+
+    @Benchmark
+    public void writeChars() throws IOException {
+        out.write(CHARS, 0, CHARS.length);
+    }
+
+    @Benchmark
+    public void printInt() throws IOException {
+        out.print(1234567);
+    }
+
+    @Benchmark
+    public void writeEscaped() throws IOException {
+        JspRuntimeLibrary.writeEscapedXml(out, VALUE);
+    }
+
+    @Benchmark
+    public void writeEscapedString() throws IOException {
+        out.write(JspRuntimeLibrary.escapeXml(VALUE));
+    }
+
+    @Benchmark
+    public void writeAndFlush() throws IOException {
+        out.write(TEXT);
+        out.flush();
+    }
+}
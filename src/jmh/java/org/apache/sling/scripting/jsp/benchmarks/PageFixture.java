@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspFactory;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl;
+
+/**
+ * The servlet environment of a page: a servlet context, request and
+ * response, and the JSP factory installed as the default factory, which the
+ * pages use like generated servlets do.
+ */
+final class PageFixture {
+
+    /** The factory of all benchmarks, installed once. */
+    static final JspFactoryImpl FACTORY = new JspFactoryImpl();
+
+    static {
+        JspFactory.setDefaultFactory(FACTORY);
+    }
+
+    final ServletContext servletContext = ServletStubs.servletContext();
+
+    final HttpServletRequest request = ServletStubs.request();
+
+    final HttpServletResponse response = ServletStubs.response();
+
+    final ServletConfig servletConfig;
+
+    PageFixture() {
+        this(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param initParameters The init parameters of the servlets
+     */
+    PageFixture(final Map<String, String> initParameters) {
+        this.servletConfig = ServletStubs.servletConfig(servletContext, initParameters);
+    }
+
+    /**
+     * Create and initialize a servlet.
+     */
+    <T extends Servlet> T init(final T servlet) throws ServletException {
+        servlet.init(servletConfig);
+        return servlet;
+    }
+
+    /**
+     * Get a page context for an empty servlet, like at the start of a page.
+     */
+    PageContext getPageContext() throws ServletException {
+        final Servlet servlet = init(new GenericServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                // not called
+            }
+        });
+        return FACTORY.getPageContext(servlet, request, response, null, false, 8192, true);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.HttpJspBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering complete pages: getting the page context, writing the output,
+ * evaluating expressions, running tags and releasing the page context.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"static", "expression", "tag"})
+    public String page;
+
+    private PageFixture fixture;
+
+    private HttpJspBase servlet;
+
+    @Setup
+    public void setUp() throws ServletException {
+        this.fixture = new PageFixture();
+        if ( "static".equals(page) ) {
+            this.servlet = fixture.init(new BenchmarkPages.StaticTextPage());
+        } else if ( "expression".equals(page) ) {
+            this.servlet = fixture.init(new BenchmarkPages.ExpressionPage());
+        } else {
+            this.servlet = fixture.init(new BenchmarkPages.TagPage());
+        }
+        fixture.request.setAttribute("title", "A title");
+        fixture.request.setAttribute("text", "Lorem ipsum dolor sit amet");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.servlet.destroy();
+    }
+
+    @Benchmark
+    public void render() throws ServletException, IOException {
+        servlet.service(fixture.request, fixture.response);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.FileNotFoundException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet objects for the benchmarks. They are dynamic proxies
+ * keeping their attributes in a map, so unlike mocks they do not record
+ * the calls made while measuring. Unknown methods return {@code null},
+ * {@code false} or 0.
+ */
+final class ServletStubs {
+
+    private ServletStubs() {
+        // static methods only
+    }
+
+    static ServletContext servletContext() {
+        return create(ServletContext.class, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * A servlet context serving its resources from the given provider.
+     */
+    static ServletContext servletContext(final InMemoryIOProvider resources) {
+        return (ServletContext) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[] {ServletContext.class}, new Handler(Collections.<String, Object>emptyMap()) {
+                    @Override
+                    Object invoke(final String name, final Object[] args) {
+                        if ( "getResourceAsStream".equals(name) ) {
+                            try {
+                                return resources.getInputStream((String) args[0]);
+                            } catch (final FileNotFoundException fnfe) {
+                                return null;
+                            }
+                        }
+                        if ( "getResourcePaths".equals(name) ) {
+                            return resources.getResourcePaths((String) args[0]);
+                        }
+                        return super.invoke(name, args);
+                    }
+                });
+    }
+
+    /**
+     * @param initParameters The init parameters of the servlet, like the
+     *                       tag handler pool options
+     */
+    static ServletConfig servletConfig(final ServletContext context,
+            final Map<String, String> initParameters) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getServletContext", context);
+        values.put("getServletName", "benchmark");
+        return (ServletConfig) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[] {ServletConfig.class}, new Handler(values) {
+                    @Override
+                    Object invoke(final String name, final Object[] args) {
+                        if ( "getInitParameter".equals(name) ) {
+                            return initParameters.get(args[0]);
+                        }
+                        if ( "getInitParameterNames".equals(name) ) {
+                            return Collections.enumeration(initParameters.keySet());
+                        }
+                        return super.invoke(name, args);
+                    }
+                });
+    }
+
+    static HttpServletRequest request() {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getMethod", "GET");
+        values.put("getCharacterEncoding", "UTF-8");
+        return create(HttpServletRequest.class, values);
+    }
+
+    /**
+     * A response discarding its output.
+     */
+    static HttpServletResponse response() {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getWriter", new PrintWriter(new NullWriter()));
+        values.put("getCharacterEncoding", "UTF-8");
+        values.put("getBufferSize", 8192);
+        return create(HttpServletResponse.class, values);
+    }
+
+    /**
+     * A response discarding its output, which encodes the characters
+     * written to its writer in UTF-8 like a servlet container does.
+     */
+    static HttpServletResponse encodingResponse() {
+        final NullOutputStream stream = new NullOutputStream();
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getWriter", new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)));
+        values.put("getOutputStream", stream);
+        values.put("getCharacterEncoding", "UTF-8");
+        values.put("getBufferSize", 8192);
+        return create(HttpServletResponse.class, values);
+    }
+
+    private static <T> T create(final Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[] {type}, new Handler(values)));
+    }
+
+    private static class Handler implements InvocationHandler {
+
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private final Map<String, Object> values;
+
+        Handler(final Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            final String name = method.getName();
+            if ( "equals".equals(name) ) {
+                return proxy == args[0];
+            }
+            if ( "hashCode".equals(name) ) {
+                return System.identityHashCode(proxy);
+            }
+            final Object result = invoke(name, args);
+            if ( result == null && method.getReturnType().isPrimitive() ) {
+                return defaultValue(method.getReturnType());
+            }
+            return result;
+        }
+
+        Object invoke(final String name, final Object[] args) {
+            if ( "getAttribute".equals(name) ) {
+                return attributes.get(args[0]);
+            }
+            if ( "setAttribute".equals(name) ) {
+                if ( args[1] == null ) {
+                    attributes.remove(args[0]);
+                } else {
+                    attributes.put((String) args[0], args[1]);
+                }
+                return null;
+            }
+            if ( "removeAttribute".equals(name) ) {
+                attributes.remove(args[0]);
+                return null;
+            }
+            if ( "getAttributeNames".equals(name) ) {
+                return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+            }
+            if ( "toString".equals(name) ) {
+                return "stub";
+            }
+            return values.get(name);
+        }
+
+        private static Object defaultValue(final Class<?> type) {
+            if ( type == boolean.class ) {
+                return Boolean.FALSE;
+            }
+            if ( type == long.class ) {
+                return 0L;
+            }
+            if ( type == char.class ) {
+                return (char) 0;
+            }
+            if ( type == short.class ) {
+                return (short) 0;
+            }
+            if ( type == byte.class ) {
+                return (byte) 0;
+            }
+            if ( type == float.class ) {
+                return 0f;
+            }
+            if ( type == double.class ) {
+                return 0d;
+            }
+            if ( type == void.class ) {
+                return null;
+            }
+            return 0;
+        }
+    }
+
+    private static final class NullWriter extends Writer {
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            // discard
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            // discard
+        }
+
+        @Override
+        public void flush() {
+            // nothing to flush
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    private static final class NullOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(final int b) {
+            // discard
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            // discard
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            // never blocks
+        }
+    }
+}
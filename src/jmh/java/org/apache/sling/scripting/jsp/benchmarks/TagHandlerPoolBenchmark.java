@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Getting and returning tag handlers, by a single thread and by threads
+ * rendering the same page at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagHandlerPoolBenchmark {
+
+    @Param({"org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool",
+            "org.apache.sling.scripting.jsp.jasper.runtime.ConcurrentTagHandlerPool"})
+    public String tagpoolClassName;
+
+    private TagHandlerPool pool;
+
+    @Setup
+    public void setUp() {
+        final PageFixture fixture = new PageFixture(
+                Collections.singletonMap(TagHandlerPool.OPTION_TAGPOOL, tagpoolClassName));
+        this.pool = TagHandlerPool.getTagHandlerPool(fixture.servletConfig);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.release();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Tag getReuse() throws JspException {
+        return getAndReuse();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Tag getReuseContended() throws JspException {
+        return getAndReuse();
+    }
+
+    private Tag getAndReuse() throws JspException {
+        final Tag tag = pool.get(PooledTag.class);
+        pool.reuse(tag);
+        return tag;
+    }
+
+    public static class PooledTag extends TagSupport {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+
+import org.apache.sling.scripting.jsp.JspServletOptions;
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.apache.sling.scripting.jsp.jasper.compiler.TagPluginManager;
+import org.apache.sling.scripting.jsp.jasper.runtime.HttpJspBase;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.core.ForEach;
+import org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.core.If;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a compiled page with a loop and a condition in the loop, with
+ * the tags invoked as pooled tag handlers or replaced by the inline code of
+ * the JSTL tag plugins. The plugins are registered for stand-ins of the
+ * JSTL tags, which behave like them for the attributes used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagPluginBenchmark {
+
+    private static final String PAGE = "/apps/benchmark/plugins.jsp";
+
+    private static final String TLD = "/WEB-INF/tlds/core.tld";
+
+    private static final int ITEMS = 50;
+
+    /** Whether the tags are compiled by the tag plugins. */
+    @Param({"true", "false"})
+    public boolean enableTagPlugins;
+
+    private PageFixture fixture;
+
+    private JspRuntimeContext runtimeContext;
+
+    private HttpJspBase servlet;
+
+    @Setup
+    public void setUp() throws Exception {
+        final InMemoryIOProvider files = InMemoryIOProvider.withCompiler();
+        files.put(TLD, TLD_CONTENT);
+        files.put(PAGE, PAGE_CONTENT);
+        final ServletContext servletContext = ServletStubs.servletContext(files);
+        final Map<String, Object> config = new HashMap<String, Object>();
+        config.put("jasper.enableTagPlugins", String.valueOf(enableTagPlugins));
+        config.put("jasper.keepgenerated", "false");
+        final JspServletOptions options = new JspServletOptions(servletContext, files, config,
+                new CompileBenchmark.NoTldLocationsCache(), false);
+        final TagPluginManager plugins = options.getTagPluginManager();
+        plugins.addTagPlugin(IfTag.class.getName(), new If());
+        plugins.addTagPlugin(ForEachTag.class.getName(), new ForEach());
+
+        this.runtimeContext = new JspRuntimeContext(servletContext, options, files);
+        this.fixture = new PageFixture();
+        final JspServletWrapper wrapper = new JspServletWrapper(
+                ServletStubs.servletConfig(servletContext, new HashMap<String, String>()), options,
+                PAGE, false, runtimeContext);
+        final JasperException ex = wrapper.compile();
+        if ( ex != null ) {
+            throw ex;
+        }
+        this.servlet = fixture.init((HttpJspBase) wrapper.getJspEngineContext().load()
+                .getDeclaredConstructor().newInstance());
+
+        final List<String> items = new ArrayList<String>();
+        for(int i = 0; i < ITEMS; i++) {
+            items.add(i % 3 == 0 ? "" : "Item " + i);
+        }
+        fixture.request.setAttribute("items", items);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.servlet.destroy();
+        this.runtimeContext.destroy();
+    }
+
+    /**
+     * Renders the page, which runs the loop body and the condition
+     * {@value #ITEMS} times.
+     */
+    @Benchmark
+    public void render() throws ServletException, IOException {
+        servlet.service(fixture.request, fixture.response);
+    }
+
+    private static final String PAGE_CONTENT =
+            "<%@ page contentType=\"text/html; charset=UTF-8\" pageEncoding=\"UTF-8\" %>\n"
+            + "<%@ taglib prefix=\"c\" uri=\"" + TLD + "\" %>\n"
+            + "<ul>\n"
+            + "<c:forEach items=\"${requestScope.items}\" var=\"item\">\n"
+            + "  <c:if test=\"${not empty item}\"><li>${item}</li></c:if>\n"
+            + "</c:forEach>\n"
+            + "</ul>\n";
+
+    private static final String TLD_CONTENT =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<taglib xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.1\">\n"
+            + "  <tlib-version>1.0</tlib-version>\n"
+            + "  <short-name>c</short-name>\n"
+            + "  <tag>\n"
+            + "    <name>if</name>\n"
+            + "    <tag-class>" + IfTag.class.getName() + "</tag-class>\n"
+            + "    <body-content>JSP</body-content>\n"
+            + "    <attribute>\n"
+            + "      <name>test</name>\n"
+            + "      <required>true</required>\n"
+            + "      <rtexprvalue>true</rtexprvalue>\n"
+            + "      <type>boolean</type>\n"
+            + "    </attribute>\n"
+            + "  </tag>\n"
+            + "  <tag>\n"
+            + "    <name>forEach</name>\n"
+            + "    <tag-class>" + ForEachTag.class.getName() + "</tag-class>\n"
+            + "    <body-content>JSP</body-content>\n"
+            + "    <attribute>\n"
+            + "      <name>items</name>\n"
+            + "      <rtexprvalue>true</rtexprvalue>\n"
+            + "      <type>java.lang.Object</type>\n"
+            + "    </attribute>\n"
+            + "    <attribute>\n"
+            + "      <name>var</name>\n"
+            + "    </attribute>\n"
+            + "  </tag>\n"
+            + "</taglib>\n";
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.EncodedText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a page of mostly template text to a response which encodes its
+ * output, with the template text written as strings like by default or
+ * pre-encoded like with the genStrAsByteArray option.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateTextBenchmark {
+
+    private static final String TEXT = "<div class=\"component\">\n  <span class=\"title\">Template text \u00e4\u00f6\u00fc</span>\n  <span class=\"value\">";
+
+    private static final String END = "</span>\n</div>\n";
+
+    private static final EncodedText ENCODED_TEXT = new EncodedText(TEXT, "UTF-8");
+
+    private static final EncodedText ENCODED_END = new EncodedText(END, "UTF-8");
+
+    /** Whether the template text is written pre-encoded. */
+    @Param({"true", "false"})
+    public boolean encoded;
+
+    private final HttpServletResponse response = ServletStubs.encodingResponse();
+
+    private PageFixture fixture;
+
+    private Servlet servlet;
+
+    @Setup
+    public void setUp() throws ServletException {
+        this.fixture = new PageFixture();
+        this.servlet = fixture.init(new GenericServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                // not called
+            }
+        });
+    }
+
+    @Benchmark
+    public void render() throws IOException {
+        final PageContext pageContext = PageFixture.FACTORY.getPageContext(servlet, fixture.request, response,
+                null, false, 8192, true);
+        try {
+            final JspWriter out = pageContext.getOut();
+            for (int i = 0; i < 200; i++) {
+                if (encoded) {
+                    ENCODED_TEXT.write(out);
+                    out.print(i);
+                    ENCODED_END.write(out);
+                } else {
+                    out.write(TEXT);
+                    out.print(i);
+                    out.write(END);
+                }
+            }
+        } finally {
+            PageFixture.FACTORY.releasePageContext(pageContext);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>JspFreshnessReconciler</code> periodically compares the
+ * modification times of the loaded JSPs with the ones of their classes.
+ *
+ * If the freshness of JSPs is based on the reported changes, a change
+ * which is not reported leaves the JSP outdated. Outdated JSPs found by
+ * the reconciler are handled like a reported change.
+ */
+class JspFreshnessReconciler implements Runnable {
+
+    /** The sub service used to read the JSPs. */
+    static final String SUBSERVICE = "reconcile";
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(JspFreshnessReconciler.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final SlingIOProvider ioProvider;
+
+    private final ClassLoader classLoader;
+
+    private final Supplier<JspRuntimeContext> contextProvider;
+
+    private final Consumer<String> changeHandler;
+
+    private final ScheduledExecutorService executor;
+
+    private volatile boolean stopped;
+
+    JspFreshnessReconciler(final ResourceResolverFactory resourceResolverFactory,
+            final SlingIOProvider ioProvider,
+            final ClassLoader classLoader,
+            final Supplier<JspRuntimeContext> contextProvider,
+            final Consumer<String> changeHandler) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.ioProvider = ioProvider;
+        this.classLoader = classLoader;
+        this.contextProvider = contextProvider;
+        this.changeHandler = changeHandler;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "Apache Sling JSP Freshness Reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start reconciling periodically.
+     * @param interval The interval in seconds
+     */
+    void start(final long interval) {
+        this.executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop reconciling.
+     */
+    void stop() {
+        this.stopped = true;
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        final JspRuntimeContext rctxt = this.contextProvider.get();
+        if ( rctxt == null ) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final List<String> outdated = new ArrayList<>();
+        int checked = 0;
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(this.classLoader);
+        try (final ResourceResolver resolver = this.resourceResolverFactory.getServiceResourceResolver(
+                Collections.<String, Object>singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE))) {
+            final ResourceResolver oldResolver = this.ioProvider.setRequestResourceResolver(resolver);
+            try {
+                for(final JspServletWrapper wrapper : rctxt.getWrappers()) {
+                    if ( stopped ) {
+                        return;
+                    }
+                    if ( !wrapper.isTagFile() && wrapper.isLoaded() ) {
+                        checked++;
+                        if ( wrapper.isStale() ) {
+                            outdated.add(wrapper.getJspUri());
+                        }
+                    }
+                }
+            } finally {
+                this.ioProvider.resetRequestResourceResolver(oldResolver);
+            }
+        } catch ( final LoginException le ) {
+            log.warn("Unable to reconcile JSPs, no service resource resolver available for sub service {}: {}",
+                    SUBSERVICE, le.getMessage());
+            return;
+        } catch ( final RuntimeException re ) {
+            log.warn("Unable to reconcile JSPs", re);
+            return;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+
+        for(final String jspUri : outdated) {
+            log.info("JSP {} has been changed without notification, invalidating it", jspUri);
+            this.changeHandler.accept(jspUri);
+        }
+        log.debug("Reconciled {} JSPs in {} ms, {} outdated", checked,
+                System.currentTimeMillis() - start, outdated.size());
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileQueue;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspMetrics;
+import org.apache.sling.scripting.jsp.jasper.runtime.PageContextPool;
+import org.apache.sling.scripting.jsp.jasper.runtime.ScriptMetrics;
+import org.apache.sling.scripting.jsp.jasper.runtime.TimeHistogram;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The <code>JspMonitor</code> makes the {@link JspMetrics} available as an
+ * MBean and as a web console configuration printer, which also lists the
+ * statistics of every script and of the current runtime context.
+ */
+public class JspMonitor implements JspMonitorMBean {
+
+    /** The object name of the MBean. */
+    static final String OBJECT_NAME = "org.apache.sling.scripting.jsp:type=JspMonitor";
+
+    private final JspMetrics metrics;
+
+    private final PageContextPool pageContextPool;
+
+    private final Supplier<JspRuntimeContext> runtimeContext;
+
+    private final List<ServiceRegistration<?>> registrations = new ArrayList<>();
+
+    /**
+     * @param metrics The metrics
+     * @param pageContextPool The pool of page contexts, might be {@code null}
+     * @param runtimeContext Supplies the current runtime context, which
+     *                       might be {@code null}
+     */
+    JspMonitor(final JspMetrics metrics,
+            final PageContextPool pageContextPool,
+            final Supplier<JspRuntimeContext> runtimeContext) {
+        this.metrics = metrics;
+        this.pageContextPool = pageContextPool;
+        this.runtimeContext = runtimeContext;
+    }
+
+    /**
+     * Register the MBean and the configuration printer.
+     */
+    void register(final BundleContext context) {
+        final Dictionary<String, Object> printerProperties = new Hashtable<>();
+        printerProperties.put("felix.webconsole.label", "jspmetrics");
+        printerProperties.put("felix.webconsole.title", "JSP Metrics");
+        printerProperties.put("felix.webconsole.configprinter.modes", "always");
+        registrations.add(context.registerService(Object.class.getName(), this, printerProperties));
+
+        final Dictionary<String, Object> mbeanProperties = new Hashtable<>();
+        mbeanProperties.put("jmx.objectname", OBJECT_NAME);
+        registrations.add(context.registerService(JspMonitorMBean.class.getName(), this, mbeanProperties));
+    }
+
+    /**
+     * Unregister the MBean and the configuration printer.
+     */
+    void unregister() {
+        for(final ServiceRegistration<?> reg : registrations) {
+            reg.unregister();
+        }
+        registrations.clear();
+    }
+
+    // ---------- JspMonitorMBean ----------------------------------------------
+
+    @Override
+    public int getJspCount() {
+        return metrics.getLoadedCount();
+    }
+
+    @Override
+    public long getJspReloadCount() {
+        return metrics.getReloadCount();
+    }
+
+    @Override
+    public long getRenderCount() {
+        return metrics.getRenderCount();
+    }
+
+    @Override
+    public long getRenderTime() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getRenderTime());
+    }
+
+    @Override
+    public long getRenderFailureCount() {
+        return metrics.getRenderFailureCount();
+    }
+
+    @Override
+    public long getCompileCount() {
+        return metrics.getCompileCount();
+    }
+
+    @Override
+    public long getCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(metrics.getCompileTime());
+    }
+
+    @Override
+    public long getCompileFailureCount() {
+        return metrics.getCompileFailureCount();
+    }
+
+    @Override
+    public double getTagHandlerHitRate() {
+        final long hits = metrics.getTagHandlerHitCount();
+        final long total = hits + metrics.getTagHandlerMissCount();
+        return total == 0 ? 0 : 100.0 * hits / total;
+    }
+
+    @Override
+    public long getBufferOverflowCount() {
+        return metrics.getBufferOverflowCount();
+    }
+
+    @Override
+    public void reset() {
+        metrics.reset();
+    }
+
+    // ---------- Configuration printer ----------------------------------------
+
+    public void printConfiguration(final PrintWriter pw) {
+        pw.println("JSP Metrics:");
+        pw.printf("  Loaded JSPs: %s (reloads: %s)\n", getJspCount(), getJspReloadCount());
+        pw.printf("  Renders: %s (failures: %s, time: %sms)\n", getRenderCount(),
+                getRenderFailureCount(), getRenderTime());
+        pw.printf("  Compilations: %s (failures: %s, time: %sms)\n", getCompileCount(),
+                getCompileFailureCount(), getCompileTime());
+        pw.printf("  Tag handlers: %s pooled, %s created (hit rate: %.1f%%)\n",
+                metrics.getTagHandlerHitCount(), metrics.getTagHandlerMissCount(), getTagHandlerHitRate());
+        pw.printf("  Page buffer overflows: %s\n", getBufferOverflowCount());
+        if ( pageContextPool != null ) {
+            pw.printf("  Page contexts: %s pooled, %s created, %s discarded\n",
+                    pageContextPool.getHitCount(), pageContextPool.getMissCount(),
+                    pageContextPool.getDiscardCount());
+        }
+
+        final JspRuntimeContext rctxt = runtimeContext.get();
+        if ( rctxt != null ) {
+            pw.println();
+            pw.println("Current runtime context:");
+            pw.printf("  Compile phases: %s\n", rctxt.getCompileTimings());
+            pw.printf("  Stale pages: %s\n", rctxt.getStaleStatistics());
+            final CompileQueue queue = rctxt.getCompileQueue();
+            if ( queue != null ) {
+                pw.printf("  Compile queue: %s\n", queue);
+            }
+        }
+
+        final List<ScriptMetrics> scripts = metrics.getScriptMetrics();
+        scripts.sort((a, b) -> Long.compare(b.getRenderTime(), a.getRenderTime()));
+        pw.println();
+        pw.println("Scripts by render time:");
+        for(final ScriptMetrics script : scripts) {
+            final TimeHistogram times = script.getRenderTimes();
+            pw.printf("  %s - renders: %s (failures: %s, time: %sms, p50: %s, p90: %s, p99: %s),"
+                    + " compilations: %s (failures: %s, time: %sms), reloads: %s\n",
+                    script.getPath(),
+                    script.getRenderCount(), script.getRenderFailureCount(),
+                    TimeUnit.NANOSECONDS.toMillis(script.getRenderTime()),
+                    formatBound(times.getPercentile(50)),
+                    formatBound(times.getPercentile(90)),
+                    formatBound(times.getPercentile(99)),
+                    script.getCompileCount(), script.getCompileFailureCount(),
+                    TimeUnit.NANOSECONDS.toMillis(script.getCompileTime()),
+                    script.getReloadCount());
+        }
+    }
+
+    /**
+     * Format the upper bound of a histogram bucket.
+     */
+    private static String formatBound(final long micros) {
+        if ( micros == 0 ) {
+            return "-";
+        }
+        if ( micros == Long.MAX_VALUE ) {
+            return ">" + TimeUnit.MICROSECONDS.toMillis(TimeHistogram.getUpperBound(TimeHistogram.BUCKETS - 2)) + "ms";
+        }
+        if ( micros < 1000 ) {
+            return "<" + micros + "us";
+        }
+        return "<" + TimeUnit.MICROSECONDS.toMillis(micros) + "ms";
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+/**
+ * Management interface of the {@link JspMonitor}. Times are in
+ * milliseconds.
+ */
+public interface JspMonitorMBean {
+
+    /** The number of JSPs whose servlet has been loaded. */
+    int getJspCount();
+
+    /** The number of JSP servlets which have been loaded again. */
+    long getJspReloadCount();
+
+    /** The number of requests rendered by JSPs. */
+    long getRenderCount();
+
+    /** The total time spent rendering requests. */
+    long getRenderTime();
+
+    /** The number of requests for which a JSP threw an exception. */
+    long getRenderFailureCount();
+
+    /** The number of compiled JSPs and tag files. */
+    long getCompileCount();
+
+    /** The total time spent compiling. */
+    long getCompileTime();
+
+    /** The number of failed compilations. */
+    long getCompileFailureCount();
+
+    /** The percentage of tag handlers taken from the pools. */
+    double getTagHandlerHitRate();
+
+    /** The number of times a page buffer was full before the page was done. */
+    long getBufferOverflowCount();
+
+    /** Resets all statistics. */
+    void reset();
+}
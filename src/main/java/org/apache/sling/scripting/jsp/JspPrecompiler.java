@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>JspPrecompiler</code> compiles all JSPs below a set of search
+ * paths in the background, so that the first requests do not have to.
+ *
+ * The pages are compiled through their wrappers while holding the wrapper
+ * monitor, so a request for a page being compiled waits for it instead of
+ * compiling it again. Tag files are compiled together with the pages using
+ * them, guarded by the tag file locks of the runtime context.
+ */
+class JspPrecompiler implements Runnable {
+
+    /** The sub service used to read the JSPs. */
+    static final String SUBSERVICE = "precompile";
+
+    private static final int PROGRESS_STEPS = 10;
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(JspPrecompiler.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final SlingIOProvider ioProvider;
+
+    private final ClassLoader classLoader;
+
+    private final Function<String, JspServletWrapper> wrapperProvider;
+
+    private final String[] searchPaths;
+
+    private final ForkJoinPool pool;
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile boolean stopped;
+
+    JspPrecompiler(final ResourceResolverFactory resourceResolverFactory,
+            final SlingIOProvider ioProvider,
+            final ClassLoader classLoader,
+            final Function<String, JspServletWrapper> wrapperProvider,
+            final String[] searchPaths,
+            final int parallelism) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.ioProvider = ioProvider;
+        this.classLoader = classLoader;
+        this.wrapperProvider = wrapperProvider;
+        this.searchPaths = searchPaths;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Start the precompilation in a background thread.
+     */
+    void start() {
+        final Thread t = new Thread(this, "Apache Sling JSP Precompiler");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Stop the precompilation, pages being compiled are finished.
+     */
+    void stop() {
+        this.stopped = true;
+        this.pool.shutdown();
+    }
+
+    @Override
+    public void run() {
+        final long start = System.currentTimeMillis();
+        final List<String> scripts;
+        try {
+            scripts = this.findScripts();
+        } catch ( final LoginException le ) {
+            log.warn("Unable to precompile JSPs, no service resource resolver available for sub service {}: {}",
+                    SUBSERVICE, le.getMessage());
+            return;
+        }
+        log.info("Precompiling {} JSPs below {}", scripts.size(), (Object) searchPaths);
+
+        final int step = Math.max(1, scripts.size() / PROGRESS_STEPS);
+        for(final String script : scripts) {
+            try {
+                this.pool.execute(() -> {
+                    if ( !stopped ) {
+                        this.compile(script);
+                        final int count = processed.incrementAndGet();
+                        if ( count % step == 0 && count < scripts.size() ) {
+                            log.info("Precompiled {} of {} JSPs", count, scripts.size());
+                        }
+                    }
+                });
+            } catch ( final RejectedExecutionException ree ) {
+                // stopped concurrently
+                break;
+            }
+        }
+        this.pool.shutdown();
+        try {
+            this.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( stopped ) {
+            log.info("Precompilation stopped after {} of {} JSPs", processed.get(), scripts.size());
+        } else {
+            log.info("Precompiled {} JSPs in {} ms, {} failed", processed.get(),
+                    System.currentTimeMillis() - start, failed.get());
+        }
+    }
+
+    /**
+     * Find all JSPs below the search paths.
+     */
+    private List<String> findScripts() throws LoginException {
+        final List<String> scripts = new ArrayList<>();
+        try (final ResourceResolver resolver = this.getResourceResolver()) {
+            for(final String path : searchPaths) {
+                final Resource root = resolver.getResource(path);
+                if ( root != null ) {
+                    final List<Resource> pending = new ArrayList<>();
+                    pending.add(root);
+                    while ( !pending.isEmpty() && !stopped ) {
+                        final Resource current = pending.remove(pending.size() - 1);
+                        final String name = current.getName();
+                        if ( name.endsWith(".jsp") || name.endsWith(".jspx") ) {
+                            scripts.add(current.getPath());
+                        }
+                        final Iterator<Resource> children = current.listChildren();
+                        while ( children.hasNext() ) {
+                            pending.add(children.next());
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(scripts);
+        return scripts;
+    }
+
+    /**
+     * Compile a single page.
+     */
+    private void compile(final String script) {
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(this.classLoader);
+        try (final ResourceResolver resolver = this.getResourceResolver()) {
+            final ResourceResolver oldResolver = this.ioProvider.setRequestResourceResolver(resolver);
+            try {
+                final JasperException e = this.wrapperProvider.apply(script).compile();
+                if ( e != null ) {
+                    failed.incrementAndGet();
+                    log.warn("Unable to precompile {} : {}", script, e.getMessage());
+                }
+            } finally {
+                this.ioProvider.resetRequestResourceResolver(oldResolver);
+            }
+        } catch ( final LoginException | RuntimeException e ) {
+            failed.incrementAndGet();
+            log.warn("Unable to precompile " + script, e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    private ResourceResolver getResourceResolver() throws LoginException {
+        return this.resourceResolverFactory.getServiceResourceResolver(
+                Collections.<String, Object>singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+}
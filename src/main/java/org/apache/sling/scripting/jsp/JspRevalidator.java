@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>JspRevalidator</code> recompiles changed JSPs in the background
+ * while their previous servlet keeps serving requests.
+ *
+ * A wrapper is revalidated while holding its monitor, so a request which
+ * has served the previous servlet for too long waits for the running
+ * compilation instead of starting another one.
+ */
+class JspRevalidator implements Consumer<JspServletWrapper> {
+
+    /** The sub service used to read the JSPs. */
+    static final String SUBSERVICE = "revalidate";
+
+    /** Delay before a rejected compilation is tried again, in ms. */
+    private static final long RETRY_DELAY = 1000;
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(JspRevalidator.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final SlingIOProvider ioProvider;
+
+    private final ClassLoader classLoader;
+
+    private final ScheduledExecutorService executor;
+
+    JspRevalidator(final ResourceResolverFactory resourceResolverFactory,
+            final SlingIOProvider ioProvider,
+            final ClassLoader classLoader,
+            final int threads) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.ioProvider = ioProvider;
+        this.classLoader = classLoader;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            final Thread t = new Thread(r, "Apache Sling JSP Revalidator #" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Stop revalidating, pages being compiled are finished.
+     */
+    void stop() {
+        this.executor.shutdown();
+    }
+
+    @Override
+    public void accept(final JspServletWrapper wrapper) {
+        try {
+            this.executor.execute(() -> this.revalidate(wrapper));
+        } catch ( final RejectedExecutionException ree ) {
+            // stopped concurrently, the wrapper is discarded with its context
+        }
+    }
+
+    /**
+     * Revalidate a wrapper again, after too many pages were compiled.
+     */
+    private void retry(final JspServletWrapper wrapper) {
+        try {
+            this.executor.schedule(() -> this.revalidate(wrapper), RETRY_DELAY, TimeUnit.MILLISECONDS);
+        } catch ( final RejectedExecutionException ree ) {
+            // stopped concurrently, the wrapper is discarded with its context
+        }
+    }
+
+    /**
+     * Recompile a single page.
+     */
+    private void revalidate(final JspServletWrapper wrapper) {
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(this.classLoader);
+        try (final ResourceResolver resolver = this.getResourceResolver()) {
+            final ResourceResolver oldResolver = this.ioProvider.setRequestResourceResolver(resolver);
+            try {
+                if ( !wrapper.revalidate() ) {
+                    this.retry(wrapper);
+                }
+            } finally {
+                this.ioProvider.resetRequestResourceResolver(oldResolver);
+            }
+        } catch ( final LoginException le ) {
+            log.warn("Unable to revalidate {}, no service resource resolver available for sub service {}: {}",
+                    wrapper.getJspUri(), SUBSERVICE, le.getMessage());
+        } catch ( final RuntimeException e ) {
+            log.warn("Unable to revalidate " + wrapper.getJspUri(), e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    private ResourceResolver getResourceResolver() throws LoginException {
+        return this.resourceResolverFactory.getServiceResourceResolver(
+                Collections.<String, Object>singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE));
+    }
+}
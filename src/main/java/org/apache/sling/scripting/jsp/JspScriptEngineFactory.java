@@ -22,8 +22,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.Bindings;
 import javax.script.ScriptContext;
@@ -33,6 +36,7 @@ import javax.servlet.ServletContext;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
@@ -47,10 +51,16 @@ import org.apache.sling.commons.compiler.JavaCompiler;
 import org.apache.sling.scripting.api.AbstractScriptEngineFactory;
 import org.apache.sling.scripting.api.AbstractSlingScriptEngine;
 import org.apache.sling.scripting.api.resource.ScriptingResourceResolverProvider;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileQueue;
+import org.apache.sling.scripting.jsp.jasper.compiler.FreshnessIndex;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext.JspFactoryHandler;
+import org.apache.sling.scripting.jsp.jasper.compiler.TagPluginManager;
+import org.apache.sling.scripting.jsp.jasper.compiler.tagplugin.TagPlugin;
 import org.apache.sling.scripting.jsp.jasper.runtime.AnnotationProcessor;
 import org.apache.sling.scripting.jsp.jasper.runtime.JspApplicationContextImpl;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspMetrics;
+import org.apache.sling.scripting.jsp.jasper.runtime.PageContextPool;
 import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -126,6 +136,12 @@ public class JspScriptEngineFactory
                         "enabled. true or false, default true.")
         boolean jasper_enablePooling() default true;
 
+        @AttributeDefinition(name = "Tag Plugins",
+                description = "Determines whether tag plugins generate Java code for the " +
+                        "JSTL core tags and the tags of registered tag plugin services in place " +
+                        "of invoking their tag handlers. true or false, default true.")
+        boolean jasper_enableTagPlugins() default true;
+
         @AttributeDefinition(name = "Plugin Class-ID",
                 description = "The class-id value to be sent to Internet " +
                       "Explorer when using <jsp:plugin> tags. Default " +
@@ -137,6 +153,33 @@ public class JspScriptEngineFactory
                       "char arrays, to improve performance in some cases? Default false.")
         boolean jasper_genStringAsCharArray() default false;
 
+        @AttributeDefinition(name = "Byte Array Strings",
+                description = "Should text strings be generated encoded in the charset " +
+                      "of the page, to write them to the response as bytes? This is only " +
+                      "done for pages which are not included and only if the response " +
+                      "writer has not been used yet. The writer of the response given to " +
+                      "the page then appends to the page output, but other code must not " +
+                      "use the writer of the original response after such a page, as the " +
+                      "servlet API forbids using both the writer and the output stream. " +
+                      "Default false.")
+        boolean jasper_genStrAsByteArray() default false;
+
+        @AttributeDefinition(name = "EL Expression Fields",
+                description = "Should EL expressions be parsed once into static " +
+                      "fields of the generated class instead of on every evaluation? Default false.")
+        boolean jasper_genELExpressionFields() default false;
+
+        @AttributeDefinition(name = "Compile In Memory",
+                description = "Should the generated Java source be compiled from memory? It is " +
+                      "only written if it is kept. Default false.")
+        boolean jasper_compileInMemory() default false;
+
+        @AttributeDefinition(name = "Batch Compilation",
+                description = "Should the Java sources of pages compiled at the same time be " +
+                      "compiled with a single compiler invocation? Compilations wait for " +
+                      "each other if enabled. Default false.")
+        boolean jasper_batchCompilation() default false;
+
         @AttributeDefinition(name = "Keep Generated Java",
                 description = "Should we keep the generated Java source " +
                     "code for each page instead of deleting it? true or false, default true.")
@@ -162,6 +205,102 @@ public class JspScriptEngineFactory
                     "JSP page? Warning - this behavior may produce unintended results and changing " +
                     "it will not impact previously-compiled pages.")
         boolean default_is_session() default true;
+
+        @AttributeDefinition(name = "Fine-grained Invalidation",
+                description = "If enabled, a changed script only invalidates the compiled JSPs " +
+                    "depending on it and all other loaded JSPs keep on using their classes. If disabled, " +
+                    "all loaded JSPs are discarded on a change. Default false.")
+        boolean fine_grained_invalidation() default false;
+
+        @AttributeDefinition(name = "Page Context Pool Size",
+                description = "Maximum number of released page contexts kept for reuse by " +
+                    "later requests, which saves allocating their writer buffers. 0 disables " +
+                    "pooling. Default 0.")
+        int page_context_pool_size() default 0;
+
+        @AttributeDefinition(name = "Page Context Pool Buffer Limit",
+                description = "Page contexts whose writers hold buffers of more than this " +
+                    "number of characters in total are not pooled. Default 65536.")
+        int page_context_pool_max_buffer_size() default PageContextPool.DEFAULT_MAX_BUFFER_SIZE;
+
+        @AttributeDefinition(name = "Include Write-Through",
+                description = "If enabled, an included JSP writes its output straight into the " +
+                    "buffer of the including page instead of buffering it itself, unless it declares " +
+                    "a larger buffer. clear() in the included JSP then fails as soon as the buffer " +
+                    "of the including page has been flushed, even if the output of the included JSP " +
+                    "alone would have fit into its own buffer. Default false.")
+        boolean include_write_through() default false;
+
+        @AttributeDefinition(name = "Precompile Paths",
+                description = "JSPs below these paths are compiled in the background when the " +
+                    "JSP support is started, instead of by the first request for them. This requires " +
+                    "a service user mapping for the sub service \"" + JspPrecompiler.SUBSERVICE + "\". " +
+                    "Empty by default.")
+        String[] precompile_paths() default {};
+
+        @AttributeDefinition(name = "Precompile Parallelism",
+                description = "The number of JSPs which are precompiled at the same time. " +
+                    "0 uses the number of processors. Default 0.")
+        int precompile_parallelism() default 0;
+
+        @AttributeDefinition(name = "Trust Change Events",
+                description = "If enabled, the freshness of compiled JSPs is determined by the " +
+                    "reported resource changes instead of the modification times of the JSPs and " +
+                    "their dependencies. Default false.")
+        boolean trust_change_events() default false;
+
+        @AttributeDefinition(name = "Reconciliation Interval",
+                description = "If change events are trusted, the modification times of the loaded " +
+                    "JSPs are compared to their classes in this interval in seconds, to catch changes " +
+                    "which have not been reported. This requires a service user mapping for the sub " +
+                    "service \"" + JspFreshnessReconciler.SUBSERVICE + "\". 0 disables it. Default 300.")
+        int reconciliation_interval() default 300;
+
+        @AttributeDefinition(name = "Include Cache Size",
+                description = "Maximum number of statically included files whose detected encoding " +
+                    "and decoded content are kept for compiling the next pages including them. " +
+                    "0 disables the cache. Default 0.")
+        int include_cache_size() default 0;
+
+        @AttributeDefinition(name = "Serve Stale JSPs",
+                description = "If enabled together with fine-grained invalidation, a changed JSP is " +
+                    "recompiled in the background while its previous version keeps serving requests. " +
+                    "This requires a service user mapping for the sub service \"" + JspRevalidator.SUBSERVICE +
+                    "\". Default false.")
+        boolean serve_stale() default false;
+
+        @AttributeDefinition(name = "Maximum Staleness",
+                description = "Once the previous version of a changed JSP has been served for this " +
+                    "number of seconds, requests wait for its recompilation. 0 serves it until the " +
+                    "recompilation is done. Default 60.")
+        int max_staleness() default 60;
+
+        @AttributeDefinition(name = "Revalidation Threads",
+                description = "The number of changed JSPs which are recompiled in the background at " +
+                    "the same time. Default 1.")
+        int revalidation_threads() default 1;
+
+        @AttributeDefinition(name = "Compilation Concurrency",
+                description = "The number of JSPs which are compiled at the same time. Further " +
+                    "compilations wait in a queue, a compilation of a JSP which is already being " +
+                    "compiled waits for its result. 0 does not limit the compilations. Default 0.")
+        int compile_concurrency() default 0;
+
+        @AttributeDefinition(name = "Compilation Queue Size",
+                description = "The number of compilations which wait for one of the running " +
+                    "compilations, further ones are rejected. 0 does not limit the queue. Default 0.")
+        int compile_queue_size() default 0;
+
+        @AttributeDefinition(name = "Compilation Queue Timeout",
+                description = "A compilation which waited this number of seconds in the queue is " +
+                    "rejected. 0 waits until it can run. Default 0.")
+        int compile_queue_timeout() default 0;
+
+        @AttributeDefinition(name = "Reject Queued Compilations",
+                description = "If enabled, compilations are rejected right away instead of waiting " +
+                    "in the queue when the maximum number of JSPs is compiled. A rejected JSP is " +
+                    "compiled again by the next request for it. Default false.")
+        boolean compile_fail_fast() default false;
     }
 
     /** Default logger */
@@ -182,6 +321,9 @@ public class JspScriptEngineFactory
     @Reference
     private ScriptingResourceResolverProvider scriptingResourceResolverProvider;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    private volatile ResourceResolverFactory resourceResolverFactory;
+
     private DynamicClassLoaderManager dynamicClassLoaderManager;
 
     private ClassLoader dynamicClassLoader;
@@ -200,6 +342,45 @@ public class JspScriptEngineFactory
     /** The handler for the jsp factories. */
     private JspFactoryHandler jspFactoryHandler;
 
+    /** The statistics of the scripts. */
+    private JspMetrics metrics;
+
+    /** Exposes the statistics. */
+    private JspMonitor monitor;
+
+    /** Only invalidate the affected jsps on a change? */
+    private volatile boolean fineGrainedInvalidation;
+
+    /** The running precompilation, if any. */
+    private JspPrecompiler precompiler;
+
+    /** The reported changes, if change events are trusted. */
+    private volatile FreshnessIndex freshnessIndex;
+
+    /** The periodic reconciliation, if any. */
+    private JspFreshnessReconciler reconciler;
+
+    /** The maximum number of cached included files. */
+    private volatile int includeCacheSize;
+
+    /** Recompiles changed JSPs in the background, if enabled. */
+    private volatile JspRevalidator revalidator;
+
+    /** How long a changed JSP is served by its previous version in ms. */
+    private volatile long maxStaleness;
+
+    /** Limits the concurrent compilations, if configured. */
+    private volatile CompileQueue compileQueue;
+
+    /**
+     * The tag plugin services with the names of their tag handler classes,
+     * in the order they have been bound.
+     */
+    private final Map<TagPlugin, String[]> tagPlugins = new LinkedHashMap<>();
+
+    /** The tag plugin manager while active, guarded by the tag plugins. */
+    private TagPluginManager tagPluginManager;
+
     public static final String[] SCRIPT_TYPE = { "jsp", "jspf", "jspx" };
 
     public static final String[] NAMES = { "jsp", "JSP" };
@@ -250,14 +431,17 @@ public class JspScriptEngineFactory
 
     	JspServletWrapper wrapper = rctxt.getWrapper(scriptName);
         if (wrapper != null) {
-            if ( wrapper.isValid() ) {
+            // with fine-grained invalidation, changed jsps have already been
+            // removed from the context and recompiling them does not affect
+            // the others, only a refreshed parent class loader does
+            if ( wrapper.isValid(this.fineGrainedInvalidation) ) {
                 return wrapper;
             }
             synchronized ( this ) {
                 rctxt = this.getJspRuntimeContext();
                 wrapper = rctxt.getWrapper(scriptName);
                 if ( wrapper != null ) {
-                    if ( wrapper.isValid() ) {
+                    if ( wrapper.isValid(this.fineGrainedInvalidation) ) {
                         return wrapper;
                     }
                     this.renewJspRuntimeContext();
@@ -288,7 +472,23 @@ public class JspScriptEngineFactory
         Thread.currentThread().setContextClassLoader(this.dynamicClassLoader);
 
         try {
-            this.jspFactoryHandler = JspRuntimeContext.initFactoryHandler();
+            final PageContextPool pageContextPool = config.page_context_pool_size() > 0
+                    ? new PageContextPool(config.page_context_pool_size(), config.page_context_pool_max_buffer_size())
+                    : null;
+            this.metrics = new JspMetrics();
+            this.jspFactoryHandler = JspRuntimeContext.initFactoryHandler(pageContextPool, this.metrics,
+                    config.include_write_through());
+            // the tag handler pools find the metrics like the annotation processor
+            slingServletContext.setAttribute(JspMetrics.class.getName(), this.metrics);
+            this.monitor = new JspMonitor(this.metrics, pageContextPool, () -> this.jspRuntimeContext);
+
+            this.fineGrainedInvalidation = config.fine_grained_invalidation();
+            this.freshnessIndex = config.trust_change_events() ? new FreshnessIndex() : null;
+            this.includeCacheSize = config.include_cache_size();
+            this.compileQueue = config.compile_concurrency() > 0
+                    ? new CompileQueue(config.compile_concurrency(), config.compile_queue_size(),
+                            TimeUnit.SECONDS.toMillis(config.compile_queue_timeout()), config.compile_fail_fast())
+                    : null;
 
             this.tldLocationsCache = new SlingTldLocationsCache(bundleContext);
 
@@ -304,6 +504,11 @@ public class JspScriptEngineFactory
 
             servletConfig = new JspServletConfig(jspServletContext, options.getProperties());
 
+            synchronized ( this.tagPlugins ) {
+                this.tagPluginManager = options.getTagPluginManager();
+                this.registerTagPlugins();
+            }
+
             this.precompiledJSPRunner = new PrecompiledJSPRunner(options);
 
         } finally {
@@ -315,6 +520,39 @@ public class JspScriptEngineFactory
         // check for changes in jasper config
         this.checkJasperConfig();
 
+        this.monitor.register(bundleContext);
+
+        final ResourceResolverFactory rrf = this.resourceResolverFactory;
+        if ( config.serve_stale() ) {
+            if ( !this.fineGrainedInvalidation ) {
+                logger.warn("Serving stale JSPs requires fine-grained invalidation, changed JSPs are discarded");
+            } else if ( rrf == null ) {
+                logger.warn("Unable to revalidate JSPs, no resource resolver factory available");
+            } else {
+                this.maxStaleness = TimeUnit.SECONDS.toMillis(Math.max(0, config.max_staleness()));
+                this.revalidator = new JspRevalidator(rrf, ioProvider, dynamicClassLoader,
+                        config.revalidation_threads());
+            }
+        }
+        if ( config.precompile_paths().length > 0 ) {
+            if ( rrf == null ) {
+                logger.warn("Unable to precompile JSPs, no resource resolver factory available");
+            } else {
+                this.precompiler = new JspPrecompiler(rrf, ioProvider, dynamicClassLoader,
+                        this::getJspWrapper, config.precompile_paths(), config.precompile_parallelism());
+                this.precompiler.start();
+            }
+        }
+        if ( this.freshnessIndex != null && config.reconciliation_interval() > 0 ) {
+            if ( rrf == null ) {
+                logger.warn("Unable to reconcile JSPs, no resource resolver factory available");
+            } else {
+                this.reconciler = new JspFreshnessReconciler(rrf, ioProvider, dynamicClassLoader,
+                        () -> this.jspRuntimeContext, path -> this.handleChange(path, false));
+                this.reconciler.start(config.reconciliation_interval());
+            }
+        }
+
         logger.info("Activating Apache Sling Script Engine for JSP with options {}", options.getProperties());
         logger.debug("IMPORTANT: Do not modify the generated servlet classes directly");
     }
@@ -325,6 +563,25 @@ public class JspScriptEngineFactory
     @Deactivate
     protected void deactivate(final BundleContext bundleContext) {
         logger.info("Deactivating Apache Sling Script Engine for JSP");
+        synchronized ( this.tagPlugins ) {
+            this.tagPluginManager = null;
+        }
+        if ( this.monitor != null ) {
+            this.monitor.unregister();
+            this.monitor = null;
+        }
+        if ( this.precompiler != null ) {
+            this.precompiler.stop();
+            this.precompiler = null;
+        }
+        if ( this.reconciler != null ) {
+            this.reconciler.stop();
+            this.reconciler = null;
+        }
+        if ( this.revalidator != null ) {
+            this.revalidator.stop();
+            this.revalidator = null;
+        }
         if ( this.precompiledJSPRunner != null ) {
             this.precompiledJSPRunner.cleanup();
             this.precompiledJSPRunner = null;
@@ -341,6 +598,10 @@ public class JspScriptEngineFactory
         ioProvider = null;
         this.jspFactoryHandler.destroy();
         this.jspFactoryHandler = null;
+        if ( slingServletContext != null ) {
+            slingServletContext.removeAttribute(JspMetrics.class.getName());
+        }
+        this.metrics = null;
     }
 
     private static final String CONFIG_PATH = "/jsp.config";
@@ -408,6 +669,7 @@ public class JspScriptEngineFactory
             if (slingServletContext != null) {
                 slingServletContext.removeAttribute(JspApplicationContextImpl.class.getName());
                 slingServletContext.removeAttribute(AnnotationProcessor.class.getName());
+                slingServletContext.removeAttribute(JspMetrics.class.getName());
             }
         } catch (NullPointerException npe) {
             // SLING-530, might be thrown on system shutdown in a servlet
@@ -422,6 +684,77 @@ public class JspScriptEngineFactory
         }
     }
 
+    /**
+     * Bind a tag plugin service. Pages compiled before are compiled again to
+     * apply the plugin.
+     *
+     * @param plugin The plugin
+     * @param props The service properties with the tag handler class names
+     */
+    @Reference(service = TagPlugin.class, cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC)
+    protected void bindTagPlugin(final TagPlugin plugin, final Map<String, Object> props) {
+        final Object value = props.get(TagPlugin.TAG_CLASS);
+        final String[] tagClasses = value instanceof String ? new String[] {(String)value}
+            : value instanceof String[] ? (String[])value : new String[0];
+        if ( tagClasses.length == 0 ) {
+            logger.warn("Ignoring tag plugin {} without property {}", plugin, TagPlugin.TAG_CLASS);
+            return;
+        }
+        synchronized ( this.tagPlugins ) {
+            this.tagPlugins.put(plugin, tagClasses);
+            if ( this.tagPluginManager != null ) {
+                this.registerTagPlugins();
+                this.tagPluginsChanged();
+            }
+        }
+    }
+
+    /**
+     * Unbind a tag plugin service. Pages compiled with the plugin are
+     * compiled again.
+     *
+     * @param plugin The plugin
+     */
+    protected void unbindTagPlugin(final TagPlugin plugin) {
+        synchronized ( this.tagPlugins ) {
+            final String[] tagClasses = this.tagPlugins.remove(plugin);
+            if ( tagClasses != null && this.tagPluginManager != null ) {
+                this.registerTagPlugins();
+                this.tagPluginsChanged();
+            }
+        }
+    }
+
+    /**
+     * Register the bound tag plugins with the manager. A plugin bound later
+     * replaces one bound before for the same tag handler class, which is
+     * used again once the later one is unbound.
+     */
+    private void registerTagPlugins() {
+        final Map<String, TagPlugin> plugins = new HashMap<>();
+        for(final Map.Entry<TagPlugin, String[]> entry : this.tagPlugins.entrySet()) {
+            for(final String tagClass : entry.getValue()) {
+                plugins.put(tagClass, entry.getKey());
+            }
+        }
+        this.tagPluginManager.setTagPlugins(plugins);
+    }
+
+    /**
+     * Remove all class files and renew the runtime context, as the
+     * generated code of the pages depends on the tag plugins.
+     */
+    private void tagPluginsChanged() {
+        if ( this.tagPluginManager.isEnabled() ) {
+            logger.info("Removing all class files due to tag plugin change");
+            this.classLoaderWriter.delete("/org/apache/jsp");
+            if ( this.jspRuntimeContext != null ) {
+                this.renewJspRuntimeContext();
+            }
+        }
+    }
+
     /**
      * Bind the class load provider.
      *
@@ -621,6 +954,11 @@ public class JspScriptEngineFactory
                     // Initialize the JSP Runtime Context
                     this.jspRuntimeContext = new JspRuntimeContext(slingServletContext,
                         options, ioProvider);
+                    this.jspRuntimeContext.setFreshnessIndex(this.freshnessIndex);
+                    this.jspRuntimeContext.setIncludeCacheSize(this.includeCacheSize);
+                    this.jspRuntimeContext.setRevalidator(this.revalidator, this.maxStaleness);
+                    this.jspRuntimeContext.setCompileQueue(this.compileQueue);
+                    this.jspRuntimeContext.setMetrics(this.metrics);
                 }
             }
         }
@@ -630,13 +968,37 @@ public class JspScriptEngineFactory
     @Override
 	public void onChange(final List<ResourceChange> changes) {
     	for(final ResourceChange change : changes){
-            final JspRuntimeContext rctxt = this.jspRuntimeContext;
-            if ( rctxt != null && rctxt.handleModification(change.getPath(), change.getType() == ChangeType.REMOVED) ) {
-                renewJspRuntimeContext();
-            }
+            this.handleChange(change.getPath(), change.getType() == ChangeType.REMOVED);
     	}
     }
 
+    /**
+     * Handle a changed or removed script.
+     */
+    private void handleChange(final String path, final boolean isRemove) {
+        final FreshnessIndex index = this.freshnessIndex;
+        if ( index != null ) {
+            if ( isRemove ) {
+                index.removed(path);
+            } else {
+                index.changed(path);
+            }
+        }
+        final JspMetrics scriptMetrics = this.metrics;
+        if ( scriptMetrics != null && isRemove ) {
+            scriptMetrics.removed(path);
+        }
+        final SlingTldLocationsCache tldCache = this.tldLocationsCache;
+        if ( tldCache != null && path.endsWith(".tld") ) {
+            tldCache.removeParsedTld(path);
+        }
+        final JspRuntimeContext rctxt = this.jspRuntimeContext;
+        if ( rctxt != null && rctxt.handleModification(path, isRemove)
+             && !this.fineGrainedInvalidation ) {
+            renewJspRuntimeContext();
+        }
+    }
+
     /**
      * Renew the jsp runtime context.
      * A new context is created, the old context is destroyed in the background
@@ -97,6 +97,31 @@ public class JspServletOptions implements Options {
      */
     private boolean genStringAsCharArray = false;
 
+    /**
+     * Are Text strings to be generated encoded in the charset of the page?
+     */
+    private boolean genStringAsByteArray = false;
+
+    /**
+     * Are EL expressions to be parsed once into static fields?
+     */
+    private boolean genELExpressionFields = false;
+
+    /**
+     * Are tag plugins to be applied?
+     */
+    private boolean enableTagPlugins = true;
+
+    /**
+     * Is the generated source compiled from memory?
+     */
+    private boolean compileInMemory = false;
+
+    /**
+     * Are concurrent compilations batched?
+     */
+    private boolean batchCompilation = false;
+
     private boolean errorOnUseBeanInvalidClassAttribute = true;
 
     private boolean defaultIsSession = false;
@@ -230,6 +255,38 @@ public class JspServletOptions implements Options {
         return this.genStringAsCharArray;
     }
 
+    /**
+     * Are Text strings to be generated encoded in the charset of the page?
+     */
+    @Override
+    public boolean genStringAsByteArray() {
+        return this.genStringAsByteArray;
+    }
+
+    /**
+     * Are EL expressions to be parsed once into static fields?
+     */
+    @Override
+    public boolean genELExpressionFields() {
+        return this.genELExpressionFields;
+    }
+
+    /**
+     * Is the generated source compiled from memory?
+     */
+    @Override
+    public boolean getCompileInMemory() {
+        return this.compileInMemory;
+    }
+
+    /**
+     * Are concurrent compilations batched?
+     */
+    @Override
+    public boolean getBatchCompilation() {
+        return this.batchCompilation;
+    }
+
     /**
      * Class ID for use in the plugin tag when the browser is IE.
      */
@@ -489,6 +546,71 @@ public class JspServletOptions implements Options {
             }
         }
 
+        String genByteArray = getProperty("genStrAsByteArray");
+        if (genByteArray != null) {
+            if (genByteArray.equalsIgnoreCase("true")) {
+                this.genStringAsByteArray = true;
+            } else if (genByteArray.equalsIgnoreCase("false")) {
+                this.genStringAsByteArray = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.genbytearray"));
+                }
+            }
+        }
+
+        String genELFields = getProperty("genELExpressionFields");
+        if (genELFields != null) {
+            if (genELFields.equalsIgnoreCase("true")) {
+                this.genELExpressionFields = true;
+            } else if (genELFields.equalsIgnoreCase("false")) {
+                this.genELExpressionFields = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.genELExpressionFields"));
+                }
+            }
+        }
+
+        String tagPlugins = getProperty("enableTagPlugins");
+        if (tagPlugins != null) {
+            if (tagPlugins.equalsIgnoreCase("true")) {
+                this.enableTagPlugins = true;
+            } else if (tagPlugins.equalsIgnoreCase("false")) {
+                this.enableTagPlugins = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.enableTagPlugins"));
+                }
+            }
+        }
+
+        String inMemory = getProperty("compileInMemory");
+        if (inMemory != null) {
+            if (inMemory.equalsIgnoreCase("true")) {
+                this.compileInMemory = true;
+            } else if (inMemory.equalsIgnoreCase("false")) {
+                this.compileInMemory = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.compileInMemory"));
+                }
+            }
+        }
+
+        String batch = getProperty("batchCompilation");
+        if (batch != null) {
+            if (batch.equalsIgnoreCase("true")) {
+                this.batchCompilation = true;
+            } else if (batch.equalsIgnoreCase("false")) {
+                this.batchCompilation = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.batchCompilation"));
+                }
+            }
+        }
+
         String errBeanClass = getProperty("errorOnUseBeanInvalidClassAttribute");
         if (errBeanClass != null) {
             if (errBeanClass.equalsIgnoreCase("true")) {
@@ -558,7 +680,7 @@ public class JspServletOptions implements Options {
         this.jspConfig = new JspConfig(servletContext);
 
         // Create a Tag plugin instance
-        this.tagPluginManager = new TagPluginManager(servletContext);
+        this.tagPluginManager = new TagPluginManager(servletContext, this.enableTagPlugins);
     }
 
     @Override
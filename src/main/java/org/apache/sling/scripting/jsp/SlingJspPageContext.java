@@ -65,6 +65,13 @@ public class SlingJspPageContext extends PageContext {
         elContext.putContext(JspContext.class, this);
     }
 
+    /**
+     * Returns the wrapped page context.
+     */
+    public PageContext getWrappedPageContext() {
+        return wrapped;
+    }
+
     @Override
     public void initialize(Servlet servlet, ServletRequest servletRequest, ServletResponse servletResponse, String s, boolean b, int i,
                            boolean b1) throws IOException, IllegalStateException, IllegalArgumentException {
@@ -134,6 +134,7 @@ public class SlingTldLocationsCache
                 synchronized (tldLocations) {
                     if (uri != null && !tldLocations.containsKey(uri)) {
                         tldLocations.put(uri, new TldLocationEntry(bundle, taglib));
+                        removeParsedTld(TLD_SCHEME + uri);
                     }
                 }
             }
@@ -147,6 +148,7 @@ public class SlingTldLocationsCache
                 final Map.Entry<String, TldLocationEntry> entry = i.next();
                 if (entry.getValue().getBundleId() == bundle.getBundleId()) {
                     i.remove();
+                    removeParsedTld(TLD_SCHEME + entry.getKey());
                 }
             }
         }
@@ -204,6 +206,10 @@ public class SlingTldLocationsCache
         for (final Map.Entry<String, String> entry : taglibs.entrySet()) {
             pw.printf("  %s - %s\n", entry.getKey(), entry.getValue());
         }
+
+        pw.println();
+        pw.printf("Parsed TLDs: %s (hits: %s, misses: %s)\n", getParsedTldCount(),
+                getParsedTldHitCount(), getParsedTldMissCount());
     }
 
 
@@ -31,11 +31,14 @@ import javax.servlet.ServletContext;
 import javax.servlet.jsp.tagext.TagInfo;
 
 import org.apache.sling.commons.compiler.source.JavaEscapeHelper;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileQueue;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
 import org.apache.sling.scripting.jsp.jasper.compiler.Compiler;
 import org.apache.sling.scripting.jsp.jasper.compiler.JDTCompiler;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
 import org.apache.sling.scripting.jsp.jasper.compiler.Localizer;
 import org.apache.sling.scripting.jsp.jasper.compiler.ServletWriter;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspMetrics;
 
 /**
  * A place holder for various things that are used through out the JSP
@@ -497,6 +500,27 @@ public class JspCompilationContext {
     // ==================== Compile and reload ====================
 
     public JasperException compile() {
+        final CompileQueue queue = getRuntimeContext().getCompileQueue();
+        if ( queue == null ) {
+            return this.compileNow();
+        }
+        // the prototype of a tag file is a different compilation
+        final String key = isPrototypeMode() ? getClassName() + "#prototype" : getClassName();
+        return queue.compile(key, this::compileNow);
+    }
+
+    private JasperException compileNow() {
+        final JspMetrics metrics = getRuntimeContext().getMetrics();
+        if ( metrics == null || isPrototypeMode() ) {
+            return this.compileScript();
+        }
+        final long start = System.nanoTime();
+        final JasperException ex = this.compileScript();
+        metrics.getScriptMetrics(jspUri).addCompile(System.nanoTime() - start, ex != null);
+        return ex;
+    }
+
+    private JasperException compileScript() {
         final Compiler c = createCompiler();
         try {
             c.removeGeneratedFiles();
@@ -536,7 +560,9 @@ public class JspCompilationContext {
     throws JasperException {
         try {
             final String name = this.getClassName();
+            final long start = System.nanoTime();
             final Class<?> servletClass = getClassLoader().loadClass(name);
+            getRuntimeContext().getCompileTimings().add(Phase.CLASS_LOAD, System.nanoTime() - start);
             return servletClass;
         } catch (ClassNotFoundException cex) {
             throw new JasperException(Localizer.getMessage("jsp.error.unable.load"),
@@ -159,5 +159,29 @@ public interface Options {
      */
     public boolean genStringAsCharArray();
 
+    /**
+     * Are Text strings to be generated encoded in the charset of the page,
+     * so that they can be written to the response as bytes?
+     */
+    public boolean genStringAsByteArray();
+
+    /**
+     * Are EL expressions to be parsed once into static fields of the
+     * generated class instead of being parsed on evaluation?
+     */
+    public boolean genELExpressionFields();
+
+    /**
+     * Is the generated servlet source compiled from memory instead of
+     * being written and read back through the IOProvider?
+     */
+    public boolean getCompileInMemory();
+
+    /**
+     * Are the generated servlet sources of concurrent compilations compiled
+     * with a single invocation of the Java compiler?
+     */
+    public boolean getBatchCompilation();
+
     boolean isDefaultSession();
 }
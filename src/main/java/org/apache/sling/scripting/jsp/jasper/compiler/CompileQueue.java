@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+
+/**
+ * Limits the number of pages compiled at the same time.
+ *
+ * A compilation runs on the calling thread, as it reads the sources with
+ * the resource resolver of that thread, once one of the slots is free.
+ * Until then it waits in a bounded queue, or it is rejected right away if
+ * the queue should not be used. A compilation of a page which is already
+ * compiled or queued is not run again, it waits for the running one and
+ * returns its result. Tag files compiled while compiling a page use the
+ * slot of the page.
+ */
+public final class CompileQueue {
+
+    /** Is the current thread compiling? */
+    private static final ThreadLocal<Boolean> COMPILING = new ThreadLocal<Boolean>();
+
+    private final Semaphore slots;
+
+    private final int maxQueued;
+
+    private final long maxWait;
+
+    private final boolean failFast;
+
+    /** The compilations which are running or queued by key. */
+    private final ConcurrentHashMap<String, Compilation> compilations = new ConcurrentHashMap<String, Compilation>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Long::max, 0);
+
+    private final LongAdder compileCount = new LongAdder();
+
+    private final LongAdder compileTime = new LongAdder();
+
+    private final LongAdder waitTime = new LongAdder();
+
+    private final LongAdder deduplicated = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param concurrency The number of pages compiled at the same time
+     * @param maxQueued The number of compilations waiting for a slot, 0 for no limit
+     * @param maxWait How long a compilation waits for a slot in milliseconds, 0 for no limit
+     * @param failFast Reject compilations instead of waiting for a slot
+     */
+    public CompileQueue(final int concurrency, final int maxQueued,
+            final long maxWait, final boolean failFast) {
+        this.slots = new Semaphore(Math.max(1, concurrency), true);
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Run a compilation unless the same one is already running.
+     *
+     * @param key Identifies the compiled page
+     * @param compilation Runs the compilation and returns its error
+     * @return The compile error or {@code null} if the page compiled
+     */
+    public JasperException compile(final String key, final Supplier<JasperException> compilation) {
+        if ( COMPILING.get() != null ) {
+            // a tag file of the page compiled by this thread
+            return compilation.get();
+        }
+        final Compilation own = new Compilation();
+        final Compilation running = compilations.putIfAbsent(key, own);
+        if ( running != null ) {
+            deduplicated.increment();
+            return running.await();
+        }
+        JasperException result = null;
+        try {
+            result = this.acquire(key);
+            if ( result == null ) {
+                final long start = System.nanoTime();
+                COMPILING.set(Boolean.TRUE);
+                try {
+                    result = compilation.get();
+                } catch ( final RuntimeException | Error e ) {
+                    result = new JasperException(Localizer.getMessage("jsp.error.unable.compile"), e);
+                    throw e;
+                } finally {
+                    COMPILING.remove();
+                    slots.release();
+                    compileCount.increment();
+                    compileTime.add(System.nanoTime() - start);
+                }
+            }
+            return result;
+        } finally {
+            compilations.remove(key, own);
+            own.done(result);
+        }
+    }
+
+    /**
+     * Wait for a slot.
+     *
+     * @return {@code null} if a slot has been acquired, the reason otherwise
+     */
+    private JasperException acquire(final String key) {
+        if ( slots.tryAcquire() ) {
+            return null;
+        }
+        if ( failFast ) {
+            return reject(key);
+        }
+        final int depth = queued.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+            maxQueueDepth.accumulate(depth);
+            if ( maxQueued > 0 && depth > maxQueued ) {
+                return reject(key);
+            }
+            if ( maxWait > 0 ) {
+                if ( !slots.tryAcquire(maxWait, TimeUnit.MILLISECONDS) ) {
+                    return reject(key);
+                }
+            } else {
+                slots.acquire();
+            }
+            return null;
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            return reject(key);
+        } finally {
+            queued.decrementAndGet();
+            waitTime.add(System.nanoTime() - start);
+        }
+    }
+
+    private JasperException reject(final String key) {
+        rejected.increment();
+        return new CompileRejectedException(Localizer.getMessage("jsp.error.compile.rejected", key));
+    }
+
+    /**
+     * Returns the number of compilations waiting for a slot.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the highest number of compilations which waited at the same time.
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of run compilations.
+     */
+    public long getCompileCount() {
+        return compileCount.sum();
+    }
+
+    /**
+     * Returns the total time of the run compilations in nanoseconds.
+     */
+    public long getCompileTime() {
+        return compileTime.sum();
+    }
+
+    /**
+     * Returns the total time compilations waited for a slot in nanoseconds.
+     */
+    public long getWaitTime() {
+        return waitTime.sum();
+    }
+
+    /**
+     * Returns the number of compilations which used the result of a
+     * running one.
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    /**
+     * Returns the number of rejected compilations.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "compiled=" + getCompileCount() + "/" + (getCompileTime() / 1000000) + "ms"
+                + ", waited=" + (getWaitTime() / 1000000) + "ms"
+                + ", queued=" + getQueueDepth() + "/" + getMaxQueueDepth()
+                + ", deduplicated=" + getDeduplicatedCount()
+                + ", rejected=" + getRejectedCount();
+    }
+
+    /**
+     * A running or queued compilation.
+     */
+    private static final class Compilation {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private volatile JasperException result;
+
+        void done(final JasperException result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        JasperException await() {
+            boolean interrupted = false;
+            while ( true ) {
+                try {
+                    latch.await();
+                    break;
+                } catch ( final InterruptedException ie ) {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulated time spent in the phases of compiling JSPs and tag files.
+ *
+ * The time of the tag file phase includes the complete compilation of the
+ * referenced tag files, which is recorded for their phases as well. Next to
+ * the times, the number of files read from the repository is counted.
+ */
+public final class CompileTimings {
+
+    /** The phases of a compilation, in the order they are run. */
+    public enum Phase {
+        /**
+         * Detecting the syntax and encoding of the page and its includes.
+         * This is part of the parse phase and counted per file.
+         */
+        ENCODING,
+        /** Parsing the page and its includes. */
+        PARSE,
+        /** Validating the page and processing its attributes. */
+        VALIDATE,
+        /** Collecting the page information. */
+        COLLECT,
+        /** Compiling and loading the referenced tag files. */
+        TAG_FILES,
+        /** Determining the scripting variables and applying the tag plugins. */
+        TAG_PLUGINS,
+        /** Concatenating contiguous template texts. */
+        TEXT_OPTIMIZE,
+        /** Generating the servlet source. */
+        GENERATE,
+        /** Writing the servlet source. */
+        WRITE_SOURCE,
+        /** Generating the source map. */
+        SMAP_GENERATE,
+        /** Compiling the servlet source. */
+        COMPILE,
+        /**
+         * Installing the source map into a class file. It is installed while
+         * the class is written, so this is part of the compile phase and
+         * counted per class.
+         */
+        SMAP_INSTALL,
+        /**
+         * Writing a class file to the class loader writer. This is part of
+         * the compile phase and counted per class.
+         */
+        CLASS_WRITE,
+        /** Loading the servlet class, counted whenever a servlet is loaded. */
+        CLASS_LOAD
+    }
+
+    private final LongAdder[] times = new LongAdder[Phase.values().length];
+
+    private final LongAdder[] counts = new LongAdder[Phase.values().length];
+
+    private final LongAdder sourceReads = new LongAdder();
+
+    public CompileTimings() {
+        for(int i = 0; i < times.length; i++) {
+            times[i] = new LongAdder();
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the time of a phase.
+     *
+     * @param phase The phase
+     * @param nanos The time spent in nanoseconds
+     */
+    public void add(final Phase phase, final long nanos) {
+        times[phase.ordinal()].add(nanos);
+        counts[phase.ordinal()].increment();
+    }
+
+    /**
+     * Records a file read from the repository while compiling.
+     */
+    public void addSourceRead() {
+        sourceReads.increment();
+    }
+
+    /**
+     * Returns the number of files read from the repository while compiling.
+     */
+    public long getSourceReadCount() {
+        return sourceReads.sum();
+    }
+
+    /**
+     * Returns the total time spent in a phase in nanoseconds.
+     */
+    public long getTime(final Phase phase) {
+        return times[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns how often a phase has been run.
+     */
+    public long getCount(final Phase phase) {
+        return counts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Resets all timings.
+     */
+    public void reset() {
+        for(int i = 0; i < times.length; i++) {
+            times[i].reset();
+            counts[i].reset();
+        }
+        sourceReads.reset();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for(final Phase phase : Phase.values()) {
+            if ( sb.length() > 0 ) {
+                sb.append(", ");
+            }
+            sb.append(phase.name().toLowerCase()).append('=');
+            sb.append(getTime(phase) / 1000000).append("ms/").append(getCount(phase));
+        }
+        sb.append(", reads=").append(getSourceReadCount());
+        return sb.toString();
+    }
+}
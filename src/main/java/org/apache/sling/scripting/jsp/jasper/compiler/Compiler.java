@@ -19,12 +19,18 @@ package org.apache.sling.scripting.jsp.jasper.compiler;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.sling.scripting.jsp.jasper.JasperException;
 import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
 import org.apache.sling.scripting.jsp.jasper.compiler.Node.CustomTag;
 
 /**
@@ -54,6 +60,15 @@ public abstract class Compiler {
 
     protected Node.Nodes pageNodes;
 
+    /** The line map replacing the page nodes once the page is compiled. */
+    private JavaLineMap javaLineMap;
+
+    /** The generated source if compiling in memory. */
+    protected String javaSource;
+
+    /** The bytes of the files read while compiling, by file. */
+    private Map<String, byte[]> sources;
+
     // ------------------------------------------------------------ Constructor
 
     public Compiler(final JspCompilationContext ctxt) {
@@ -65,14 +80,53 @@ public abstract class Compiler {
     /**
      * <p>
      * Retrieves the parsed nodes of the JSP page, if they are available. May
-     * return null. Used in development mode for generating detailed error
-     * messages. http://issues.apache.org/bugzilla/show_bug.cgi?id=37062.
+     * return null. They are only available while the page is compiled, for
+     * runtime errors see {@link #getJavaLineMap()}.
      * </p>
      */
     public Node.Nodes getPageNodes() {
         return this.pageNodes;
     }
 
+    /**
+     * Retrieves the map of the generated servlet lines to the lines of the
+     * JSP elements, once the page has been compiled. May return null. Used
+     * for mapping the lines of runtime errors.
+     */
+    public JavaLineMap getJavaLineMap() {
+        return this.javaLineMap;
+    }
+
+    /**
+     * Returns the generated servlet source if the page is compiled in
+     * memory and the compilation is in progress, {@code null} otherwise.
+     */
+    public String getJavaSource() {
+        return this.javaSource;
+    }
+
+    /**
+     * Are the bytes of the read files kept, that is is the page compiled?
+     */
+    boolean isKeepingSources() {
+        return this.sources != null;
+    }
+
+    /**
+     * Returns the bytes of a file read during this compilation.
+     */
+    byte[] getSource(final String key) {
+        return this.sources == null ? null : this.sources.get(key);
+    }
+
+    /**
+     * Keeps the bytes of a file read during this compilation.
+     */
+    void putSource(final String key, final byte[] source) {
+        this.sources.put(key, source);
+        ctxt.getRuntimeContext().getCompileTimings().addSourceRead();
+    }
+
     /**
      * Compile the jsp file into equivalent servlet in .java file
      *
@@ -83,13 +137,8 @@ public abstract class Compiler {
 
         String[] smapStr = null;
 
-        long t1, t2, t3, t4;
-
-        t1 = t2 = t3 = t4 = 0;
-
-        if (log.isDebugEnabled()) {
-            t1 = System.currentTimeMillis();
-        }
+        final long t1 = System.nanoTime();
+        long t = t1;
 
         // Setup page info area
         pageInfo = new PageInfo(new BeanRepository(ctxt.getClassLoader(),
@@ -129,21 +178,28 @@ public abstract class Compiler {
 
         ctxt.checkOutputDir();
         String javaFileName = ctxt.getServletJavaFileName();
+        final boolean inMemory = ctxt.getOptions().getCompileInMemory();
         ServletWriter writer = null;
+        StringWriter sourceWriter = null;
 
         try {
             // Setup the ServletWriter
             String javaEncoding = ctxt.getOptions().getJavaEncoding();
-            OutputStreamWriter osw = null;
+            Writer osw = null;
 
-            try {
-                osw = new OutputStreamWriter(
-                    ctxt.getOutputStream(javaFileName), javaEncoding);
-            } catch (UnsupportedEncodingException ex) {
-                errDispatcher.jspError("jsp.error.needAlternateJavaEncoding",
-                        javaEncoding);
-            } catch (IOException ioe) {
-                throw (IOException)new FileNotFoundException(ioe.getMessage()).initCause(ioe);
+            if (inMemory) {
+                sourceWriter = new StringWriter(8192);
+                osw = sourceWriter;
+            } else {
+                try {
+                    osw = new OutputStreamWriter(
+                        ctxt.getOutputStream(javaFileName), javaEncoding);
+                } catch (UnsupportedEncodingException ex) {
+                    errDispatcher.jspError("jsp.error.needAlternateJavaEncoding",
+                            javaEncoding);
+                } catch (IOException ioe) {
+                    throw (IOException)new FileNotFoundException(ioe.getMessage()).initCause(ioe);
+                }
             }
 
             writer = new ServletWriter(new PrintWriter(osw));
@@ -152,33 +208,33 @@ public abstract class Compiler {
             // Parse the file
             ParserController parserCtl = new ParserController(ctxt, this);
             pageNodes = parserCtl.parse(ctxt.getJspFile());
+            t = record(Phase.PARSE, t);
 
             if (ctxt.isPrototypeMode()) {
                 // generate prototype .java file for the tag file
                 Generator.generate(writer, this, pageNodes);
                 writer.close();
                 writer = null;
+                if (inMemory) {
+                    javaSource = sourceWriter.toString();
+                }
+                record(Phase.GENERATE, t);
                 return null;
             }
 
             // Validate and process attributes
             Validator.validate(this, pageNodes);
-
-            if (log.isDebugEnabled()) {
-                t2 = System.currentTimeMillis();
-            }
+            t = record(Phase.VALIDATE, t);
 
             // Collect page info
             Collector.collect(this, pageNodes);
+            t = record(Phase.COLLECT, t);
 
             // Compile (if necessary) and load the tag files referenced in
             // this compilation unit.
             tfp = new TagFileProcessor();
             tfp.loadTagFiles(this, pageNodes);
-
-            if (log.isDebugEnabled()) {
-                t3 = System.currentTimeMillis();
-            }
+            t = record(Phase.TAG_FILES, t);
 
             // Determine which custom tag needs to declare which scripting vars
             ScriptingVariabler.set(pageNodes, errDispatcher);
@@ -186,15 +242,18 @@ public abstract class Compiler {
             // Optimizations by Tag Plugins
             TagPluginManager tagPluginManager = this.ctxt.getOptions().getTagPluginManager();
             tagPluginManager.apply(pageNodes, errDispatcher, pageInfo);
+            t = record(Phase.TAG_PLUGINS, t);
 
             // Optimization: concatenate contiguous template texts.
             TextOptimizer.concatenate(this, pageNodes);
+            t = record(Phase.TEXT_OPTIMIZE, t);
 
             // Generate static function mapper codes.
             ELFunctionMapper.map(this, pageNodes);
 
             // generate servlet .java file
             Generator.generate(writer, this, pageNodes);
+            t = record(Phase.GENERATE, t);
 
             // we have to use a temporary variable in order to not
             // close the writer twice if close() throws an exception
@@ -207,10 +266,17 @@ public abstract class Compiler {
             // to be GC'd and save memory.
             ctxt.setWriter(null);
 
+            if (inMemory) {
+                javaSource = sourceWriter.toString();
+                if (ctxt.keepGenerated()) {
+                    writeJavaSource(javaFileName, javaSource);
+                }
+            }
+            t = record(Phase.WRITE_SOURCE, t);
+
             if (log.isDebugEnabled()) {
-                t4 = System.currentTimeMillis();
-                log.debug("Generated " + javaFileName + " total=" + (t4 - t1)
-                        + " generate=" + (t4 - t3) + " validate=" + (t2 - t1));
+                log.debug("Generated " + javaFileName + " total="
+                        + (t - t1) / 1000000 + "ms, files read=" + sources.size());
             }
 
         } catch (Exception e) {
@@ -223,7 +289,9 @@ public abstract class Compiler {
                 }
             }
             // Remove the generated .java file
-            ctxt.delete(javaFileName);
+            if (!inMemory) {
+                ctxt.delete(javaFileName);
+            }
             throw e;
         } finally {
             if (writer != null) {
@@ -237,7 +305,9 @@ public abstract class Compiler {
 
         // JSR45 Support
         if (!this.ctxt.getOptions().isSmapSuppressed()) {
+            final long start = System.nanoTime();
             smapStr = SmapUtil.generateSmap(ctxt, pageNodes);
+            record(Phase.SMAP_GENERATE, start);
         }
 
         tfp.removeProtoTypeFiles();
@@ -245,6 +315,38 @@ public abstract class Compiler {
         return smapStr;
     }
 
+    /**
+     * Writes the generated source, it is only kept for reference and not
+     * needed for the compilation. It is written before the compilation, so
+     * that removing the generated files after a failure removes it as well
+     * and error details can read it.
+     */
+    private void writeJavaSource(final String javaFileName, final String source) {
+        try {
+            final OutputStream os = ctxt.getOutputStream(javaFileName);
+            try {
+                os.write(source.getBytes(ctxt.getOptions().getJavaEncoding()));
+            } finally {
+                os.close();
+            }
+        } catch (final IOException ioe) {
+            log.warn("Unable to write " + javaFileName, ioe);
+        }
+    }
+
+    /**
+     * Records the time spent in a compilation phase.
+     *
+     * @param phase The phase
+     * @param start The start of the phase as returned by {@link System#nanoTime()}
+     * @return The end of the phase
+     */
+    protected long record(final Phase phase, final long start) {
+        final long end = System.nanoTime();
+        ctxt.getRuntimeContext().getCompileTimings().add(phase, end - start);
+        return end;
+    }
+
     /**
      * Compile the servlet from .java file to .class file
      */
@@ -288,6 +390,8 @@ public abstract class Compiler {
             this.errDispatcher = new ErrorDispatcher(jspcMode);
         }
 
+        this.sources = new HashMap<String, byte[]>();
+        this.javaLineMap = null;
         try {
             String[] smap = generateJava();
             if (compileClass) {
@@ -303,17 +407,24 @@ public abstract class Compiler {
             // memory footprint.
             tfp = null;
             errDispatcher = null;
+            javaSource = null;
+            sources = null;
             if (!jspcMode) {
                 pageInfo = null;
             }
 
-            // Only get rid of the pageNodes if in production.
-            // In development mode, they are used for detailed
-            // error messages.
+            // Replace the pageNodes by the line map, which is
+            // sufficient for detailed error messages at runtime.
             // http://issues.apache.org/bugzilla/show_bug.cgi?id=37062
-            //if (!this.options.getDevelopment()) {
-            //    pageNodes = null;
-            //}
+            if (!jspcMode && pageNodes != null) {
+                try {
+                    javaLineMap = JavaLineMap.create(pageNodes);
+                } catch (JasperException ignore) {
+                    // no line mapping for runtime errors
+                }
+                clean();
+                pageNodes = null;
+            }
 
             if (ctxt.getWriter() != null) {
                 ctxt.getWriter().close();
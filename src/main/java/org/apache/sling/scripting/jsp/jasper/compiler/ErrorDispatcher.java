@@ -562,6 +562,39 @@ public class ErrorDispatcher {
     }
 
 
+    /**
+     * Creates a JavacErrorDetail for a line of the generated servlet of a
+     * compiled page, for which only the line map is kept.
+     *
+     * @param fname
+     * @param lineMap The line map of the page, might be null
+     * @param errMsgBuf
+     * @param lineNum
+     * @param ctxt
+     * @return JavacErrorDetail The error details
+     */
+    public static JavacErrorDetail createJavacError(String fname,
+            JavaLineMap lineMap, StringBuffer errMsgBuf, int lineNum,
+            JspCompilationContext ctxt) {
+        if (lineMap != null) {
+            int index = lineMap.find(lineNum);
+            if (index >= 0 && lineMap.getJspFile(index) != null) {
+                return new JavacErrorDetail(
+                        fname,
+                        lineNum,
+                        lineMap.getJspFile(index),
+                        lineMap.getJspLine(index),
+                        errMsgBuf,
+                        ctxt);
+            }
+        }
+        return new JavacErrorDetail(
+                fname,
+                lineNum,
+                errMsgBuf);
+    }
+
+
     /*
      * Visitor responsible for mapping a line number in the generated servlet
      * source code to the corresponding JSP node.
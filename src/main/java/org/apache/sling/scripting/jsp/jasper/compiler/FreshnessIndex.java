@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the reported changes of scripts, so that the freshness of a
+ * compiled page can be determined without looking at the modification
+ * times of the page and its dependencies.
+ *
+ * Every reported change gets a new generation. A page is current if no
+ * change of the page, one of its dependencies or one of their parent
+ * folders has been reported since the generation at which the page was
+ * compiled. Pages compiled before any change has been reported are current,
+ * so changes which are not reported are only noticed by comparing the
+ * modification times.
+ *
+ * Once many changes have been recorded, the changes which are older than
+ * every recorded compilation are discarded. Pages whose compilation has not
+ * been recorded or is older than the discarded changes are then considered
+ * changed, as they can no longer be checked.
+ */
+public final class FreshnessIndex {
+
+    /** Default number of changed paths from which changes are discarded. */
+    public static final int DEFAULT_MAX_CHANGES = 1024;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final int maxChanges;
+
+    /** The number of changed paths from which changes are discarded next. */
+    private volatile int compactAt;
+
+    /** The generation up to which changes have been discarded. */
+    private volatile long discarded;
+
+    /** The generation of the last change by path. */
+    private final ConcurrentHashMap<String, Long> changes = new ConcurrentHashMap<String, Long>();
+
+    /** The generation at which a page was compiled by page. */
+    private final ConcurrentHashMap<String, Long> compiled = new ConcurrentHashMap<String, Long>();
+
+    public FreshnessIndex() {
+        this(DEFAULT_MAX_CHANGES);
+    }
+
+    FreshnessIndex(final int maxChanges) {
+        this.maxChanges = maxChanges;
+        this.compactAt = maxChanges;
+    }
+
+    /**
+     * Returns the current generation. Take it before a page is compiled.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Record a change of a script or a folder.
+     */
+    public void changed(final String path) {
+        changes.put(path, generation.incrementAndGet());
+        if ( changes.size() >= compactAt ) {
+            compact();
+        }
+    }
+
+    /**
+     * Record the removal of a script or a folder. The compilations of the
+     * removed pages are forgotten.
+     */
+    public void removed(final String path) {
+        final String prefix = path.endsWith("/") ? path : path + '/';
+        compiled.keySet().removeIf(jspUri -> jspUri.equals(path) || jspUri.startsWith(prefix));
+        changed(path);
+    }
+
+    /**
+     * Record the compilation of a page.
+     *
+     * @param jspUri The page
+     * @param generation The generation taken before the page was compiled
+     */
+    public void compiled(final String jspUri, final long generation) {
+        compiled.merge(jspUri, generation, Math::max);
+    }
+
+    /**
+     * Check whether a change of the page or its dependencies has been
+     * reported since the page has been compiled.
+     */
+    public boolean isChanged(final String jspUri, final List<String> dependencies) {
+        if ( changes.isEmpty() && discarded == 0 ) {
+            return false;
+        }
+        final Long c = compiled.get(jspUri);
+        final long since = (c == null ? 0 : c);
+        if ( since < discarded ) {
+            // the changes since the compilation are unknown
+            return true;
+        }
+        if ( isChanged(jspUri, since) ) {
+            return true;
+        }
+        if ( dependencies != null ) {
+            for(final String dep : dependencies) {
+                if ( isChanged(dep, since) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of changed paths.
+     */
+    public int getChangeCount() {
+        return changes.size();
+    }
+
+    /**
+     * Discard the changes which are older than all recorded compilations.
+     */
+    private synchronized void compact() {
+        if ( changes.size() < compactAt ) {
+            return;
+        }
+        long oldest = generation.get();
+        for(final Long g : compiled.values()) {
+            oldest = Math.min(oldest, g);
+        }
+        if ( oldest > discarded ) {
+            // set before removing, so pages compiled earlier are changed
+            discarded = oldest;
+            final long limit = oldest;
+            changes.values().removeIf(g -> g <= limit);
+        }
+        // do not compact again before the changes have grown considerably
+        compactAt = Math.max(maxChanges, changes.size() * 2);
+    }
+
+    private boolean isChanged(final String path, final long since) {
+        String current = path;
+        while ( current.length() > 0 ) {
+            final Long g = changes.get(current);
+            if ( g != null && g > since ) {
+                return true;
+            }
+            current = current.substring(0, Math.max(0, current.lastIndexOf('/')));
+        }
+        return false;
+    }
+}
@@ -23,6 +23,8 @@ import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -76,6 +78,8 @@ class Generator {
         System.getProperty("org.apache.sling.scripting.jsp.jasper.compiler.Generator.VAR_EXPRESSIONFACTORY", "_el_expressionfactory");
     private static final String VAR_ANNOTATIONPROCESSOR =
         System.getProperty("org.apache.sling.scripting.jsp.jasper.compiler.Generator.VAR_ANNOTATIONPROCESSOR", "_jsp_annotationprocessor");
+    private static final String VAR_EXPRESSIONCACHE =
+        System.getProperty("org.apache.sling.scripting.jsp.jasper.compiler.Generator.VAR_EXPRESSIONCACHE", "_el_expressioncache");
 
     private ServletWriter out;
 
@@ -103,6 +107,18 @@ class Generator {
 
     private GenBuffer charArrayBuffer;
 
+    /**
+     * The charset to encode template text in, if it is generated as
+     * pre-encoded bytes.
+     */
+    private String textCharset;
+
+    private GenBuffer elExpressionBuffer;
+
+    private HashMap<String, String> elExpressionMap;
+
+    private boolean genELExpressionFields;
+
     /**
      * @param s
      *            the input string
@@ -168,6 +184,32 @@ class Generator {
         return b.toString();
     }
 
+    /**
+     * Produces the call to the EL interpreter, either evaluating a static
+     * expression field or parsing the expression through the expression cache.
+     */
+    private String interpreterCall(boolean isTagFile, String expression,
+            Class expectedType, String fnmapvar) {
+        if (!genELExpressionFields) {
+            return JspUtil.interpreterCall(isTagFile, expression, expectedType,
+                    fnmapvar, false, VAR_EXPRESSIONCACHE);
+        }
+        String key = expression + '\u0000' + expectedType.getName() + '\u0000' + fnmapvar;
+        String fieldName = elExpressionMap.get(key);
+        if (fieldName == null) {
+            fieldName = "_el_expression_" + elExpressionMap.size();
+            elExpressionMap.put(key, fieldName);
+            ServletWriter veOut = elExpressionBuffer.getOut();
+            veOut.printin("private static final javax.el.ValueExpression ");
+            veOut.print(fieldName);
+            veOut.print(" = ");
+            veOut.print(JspUtil.expressionFieldInitializer(expression, expectedType, fnmapvar));
+            veOut.println(";");
+        }
+        return JspUtil.expressionFieldCall(isTagFile, fieldName, expectedType,
+                fnmapvar, false);
+    }
+
     private String createJspId() throws JasperException {
         if (this.jspIdPrefix == null) {
             StringBuffer sb = new StringBuffer(32);
@@ -491,6 +533,12 @@ class Generator {
         out.printil("private static final JspFactory _jspxFactory = JspFactory.getDefaultFactory();");
         out.println();
 
+        // Cache for parsed EL expressions
+        out.printin("private static final org.apache.sling.scripting.jsp.jasper.runtime.ELExpressionCache ");
+        out.print(VAR_EXPRESSIONCACHE);
+        out.println(" = new org.apache.sling.scripting.jsp.jasper.runtime.ELExpressionCache();");
+        out.println();
+
         // Static data for getDependants()
         out.printil("private static java.util.List _jspx_dependants;");
         out.println();
@@ -820,8 +868,8 @@ class Generator {
                 return v;
             } else if (attr.isELInterpreterInput()) {
                 boolean replaceESC = v.indexOf(Constants.ESC) > 0;
-                v = JspUtil.interpreterCall(this.isTagFile, v, expectedType,
-                        attr.getEL().getMapName(), false);
+                v = interpreterCall(this.isTagFile, v, expectedType,
+                        attr.getEL().getMapName());
                 // XXX ESC replacement hack
                 if (replaceESC) {
                     v = "(" + v + ").replace(" + Constants.ESCStr + ", '$')";
@@ -909,9 +957,9 @@ class Generator {
             n.setBeginJavaLine(out.getJavaLine());
             if (!pageInfo.isELIgnored() && (n.getEL() != null)) {
                 out.printil("out.write("
-                        + JspUtil.interpreterCall(this.isTagFile, n.getType() + "{"
+                        + interpreterCall(this.isTagFile, n.getType() + "{"
                                 + new String(n.getText()) + "}", String.class,
-                                n.getEL().getMapName(), false) + ");");
+                                n.getEL().getMapName()) + ");");
             } else {
                 out.printil("out.write("
                         + quote(n.getType() + "{" + new String(n.getText()) + "}") + ");");
@@ -1910,6 +1958,18 @@ class Generator {
             }
         }
 
+        /**
+         * Returns the writer for the static template text declarations.
+         */
+        private ServletWriter getCharArrayOut() {
+            if (charArrayBuffer == null) {
+                charArrayBuffer = new GenBuffer();
+                charArrayBuffer.getOut().pushIndent();
+                textMap = new HashMap();
+            }
+            return charArrayBuffer.getOut();
+        }
+
         @Override
         public void visit(Node.TemplateText n) throws JasperException {
 
@@ -1938,17 +1998,32 @@ class Generator {
                 return;
             }
 
+            if (textCharset != null) {
+                // Generate Strings encoded in the charset of the page, which
+                // the page writer can write to the response as bytes
+                ServletWriter caOut = getCharArrayOut();
+                String textName = (String) textMap.get(text);
+                if (textName == null) {
+                    textName = "_jspx_encoded_text_" + charArrayCount++;
+                    textMap.put(text, textName);
+                    caOut.printin("static final org.apache.sling.scripting.jsp.jasper.runtime.EncodedText ");
+                    caOut.print(textName);
+                    caOut.print(" = new org.apache.sling.scripting.jsp.jasper.runtime.EncodedText(");
+                    caOut.print(quote(text));
+                    caOut.print(", ");
+                    caOut.print(quote(textCharset));
+                    caOut.println(");");
+                }
+
+                n.setBeginJavaLine(out.getJavaLine());
+                out.printil(textName + ".write(out);");
+                n.setEndJavaLine(out.getJavaLine());
+                return;
+            }
+
             if (ctxt.getOptions().genStringAsCharArray()) {
                 // Generate Strings as char arrays, for performance
-                ServletWriter caOut;
-                if (charArrayBuffer == null) {
-                    charArrayBuffer = new GenBuffer();
-                    caOut = charArrayBuffer.getOut();
-                    caOut.pushIndent();
-                    textMap = new HashMap();
-                } else {
-                    caOut = charArrayBuffer.getOut();
-                }
+                ServletWriter caOut = getCharArrayOut();
                 String charArrayName = (String) textMap.get(text);
                 if (charArrayName == null) {
                     charArrayName = "_jspx_char_array_" + charArrayCount++;
@@ -2899,8 +2974,8 @@ class Generator {
                     boolean replaceESC = attrValue.indexOf(Constants.ESC) > 0;
                     String mapName = (attr.getEL() != null) ? attr.getEL()
                             .getMapName() : null;
-                    attrValue = JspUtil.interpreterCall(this.isTagFile,
-                            attrValue, c[0], mapName, false);
+                    attrValue = interpreterCall(this.isTagFile,
+                            attrValue, c[0], mapName);
                     // XXX hack: Replace ESC with '$'
                     if (replaceESC) {
                         attrValue = "(" + attrValue + ").replace("
@@ -3310,6 +3385,12 @@ class Generator {
             out.printMultiLn(charArrayBuffer.toString());
         }
 
+        // Append EL expression declarations, after the function mappers
+        // have been initialized
+        if (elExpressionBuffer != null && !elExpressionMap.isEmpty()) {
+            out.printMultiLn(elExpressionBuffer.toString());
+        }
+
         // Close the class definition
         out.popIndent();
         out.printil("}");
@@ -3352,6 +3433,31 @@ class Generator {
         genCommonPostamble();
     }
 
+    /**
+     * Returns the charset of a content type, or null if there is none or
+     * it is not supported.
+     */
+    private static String getCharset(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final int index = contentType.indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        String charset = contentType.substring(index + 8);
+        final int end = charset.indexOf(';');
+        if (end >= 0) {
+            charset = charset.substring(0, end);
+        }
+        charset = charset.trim();
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalCharsetNameException icne) {
+            return null;
+        }
+    }
+
     /**
      * Constructor.
      */
@@ -3382,6 +3488,15 @@ class Generator {
         }
         beanInfo = pageInfo.getBeanRepository();
         breakAtLF = ctxt.getOptions().getMappedFile();
+        genELExpressionFields = ctxt.getOptions().genELExpressionFields();
+        if (ctxt.getOptions().genStringAsByteArray() && !ctxt.isTagFile()) {
+            textCharset = getCharset(pageInfo.getContentType());
+        }
+        if (genELExpressionFields) {
+            elExpressionBuffer = new GenBuffer();
+            elExpressionBuffer.getOut().pushIndent();
+            elExpressionMap = new HashMap<String, String>();
+        }
         if (isPoolingEnabled) {
             tagHandlerPoolNames = new Vector();
         }
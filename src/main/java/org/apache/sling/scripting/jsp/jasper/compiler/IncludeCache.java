@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache for the sources of statically included resources.
+ *
+ * Fragments like a global.jspf are included by many pages. For each of
+ * them the detected syntax and encoding and, for the standard syntax, the
+ * decoded characters are kept, so that they are neither sniffed nor read
+ * again by the following pages. The included resources are still parsed
+ * for every page, as the result depends on the including page, like its
+ * tag library prefixes. Entries are only used as long as the resource has
+ * the same modification time and are removed on a reported modification.
+ * The least recently used entries are removed if the cache is full.
+ */
+final class IncludeCache {
+
+    /**
+     * The cached source of an included resource.
+     */
+    static final class Entry {
+
+        final long lastModified;
+
+        final boolean isXml;
+
+        final String sourceEnc;
+
+        final boolean isEncodingSpecifiedInProlog;
+
+        final boolean isBomPresent;
+
+        final boolean isDefaultPageEncoding;
+
+        /** The decoded characters for the standard syntax, {@code null} for XML. */
+        final char[] chars;
+
+        Entry(final long lastModified,
+                final boolean isXml,
+                final String sourceEnc,
+                final boolean isEncodingSpecifiedInProlog,
+                final boolean isBomPresent,
+                final boolean isDefaultPageEncoding,
+                final char[] chars) {
+            this.lastModified = lastModified;
+            this.isXml = isXml;
+            this.sourceEnc = sourceEnc;
+            this.isEncodingSpecifiedInProlog = isEncodingSpecifiedInProlog;
+            this.isBomPresent = isBomPresent;
+            this.isDefaultPageEncoding = isDefaultPageEncoding;
+            this.chars = chars;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    IncludeCache(final int maxSize) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached source of a resource.
+     *
+     * @param path The path of the resource
+     * @param lastModified The current modification time of the resource
+     * @return The entry or {@code null} if not cached or modified since
+     */
+    Entry get(final String path, final long lastModified) {
+        final Entry entry;
+        synchronized ( entries ) {
+            entry = entries.get(path);
+        }
+        if ( entry != null && entry.lastModified == lastModified ) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(final String path, final Entry entry) {
+        synchronized ( entries ) {
+            entries.put(path, entry);
+        }
+    }
+
+    /**
+     * Removes the resource at the path and the resources below it.
+     */
+    void remove(final String path) {
+        final String prefix = path.concat("/");
+        synchronized ( entries ) {
+            final Iterator<String> i = entries.keySet().iterator();
+            while ( i.hasNext() ) {
+                final String key = i.next();
+                if ( key.equals(path) || key.startsWith(prefix) ) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    int getSize() {
+        synchronized ( entries ) {
+            return entries.size();
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -22,15 +22,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
 import org.apache.sling.commons.compiler.CompilationResult;
 import org.apache.sling.commons.compiler.CompilationUnit;
 import org.apache.sling.commons.compiler.CompilationUnitWithSource;
 import org.apache.sling.commons.compiler.CompilerMessage;
+import org.apache.sling.commons.compiler.JavaCompiler;
 import org.apache.sling.commons.compiler.Options;
 import org.apache.sling.scripting.jsp.jasper.JasperException;
 import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
 
 /**
  * JDT class compiler. This compiler will load source dependencies from the
@@ -50,17 +57,15 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
     protected void generateClass(String[] smap)
         throws FileNotFoundException, JasperException, Exception {
 
-        long t1 = 0;
-        if (log.isDebugEnabled()) {
-            t1 = System.currentTimeMillis();
-        }
+        final long t1 = System.nanoTime();
 
+        final String source = this.javaSource;
         final String sourceFile = ctxt.getServletJavaFileName();
         final String packageName = ctxt.getServletPackageName();
         final String targetClassName =
             ((packageName.length() != 0) ? (packageName + ".") : "")
                     + ctxt.getServletClassName();
-        final CompilationUnit unit = new CompilationUnitWithSource() {
+        final CompilationUnitWithSource unit = new CompilationUnitWithSource() {
 
             /**
              * @see org.apache.sling.commons.compiler.CompilationUnit#getLastModified()
@@ -80,6 +85,9 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
              * @see org.apache.sling.commons.compiler.CompilationUnit#getSource()
              */
             public Reader getSource() throws IOException {
+                if (source != null) {
+                    return new StringReader(source);
+                }
                 return new BufferedReader(new InputStreamReader(ctxt.getInputStream(sourceFile),
                                 ctxt.getOptions().getJavaEncoding()));
             }
@@ -92,8 +100,20 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
             }
         };
 
+        // JSR45 Support: install the SMAPs while the classes are written
+        final Map<String, byte[]> smaps;
+        if (smap != null && !ctxt.isPrototypeMode()
+                && !this.ctxt.getOptions().isSmapSuppressed()) {
+            smaps = SmapUtil.getSmapsByClassPath(ctxt, smap);
+        } else {
+            smaps = Collections.emptyMap();
+        }
+        final ClassLoaderWriter writer = new SmapInstallingClassLoaderWriter(
+                ctxt.getRuntimeContext().getIOProvider().getClassLoaderWriter(),
+                smaps, ctxt.getRuntimeContext().getCompileTimings());
+
         final Options options = new Options();
-        options.put(Options.KEY_CLASS_LOADER_WRITER, ctxt.getRuntimeContext().getIOProvider().getClassLoaderWriter());
+        options.put(Options.KEY_CLASS_LOADER_WRITER, writer);
         options.put(Options.KEY_GENERATE_DEBUG_INFO, ctxt.getOptions().getClassDebugInfo());
 
         // Source JVM
@@ -113,9 +133,16 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
         }
 
         final ArrayList<JavacErrorDetail> problemList = new ArrayList<JavacErrorDetail>();
-        final CompilationResult result = this.ctxt.getRuntimeContext().getIOProvider().getJavaCompiler().compile(new CompilationUnit[] {unit}, options);
-        if ( result.getErrors() != null ) {
-            for(final CompilerMessage cm : result.getErrors() ) {
+        final JavaCompiler javaCompiler = this.ctxt.getRuntimeContext().getIOProvider().getJavaCompiler();
+        final List<CompilerMessage> errors;
+        if ( ctxt.getOptions().getBatchCompilation() ) {
+            errors = this.ctxt.getRuntimeContext().getCompileBatcher().compile(unit, options, javaCompiler);
+        } else {
+            final CompilationResult result = javaCompiler.compile(new CompilationUnit[] {unit}, options);
+            errors = result.getErrors();
+        }
+        if ( errors != null ) {
+            for(final CompilerMessage cm : errors ) {
                 final String name = cm.getFile();
                 try {
                     problemList.add(ErrorDispatcher.createJavacError
@@ -127,7 +154,7 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
             }
         }
 
-        if (!ctxt.keepGenerated()) {
+        if (source == null && !ctxt.keepGenerated()) {
             ctxt.delete(ctxt.getServletJavaFileName());
         }
 
@@ -137,21 +164,11 @@ public class JDTCompiler extends org.apache.sling.scripting.jsp.jasper.compiler.
             errDispatcher.javacError(jeds);
         }
 
+        final long t2 = record(Phase.COMPILE, t1);
         if( log.isDebugEnabled() ) {
-            long t2=System.currentTimeMillis();
             log.debug("Compiled " + ctxt.getServletJavaFileName() + " "
-                      + (t2-t1) + "ms");
-        }
-
-        if (ctxt.isPrototypeMode()) {
-            return;
+                      + (t2-t1) / 1000000 + "ms");
         }
-
-        // JSR45 Support
-        if (! this.ctxt.getOptions().isSmapSuppressed()) {
-            SmapUtil.installSmap(getCompilationContext(), smap);
-        }
-
     }
 
 
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.commons.compiler.CompilationResult;
+import org.apache.sling.commons.compiler.CompilationUnit;
+import org.apache.sling.commons.compiler.CompilationUnitWithSource;
+import org.apache.sling.commons.compiler.CompilerMessage;
+import org.apache.sling.commons.compiler.JavaCompiler;
+import org.apache.sling.commons.compiler.Options;
+
+/**
+ * Compiles the compilation units of concurrent JSP compilations with a
+ * single invocation of the Java compiler.
+ *
+ * The first thread becomes the leader and compiles its unit right away.
+ * Threads arriving while the compiler is running queue their units, and
+ * when it is done the next leader compiles all queued units together. As
+ * the Java compiler does not write any class if one of the units has
+ * errors, the units without errors are compiled once more in that case.
+ */
+class JavaCompileBatcher {
+
+    private final Object lock = new Object();
+
+    /** Units waiting for the next compiler run. */
+    private List<Request> pending = new ArrayList<Request>();
+
+    /** Is the compiler running? */
+    private boolean compiling;
+
+    /**
+     * Compile a unit, possibly together with the units of other threads.
+     *
+     * @param unit The unit, the file name of its messages is the one of the unit
+     * @param options The compiler options, equal for all units apart from
+     *                the class loader writer installing the SMAPs
+     * @param compiler The Java compiler
+     * @return The errors of the unit, might be {@code null}
+     */
+    public List<CompilerMessage> compile(final CompilationUnitWithSource unit,
+            final Options options,
+            final JavaCompiler compiler) {
+        final Request request = new Request(unit, options);
+        final List<Request> batch;
+        synchronized ( lock ) {
+            pending.add(request);
+            boolean interrupted = false;
+            while ( !request.done && compiling ) {
+                try {
+                    lock.wait();
+                } catch ( final InterruptedException ie ) {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+            if ( !request.done ) {
+                compiling = true;
+                batch = pending;
+                pending = new ArrayList<Request>();
+            } else {
+                batch = null;
+            }
+        }
+        if ( batch != null ) {
+            try {
+                final List<Request> failed = this.compile(batch, compiler);
+                if ( !failed.isEmpty() && failed.size() < batch.size() ) {
+                    // compile the remaining units again, to get their classes written
+                    final List<Request> remaining = new ArrayList<Request>(batch);
+                    remaining.removeAll(failed);
+                    this.compile(remaining, compiler);
+                }
+            } catch ( final RuntimeException re ) {
+                for(final Request r : batch) {
+                    r.exception = re;
+                }
+            } catch ( final Error e ) {
+                for(final Request r : batch) {
+                    r.error = e;
+                }
+            } finally {
+                synchronized ( lock ) {
+                    for(final Request r : batch) {
+                        r.done = true;
+                    }
+                    compiling = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+        if ( request.exception != null ) {
+            throw request.exception;
+        }
+        if ( request.error != null ) {
+            throw request.error;
+        }
+        return request.errors;
+    }
+
+    /**
+     * Compile the units of the requests and assign the errors.
+     * @return The requests with errors
+     */
+    private List<Request> compile(final List<Request> batch,
+            final JavaCompiler compiler) {
+        final CompilationUnit[] units = new CompilationUnit[batch.size()];
+        final Map<String, Request> requests = new HashMap<String, Request>();
+        for(int i = 0; i < units.length; i++) {
+            final Request r = batch.get(i);
+            units[i] = r.unit;
+            r.errors = null;
+            requests.put(r.unit.getFileName(), r);
+        }
+        final CompilationResult result = compiler.compile(units, getOptions(batch));
+        final List<Request> failed = new ArrayList<Request>();
+        if ( result.getErrors() != null ) {
+            for(final CompilerMessage cm : result.getErrors()) {
+                final Request r = requests.get(cm.getFile());
+                if ( r != null ) {
+                    r.addError(cm, failed);
+                } else {
+                    // not related to a single unit
+                    for(final Request all : batch) {
+                        all.addError(cm, failed);
+                    }
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the options for compiling the units of the requests. If the
+     * SMAPs are installed while the classes are written, the ones of all
+     * units are installed.
+     */
+    private static Options getOptions(final List<Request> batch) {
+        final Options options = batch.get(0).options;
+        SmapInstallingClassLoaderWriter writer = null;
+        for(final Request r : batch) {
+            final Object w = r.options.get(Options.KEY_CLASS_LOADER_WRITER);
+            if ( w instanceof SmapInstallingClassLoaderWriter ) {
+                final SmapInstallingClassLoaderWriter smapWriter = (SmapInstallingClassLoaderWriter) w;
+                writer = (writer == null ? smapWriter : writer.merge(smapWriter));
+            }
+        }
+        if ( writer == null || batch.size() == 1 ) {
+            return options;
+        }
+        final Options result = new Options();
+        result.putAll(options);
+        result.put(Options.KEY_CLASS_LOADER_WRITER, writer);
+        return result;
+    }
+
+    private static final class Request {
+
+        final CompilationUnitWithSource unit;
+
+        final Options options;
+
+        List<CompilerMessage> errors;
+
+        RuntimeException exception;
+
+        Error error;
+
+        boolean done;
+
+        Request(final CompilationUnitWithSource unit, final Options options) {
+            this.unit = unit;
+            this.options = options;
+        }
+
+        void addError(final CompilerMessage cm, final List<Request> failed) {
+            if ( errors == null ) {
+                errors = new ArrayList<CompilerMessage>();
+                failed.add(this);
+            }
+            errors.add(cm);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+
+/**
+ * Maps the lines of a generated servlet to the JSP elements they have been
+ * generated from.
+ *
+ * The map is created from the parsed nodes once the servlet has been
+ * generated and replaces them for mapping the lines of runtime errors, so
+ * that the nodes, their marks and the read sources do not need to be kept
+ * for every loaded page. For each node with generated code the range of
+ * servlet lines, the file and the line of the element are kept in arrays.
+ */
+public final class JavaLineMap {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int[] beginJavaLines;
+
+    private final int[] endJavaLines;
+
+    private final int[] jspLines;
+
+    private final int[] fileIndexes;
+
+    private final String[] files;
+
+    private JavaLineMap(final int[] beginJavaLines,
+            final int[] endJavaLines,
+            final int[] jspLines,
+            final int[] fileIndexes,
+            final String[] files) {
+        this.beginJavaLines = beginJavaLines;
+        this.endJavaLines = endJavaLines;
+        this.jspLines = jspLines;
+        this.fileIndexes = fileIndexes;
+        this.files = files;
+    }
+
+    /**
+     * Creates the map from the nodes of a generated page.
+     */
+    static JavaLineMap create(final Node.Nodes page) throws JasperException {
+        final Collector collector = new Collector();
+        page.visit(collector);
+        return collector.toMap();
+    }
+
+    /**
+     * Returns the entry for a servlet line. Like the error visitor, this is
+     * the last node in document order whose code contains the line.
+     *
+     * @param javaLine The line in the generated servlet
+     * @return The index of the entry or -1
+     */
+    public int find(final int javaLine) {
+        for(int i = beginJavaLines.length - 1; i >= 0; i--) {
+            if ( javaLine >= beginJavaLines[i] && javaLine < endJavaLines[i] ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the JSP file of an entry, {@code null} if it is unknown.
+     */
+    public String getJspFile(final int index) {
+        final int file = fileIndexes[index];
+        return file < 0 ? null : files[file];
+    }
+
+    /**
+     * Returns the line of the JSP element of an entry.
+     */
+    public int getJspLine(final int index) {
+        return jspLines[index];
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return beginJavaLines.length;
+    }
+
+    private static final class Collector extends Node.Visitor {
+
+        private int[] beginJavaLines = EMPTY;
+
+        private int[] endJavaLines = EMPTY;
+
+        private int[] jspLines = EMPTY;
+
+        private int[] fileIndexes = EMPTY;
+
+        private final List<String> files = new ArrayList<String>();
+
+        private int size;
+
+        @Override
+        protected void doVisit(final Node n) throws JasperException {
+            if ( n.getBeginJavaLine() >= n.getEndJavaLine() ) {
+                // no code generated, never found
+                return;
+            }
+            if ( size == beginJavaLines.length ) {
+                final int length = Math.max(16, size * 2);
+                beginJavaLines = Arrays.copyOf(beginJavaLines, length);
+                endJavaLines = Arrays.copyOf(endJavaLines, length);
+                jspLines = Arrays.copyOf(jspLines, length);
+                fileIndexes = Arrays.copyOf(fileIndexes, length);
+            }
+            beginJavaLines[size] = n.getBeginJavaLine();
+            endJavaLines[size] = n.getEndJavaLine();
+            final Mark start = n.getStart();
+            if ( start != null ) {
+                jspLines[size] = start.getLineNumber();
+                int file = files.indexOf(start.getFile());
+                if ( file < 0 ) {
+                    file = files.size();
+                    files.add(start.getFile());
+                }
+                fileIndexes[size] = file;
+            } else {
+                jspLines[size] = -1;
+                fileIndexes[size] = -1;
+            }
+            size++;
+        }
+
+        JavaLineMap toMap() {
+            return new JavaLineMap(Arrays.copyOf(beginJavaLines, size),
+                    Arrays.copyOf(endJavaLines, size),
+                    Arrays.copyOf(jspLines, size),
+                    Arrays.copyOf(fileIndexes, size),
+                    files.toArray(new String[files.size()]));
+        }
+    }
+}
@@ -21,6 +21,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -101,13 +103,22 @@ public class JavacErrorDetail {
                 is = ctxt.getResourceAsStream(jspFileName);
                 String[] jspLines = readFile(is);
 
-                fis = ctxt.getRuntimeContext().getIOProvider().getInputStream(ctxt.getServletJavaFileName());
-                String[] javaLines = readFile(fis);
+                // The source is not available at runtime if it has been
+                // compiled in memory and not kept
+                final String javaSource = ctxt.getCompiler().getJavaSource();
+                String[] javaLines = null;
+                if (javaSource != null) {
+                    javaLines = readLines(new StringReader(javaSource));
+                } else if (ctxt.keepGenerated() || !ctxt.getOptions().getCompileInMemory()) {
+                    fis = ctxt.getRuntimeContext().getIOProvider().getInputStream(ctxt.getServletJavaFileName());
+                    javaLines = readFile(fis);
+                }
 
                 // If the line contains the opening of a multi-line scriptlet
                 // block, then the JSP line number we got back is probably
                 // faulty.  Scan forward to match the java line...
-                if (jspLines[jspBeginLineNum-1].lastIndexOf("<%") >
+                if (javaLines != null
+                        && jspLines[jspBeginLineNum-1].lastIndexOf("<%") >
                     jspLines[jspBeginLineNum-1].lastIndexOf("%>")) {
                     String javaLine = javaLines[javaLineNum-1].trim();
 
@@ -218,7 +229,11 @@ public class JavacErrorDetail {
      * the JSP and generated Java file when generating error messages.
      */
     private String[] readFile(InputStream s) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(s));
+        return readLines(new InputStreamReader(s));
+    }
+
+    private String[] readLines(Reader r) throws IOException {
+        BufferedReader reader = new BufferedReader(r);
         List lines = new ArrayList();
         String line;
 
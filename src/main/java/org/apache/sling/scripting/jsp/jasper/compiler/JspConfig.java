@@ -18,8 +18,15 @@
 package org.apache.sling.scripting.jsp.jasper.compiler;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.net.URL;
 
 import javax.servlet.ServletContext;
@@ -48,7 +55,15 @@ public class JspConfig {
 
     private Vector jspProperties = null;
     private ServletContext ctxt;
-    private boolean initialized = false;
+    private volatile boolean initialized = false;
+
+    // Lookup index over jspProperties, built once in init()
+    private Map exactMatches;
+    private Map extensionMatches;
+    private PathNode pathMatches;
+
+    // Resolved properties per uri
+    private final Map propertyCache = new ConcurrentHashMap();
 
     private String defaultIsXml = null;		// unspecified
     private String defaultIsELIgnored = null;	// unspecified
@@ -198,7 +213,8 @@ public class JspConfig {
                             deferredSyntaxAllowedAsLiteral,
                             trimDirectiveWhitespaces);
                     JspPropertyGroup propertyGroup =
-                        new JspPropertyGroup(path, extension, property);
+                        new JspPropertyGroup(path, extension, property,
+                                jspProperties.size());
 
                     jspProperties.addElement(propertyGroup);
                 }
@@ -217,14 +233,107 @@ public class JspConfig {
     private void init() throws JasperException {
 
         if (!initialized) {
-            processWebDotXml(ctxt);
-            defaultJspProperty = new JspProperty(defaultIsXml,
-                    defaultIsELIgnored,
-                    defaultIsScriptingInvalid,
-                    null, null, null, defaultDeferedSyntaxAllowedAsLiteral, 
-                    defaultTrimDirectiveWhitespaces);
-            initialized = true;
+            synchronized (this) {
+                if (!initialized) {
+                    processWebDotXml(ctxt);
+                    buildIndex();
+                    defaultJspProperty = new JspProperty(defaultIsXml,
+                            defaultIsELIgnored,
+                            defaultIsScriptingInvalid,
+                            null, null, null, defaultDeferedSyntaxAllowedAsLiteral, 
+                            defaultTrimDirectiveWhitespaces);
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the property groups by the kind of their url-pattern: exact
+     * paths and extensions are kept in maps, path prefixes in a tree of
+     * path segments. A lookup then only visits the groups which match.
+     */
+    private void buildIndex() {
+        if (jspProperties == null) {
+            return;
+        }
+        exactMatches = new HashMap();
+        extensionMatches = new HashMap();
+        pathMatches = new PathNode();
+
+        Iterator iter = jspProperties.iterator();
+        while (iter.hasNext()) {
+            JspPropertyGroup jpg = (JspPropertyGroup) iter.next();
+            String extension = jpg.getExtension();
+            String path = jpg.getPath();
+
+            if (extension == null) {
+                // /a/foo.jsp
+                addTo(exactMatches, path, jpg);
+            } else if (path == null) {
+                // *.ext
+                addTo(extensionMatches, extension, jpg);
+            } else {
+                // /p/*
+                PathNode node = pathMatches;
+                int start = 0;
+                int end;
+                while ((end = path.indexOf('/', start)) >= 0) {
+                    node = node.child(path.substring(start, end), true);
+                    start = end + 1;
+                }
+                node.groups.add(jpg);
+                pathMatches.all.add(jpg);
+            }
+        }
+    }
+
+    private static void addTo(Map map, String key, JspPropertyGroup jpg) {
+        List groups = (List) map.get(key);
+        if (groups == null) {
+            groups = new ArrayList();
+            map.put(key, groups);
+        }
+        groups.add(jpg);
+    }
+
+    /**
+     * Collect the property groups matching the uri, in the order in which
+     * they are declared.
+     */
+    private List findMatches(String uri, String uriPath,
+            String uriExtension) {
+        List matches = new ArrayList();
+
+        List exact = (List) exactMatches.get(uri);
+        if (exact != null) {
+            matches.addAll(exact);
+        }
+        if (uriExtension != null) {
+            List byExtension = (List) extensionMatches.get(uriExtension);
+            if (byExtension != null) {
+                matches.addAll(byExtension);
+            }
         }
+        if (uriPath == null) {
+            // a uri without any path matches every /p/* pattern
+            matches.addAll(pathMatches.all);
+        } else {
+            PathNode node = pathMatches;
+            int start = 0;
+            int end;
+            while (node != null
+                    && (end = uriPath.indexOf('/', start)) >= 0) {
+                node = node.child(uriPath.substring(start, end), false);
+                if (node != null) {
+                    matches.addAll(node.groups);
+                }
+                start = end + 1;
+            }
+        }
+
+        Collections.sort(matches, JspPropertyGroup.DECLARATION_ORDER);
+        return matches;
     }
 
     /**
@@ -278,6 +387,16 @@ public class JspConfig {
             return defaultJspProperty;
         }
 
+        JspProperty property = (JspProperty) propertyCache.get(uri);
+        if (property == null) {
+            property = resolveJspProperty(uri);
+            propertyCache.put(uri, property);
+        }
+        return property;
+    }
+
+    private JspProperty resolveJspProperty(String uri) {
+
         String uriPath = null;
         int index = uri.lastIndexOf('/');
         if (index >=0 ) {
@@ -299,35 +418,12 @@ public class JspConfig {
         JspPropertyGroup deferedSyntaxAllowedAsLiteralMatch = null;
         JspPropertyGroup trimDirectiveWhitespacesMatch = null;
 
-        Iterator iter = jspProperties.iterator();
+        Iterator iter = findMatches(uri, uriPath, uriExtension).iterator();
         while (iter.hasNext()) {
 
             JspPropertyGroup jpg = (JspPropertyGroup) iter.next();
             JspProperty jp = jpg.getJspProperty();
 
-            // (arrays will be the same length)
-            String extension = jpg.getExtension();
-            String path = jpg.getPath();
-
-            if (extension == null) {
-                // exact match pattern: /a/foo.jsp
-                if (!uri.equals(path)) {
-                    // not matched;
-                    continue;
-                }
-            } else {
-                // Matching patterns *.ext or /p/*
-                if (path != null && uriPath != null &&
-                        ! uriPath.startsWith(path)) {
-                    // not matched
-                    continue;
-                }
-                if (!extension.equals("*") &&
-                        !extension.equals(uriExtension)) {
-                    // not matched
-                    continue;
-                }
-            }
             // We have a match
             // Add include-preludes and include-codas
             if (jp.getIncludePrelude() != null) {
@@ -445,15 +541,26 @@ public class JspConfig {
     }
 
     static class JspPropertyGroup {
+
+        static final Comparator DECLARATION_ORDER = new Comparator() {
+            public int compare(Object o1, Object o2) {
+                int i1 = ((JspPropertyGroup) o1).order;
+                int i2 = ((JspPropertyGroup) o2).order;
+                return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+            }
+        };
+
         private String path;
         private String extension;
         private JspProperty jspProperty;
+        private int order;
 
         JspPropertyGroup(String path, String extension,
-                JspProperty jspProperty) {
+                JspProperty jspProperty, int order) {
             this.path = path;
             this.extension = extension;
             this.jspProperty = jspProperty;
+            this.order = order;
         }
 
         public String getPath() {
@@ -469,6 +576,32 @@ public class JspConfig {
         }
     }
 
+    /**
+     * A segment of the path prefix patterns. Holds the groups whose
+     * pattern ends with this segment, e.g. the groups of /a/b/* in the
+     * node reached by "", "a" and "b".
+     */
+    private static class PathNode {
+        private Map children;
+        private final List groups = new ArrayList();
+
+        // all /p/* groups, only kept in the root node
+        private final List all = new ArrayList();
+
+        PathNode child(String segment, boolean create) {
+            PathNode child = children == null
+                    ? null : (PathNode) children.get(segment);
+            if (child == null && create) {
+                if (children == null) {
+                    children = new HashMap();
+                }
+                child = new PathNode();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+
     static public class JspProperty {
 
         private String isXml;
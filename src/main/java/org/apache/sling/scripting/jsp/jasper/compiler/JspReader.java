@@ -21,6 +21,7 @@ import java.io.CharArrayWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.List;
 import java.util.Vector;
 import java.util.jar.JarFile;
@@ -141,6 +142,44 @@ class JspReader {
         pushFile(fname, encoding, reader);
     }
 
+    /**
+     * Constructor: same as above constructor but with the already read
+     * characters of the file given. The characters are not changed.
+     */
+    JspReader(JspCompilationContext ctxt,
+                     String fname,
+                     String encoding,
+                     char[] chars,
+                     ErrorDispatcher err)
+            throws JasperException {
+
+        this.context = ctxt;
+        this.err = err;
+        sourceFiles = new Vector();
+        currFileId = 0;
+        size = 0;
+        singleFile = false;
+        int fileid = registerSourceFile(fname);
+        currFileId = fileid;
+        current = new Mark(this, chars, fileid, getFile(fileid), master,
+                           encoding);
+    }
+
+    /**
+     * Reads all characters of a reader and closes it.
+     */
+    static char[] readChars(Reader reader) throws IOException {
+        try {
+            CharArrayWriter caw = new CharArrayWriter();
+            char buf[] = new char[1024];
+            for (int i = 0 ; (i = reader.read(buf)) != -1 ;)
+                caw.write(buf, 0, i);
+            return caw.toCharArray();
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * @return JSP compilation context with which this JspReader is 
      * associated
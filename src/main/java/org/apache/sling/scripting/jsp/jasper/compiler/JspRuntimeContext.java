@@ -24,6 +24,9 @@ import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.security.Policy;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,6 +36,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -53,6 +57,8 @@ import org.apache.sling.scripting.jsp.jasper.Constants;
 import org.apache.sling.scripting.jsp.jasper.IOProvider;
 import org.apache.sling.scripting.jsp.jasper.Options;
 import org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspMetrics;
+import org.apache.sling.scripting.jsp.jasper.runtime.PageContextPool;
 import org.apache.sling.scripting.jsp.jasper.security.SecurityClassLoad;
 import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
 
@@ -119,6 +125,10 @@ public final class JspRuntimeContext {
 
         @Override
         public void releasePageContext(PageContext paramPageContext) {
+            if (paramPageContext instanceof SlingJspPageContext) {
+                // release the wrapped context, so it can be pooled
+                paramPageContext = ((SlingJspPageContext) paramPageContext).getWrappedPageContext();
+            }
             this.getFactory().releasePageContext(paramPageContext);
         }
 
@@ -174,7 +184,42 @@ public final class JspRuntimeContext {
      * And set jsp factory
      */
     public static JspFactoryHandler initFactoryHandler() {
-        JspFactoryImpl factory = new JspFactoryImpl();
+        return initFactoryHandler(null);
+    }
+
+    /**
+     * Preload classes required at runtime by a JSP servlet so that
+     * we don't get a defineClassInPackage security exception.
+     * And set jsp factory recycling page contexts through the given pool
+     * which might be {@code null}.
+     */
+    public static JspFactoryHandler initFactoryHandler(final PageContextPool pool) {
+        return initFactoryHandler(pool, null);
+    }
+
+    /**
+     * Preload classes required at runtime by a JSP servlet so that
+     * we don't get a defineClassInPackage security exception.
+     * And set jsp factory recycling page contexts through the given pool
+     * and recording the page buffer overflows in the given metrics, both
+     * might be {@code null}.
+     */
+    public static JspFactoryHandler initFactoryHandler(final PageContextPool pool,
+            final JspMetrics metrics) {
+        return initFactoryHandler(pool, metrics, false);
+    }
+
+    /**
+     * Preload classes required at runtime by a JSP servlet so that
+     * we don't get a defineClassInPackage security exception.
+     * And set jsp factory recycling page contexts through the given pool
+     * and recording the page buffer overflows in the given metrics, both
+     * might be {@code null}, and optionally letting included pages write
+     * into the buffer of the including page.
+     */
+    public static JspFactoryHandler initFactoryHandler(final PageContextPool pool,
+            final JspMetrics metrics, final boolean includeWriteThrough) {
+        JspFactoryImpl factory = new JspFactoryImpl(pool, metrics, includeWriteThrough);
         SecurityClassLoad.securityClassLoad(factory.getClass().getClassLoader());
         if( System.getSecurityManager() != null ) {
             String basePackage = "org.apache.sling.scripting.jsp.jasper.";
@@ -245,6 +290,53 @@ public final class JspRuntimeContext {
      */
     private final ConcurrentHashMap<String, Lock> tagFileLoadingLocks = new ConcurrentHashMap<String, Lock>();
 
+    /**
+     * Time spent compiling.
+     */
+    private final CompileTimings compileTimings = new CompileTimings();
+
+    /**
+     * Batches the Java compilation of concurrent compilations.
+     */
+    private final JavaCompileBatcher compileBatcher = new JavaCompileBatcher();
+
+    /**
+     * The reported changes, if the freshness of pages is based on them.
+     */
+    private volatile FreshnessIndex freshnessIndex;
+
+    /**
+     * The sources of included resources, if cached.
+     */
+    private volatile IncludeCache includeCache;
+
+    /**
+     * Recompiles changed pages in the background while their previous
+     * servlet is served, if enabled.
+     */
+    private volatile Consumer<JspServletWrapper> revalidator;
+
+    /**
+     * How long a changed page is served by its previous servlet at most,
+     * in milliseconds. 0 does not limit it.
+     */
+    private volatile long maxStaleness;
+
+    /**
+     * Time spent serving changed pages.
+     */
+    private final StaleStatistics staleStatistics = new StaleStatistics();
+
+    /**
+     * Limits the concurrent compilations, if configured.
+     */
+    private volatile CompileQueue compileQueue;
+
+    /**
+     * Records the rendering and compilation of the scripts, if configured.
+     */
+    private volatile JspMetrics metrics;
+
     // ------------------------------------------------------ Public Methods
 
     public void addJspDependencies(final JspServletWrapper jsw, final List<String> deps) {
@@ -270,8 +362,12 @@ public final class JspRuntimeContext {
         if ( log.isDebugEnabled() ) {
             log.debug("Handling modification " + scriptName);
         }
+        final IncludeCache cache = this.includeCache;
+        if ( cache != null ) {
+            cache.remove(scriptName);
+        }
 
-        final JspServletWrapper wrapper = jsps.remove(scriptName);
+        final JspServletWrapper wrapper = this.detach(scriptName, isRemove);
         if ( wrapper == null && isRemove ) {
             boolean removed = false;
             final Path path = new Path(scriptName);
@@ -299,18 +395,54 @@ public final class JspRuntimeContext {
         // first check if jsps contains this
         boolean removed = this.invalidate(wrapper);
 
-        final Set<String> deps;
-        synchronized ( depToJsp ) {
-            deps = depToJsp.remove(scriptName);
-        }
-        if ( deps != null ) {
-            for(final String dep : deps) {
-                removed |= this.invalidate(jsps.remove(dep));
+        // invalidate all transitive dependents
+        final Set<String> visited = new HashSet<String>();
+        final List<String> pending = new ArrayList<String>();
+        visited.add(scriptName);
+        pending.add(scriptName);
+        while ( !pending.isEmpty() ) {
+            final String current = pending.remove(pending.size() - 1);
+            final Set<String> deps;
+            synchronized ( depToJsp ) {
+                deps = depToJsp.remove(current);
+            }
+            if ( deps != null ) {
+                for(final String dep : deps) {
+                    if ( visited.add(dep) ) {
+                        removed |= this.invalidate(this.detach(dep, false));
+                        pending.add(dep);
+                    }
+                }
             }
         }
         return removed;
     }
 
+    /**
+     * Remove the wrapper of a changed or removed page. The wrapper of a
+     * changed page is kept if it can serve its previous servlet until the
+     * page is recompiled in the background.
+     *
+     * @return The removed wrapper or {@code null}
+     */
+    private JspServletWrapper detach(final String jspUri, final boolean isRemove) {
+        final Consumer<JspServletWrapper> r = this.revalidator;
+        if ( r != null && !isRemove ) {
+            final JspServletWrapper wrapper = jsps.get(jspUri);
+            if ( wrapper != null && wrapper.markStale() ) {
+                if ( log.isDebugEnabled() ) {
+                    log.debug("Revalidating jsp " + jspUri);
+                }
+                // a change of a dependency during the compilation
+                // must mark the page again
+                addJspDependencies(wrapper, wrapper.getDependants());
+                r.accept(wrapper);
+                return null;
+            }
+        }
+        return jsps.remove(jspUri);
+    }
+
     /**
      * Invalidate a wrapper and destroy it.
      */
@@ -389,6 +521,120 @@ public final class JspRuntimeContext {
         return ioProvider;
     }
 
+    /**
+     * Returns the time spent compiling with this context.
+     */
+    public CompileTimings getCompileTimings() {
+        return compileTimings;
+    }
+
+    /**
+     * Returns the index of reported changes or {@code null} if the freshness
+     * of pages is determined by their modification times.
+     */
+    public FreshnessIndex getFreshnessIndex() {
+        return freshnessIndex;
+    }
+
+    /**
+     * Base the freshness of pages on the changes reported to the index.
+     */
+    public void setFreshnessIndex(final FreshnessIndex index) {
+        this.freshnessIndex = index;
+    }
+
+    /**
+     * Serve the previous servlet of a changed page while the given consumer
+     * recompiles it, or {@code null} to discard changed pages.
+     *
+     * @param revalidator Calls {@link JspServletWrapper#revalidate()}, usually
+     *                    in the background
+     * @param maxStaleness How long the previous servlet is served at most in
+     *                     milliseconds, after that requests wait for the
+     *                     compilation. 0 does not limit it.
+     */
+    public void setRevalidator(final Consumer<JspServletWrapper> revalidator, final long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+        this.revalidator = revalidator;
+    }
+
+    /**
+     * Returns how long a changed page is served by its previous servlet at
+     * most, in milliseconds. 0 means no limit.
+     */
+    public long getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    /**
+     * Returns the time spent serving changed pages.
+     */
+    public StaleStatistics getStaleStatistics() {
+        return staleStatistics;
+    }
+
+    /**
+     * Returns the queue limiting the concurrent compilations, or
+     * {@code null} if they are not limited.
+     */
+    public CompileQueue getCompileQueue() {
+        return compileQueue;
+    }
+
+    /**
+     * Limit the concurrent compilations through the queue, which may be
+     * shared with other contexts. {@code null} does not limit them.
+     */
+    public void setCompileQueue(final CompileQueue queue) {
+        this.compileQueue = queue;
+    }
+
+    /**
+     * Returns the metrics of the scripts, or {@code null} if they are not
+     * recorded.
+     */
+    public JspMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record the rendering and compilation of the scripts in the metrics,
+     * which may be shared with other contexts. {@code null} does not record
+     * them. The metrics must be set before the first page is requested.
+     */
+    public void setMetrics(final JspMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the wrappers of the known pages and tag files.
+     */
+    public Collection<JspServletWrapper> getWrappers() {
+        return Collections.unmodifiableCollection(jsps.values());
+    }
+
+    /**
+     * Cache the sources of up to the given number of statically included
+     * resources, 0 disables the cache.
+     */
+    public void setIncludeCacheSize(final int maxSize) {
+        this.includeCache = (maxSize > 0 ? new IncludeCache(maxSize) : null);
+    }
+
+    /**
+     * Returns the cache for included resources, if enabled.
+     */
+    IncludeCache getIncludeCache() {
+        return includeCache;
+    }
+
+    /**
+     * Returns the batcher for the Java compilation.
+     */
+    JavaCompileBatcher getCompileBatcher() {
+        return compileBatcher;
+    }
+
     // -------------------------------------------------------- Private Methods
 
     /**
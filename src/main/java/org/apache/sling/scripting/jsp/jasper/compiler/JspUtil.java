@@ -17,6 +17,8 @@
 
 package org.apache.sling.scripting.jsp.jasper.compiler;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -494,6 +496,75 @@ public class JspUtil {
                                          Class expectedType,
                                          String fnmapvar,
                                          boolean XmlEscape )
+    {
+        return interpreterCall(isTagFile, expression, expectedType, fnmapvar, XmlEscape, null);
+    }
+
+    /**
+     * Produces a String representing a call to the EL interpreter.
+     * @param expression a String containing zero or more "${}" expressions
+     * @param expectedType the expected type of the interpreted result
+     * @param fnmapvar Variable pointing to a function map.
+     * @param XmlEscape True if the result should do XML escaping
+     * @param cachevar Variable pointing to the expression cache or null.
+     * @return a String representing a call to the EL interpreter.
+     */
+    public static String interpreterCall(boolean isTagFile,
+                     String expression,
+                                         Class expectedType,
+                                         String fnmapvar,
+                                         boolean XmlEscape,
+                                         String cachevar )
+    {
+        return interpreterCall(isTagFile, expression, expectedType, fnmapvar,
+                XmlEscape, cachevar, null);
+    }
+
+    /**
+     * Produces a String representing the evaluation of a pre-parsed
+     * expression held in a static field of the generated class.
+     * @param fieldvar Variable pointing to the value expression.
+     * @param expectedType the expected type of the interpreted result
+     * @param fnmapvar Variable pointing to a function map.
+     * @param XmlEscape True if the result should do XML escaping
+     * @return a String representing a call to the EL interpreter.
+     */
+    public static String expressionFieldCall(boolean isTagFile,
+                                         String fieldvar,
+                                         Class expectedType,
+                                         String fnmapvar,
+                                         boolean XmlEscape )
+    {
+        return interpreterCall(isTagFile, null, expectedType, fnmapvar,
+                XmlEscape, null, fieldvar);
+    }
+
+    /**
+     * Produces a String representing the creation of a pre-parsed
+     * expression, used to initialize the static field holding it.
+     * @param expression a String containing zero or more "${}" expressions
+     * @param expectedType the expected type of the interpreted result
+     * @param fnmapvar Variable pointing to a function map.
+     * @return a String representing the parsing of the expression.
+     */
+    public static String expressionFieldInitializer(String expression,
+                                         Class expectedType,
+                                         String fnmapvar )
+    {
+        return "org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl.createValueExpression"
+               + "(" + Generator.quote(expression) + ", "
+               +       toJavaSourceType(toBoxedTypeName(expectedType)) + ".class, "
+               +       fnmapvar
+               + ")";
+    }
+
+    private static String interpreterCall(boolean isTagFile,
+                     String expression,
+                                         Class expectedType,
+                                         String fnmapvar,
+                                         boolean XmlEscape,
+                                         String cachevar,
+                                         String fieldvar )
     {
         /*
          * Determine which context object to use.
@@ -509,34 +580,10 @@ public class JspUtil {
      * or, if it's a primitive, the name of its correspondent boxed
      * type.
          */
-    String targetType = expectedType.getName();
+    String targetType = toBoxedTypeName(expectedType);
     String primitiveConverterMethod = null;
     if (expectedType.isPrimitive()) {
-        if (expectedType.equals(Boolean.TYPE)) {
-        targetType = Boolean.class.getName();
-        primitiveConverterMethod = "booleanValue";
-        } else if (expectedType.equals(Byte.TYPE)) {
-        targetType = Byte.class.getName();
-        primitiveConverterMethod = "byteValue";
-        } else if (expectedType.equals(Character.TYPE)) {
-        targetType = Character.class.getName();
-        primitiveConverterMethod = "charValue";
-        } else if (expectedType.equals(Short.TYPE)) {
-        targetType = Short.class.getName();
-        primitiveConverterMethod = "shortValue";
-        } else if (expectedType.equals(Integer.TYPE)) {
-        targetType = Integer.class.getName();
-        primitiveConverterMethod = "intValue";
-        } else if (expectedType.equals(Long.TYPE)) {
-        targetType = Long.class.getName();
-        primitiveConverterMethod = "longValue";
-        } else if (expectedType.equals(Float.TYPE)) {
-        targetType = Float.class.getName();
-        primitiveConverterMethod = "floatValue";
-        } else if (expectedType.equals(Double.TYPE)) {
-        targetType = Double.class.getName();
-        primitiveConverterMethod = "doubleValue";
-        }
+        primitiveConverterMethod = expectedType.getName() + "Value";
     }
 
     if (primitiveConverterMethod != null) {
@@ -558,7 +605,18 @@ public class JspUtil {
         // the generated Servlet/SimpleTag implements FunctionMapper, so
         // that machinery is already in place (mroth).
     targetType = toJavaSourceType(targetType);
-    StringBuffer call = new StringBuffer(
+    StringBuffer call;
+    if (fieldvar != null) {
+        call = new StringBuffer(
+             "(" + targetType + ") "
+               + "org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl.evaluateExpression"
+               + "(" + fieldvar + ", "
+           +       "(PageContext)" + jspCtxt
+               +       ", " + fnmapvar
+           + ", " + XmlEscape
+               + ")");
+    } else {
+        call = new StringBuffer(
              "(" + targetType + ") "
                + "org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl.proprietaryEvaluate"
                + "(" + Generator.quote(expression) + ", "
@@ -566,7 +624,9 @@ public class JspUtil {
            +       "(PageContext)" + jspCtxt
                +       ", " + fnmapvar
            + ", " + XmlEscape
+               + (cachevar != null ? ", " + cachevar : "")
                + ")");
+    }
 
     /*
          * Add the primitive converter method if we need to.
@@ -579,6 +639,33 @@ public class JspUtil {
     return call.toString();
     }
 
+    /**
+     * Returns the name of the expected type or, if it's a primitive,
+     * the name of its correspondent boxed type.
+     */
+    private static String toBoxedTypeName(Class expectedType) {
+    if (expectedType.isPrimitive()) {
+        if (expectedType.equals(Boolean.TYPE)) {
+        return Boolean.class.getName();
+        } else if (expectedType.equals(Byte.TYPE)) {
+        return Byte.class.getName();
+        } else if (expectedType.equals(Character.TYPE)) {
+        return Character.class.getName();
+        } else if (expectedType.equals(Short.TYPE)) {
+        return Short.class.getName();
+        } else if (expectedType.equals(Integer.TYPE)) {
+        return Integer.class.getName();
+        } else if (expectedType.equals(Long.TYPE)) {
+        return Long.class.getName();
+        } else if (expectedType.equals(Float.TYPE)) {
+        return Float.class.getName();
+        } else if (expectedType.equals(Double.TYPE)) {
+        return Double.class.getName();
+        }
+    }
+    return expectedType.getName();
+    }
+
     /**
      * Validates the syntax of all ${} expressions within the given string.
      * @param where the approximate location of the expressions in the JSP page
@@ -831,11 +918,44 @@ public class JspUtil {
     }
     }
 
+    /**
+     * Returns a stream for the given file. While the page is compiled,
+     * each file is only read once and further streams are created from
+     * the read bytes.
+     */
     public static InputStream getInputStream(String fname, JarFile jarFile,
                          JspCompilationContext ctxt,
                          ErrorDispatcher err)
         throws JasperException, IOException {
 
+        final Compiler compiler = ctxt.getCompiler();
+        final String key = (jarFile == null ? fname : jarFile.getName() + "!" + fname);
+        byte[] source = compiler.getSource(key);
+        if (source == null) {
+            final InputStream in = openInputStream(fname, jarFile, ctxt, err);
+            if (!compiler.isKeepingSources()) {
+                return in;
+            }
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                for (int i = 0; (i = in.read(buf)) != -1;) {
+                    out.write(buf, 0, i);
+                }
+                source = out.toByteArray();
+            } finally {
+                in.close();
+            }
+            compiler.putSource(key, source);
+        }
+        return new ByteArrayInputStream(source);
+    }
+
+    private static InputStream openInputStream(String fname, JarFile jarFile,
+                         JspCompilationContext ctxt,
+                         ErrorDispatcher err)
+        throws JasperException, IOException {
+
         InputStream in = null;
 
         if (jarFile != null) {
@@ -27,6 +27,7 @@ import java.util.jar.JarFile;
 
 import org.apache.sling.scripting.jsp.jasper.JasperException;
 import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
 import org.apache.sling.scripting.jsp.jasper.xmlparser.XMLEncodingDetector;
 import org.xml.sax.Attributes;
 
@@ -167,9 +168,29 @@ class ParserController implements TagConstants {
         String absFileName = resolveFileName(inFileName);
         String jspConfigPageEnc = getJspConfigPageEncoding(absFileName);
 
-        // Figure out what type of JSP document and encoding type we are
-        // dealing with
-        determineSyntaxAndEncoding(absFileName, jarFile, jspConfigPageEnc);
+        // Included resources are shared by many pages, reuse their source
+        final IncludeCache includeCache = (parent != null && jarFile == null)
+                ? ctxt.getRuntimeContext().getIncludeCache() : null;
+        IncludeCache.Entry cached = null;
+        long lastModified = -1;
+        if (includeCache != null) {
+            lastModified = ctxt.getRuntimeContext().getIOProvider().lastModified(absFileName);
+            cached = includeCache.get(absFileName, lastModified);
+        }
+
+        if (cached != null) {
+            isXml = cached.isXml;
+            sourceEnc = cached.sourceEnc;
+            isEncodingSpecifiedInProlog = cached.isEncodingSpecifiedInProlog;
+            isBomPresent = cached.isBomPresent;
+            isDefaultPageEncoding = cached.isDefaultPageEncoding;
+        } else {
+            // Figure out what type of JSP document and encoding type we are
+            // dealing with
+            final long start = System.nanoTime();
+            determineSyntaxAndEncoding(absFileName, jarFile, jspConfigPageEnc);
+            compiler.record(Phase.ENCODING, start);
+        }
 
         if (parent != null) {
             // Included resource, add to dependent list
@@ -203,6 +224,31 @@ class ParserController implements TagConstants {
                     jspConfigPageEnc,
                     isEncodingSpecifiedInProlog,
                     isBomPresent);
+            if (includeCache != null && cached == null && lastModified > 0) {
+                includeCache.put(absFileName, new IncludeCache.Entry(lastModified,
+                        isXml, sourceEnc, isEncodingSpecifiedInProlog,
+                        isBomPresent, isDefaultPageEncoding, null));
+            }
+        } else if (includeCache != null && lastModified > 0) {
+            // Standard syntax, the characters are shared with other pages
+            char[] chars = (cached == null ? null : cached.chars);
+            if (chars == null) {
+                try {
+                    chars = JspReader.readChars(JspUtil.getReader(absFileName,
+                            sourceEnc, jarFile, ctxt, err, skip));
+                } catch (IOException ex) {
+                    err.jspError("jsp.error.file.cannot.read", absFileName);
+                }
+                includeCache.put(absFileName, new IncludeCache.Entry(lastModified,
+                        isXml, sourceEnc, isEncodingSpecifiedInProlog,
+                        isBomPresent, isDefaultPageEncoding, chars));
+            }
+            JspReader jspReader = new JspReader(ctxt, absFileName,
+                    sourceEnc, chars, err);
+            parsedPage = Parser.parse(this, jspReader, parent, isTagFile,
+                    directiveOnly, jarFileUrl,
+                    sourceEnc, jspConfigPageEnc,
+                    isDefaultPageEncoding, isBomPresent);
         } else {
             // Standard syntax
             InputStreamReader inStreamReader = null;
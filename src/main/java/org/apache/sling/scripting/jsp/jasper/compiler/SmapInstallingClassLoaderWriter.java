@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileTimings.Phase;
+
+/**
+ * Class loader writer handed to the Java compiler, which installs the
+ * SMAPs into the classes while they are written.
+ *
+ * The class files are buffered and written to the underlying writer once,
+ * instead of reading them back, writing a temporary file and renaming it
+ * after the compilation. The time to install the SMAPs and to write the
+ * classes is recorded. All other calls are passed to the underlying
+ * writer.
+ */
+final class SmapInstallingClassLoaderWriter implements ClassLoaderWriter {
+
+    private final ClassLoaderWriter delegate;
+
+    /** The SMAPs by class file path, see {@link SmapUtil#toClassPath}. */
+    private final Map<String, byte[]> smaps;
+
+    private final CompileTimings timings;
+
+    SmapInstallingClassLoaderWriter(final ClassLoaderWriter delegate,
+            final Map<String, byte[]> smaps,
+            final CompileTimings timings) {
+        this.delegate = delegate;
+        this.smaps = smaps;
+        this.timings = timings;
+    }
+
+    /**
+     * Returns a writer installing the SMAPs of this and the other writer,
+     * used if the units of several pages are compiled together.
+     */
+    SmapInstallingClassLoaderWriter merge(final SmapInstallingClassLoaderWriter other) {
+        final Map<String, byte[]> all = new HashMap<String, byte[]>(this.smaps);
+        all.putAll(other.smaps);
+        return new SmapInstallingClassLoaderWriter(this.delegate, all, this.timings);
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#getOutputStream(java.lang.String)
+     */
+    public OutputStream getOutputStream(final String path) {
+        final byte[] smap = this.smaps.get(SmapUtil.toClassPath(path));
+        return new ByteArrayOutputStream() {
+
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if ( closed ) {
+                    return;
+                }
+                closed = true;
+                long start = System.nanoTime();
+                byte[] classFile = toByteArray();
+                if ( smap != null ) {
+                    classFile = SmapUtil.installSmap(classFile, smap);
+                    final long end = System.nanoTime();
+                    timings.add(Phase.SMAP_INSTALL, end - start);
+                    start = end;
+                }
+                final OutputStream out = delegate.getOutputStream(path);
+                try {
+                    out.write(classFile);
+                } finally {
+                    out.close();
+                    timings.add(Phase.CLASS_WRITE, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#getInputStream(java.lang.String)
+     */
+    public InputStream getInputStream(final String path) throws IOException {
+        return this.delegate.getInputStream(path);
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#getLastModified(java.lang.String)
+     */
+    public long getLastModified(final String path) {
+        return this.delegate.getLastModified(path);
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#delete(java.lang.String)
+     */
+    public boolean delete(final String path) {
+        return this.delegate.delete(path);
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#rename(java.lang.String, java.lang.String)
+     */
+    public boolean rename(final String oldPath, final String newPath) {
+        return this.delegate.rename(oldPath, newPath);
+    }
+
+    /**
+     * @see org.apache.sling.commons.classloader.ClassLoaderWriter#getClassLoader()
+     */
+    public ClassLoader getClassLoader() {
+        return this.delegate.getClassLoader();
+    }
+}
@@ -17,13 +17,12 @@
 
 package org.apache.sling.scripting.jsp.jasper.compiler;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -156,16 +155,52 @@ public class SmapUtil {
         }
     }
 
-    public static void installSmap(JspCompilationContext ctxt, String[] smap)
-            throws IOException {
-        if (smap == null) {
-            return;
+    /**
+     * Returns the SMAPs by the path of the class file as written by the
+     * Java compiler through the class loader writer.
+     *
+     * @param ctxt Current compilation context
+     * @param smap The SMAPs as returned by {@link #generateSmap}
+     * @return The SMAP bytes by class file path
+     */
+    static Map<String, byte[]> getSmapsByClassPath(JspCompilationContext ctxt, String[] smap)
+            throws UnsupportedEncodingException {
+        final Map<String, byte[]> result = new HashMap<String, byte[]>();
+        if (smap != null) {
+            final String scratchDir = ctxt.getOptions().getScratchDir();
+            for (int i = 0; i < smap.length; i += 2) {
+                // the class file name of the context, for pages and tag files
+                String path = smap[i];
+                if (scratchDir != null && path.startsWith(scratchDir)) {
+                    path = path.substring(scratchDir.length());
+                }
+                result.put(toClassPath(path), smap[i+1].getBytes(SMAP_ENCODING));
+            }
         }
+        return result;
+    }
 
-        for (int i = 0; i < smap.length; i += 2) {
-            String outServlet = smap[i];
-            SDEInstaller.install(ctxt, outServlet, smap[i+1].getBytes());
-        }
+    /**
+     * Returns the path of a class file below the scratch directory in the
+     * form the Java compiler writes it through the class loader writer:
+     * absolute and with single slashes as separators.
+     *
+     * @param path The path of the class file below the scratch directory
+     * @return The normalized path
+     */
+    static String toClassPath(final String path) {
+        return ("/" + path.replace('\\', '/')).replaceAll("/{2,}", "/");
+    }
+
+    /**
+     * Installs a SMAP into the bytes of a class.
+     *
+     * @param classFile The bytes of the class
+     * @param smap The SMAP
+     * @return The bytes of the class including the SMAP
+     */
+    static byte[] installSmap(byte[] classFile, byte[] smap) throws IOException {
+        return new SDEInstaller(classFile, smap).getBytes();
     }
 
     //*********************************************************************
@@ -205,94 +240,15 @@ public class SmapUtil {
 
         int sdeIndex;
 
-        //        public static void main(String[] args) throws IOException {
-        //            if (args.length == 2) {
-        //                install(new File(args[0]), new File(args[1]));
-        //            } else if (args.length == 3) {
-        //                install(
-        //                    new File(args[0]),
-        //                    new File(args[1]),
-        //                    new File(args[2]));
-        //            } else {
-        //                System.err.println(
-        //                    "Usage: <command> <input class file> "
-        //                        + "<attribute file> <output class file name>\n"
-        //                        + "<command> <input/output class file> <attribute file>");
-        //            }
-        //        }
-        //
-        //        static void install(File inClassFile, File attrFile, File outClassFile)
-        //            throws IOException {
-        //            new SDEInstaller(inClassFile, attrFile, outClassFile);
-        //        }
-        //
-        //        static void install(File inOutClassFile, File attrFile)
-        //            throws IOException {
-        //            File tmpFile = new File(inOutClassFile.getPath() + "tmp");
-        //            new SDEInstaller(inOutClassFile, attrFile, tmpFile);
-        //            if (!inOutClassFile.delete()) {
-        //                throw new IOException("inOutClassFile.delete() failed");
-        //            }
-        //            if (!tmpFile.renameTo(inOutClassFile)) {
-        //                throw new IOException("tmpFile.renameTo(inOutClassFile) failed");
-        //            }
-        //        }
-        //
-        static void install(JspCompilationContext ctxt, String classFile, byte[] smap) throws IOException {
-            String tmpFile = classFile + "tmp";
-            new SDEInstaller(ctxt, classFile, smap, tmpFile);
-            if (!ctxt.delete(classFile)) {
-                throw new IOException("classFile.delete() failed");
-            }
-            if (!ctxt.rename(tmpFile, classFile)) {
-                throw new IOException("tmpFile.renameTo(classFile) failed (" + tmpFile + " -> " + classFile + ")");
-            }
-        }
-
-        SDEInstaller(JspCompilationContext ctxt, String inClassFile, byte[] sdeAttr, String outClassFile)
-                throws IOException {
-            //            if (!inClassFile.exists()) {
-            //                throw new FileNotFoundException("no such file: " + inClassFile);
-            //            }
-
+        SDEInstaller(byte[] orig, byte[] sdeAttr) throws IOException {
+            this.orig = orig;
             this.sdeAttr = sdeAttr;
-            // get the bytes
-            orig = readWhole(ctxt, inClassFile);
             gen = new byte[orig.length + sdeAttr.length + 100];
-
-            // do it
             addSDE();
-
-            // write result
-            OutputStream outStream = ctxt.getOutputStream(outClassFile);
-            outStream.write(gen, 0, genPos);
-            outStream.close();
         }
 
-        //        SDEInstaller(File inClassFile, File attrFile, File outClassFile)
-        //            throws IOException {
-        //            this(inClassFile, readWhole(attrFile), outClassFile);
-        //        }
-        //
-        static byte[] readWhole(JspCompilationContext ctxt, String input) throws IOException {
-            InputStream inStream = ctxt.getInputStream(input);
-            try {
-                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                byte[] buffer = new byte[1024 * 4];
-                long count = 0;
-                int n = 0;
-                while (-1 != (n = inStream.read(buffer))) {
-                    output.write(buffer, 0, n);
-                    count += n;
-                }
-                return output.toByteArray();
-            } finally {
-                try {
-                    inStream.close();
-                } catch (IOException ioe) {
-                    // ignore
-                }
-            }
+        byte[] getBytes() {
+            return Arrays.copyOf(gen, genPos);
         }
 
         void addSDE() throws UnsupportedEncodingException, IOException {
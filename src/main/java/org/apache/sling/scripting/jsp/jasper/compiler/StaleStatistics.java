@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulated time changed pages have been served by their previous servlet
+ * while they were recompiled.
+ */
+public final class StaleStatistics {
+
+    private final LongAdder revalidations = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder staleTime = new LongAdder();
+
+    private final LongAccumulator maxStaleTime = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Records a recompilation of a stale page.
+     *
+     * @param millis The time the page has been stale in milliseconds
+     * @param failed Whether the recompilation failed
+     */
+    public void add(final long millis, final boolean failed) {
+        revalidations.increment();
+        if ( failed ) {
+            failures.increment();
+        }
+        staleTime.add(millis);
+        maxStaleTime.accumulate(millis);
+    }
+
+    /**
+     * Returns the number of recompiled stale pages.
+     */
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    /**
+     * Returns the number of recompilations which failed.
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Returns the total time pages have been stale in milliseconds.
+     */
+    public long getStaleTime() {
+        return staleTime.sum();
+    }
+
+    /**
+     * Returns the longest time a page has been stale in milliseconds.
+     */
+    public long getMaxStaleTime() {
+        return maxStaleTime.get();
+    }
+
+    /**
+     * Resets all statistics.
+     */
+    public void reset() {
+        revalidations.reset();
+        failures.reset();
+        staleTime.reset();
+        maxStaleTime.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "revalidations=" + getRevalidationCount()
+                + ", failures=" + getFailureCount()
+                + ", stale=" + getStaleTime() + "ms"
+                + ", maxStale=" + getMaxStaleTime() + "ms";
+    }
+}
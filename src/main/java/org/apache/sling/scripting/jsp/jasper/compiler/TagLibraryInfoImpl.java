@@ -150,19 +150,29 @@ class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
             location = generateTLDLocation(uri, ctxt);
         }
 
+        // the parsed TLDs are shared by all pages
+        final TldLocationsCache tldCache = ctxt.getOptions().getTldLocationsCache();
+        TreeNode tld = (tldCache == null ? null : tldCache.getParsedTld(location));
+
         try {
             if (!location[0].endsWith("jar")) {
                 // Location points to TLD file
-                try {
-                    in = getResourceAsStream(location[0]);
-                    if (in == null) {
-                        throw new FileNotFoundException(location[0]);
+                if (tld == null) {
+                    try {
+                        in = getResourceAsStream(location[0]);
+                        if (in == null) {
+                            throw new FileNotFoundException(location[0]);
+                        }
+                    } catch (FileNotFoundException ex) {
+                        err.jspError("jsp.error.file.not.found", location[0]);
+                    }
+                    tld = new ParserUtils().parseXMLDocument(location[0], in);
+                    if (tldCache != null) {
+                        tldCache.putParsedTld(location, tld);
                     }
-                } catch (FileNotFoundException ex) {
-                    err.jspError("jsp.error.file.not.found", location[0]);
                 }
 
-                parseTLD(ctxt, location[0], in, null);
+                parseTLD(ctxt, location[0], tld, null);
                 // Add TLD to dependency list
                 PageInfo pageInfo = ctxt.getCompiler().getPageInfo();
                 if (pageInfo != null) {
@@ -172,14 +182,20 @@ class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
                 // Tag library is packaged in JAR file
                 try {
                     URL jarFileUrl = new URL("jar:" + location[0] + "!/");
-                    JarURLConnection conn = (JarURLConnection) jarFileUrl
-                            .openConnection();
-                    conn.setUseCaches(false);
-                    conn.connect();
-                    jarFile = conn.getJarFile();
-                    ZipEntry jarEntry = jarFile.getEntry(location[1]);
-                    in = jarFile.getInputStream(jarEntry);
-                    parseTLD(ctxt, location[0], in, jarFileUrl);
+                    if (tld == null) {
+                        JarURLConnection conn = (JarURLConnection) jarFileUrl
+                                .openConnection();
+                        conn.setUseCaches(false);
+                        conn.connect();
+                        jarFile = conn.getJarFile();
+                        ZipEntry jarEntry = jarFile.getEntry(location[1]);
+                        in = jarFile.getInputStream(jarEntry);
+                        tld = new ParserUtils().parseXMLDocument(location[0], in);
+                        if (tldCache != null) {
+                            tldCache.putParsedTld(location, tld);
+                        }
+                    }
+                    parseTLD(ctxt, location[0], tld, jarFileUrl);
                 } catch (Exception ex) {
                     err.jspError("jsp.error.tld.unable_to_read", location[0],
                             location[1], ex.toString());
@@ -210,19 +226,15 @@ class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
 
     /*
      * @param ctxt The JSP compilation context @param uri The TLD's uri @param
-     * in The TLD's input stream @param jarFileUrl The JAR file containing the
+     * tld The parsed TLD @param jarFileUrl The JAR file containing the
      * TLD, or null if the tag library is not packaged in a JAR
      */
     private void parseTLD(JspCompilationContext ctxt, String uri,
-            InputStream in, URL jarFileUrl) throws JasperException {
+            TreeNode tld, URL jarFileUrl) throws JasperException {
         Vector tagVector = new Vector();
         Vector tagFileVector = new Vector();
         Hashtable functionTable = new Hashtable();
 
-        // Create an iterator over the child elements of our <taglib> element
-        ParserUtils pu = new ParserUtils();
-        TreeNode tld = pu.parseXMLDocument(uri, in);
-
         // Check to see if the <taglib> root element contains a 'version'
         // attribute, which was added in JSP 2.0 to replace the <jsp-version>
         // subelement
@@ -18,8 +18,10 @@
 package org.apache.sling.scripting.jsp.jasper.compiler;
 
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.servlet.ServletContext;
 
@@ -31,92 +33,162 @@ import org.apache.sling.scripting.jsp.jasper.xmlparser.TreeNode;
 
 /**
  * Manages tag plugin optimizations.
+ *
+ * The plugins are read from the tagPlugins.xml for the JSTL core tags
+ * shipped with this bundle and from the "/WEB-INF/tagPlugins.xml" of the
+ * servlet context. Additional plugins can be registered and unregistered
+ * at any time, they take precedence over the configured ones. The
+ * manager is shared by all compilations, which may run concurrently.
+ *
  * @author Kin-man Chung
  */
 
 public class TagPluginManager {
 
     private static final String TAG_PLUGINS_XML = "/WEB-INF/tagPlugins.xml";
+    private static final String JSTL_TAG_PLUGINS_XML =
+        "/org/apache/sling/scripting/jsp/jasper/tagplugins/jstl/tagPlugins.xml";
     private static final String TAG_PLUGINS_ROOT_ELEM = "tag-plugins";
 
-    private boolean initialized = false;
-    private HashMap tagPlugins = null;
-    private ServletContext ctxt;
-    private PageInfo pageInfo;
+    private final ServletContext ctxt;
+    private final boolean enabled;
+
+    /** The registered plugins by tag handler class name, guarded by this. */
+    private final Map<String, TagPlugin> registeredPlugins = new HashMap<String, TagPlugin>();
+
+    /** The configured plugins, null until initialized, guarded by this. */
+    private Map<String, TagPlugin> configuredPlugins;
+
+    /** All plugins, null until initialized, replaced on every change. */
+    private volatile Map<String, TagPlugin> tagPlugins;
 
     public TagPluginManager(ServletContext ctxt) {
-	this.ctxt = ctxt;
+        this(ctxt, true);
+    }
+
+    /**
+     * @param ctxt The servlet context to read the tagPlugins.xml from
+     * @param enabled Whether tag plugins are applied at all
+     */
+    public TagPluginManager(ServletContext ctxt, boolean enabled) {
+        this.ctxt = ctxt;
+        this.enabled = enabled;
     }
 
-    public void apply(Node.Nodes page, ErrorDispatcher err, PageInfo pageInfo)
-	    throws JasperException {
+    public boolean isEnabled() {
+        return enabled;
+    }
 
-	init(err);
-	if (tagPlugins == null || tagPlugins.size() == 0) {
-	    return;
-	}
+    /**
+     * Replace the registered plugins.
+     *
+     * @param plugins The plugins by the name of their tag handler class
+     */
+    public synchronized void setTagPlugins(Map<String, TagPlugin> plugins) {
+        registeredPlugins.clear();
+        registeredPlugins.putAll(plugins);
+        update();
+    }
 
-	this.pageInfo = pageInfo;
+    public void apply(Node.Nodes page, ErrorDispatcher err,
+            final PageInfo pageInfo) throws JasperException {
+
+        if (!enabled) {
+            return;
+        }
+        final Map<String, TagPlugin> plugins = init(err);
+        if (plugins.isEmpty()) {
+            return;
+        }
 
         page.visit(new Node.Visitor() {
+            @Override
             public void visit(Node.CustomTag n)
                     throws JasperException {
-                invokePlugin(n);
+                invokePlugin(n, plugins, pageInfo);
                 visitBody(n);
             }
         });
 
     }
 
-    private void init(ErrorDispatcher err) throws JasperException {
-	if (initialized)
-	    return;
-
-	InputStream is = ctxt.getResourceAsStream(TAG_PLUGINS_XML);
-	if (is == null)
-	    return;
-
-	TreeNode root = (new ParserUtils()).parseXMLDocument(TAG_PLUGINS_XML,
-							     is);
-	if (root == null) {
-	    return;
-	}
+    private Map<String, TagPlugin> init(ErrorDispatcher err) throws JasperException {
+        Map<String, TagPlugin> plugins = tagPlugins;
+        if (plugins != null) {
+            return plugins;
+        }
+        synchronized (this) {
+            if (tagPlugins == null) {
+                Map<String, TagPlugin> configured = new HashMap<String, TagPlugin>();
+                readTagPlugins(JSTL_TAG_PLUGINS_XML,
+                        TagPluginManager.class.getResourceAsStream(JSTL_TAG_PLUGINS_XML),
+                        configured, err);
+                readTagPlugins(TAG_PLUGINS_XML,
+                        ctxt.getResourceAsStream(TAG_PLUGINS_XML),
+                        configured, err);
+                configuredPlugins = configured;
+                update();
+            }
+            return tagPlugins;
+        }
+    }
 
-	if (!TAG_PLUGINS_ROOT_ELEM.equals(root.getName())) {
-	    err.jspError("jsp.error.plugin.wrongRootElement", TAG_PLUGINS_XML,
-			 TAG_PLUGINS_ROOT_ELEM);
-	}
+    /**
+     * Merge the configured and the registered plugins, once the configured
+     * plugins have been read.
+     */
+    private void update() {
+        if (configuredPlugins != null) {
+            Map<String, TagPlugin> plugins = new HashMap<String, TagPlugin>(configuredPlugins);
+            plugins.putAll(registeredPlugins);
+            tagPlugins = Collections.unmodifiableMap(plugins);
+        }
+    }
 
-	tagPlugins = new HashMap();
-	Iterator pluginList = root.findChildren("tag-plugin");
-	while (pluginList.hasNext()) {
-	    TreeNode pluginNode = (TreeNode) pluginList.next();
+    private void readTagPlugins(String path, InputStream is,
+            Map<String, TagPlugin> plugins, ErrorDispatcher err)
+            throws JasperException {
+        if (is == null)
+            return;
+
+        TreeNode root = (new ParserUtils()).parseXMLDocument(path, is);
+        if (root == null) {
+            return;
+        }
+
+        if (!TAG_PLUGINS_ROOT_ELEM.equals(root.getName())) {
+            err.jspError("jsp.error.plugin.wrongRootElement", path,
+                         TAG_PLUGINS_ROOT_ELEM);
+        }
+
+        Iterator pluginList = root.findChildren("tag-plugin");
+        while (pluginList.hasNext()) {
+            TreeNode pluginNode = (TreeNode) pluginList.next();
             TreeNode tagClassNode = pluginNode.findChild("tag-class");
-	    if (tagClassNode == null) {
-		// Error
-		return;
-	    }
-	    String tagClass = tagClassNode.getBody().trim();
-	    TreeNode pluginClassNode = pluginNode.findChild("plugin-class");
-	    if (pluginClassNode == null) {
-		// Error
-		return;
-	    }
+            if (tagClassNode == null) {
+                // Error
+                return;
+            }
+            String tagClass = tagClassNode.getBody().trim();
+            TreeNode pluginClassNode = pluginNode.findChild("plugin-class");
+            if (pluginClassNode == null) {
+                // Error
+                return;
+            }
 
-	    String pluginClassStr = pluginClassNode.getBody();
-	    TagPlugin tagPlugin = null;
-	    try {
-		Class pluginClass = this.getClass().getClassLoader().loadClass(pluginClassStr);
-		tagPlugin = (TagPlugin) pluginClass.newInstance();
-	    } catch (Exception e) {
-		throw new JasperException(e);
-	    }
-	    if (tagPlugin == null) {
-		return;
-	    }
-	    tagPlugins.put(tagClass, tagPlugin);
-	}
-	initialized = true;
+            String pluginClassStr = pluginClassNode.getBody().trim();
+            TagPlugin tagPlugin = null;
+            try {
+                Class pluginClass = this.getClass().getClassLoader().loadClass(pluginClassStr);
+                tagPlugin = (TagPlugin) pluginClass.newInstance();
+            } catch (Exception e) {
+                throw new JasperException(e);
+            }
+            if (tagPlugin == null) {
+                return;
+            }
+            plugins.put(tagClass, tagPlugin);
+        }
     }
 
     /**
@@ -125,16 +197,16 @@ public class TagPluginManager {
      *
      * The given custom tag node will be manipulated by the plugin.
      */
-    private void invokePlugin(Node.CustomTag n) {
-	TagPlugin tagPlugin = (TagPlugin)
-		tagPlugins.get(n.getTagHandlerClass().getName());
-	if (tagPlugin == null) {
-	    return;
-	}
-
-	TagPluginContext tagPluginContext = new TagPluginContextImpl(n, pageInfo);
-	n.setTagPluginContext(tagPluginContext);
-	tagPlugin.doTag(tagPluginContext);
+    private void invokePlugin(Node.CustomTag n, Map<String, TagPlugin> plugins,
+            PageInfo pageInfo) {
+        TagPlugin tagPlugin = plugins.get(n.getTagHandlerClass().getName());
+        if (tagPlugin == null) {
+            return;
+        }
+
+        TagPluginContext tagPluginContext = new TagPluginContextImpl(n, pageInfo);
+        n.setTagPluginContext(tagPluginContext);
+        tagPlugin.doTag(tagPluginContext);
     }
 
     static class TagPluginContextImpl implements TagPluginContext {
@@ -192,6 +264,25 @@ public class TagPluginManager {
 	    return getNodeAttribute(attribute) != null;
 	}
 
+	public boolean hasEmptyBody() {
+	    return node.hasEmptyBody();
+	}
+
+	public boolean isDeferredAttribute(String attribute) {
+	    Node.JspAttribute attr = getNodeAttribute(attribute);
+	    if (attr == null || attr.isExpression() || attr.isNamedAttribute()
+		    || attr.getValue() == null) {
+		return false;
+	    }
+	    if (attr.isDeferredMethodInput()) {
+		return true;
+	    }
+	    // Deferred values are evaluated if they may be request time
+	    // values and use the immediate syntax, see Generator
+	    return attr.isDeferredInput() && (!attr.getTagAttributeInfo().canBeRequestTime()
+		    || attr.getValue().contains("#{"));
+	}
+
 	public String getTemporaryVariableName() {
 	    return node.getRoot().nextTemporaryVariableName();
 	}
@@ -18,8 +18,12 @@
 package org.apache.sling.scripting.jsp.jasper.compiler;
 
 import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.apache.sling.scripting.jsp.jasper.xmlparser.TreeNode;
 
 
 /**
@@ -42,7 +46,9 @@ import org.apache.sling.scripting.jsp.jasper.JasperException;
  * it is not currently possible to share an instance of TagLibraryInfo
  * across page invocations. A bug has been submitted to the spec lead.
  * In the mean time, all we do is save the 'location' where the
- * TLD associated with a taglib URI can be found.
+ * TLD associated with a taglib URI can be found, together with the
+ * parsed TLD documents by their location. The documents are not changed
+ * after parsing and are shared by all pages using the tag library.
  *
  * When a JSP page has a taglib directive, the mappings in this container
  * are first searched (see method getLocation()).
@@ -64,10 +70,85 @@ public abstract class TldLocationsCache {
     public static final int ROOT_REL_URI = 1;
     public static final int NOROOT_REL_URI = 2;
 
+    /**
+     * The parsed TLDs by location.
+     */
+    private final ConcurrentHashMap<String, TreeNode> parsedTlds = new ConcurrentHashMap<String, TreeNode>();
+
+    private final LongAdder parsedTldHits = new LongAdder();
+
+    private final LongAdder parsedTldMisses = new LongAdder();
+
     public abstract String[] getLocation(String uri) throws JasperException;
 
     public abstract URL getTldLocationURL(String tldLocation);
 
+    /**
+     * Returns the parsed TLD at the given location.
+     *
+     * @param location The location of the TLD as returned by {@link #getLocation(String)}
+     * @return The parsed TLD or <code>null</code> if it has not been parsed yet
+     */
+    public TreeNode getParsedTld(String[] location) {
+        final TreeNode tld = parsedTlds.get(getKey(location));
+        if (tld != null) {
+            parsedTldHits.increment();
+        } else {
+            parsedTldMisses.increment();
+        }
+        return tld;
+    }
+
+    /**
+     * Caches the parsed TLD at the given location.
+     */
+    public void putParsedTld(String[] location, TreeNode tld) {
+        parsedTlds.put(getKey(location), tld);
+    }
+
+    /**
+     * Removes the parsed TLDs at the given location, that is the TLD itself
+     * or the TLDs contained in the archive at this location.
+     */
+    public void removeParsedTld(String location) {
+        final String prefix = location.concat("!");
+        final Iterator<String> i = parsedTlds.keySet().iterator();
+        while (i.hasNext()) {
+            final String key = i.next();
+            if (key.equals(location) || key.startsWith(prefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of parsed TLDs.
+     */
+    public int getParsedTldCount() {
+        return parsedTlds.size();
+    }
+
+    /**
+     * Returns the number of lookups of parsed TLDs which were found.
+     */
+    public long getParsedTldHitCount() {
+        return parsedTldHits.sum();
+    }
+
+    /**
+     * Returns the number of lookups of parsed TLDs which were not found.
+     */
+    public long getParsedTldMissCount() {
+        return parsedTldMisses.sum();
+    }
+
+    private static String getKey(String[] location) {
+        if (location.length > 1 && location[1] != null) {
+            return location[0] + "!" + location[1];
+        }
+        return location[0];
+    }
+
     /**
      * Returns the type of a URI:
      *     ABS_URI
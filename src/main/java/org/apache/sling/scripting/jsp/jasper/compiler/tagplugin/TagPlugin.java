@@ -17,17 +17,30 @@
 
 package org.apache.sling.scripting.jsp.jasper.compiler.tagplugin;
 
+import org.osgi.annotation.versioning.ConsumerType;
+
 /**
  * This interface is to be implemented by the plugin author, to supply
  * an alternate implementation of the tag handlers.  It can be used to
  * specify the Java codes to be generated when a tag is invoked.
  *
  * An implementation of this interface must be registered in a file
- * named "tagPlugins.xml" under WEB-INF.
+ * named "tagPlugins.xml" under WEB-INF, or as an OSGi service with the
+ * {@link #TAG_CLASS} property naming the tag handler classes it replaces.
+ * A plugin is shared by all compilations, which may run concurrently, so
+ * it must not keep any state.
  */
 
+@ConsumerType
 public interface TagPlugin {
 
+    /**
+     * The service property with the names of the tag handler classes, for
+     * which a plugin registered as service generates the code (value is
+     * "tagplugin.tagclass"). The value is a string or an array of strings.
+     */
+    String TAG_CLASS = "tagplugin.tagclass";
+
     /**
      * Generate codes for a custom tag.
      * @param ctxt a TagPluginContext for accessing Jasper functions
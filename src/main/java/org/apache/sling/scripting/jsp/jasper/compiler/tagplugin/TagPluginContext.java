@@ -17,6 +17,8 @@
 
 package org.apache.sling.scripting.jsp.jasper.compiler.tagplugin;
 
+import org.osgi.annotation.versioning.ProviderType;
+
 
 /**
  * This interface allows the plugin author to make inqueries about the
@@ -24,6 +26,7 @@ package org.apache.sling.scripting.jsp.jasper.compiler.tagplugin;
  * direct Java codes in place of tag handler invocations.
  */
 
+@ProviderType
 public interface TagPluginContext {
     /**
      * @return true if the body of the tag is scriptless.
@@ -36,6 +39,19 @@ public interface TagPluginContext {
      */
     boolean isAttributeSpecified(String attribute);
 
+    /**
+     * @return true if the tag has no body, or only an empty one.
+     */
+    boolean hasEmptyBody();
+
+    /**
+     * @param attribute Name of the attribute
+     * @return true if the attribute is a deferred expression, for which
+     *         generateAttribute() generates the expression object instead
+     *         of the evaluated value.
+     */
+    boolean isDeferredAttribute(String attribute);
+
     /**
      * @return An unique temporary variable name that the plugin can use.
      */
@@ -57,6 +57,16 @@ public final class ELContextImpl extends ELContext {
             return vars.put(variable, expression);
         }
 
+        boolean hasVariables() {
+            if (vars != null) {
+                for (ValueExpression ve : vars.values()) {
+                    if (ve != null) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
     }
 
     private final ELResolver resolver;
@@ -88,6 +98,20 @@ public final class ELContextImpl extends ELContext {
         return this.variableMapper;
     }
 
+    /**
+     * Returns true if expressions parsed with this context might capture
+     * mapped variables.
+     */
+    public boolean hasVariables() {
+        if (this.variableMapper == null) {
+            return false;
+        }
+        if (this.variableMapper instanceof VariableMapperImpl) {
+            return ((VariableMapperImpl) this.variableMapper).hasVariables();
+        }
+        return true;
+    }
+
     public void setFunctionMapper(FunctionMapper functionMapper) {
         this.functionMapper = functionMapper;
     }
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+
+/**
+ * The introspected properties of a bean class, used by the bean actions.
+ *
+ * The properties are kept in a ClassValue, that is with the bean class
+ * itself, so they are discarded together with the class loader of the bean
+ * when a script or bundle is reloaded.
+ */
+final class BeanProperties {
+
+    private static final ClassValue<BeanProperties> PROPERTIES = new ClassValue<BeanProperties>() {
+        @Override
+        protected BeanProperties computeValue(final Class<?> type) {
+            return new BeanProperties(type);
+        }
+    };
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Map<String, Property> properties;
+
+    private final IntrospectionException error;
+
+    private BeanProperties(final Class<?> beanClass) {
+        Map<String, Property> map = Collections.emptyMap();
+        IntrospectionException failure = null;
+        try {
+            final PropertyDescriptor[] pd = Introspector.getBeanInfo(beanClass).getPropertyDescriptors();
+            map = new HashMap<String, Property>(pd.length * 2);
+            for (int i = 0; i < pd.length; i++) {
+                // the first descriptor of a name wins, like in a linear search
+                if (!map.containsKey(pd[i].getName())) {
+                    map.put(pd[i].getName(), new Property(pd[i]));
+                }
+            }
+        } catch (final IntrospectionException ie) {
+            failure = ie;
+        }
+        this.properties = map;
+        this.error = failure;
+    }
+
+    /**
+     * Returns the properties of a bean class.
+     *
+     * @throws JasperException If the class cannot be introspected
+     */
+    static BeanProperties get(final Class<?> beanClass) throws JasperException {
+        final BeanProperties props = PROPERTIES.get(beanClass);
+        if (props.error != null) {
+            throw new JasperException(props.error);
+        }
+        return props;
+    }
+
+    /**
+     * Returns a property, or null if the bean has no property of that name.
+     */
+    Property getProperty(final String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * A property with its accessors. The accessors are invoked through
+     * method handles if possible, and through reflection otherwise, for
+     * instance if a value has to be widened or the bean class is not public.
+     */
+    static final class Property {
+
+        private final Class<?> type;
+
+        private final Class<?> propertyEditorClass;
+
+        private final Method readMethod;
+
+        private final Method writeMethod;
+
+        private final Class<?> writeType;
+
+        /** The type of the values the setter handle accepts. */
+        private final Class<?> writeValueType;
+
+        private final MethodHandle reader;
+
+        private final MethodHandle writer;
+
+        Property(final PropertyDescriptor pd) {
+            this.type = pd.getPropertyType();
+            this.propertyEditorClass = pd.getPropertyEditorClass();
+            this.readMethod = pd.getReadMethod();
+            this.writeMethod = pd.getWriteMethod();
+            this.writeType = writeMethod == null ? null : writeMethod.getParameterTypes()[0];
+            this.writeValueType = writeType == null ? null : MethodType.methodType(writeType).wrap().returnType();
+            this.reader = readMethod == null ? null : unreflect(readMethod, GETTER);
+            this.writer = writeMethod == null ? null : unreflect(writeMethod, SETTER);
+        }
+
+        private static MethodHandle unreflect(final Method method, final MethodType type) {
+            try {
+                return MethodHandles.publicLookup().unreflect(method).asType(type);
+            } catch (final IllegalAccessException iae) {
+                // not accessible, invoking the method will fail as well
+                return null;
+            }
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        Class<?> getPropertyEditorClass() {
+            return propertyEditorClass;
+        }
+
+        Method getReadMethod() {
+            return readMethod;
+        }
+
+        Method getWriteMethod() {
+            return writeMethod;
+        }
+
+        /**
+         * Returns the parameter type of the write method.
+         */
+        Class<?> getWriteType() {
+            return writeType;
+        }
+
+        /**
+         * Reads the property of a bean.
+         *
+         * @throws InvocationTargetException If the read method fails
+         */
+        Object get(final Object bean) throws Exception {
+            if (reader == null) {
+                return readMethod.invoke(bean, (Object[]) null);
+            }
+            try {
+                return (Object) reader.invokeExact(bean);
+            } catch (final Throwable t) {
+                // like reflection, also wrap errors of the method
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        /**
+         * Writes the property of a bean.
+         *
+         * @throws InvocationTargetException If the write method fails
+         */
+        void set(final Object bean, final Object value) throws Exception {
+            if (writer == null || !(writeValueType.isInstance(value)
+                    || (value == null && !writeType.isPrimitive()))) {
+                // let reflection convert the value or report the mismatch
+                writeMethod.invoke(bean, new Object[] { value });
+                return;
+            }
+            try {
+                writer.invokeExact(bean, value);
+            } catch (final Throwable t) {
+                // like reflection, also wrap errors of the method
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
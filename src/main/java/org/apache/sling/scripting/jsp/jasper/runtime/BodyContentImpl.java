@@ -552,6 +552,13 @@ public class BodyContentImpl extends BodyContent {
         }
     }
     
+    /**
+     * Returns the number of characters the buffer can hold.
+     */
+    int getBufferCapacity() {
+        return cb.length;
+    }
+    
     /**
      * Sets the writer to which all output is written.
      */
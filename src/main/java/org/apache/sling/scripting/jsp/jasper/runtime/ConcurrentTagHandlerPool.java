@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.sling.scripting.jsp.jasper.Constants;
+
+/**
+ * Pool of tag handlers which does not lock.
+ *
+ * It is selected by setting the <code>tagpoolClassName</code> option to the
+ * name of this class. Handlers are kept in a fixed array of slots which are
+ * taken and filled with compare-and-set. Only the first slots are used at
+ * first, their number grows whenever more handlers are returned than fit,
+ * that is with the observed concurrency, up to <code>tagpoolMaxSize</code>
+ * which defaults to four times the number of processors. New handlers are
+ * created through the cached constructor of the handler class.
+ */
+public class ConcurrentTagHandlerPool extends TagHandlerPool {
+
+    private final Log log = LogFactory.getLog(ConcurrentTagHandlerPool.class);
+
+    private AtomicReferenceArray<Tag> slots;
+
+    /** Number of slots in use. */
+    private final AtomicInteger limit = new AtomicInteger(1);
+
+    private volatile Instantiator instantiator;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Override
+    protected void init(final ServletConfig config) {
+        int maxSize = -1;
+        final String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if ( maxSizeS != null ) {
+            try {
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch ( final NumberFormatException nfe) {
+                maxSize = -1;
+            }
+        }
+        if ( maxSize < 0 ) {
+            maxSize = Math.max(Constants.MAX_POOL_SIZE, 4 * Runtime.getRuntime().availableProcessors());
+        }
+        this.slots = new AtomicReferenceArray<Tag>(maxSize);
+        this.limit.set(Math.min(1, maxSize));
+        this.annotationProcessor =
+            (AnnotationProcessor) config.getServletContext().getAttribute(AnnotationProcessor.class.getName());
+        this.metrics =
+            (JspMetrics) config.getServletContext().getAttribute(JspMetrics.class.getName());
+    }
+
+    /**
+     * @see org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool#get(java.lang.Class)
+     */
+    @Override
+    public Tag get(final Class handlerClass) throws JspException {
+        final int size = limit.get();
+        final int start = start(size);
+        for(int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            final Tag handler = slots.get(index);
+            if ( handler != null && slots.compareAndSet(index, handler, null) ) {
+                hits.increment();
+                if ( metrics != null ) {
+                    metrics.addTagHandlerHit();
+                }
+                return handler;
+            }
+        }
+        misses.increment();
+        if ( metrics != null ) {
+            metrics.addTagHandlerMiss();
+        }
+
+        try {
+            final Tag instance = newInstance(handlerClass);
+            AnnotationHelper.postConstruct(annotationProcessor, instance);
+            return instance;
+        } catch (final Exception e) {
+            throw new JspException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @see org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool#reuse(javax.servlet.jsp.tagext.Tag)
+     */
+    @Override
+    public void reuse(final Tag handler) {
+        int size = limit.get();
+        while ( true ) {
+            final int start = start(size);
+            for(int i = 0; i < size; i++) {
+                final int index = (start + i) % size;
+                if ( slots.get(index) == null && slots.compareAndSet(index, null, handler) ) {
+                    return;
+                }
+            }
+            // more handlers are in use than we have slots, grow if possible
+            if ( size >= slots.length() ) {
+                break;
+            }
+            limit.compareAndSet(size, size + 1);
+            size = limit.get();
+        }
+        evictions.increment();
+        destroy(handler);
+    }
+
+    /**
+     * @see org.apache.sling.scripting.jsp.jasper.runtime.TagHandlerPool#release()
+     */
+    @Override
+    public void release() {
+        for(int i = 0; i < slots.length(); i++) {
+            final Tag handler = slots.getAndSet(i, null);
+            if ( handler != null ) {
+                destroy(handler);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of handlers taken from the pool.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of handlers which had to be created.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of returned handlers which did not fit into the pool.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of slots currently used by the pool.
+     */
+    public int getSize() {
+        return limit.get();
+    }
+
+    /**
+     * Returns the maximum number of slots of the pool.
+     */
+    public int getMaxSize() {
+        return slots.length();
+    }
+
+    private static int start(final int size) {
+        return size == 0 ? 0 : (int) (Thread.currentThread().getId() % size);
+    }
+
+    private Tag newInstance(final Class<?> handlerClass) throws Exception {
+        Instantiator i = this.instantiator;
+        if ( i == null || i.handlerClass != handlerClass ) {
+            i = new Instantiator(handlerClass);
+            this.instantiator = i;
+        }
+        return i.newInstance();
+    }
+
+    private void destroy(final Tag handler) {
+        handler.release();
+        if (annotationProcessor != null) {
+            try {
+                AnnotationHelper.preDestroy(annotationProcessor, handler);
+            } catch (Exception e) {
+                log.warn("Error processing preDestroy on tag instance of "
+                        + handler.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * The constructor of the handler class, a pool is usually only used
+     * for a single class. The constructor is invoked through a method handle
+     * if possible, and through reflection otherwise, for instance if the
+     * handler class is not public.
+     */
+    private static final class Instantiator {
+
+        private static final MethodType CONSTRUCTOR = MethodType.methodType(Tag.class);
+
+        final Class<?> handlerClass;
+
+        private final Constructor<? extends Tag> constructor;
+
+        private final MethodHandle handle;
+
+        Instantiator(final Class<?> handlerClass) throws NoSuchMethodException {
+            this.handlerClass = handlerClass;
+            this.constructor = handlerClass.asSubclass(Tag.class).getConstructor();
+            this.handle = unreflect(constructor);
+        }
+
+        private static MethodHandle unreflect(final Constructor<? extends Tag> constructor) {
+            try {
+                return MethodHandles.publicLookup().unreflectConstructor(constructor).asType(CONSTRUCTOR);
+            } catch (final IllegalAccessException iae) {
+                // not accessible, invoking the constructor will fail as well
+                return null;
+            }
+        }
+
+        Tag newInstance() throws Exception {
+            if ( handle == null ) {
+                return constructor.newInstance();
+            }
+            try {
+                return (Tag) handle.invokeExact();
+            } catch (final Throwable t) {
+                // like reflection, also wrap errors of the constructor
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
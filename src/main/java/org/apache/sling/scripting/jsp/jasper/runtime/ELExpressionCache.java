@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+
+import org.apache.sling.scripting.jsp.jasper.el.ELContextImpl;
+import org.apache.sling.scripting.jsp.jasper.el.FunctionMapperImpl;
+
+/**
+ * Bounded cache of parsed EL value expressions.
+ *
+ * Each generated servlet and tag handler holds its own instance which is
+ * passed to {@link PageContextImpl#proprietaryEvaluate}. Entries are keyed by
+ * the expression string, the expected type and the identity of the function
+ * mapper. While variables are mapped in the EL context expressions are
+ * neither looked up nor cached, as they capture these variables.
+ */
+public final class ELExpressionCache {
+
+    /** Default maximum number of cached expressions. */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /** Cached expressions per expression string. */
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public ELExpressionCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ELExpressionCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the parsed value expression, parsing and caching it if required.
+     *
+     * @param factory The expression factory used for parsing
+     * @param ctx The EL context
+     * @param expression The expression string
+     * @param expectedType The expected resulting type
+     * @param functionMap The function mapper of the page, might be {@code null}
+     * @return The value expression
+     */
+    public ValueExpression getValueExpression(final ExpressionFactory factory,
+            final ELContextImpl ctx,
+            final String expression,
+            final Class<?> expectedType,
+            final ProtectedFunctionMapper functionMap) {
+        if ( ctx.hasVariables() ) {
+            // mapped variables are captured while parsing, bypass the cache
+            misses.increment();
+            ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
+            return factory.createValueExpression(ctx, expression, expectedType);
+        }
+        final Entry head = cache.get(expression);
+        for(Entry e = head; e != null; e = e.next) {
+            if ( e.expectedType == expectedType && e.functionMap == functionMap ) {
+                hits.increment();
+                return e.valueExpression;
+            }
+        }
+        misses.increment();
+
+        ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
+        final ValueExpression ve = factory.createValueExpression(ctx, expression, expectedType);
+        if ( cache.size() < maxSize ) {
+            // entries are only prepended, a lost race just parses again
+            cache.put(expression, new Entry(expectedType, functionMap, ve, head));
+        }
+        return ve;
+    }
+
+    /**
+     * Returns the number of cached expression strings.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups which required parsing.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Removes all cached expressions.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    private static final class Entry {
+
+        final Class<?> expectedType;
+
+        final ProtectedFunctionMapper functionMap;
+
+        final ValueExpression valueExpression;
+
+        final Entry next;
+
+        Entry(final Class<?> expectedType,
+                final ProtectedFunctionMapper functionMap,
+                final ValueExpression valueExpression,
+                final Entry next) {
+            this.expectedType = expectedType;
+            this.functionMap = functionMap;
+            this.valueExpression = valueExpression;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+
+/**
+ * Byte buffer of a page writer which writes to the output stream of the
+ * response instead of its writer. Pre-encoded template text is copied into
+ * the buffer as is, all other output is encoded by the page writer.
+ *
+ * The buffer is written to the stream whenever it is full.
+ */
+final class EncodedOutput {
+
+    /**
+     * Whether a response wrapper class replaces the writer of the response,
+     * but not its output stream.
+     */
+    private static final ClassValue<Boolean> REPLACES_WRITER = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            return declares(type, "getWriter") && !declares(type, "getOutputStream");
+        }
+    };
+
+    private final byte[] buf;
+
+    private OutputStream stream;
+
+    private Charset charset;
+
+    private CharsetEncoder encoder;
+
+    private int count;
+
+    private boolean written;
+
+    EncodedOutput(final int size) {
+        this.buf = new byte[Math.max(size, 16)];
+    }
+
+    /**
+     * Returns whether writing to the output stream of a response ends up in
+     * the same place as writing to its writer. This is not the case if a
+     * response wrapper captures the output written to the writer only.
+     */
+    static boolean isStreamWritable(ServletResponse response) {
+        while (response instanceof ServletResponseWrapper) {
+            if (REPLACES_WRITER.get(response.getClass())) {
+                return false;
+            }
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the class, or a superclass outside of the servlet API,
+     * declares the method without parameters.
+     */
+    static boolean declares(Class<?> type, final String name) {
+        while (type != null && !type.getName().startsWith("javax.servlet.")) {
+            for (final Method m : type.getDeclaredMethods()) {
+                if (m.getName().equals(name) && m.getParameterTypes().length == 0) {
+                    return true;
+                }
+            }
+            type = type.getSuperclass();
+        }
+        return false;
+    }
+
+    void init(final OutputStream stream, final Charset charset) {
+        this.stream = stream;
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } else {
+            this.encoder.reset();
+        }
+        this.count = 0;
+        this.written = false;
+    }
+
+    void recycle() {
+        this.stream = null;
+        this.count = 0;
+        this.written = false;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    int getCapacity() {
+        return buf.length;
+    }
+
+    /**
+     * Returns the number of bytes in the buffer.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns whether the buffer has been written to the stream.
+     */
+    boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * Encodes characters into the buffer.
+     *
+     * @param endOfInput Whether the characters end here. Otherwise a trailing
+     *            high surrogate is left, to be encoded with the next
+     *            characters.
+     * @return The number of characters encoded
+     */
+    int encode(final char[] cb, final int off, final int len, final boolean endOfInput)
+            throws IOException {
+        final CharBuffer in = CharBuffer.wrap(cb, off, len);
+        ByteBuffer out = ByteBuffer.wrap(buf, count, buf.length - count);
+        // errors are replaced by the encoder, so the result is an overflow
+        // or an underflow
+        while (encoder.encode(in, out, endOfInput).isOverflow()) {
+            count = out.position();
+            writeBuffer();
+            out = ByteBuffer.wrap(buf);
+        }
+        if (endOfInput) {
+            while (encoder.flush(out).isOverflow()) {
+                count = out.position();
+                writeBuffer();
+                out = ByteBuffer.wrap(buf);
+            }
+            encoder.reset();
+        }
+        count = out.position();
+        return in.position() - off;
+    }
+
+    /**
+     * Copies pre-encoded bytes into the buffer. Writes them to the stream
+     * directly if they do not fit into the buffer at all.
+     */
+    void write(final byte[] b) throws IOException {
+        if (b.length > buf.length - count) {
+            writeBuffer();
+            if (b.length >= buf.length) {
+                stream.write(b);
+                written = true;
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buf, count, b.length);
+        count += b.length;
+    }
+
+    /**
+     * Writes the buffer to the stream.
+     */
+    void writeBuffer() throws IOException {
+        if (count > 0) {
+            stream.write(buf, 0, count);
+            count = 0;
+            written = true;
+        }
+    }
+
+    /**
+     * Discards the buffer.
+     */
+    void clear() {
+        count = 0;
+        encoder.reset();
+    }
+
+    void flush() throws IOException {
+        stream.flush();
+    }
+
+    void close() throws IOException {
+        stream.close();
+    }
+}
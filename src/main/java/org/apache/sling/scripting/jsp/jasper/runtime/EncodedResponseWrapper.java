@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * Response of a page generated with pre-encoded template text.
+ *
+ * Once the writer of the page writes to the output stream of the response,
+ * the writer of the response cannot be used anymore. From then on this
+ * wrapper returns a writer appending to the writer of the page instead, so
+ * servlets included or forwarded to with this response can still use a
+ * writer, and their output keeps its place in the page buffer.
+ */
+public class EncodedResponseWrapper extends SlingHttpServletResponseWrapper {
+
+    // Appends to the writer of the page, while it writes to the stream
+    private PrintWriter pageWriter;
+
+    public EncodedResponseWrapper(final SlingHttpServletResponse response) {
+        super(response);
+    }
+
+    /** Package-level access
+     */
+    void setPageWriter(final JspWriterImpl writer) {
+        this.pageWriter = writer == null ? null : new PrintWriter(writer);
+    }
+
+    /** Package-level access
+     */
+    boolean isEncoding() {
+        return pageWriter != null;
+    }
+
+    /**
+     * Returns a writer appending to the writer of the page, if the page
+     * writes to the output stream, and the writer of the response otherwise.
+     */
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        final PrintWriter writer = pageWriter;
+        return writer != null ? writer : super.getWriter();
+    }
+
+    /**
+     * Returns the output stream of the response. It is declared here as it
+     * is the stream the writer of the page writes to.
+     */
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        return super.getOutputStream();
+    }
+}
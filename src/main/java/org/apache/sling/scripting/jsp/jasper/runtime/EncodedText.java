@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import javax.servlet.jsp.JspWriter;
+
+/**
+ * Template text of a page together with its encoding in the charset of the
+ * content type of the page.
+ *
+ * Pages generated with the genStringAsByteArray option hold their template
+ * texts in static fields of this type, so that the text is encoded once when
+ * the class is loaded. The page writer writes the bytes to the output stream
+ * of the response if possible, see {@link JspWriterImpl#write(EncodedText)},
+ * and the text otherwise.
+ */
+public final class EncodedText {
+
+    private final String text;
+
+    private final Charset charset;
+
+    private final byte[] bytes;
+
+    /**
+     * @param text The template text
+     * @param charset The name of the charset of the page
+     */
+    public EncodedText(final String text, final String charset) {
+        this.text = text;
+        this.charset = Charset.forName(charset);
+        this.bytes = text.getBytes(this.charset);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /** Package-level access
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Writes the text to the current writer of a page.
+     */
+    public void write(final JspWriter out) throws IOException {
+        if (out instanceof JspWriterImpl) {
+            ((JspWriterImpl) out).write(this);
+        } else {
+            out.write(text);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -135,4 +135,8 @@ public class JspApplicationContextImpl implements JspApplicationContext {
 		return expressionFactory;
 	}
 
+	static ExpressionFactory getDefaultExpressionFactory() {
+		return expressionFactory;
+	}
+
 }
@@ -44,6 +44,67 @@ public class JspFactoryImpl extends JspFactory {
 
     private static final String SPEC_VERSION = "2.1";
 
+    /** Pool of released page contexts, might be null. */
+    private final PageContextPool pool;
+
+    /** Metrics of the page buffers, might be null. */
+    private final JspMetrics metrics;
+
+    /** Whether included pages write into the buffer of the including page. */
+    private final boolean includeWriteThrough;
+
+    public JspFactoryImpl() {
+        this(null);
+    }
+
+    /**
+     * Creates a factory recycling released page contexts.
+     *
+     * @param pool The pool of page contexts or {@code null} to disable pooling
+     */
+    public JspFactoryImpl(final PageContextPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Creates a factory recycling released page contexts and recording
+     * the overflows of the page buffers.
+     *
+     * @param pool The pool of page contexts or {@code null} to disable pooling
+     * @param metrics The metrics or {@code null}
+     */
+    public JspFactoryImpl(final PageContextPool pool, final JspMetrics metrics) {
+        this(pool, metrics, false);
+    }
+
+    /**
+     * Creates a factory recycling released page contexts and recording
+     * the overflows of the page buffers. If enabled, an included page writes
+     * its output straight into the buffer of the including page, in which
+     * case clearing its output fails once the buffer of the including page
+     * has been flushed.
+     *
+     * @param pool The pool of page contexts or {@code null} to disable pooling
+     * @param metrics The metrics or {@code null}
+     * @param includeWriteThrough Whether included pages write into the buffer
+     *            of the including page
+     */
+    public JspFactoryImpl(final PageContextPool pool, final JspMetrics metrics,
+            final boolean includeWriteThrough) {
+        this.pool = pool;
+        this.metrics = metrics;
+        this.includeWriteThrough = includeWriteThrough;
+    }
+
+    /**
+     * Returns the pool of page contexts.
+     *
+     * @return The pool or {@code null} if pooling is disabled
+     */
+    public PageContextPool getPageContextPool() {
+        return this.pool;
+    }
+
     public PageContext getPageContext(Servlet servlet, ServletRequest request,
             ServletResponse response, String errorPageURL, boolean needsSession,
             int bufferSize, boolean autoflush) {
@@ -84,7 +145,13 @@ public class JspFactoryImpl extends JspFactory {
             ServletResponse response, String errorPageURL, boolean needsSession,
             int bufferSize, boolean autoflush) {
         try {
-            PageContext pc = new PageContextImpl();
+            PageContext pc = null;
+            if (pool != null) {
+                pc = pool.get();
+            }
+            if (pc == null) {
+                pc = new PageContextImpl(metrics, includeWriteThrough);
+            }
             pc.initialize(servlet, request, response, errorPageURL,
                     needsSession, bufferSize, autoflush);
             return pc;
@@ -97,6 +164,9 @@ public class JspFactoryImpl extends JspFactory {
 
     private void internalReleasePageContext(PageContext pc) {
         pc.release();
+        if (pool != null && (pc instanceof PageContextImpl)) {
+            pool.put((PageContextImpl) pc);
+        }
     }
 
     private class PrivilegedGetPageContext implements PrivilegedAction {
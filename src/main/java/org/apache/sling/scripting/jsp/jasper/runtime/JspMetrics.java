@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the JSP runtime: per script statistics and the use of the
+ * tag handler pools and the page buffers.
+ *
+ * Recording only increments counters, the totals are summed up when they
+ * are read. The metrics are made available to the tag handler pools as a
+ * servlet context attribute named after this class.
+ */
+public final class JspMetrics {
+
+    private final ConcurrentHashMap<String, ScriptMetrics> scripts = new ConcurrentHashMap<String, ScriptMetrics>();
+
+    private final LongAdder tagHandlerHits = new LongAdder();
+
+    private final LongAdder tagHandlerMisses = new LongAdder();
+
+    private final LongAdder bufferOverflows = new LongAdder();
+
+    /**
+     * Returns the statistics of a script, which should be kept by the
+     * caller instead of being looked up for every request.
+     *
+     * @param path The path of the JSP or tag file
+     */
+    public ScriptMetrics getScriptMetrics(final String path) {
+        final ScriptMetrics metrics = scripts.get(path);
+        if ( metrics != null ) {
+            return metrics;
+        }
+        return scripts.computeIfAbsent(path, ScriptMetrics::new);
+    }
+
+    /**
+     * Returns the statistics of all scripts.
+     */
+    public List<ScriptMetrics> getScriptMetrics() {
+        return new ArrayList<ScriptMetrics>(scripts.values());
+    }
+
+    /**
+     * Forgets the statistics of a removed script or of all scripts in a
+     * removed folder.
+     *
+     * @param path The path of the script or the folder
+     */
+    public void removed(final String path) {
+        final String prefix = path.endsWith("/") ? path : path + '/';
+        scripts.keySet().removeIf(script -> script.equals(path) || script.startsWith(prefix));
+    }
+
+    /**
+     * Records a tag handler taken from a pool.
+     */
+    public void addTagHandlerHit() {
+        tagHandlerHits.increment();
+    }
+
+    /**
+     * Records a tag handler which had to be created as the pool was empty.
+     */
+    public void addTagHandlerMiss() {
+        tagHandlerMisses.increment();
+    }
+
+    /**
+     * Records a full page buffer, which is either flushed before the page
+     * is complete or fails the page if it is not automatically flushed.
+     */
+    public void addBufferOverflow() {
+        bufferOverflows.increment();
+    }
+
+    /**
+     * Returns the number of tag handlers taken from the pools.
+     */
+    public long getTagHandlerHitCount() {
+        return tagHandlerHits.sum();
+    }
+
+    /**
+     * Returns the number of tag handlers which had to be created.
+     */
+    public long getTagHandlerMissCount() {
+        return tagHandlerMisses.sum();
+    }
+
+    /**
+     * Returns the number of page buffer overflows.
+     */
+    public long getBufferOverflowCount() {
+        return bufferOverflows.sum();
+    }
+
+    /**
+     * Returns the number of scripts whose servlet has been loaded.
+     */
+    public int getLoadedCount() {
+        int count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            if ( metrics.getLoadCount() > 0 ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of rendered requests of all scripts.
+     */
+    public long getRenderCount() {
+        long count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            count += metrics.getRenderCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total render time of all scripts in nanoseconds.
+     */
+    public long getRenderTime() {
+        long time = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            time += metrics.getRenderTime();
+        }
+        return time;
+    }
+
+    /**
+     * Returns the number of failed requests of all scripts.
+     */
+    public long getRenderFailureCount() {
+        long count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            count += metrics.getRenderFailureCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of compilations of all scripts.
+     */
+    public long getCompileCount() {
+        long count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            count += metrics.getCompileCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total compile time of all scripts in nanoseconds.
+     */
+    public long getCompileTime() {
+        long time = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            time += metrics.getCompileTime();
+        }
+        return time;
+    }
+
+    /**
+     * Returns the number of failed compilations of all scripts.
+     */
+    public long getCompileFailureCount() {
+        long count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            count += metrics.getCompileFailureCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of reloaded servlets of all scripts.
+     */
+    public long getReloadCount() {
+        long count = 0;
+        for(final ScriptMetrics metrics : scripts.values()) {
+            count += metrics.getReloadCount();
+        }
+        return count;
+    }
+
+    /**
+     * Resets all statistics. The scripts are kept, as their statistics are
+     * referenced by the loaded pages.
+     */
+    public void reset() {
+        for(final ScriptMetrics metrics : scripts.values()) {
+            metrics.reset();
+        }
+        tagHandlerHits.reset();
+        tagHandlerMisses.reset();
+        bufferOverflows.reset();
+    }
+}
@@ -271,19 +271,12 @@ public class JspRuntimeLibrary {
         Class type = null;
         Class propertyEditorClass = null;
 	try {
-	    java.beans.BeanInfo info
-		= java.beans.Introspector.getBeanInfo(bean.getClass());
-	    if ( info != null ) {
-		java.beans.PropertyDescriptor pd[]
-		    = info.getPropertyDescriptors();
-		for (int i = 0 ; i < pd.length ; i++) {
-		    if ( pd[i].getName().equals(prop) ) {
-			method = pd[i].getWriteMethod();
-			type   = pd[i].getPropertyType();
-			propertyEditorClass = pd[i].getPropertyEditorClass();
-			break;
-		    }
-		}
+	    BeanProperties.Property property
+		= BeanProperties.get(bean.getClass()).getProperty(prop);
+	    if ( property != null ) {
+		method = property.getWriteMethod();
+		type   = property.getType();
+		propertyEditorClass = property.getPropertyEditorClass();
 	    }
 	    if ( method != null ) {
 		if (type.isArray()) {
@@ -296,7 +289,7 @@ public class JspRuntimeLibrary {
 		    //XXX Please check.
 		    if(values == null) return;
 		    if(t.equals(String.class)) {
-			method.invoke(bean, new Object[] { values });
+			property.set(bean, values);
 		    } else {
 			Object tmpval = null;
 			createTypedArray (prop, bean, method, values, t,
@@ -306,7 +299,7 @@ public class JspRuntimeLibrary {
 		    if(value == null || (param != null && value.equals(""))) return;
 		    Object oval = convert(prop, value, type, propertyEditorClass);
 		    if ( oval != null )
-			method.invoke(bean, new Object[] { oval });
+			property.set(bean, oval);
 		}
 	    }
 	} catch (Exception ex) {
@@ -557,8 +550,7 @@ public class JspRuntimeLibrary {
         }
 	Object value = null;
         try {
-            Method method = getReadMethod(o.getClass(), prop);
-	    value = method.invoke(o, (Object[]) null);
+	    value = getReadProperty(o.getClass(), prop).get(o);
         } catch (Exception ex) {
 	    throw new JasperException (ex);
         }
@@ -594,15 +586,15 @@ public class JspRuntimeLibrary {
         throws JasperException
     {
         try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-            method.invoke(bean, new Object[] {
+            BeanProperties.Property property
+                = getWriteProperty(bean.getClass(), prop);
+            property.set(bean,
                 PageContextImpl.proprietaryEvaluate(
                     expression,
-                    method.getParameterTypes()[0],
+                    property.getWriteType(),
 		    pageContext,
                     functionMapper,
-                    false )
-            });
+                    false ));
         } catch (Exception ex) {
             throw new JasperException(ex);
         }
@@ -613,8 +605,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { value });
+            getWriteProperty(bean.getClass(), prop).set(bean, value);
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}
@@ -625,8 +616,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Integer(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Integer.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -637,8 +627,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Short(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Short.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -649,8 +638,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Long(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Long.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -661,8 +649,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Double(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Double.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -673,8 +660,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Float(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Float.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -685,8 +671,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Character(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Character.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -697,8 +682,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Byte(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Byte.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -709,8 +693,7 @@ public class JspRuntimeLibrary {
 	throws JasperException
     {
 	try {
-            Method method = getWriteMethod(bean.getClass(), prop);
-	    method.invoke(bean, new Object[] { new Boolean(value) });
+            getWriteProperty(bean.getClass(), prop).set(bean, Boolean.valueOf(value));
 	} catch (Exception ex) {
 	    throw new JasperException(ex);
 	}	
@@ -718,87 +701,62 @@ public class JspRuntimeLibrary {
     
     public static Method getWriteMethod(Class beanClass, String prop)
     throws JasperException {
-	Method method = null;	
-        Class type = null;
-	try {
-	    java.beans.BeanInfo info
-                = java.beans.Introspector.getBeanInfo(beanClass);
-	    if ( info != null ) {
-		java.beans.PropertyDescriptor pd[]
-		    = info.getPropertyDescriptors();
-		for (int i = 0 ; i < pd.length ; i++) {
-		    if ( pd[i].getName().equals(prop) ) {
-			method = pd[i].getWriteMethod();
-			type   = pd[i].getPropertyType();
-			break;
-		    }
-		}
-            } else {        
-                // just in case introspection silently fails.
-                throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.nobeaninfo",
-					 beanClass.getName()));
-            }
-        } catch (Exception ex) {
-            throw new JasperException (ex);
-        }
-        if (method == null) {
-            if (type == null) {
-		throw new JasperException(
-                        Localizer.getMessage("jsp.error.beans.noproperty",
-					     prop,
-					     beanClass.getName()));
-            } else {
-		throw new JasperException(
-		    Localizer.getMessage("jsp.error.beans.nomethod.setproperty",
-					 prop,
-					 type.getName(),
-					 beanClass.getName()));
-            }
-        }
-        return method;
+        return getWriteProperty(beanClass, prop).getWriteMethod();
     }
 
     public static Method getReadMethod(Class beanClass, String prop)
 	    throws JasperException {
+        return getReadProperty(beanClass, prop).getReadMethod();
+    }
 
-        Method method = null;        
-        Class type = null;
-        try {
-            java.beans.BeanInfo info
-                = java.beans.Introspector.getBeanInfo(beanClass);
-            if ( info != null ) {
-                java.beans.PropertyDescriptor pd[]
-                    = info.getPropertyDescriptors();
-                for (int i = 0 ; i < pd.length ; i++) {
-                    if ( pd[i].getName().equals(prop) ) {
-                        method = pd[i].getReadMethod();
-                        type   = pd[i].getPropertyType();
-                        break;
-                    }
-                }
-            } else {        
-                // just in case introspection silently fails.
-		throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.nobeaninfo",
-					 beanClass.getName()));
-	    }
-	} catch (Exception ex) {
-	    throw new JasperException (ex);
-	}
-        if (method == null) {
-            if (type == null) {
-		throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.noproperty", prop,
-					 beanClass.getName()));
-            } else {
-		throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.nomethod", prop,
-					 beanClass.getName()));
-            }
+    /**
+     * Returns a writable property of a bean class from the introspection
+     * cache.
+     */
+    private static BeanProperties.Property getWriteProperty(Class beanClass,
+                                                            String prop)
+    throws JasperException {
+        BeanProperties.Property property
+            = BeanProperties.get(beanClass).getProperty(prop);
+        if (property == null || (property.getWriteMethod() == null
+                                 && property.getType() == null)) {
+            // an indexed property without a write method has no type
+            throw new JasperException(
+                    Localizer.getMessage("jsp.error.beans.noproperty",
+                                         prop,
+                                         beanClass.getName()));
         }
+        if (property.getWriteMethod() == null) {
+            throw new JasperException(
+                Localizer.getMessage("jsp.error.beans.nomethod.setproperty",
+                                     prop,
+                                     property.getType().getName(),
+                                     beanClass.getName()));
+        }
+        return property;
+    }
 
-	return method;
+    /**
+     * Returns a readable property of a bean class from the introspection
+     * cache.
+     */
+    private static BeanProperties.Property getReadProperty(Class beanClass,
+                                                           String prop)
+    throws JasperException {
+        BeanProperties.Property property
+            = BeanProperties.get(beanClass).getProperty(prop);
+        if (property == null || (property.getReadMethod() == null
+                                 && property.getType() == null)) {
+            throw new JasperException(
+                Localizer.getMessage("jsp.error.beans.noproperty", prop,
+                                     beanClass.getName()));
+        }
+        if (property.getReadMethod() == null) {
+            throw new JasperException(
+                Localizer.getMessage("jsp.error.beans.nomethod", prop,
+                                     beanClass.getName()));
+        }
+        return property;
     }
 
     //*********************************************************************
@@ -917,8 +875,20 @@ public class JspRuntimeLibrary {
         String resourcePath = getContextRelativePath(request, relativePath);
         RequestDispatcher rd = request.getRequestDispatcher(resourcePath);
 
-        rd.include(request,
-                   new ServletResponseWrapperInclude(response, out));
+        // the included page may write into the buffer of this page,
+        // see PageContextImpl
+        ServletResponseWrapperInclude include =
+            new ServletResponseWrapperInclude(response, out);
+        Object previous = request.getAttribute(
+                ServletResponseWrapperInclude.INCLUDE_RESPONSE);
+        request.setAttribute(ServletResponseWrapperInclude.INCLUDE_RESPONSE,
+                include);
+        try {
+            rd.include(request, include);
+        } finally {
+            request.setAttribute(
+                    ServletResponseWrapperInclude.INCLUDE_RESPONSE, previous);
+        }
 
     }
 
@@ -996,4 +966,105 @@ public class JspRuntimeLibrary {
 	return false;
     }
 
+    // The replacements of the characters escaped for XML output, by character
+    private static final char[][] XML_ESCAPES = new char['>' + 1][];
+
+    static {
+        XML_ESCAPES['&'] = "&amp;".toCharArray();
+        XML_ESCAPES['<'] = "&lt;".toCharArray();
+        XML_ESCAPES['>'] = "&gt;".toCharArray();
+        XML_ESCAPES['"'] = "&#034;".toCharArray();
+        XML_ESCAPES['\''] = "&#039;".toCharArray();
+    }
+
+    private static char[] xmlEscape(char c) {
+        return c < XML_ESCAPES.length ? XML_ESCAPES[c] : null;
+    }
+
+    /**
+     * Escapes the characters &amp;, &lt;, &gt;, " and ' for XML output.
+     * @param s The String to be escaped
+     * @return The escaped String, or <code>s</code> itself if nothing had to
+     *         be escaped
+     */
+    public static String escapeXml(String s) {
+        if (s == null) {
+            return null;
+        }
+        int len = s.length();
+        int i = 0;
+        while (i < len && xmlEscape(s.charAt(i)) == null) {
+            i++;
+        }
+        if (i == len) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(len + 16);
+        sb.append(s, 0, i);
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            char[] escaped = xmlEscape(c);
+            if (escaped == null) {
+                sb.append(c);
+            } else {
+                sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a string escaped for XML output, see {@link #escapeXml(String)}.
+     * The runs of characters which need no escaping are written as a whole,
+     * so the buffered JSP writers copy them straight into their buffer and
+     * no intermediate String is created.
+     * @param out The writer to write to
+     * @param s The String to be escaped
+     */
+    public static void writeEscapedXml(JspWriter out, String s)
+            throws IOException {
+        int len = s.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char[] escaped = xmlEscape(s.charAt(i));
+            if (escaped != null) {
+                if (start < i) {
+                    out.write(s, start, i - start);
+                }
+                out.write(escaped, 0, escaped.length);
+                start = i + 1;
+            }
+        }
+        if (start < len) {
+            out.write(s, start, len - start);
+        }
+    }
+
+    /**
+     * Writes a portion of an array of characters escaped for XML output, see
+     * {@link #writeEscapedXml(JspWriter, String)}.
+     * @param out The writer to write to
+     * @param buf The characters to be escaped
+     * @param off Offset from which to start reading characters
+     * @param len Number of characters to be written
+     */
+    public static void writeEscapedXml(JspWriter out, char[] buf, int off,
+            int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            char[] escaped = xmlEscape(buf[i]);
+            if (escaped != null) {
+                if (start < i) {
+                    out.write(buf, start, i - start);
+                }
+                out.write(escaped, 0, escaped.length);
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            out.write(buf, start, end - start);
+        }
+    }
+
 }
@@ -18,7 +18,9 @@
 package org.apache.sling.scripting.jsp.jasper.runtime;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -50,6 +52,18 @@ public class JspWriterImpl extends JspWriter {
     private int nextChar;
     private boolean flushed = false;
     private boolean closed = false;
+    private JspMetrics metrics;
+    private int flushes;
+    // The writer of the including page written to directly, if any
+    private JspWriterImpl parent;
+    // The length of the parent buffer when this writer was attached
+    private int mark;
+    // The number of flushes of the parent buffer when this writer was attached
+    private int parentFlushes;
+    // The byte buffer while writing to the output stream of the response
+    private EncodedOutput encoded;
+    private boolean encoding;
+    private boolean encodingChecked;
     
     public JspWriterImpl() {
         super( Constants.DEFAULT_BUFFER_SIZE, true );
@@ -93,6 +107,47 @@ public class JspWriterImpl extends JspWriter {
         this.bufferSize=sz;
     }
     
+    /** Package-level access
+     */
+    void setMetrics(JspMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Package-level access
+     *
+     * Writes all output of an included page straight into the buffer of the
+     * writer of the including page, instead of buffering it a second time and
+     * copying it through a PrintWriter. This is only done if both writers are
+     * buffered and flush automatically, in which case the output is the same,
+     * and if the buffer of this writer is not larger than the one of the
+     * including writer. Clearing the output then fails once the buffer of the
+     * including writer has been flushed.
+     *
+     * @return <code>true</code> if the writer has been attached
+     */
+    boolean attach(JspWriterImpl including) {
+        while (including.parent != null) {
+            including = including.parent;
+        }
+        if (bufferSize == 0 || !autoFlush || including.bufferSize == 0
+                || !including.autoFlush || including.response == null
+                || including.closed || bufferSize > including.bufferSize) {
+            return false;
+        }
+        parent = including;
+        mark = including.nextChar;
+        parentFlushes = including.flushes;
+        return true;
+    }
+
+    /** Package-level access
+     */
+    int getBufferCapacity() {
+        return (cb == null ? 0 : cb.length)
+                + (encoded == null ? 0 : encoded.getCapacity());
+    }
+
     /** Package-level access
      */
     void recycle() {
@@ -100,7 +155,15 @@ public class JspWriterImpl extends JspWriter {
         closed = false;
         out = null;
         nextChar = 0;
+        if (encoding) {
+            if (response instanceof EncodedResponseWrapper)
+                ((EncodedResponseWrapper) response).setPageWriter(null);
+            encoded.recycle();
+        }
         response = null;
+        parent = null;
+        encoding = false;
+        encodingChecked = false;
     }
     
     /**
@@ -112,7 +175,16 @@ public class JspWriterImpl extends JspWriter {
         if (bufferSize == 0)
             return;
         flushed = true;
+        flushes++;
         ensureOpen();
+        if (parent != null)
+            // the output already is in the buffer of the including page
+            return;
+        if (encoding) {
+            encode(true);
+            encoded.writeBuffer();
+            return;
+        }
         if (nextChar == 0)
             return;
         initOut();
@@ -125,6 +197,67 @@ public class JspWriterImpl extends JspWriter {
             out = response.getWriter();
         }
     }
+
+    /**
+     * Switch to writing bytes to the output stream of the response, which is
+     * only possible for a buffered page that has not used the writer of the
+     * response yet, if the response uses the charset of the template text.
+     * If the page has been given an {@link EncodedResponseWrapper}, its writer
+     * appends to this writer from then on.
+     */
+    private boolean startEncoding(final Charset charset) {
+        if (parent != null || bufferSize < 2 || !autoFlush || out != null) {
+            return false;
+        }
+        final String characterEncoding = response.getCharacterEncoding();
+        try {
+            if (characterEncoding == null
+                    || !charset.equals(Charset.forName(characterEncoding))) {
+                return false;
+            }
+        } catch (IllegalArgumentException iae) {
+            // unsupported charset
+            return false;
+        }
+        if (!EncodedOutput.isStreamWritable(response)) {
+            return false;
+        }
+        final OutputStream stream;
+        try {
+            stream = response.getOutputStream();
+        } catch (IllegalStateException ise) {
+            // the writer is used already
+            return false;
+        } catch (IOException ioe) {
+            return false;
+        }
+        if (encoded == null || encoded.getCapacity() < bufferSize) {
+            encoded = new EncodedOutput(bufferSize);
+        }
+        encoded.init(stream, charset);
+        if (response instanceof EncodedResponseWrapper)
+            ((EncodedResponseWrapper) response).setPageWriter(this);
+        return true;
+    }
+
+    /**
+     * Encode the character buffer into the byte buffer.
+     *
+     * @param endOfInput Whether to encode a trailing high surrogate as well,
+     *            instead of keeping it for the next characters
+     */
+    private void encode(final boolean endOfInput) throws IOException {
+        final int n = encoded.encode(cb, 0, nextChar, endOfInput);
+        if (n > 0) {
+            // the marks of attached included writers point into the
+            // character buffer, moving it counts as a flush for them
+            flushes++;
+        }
+        if (n < nextChar) {
+            System.arraycopy(cb, n, cb, 0, nextChar - n);
+        }
+        nextChar -= n;
+    }
     
     private String getLocalizeMessage(final String message){
         if (SecurityUtil.isPackageProtectionEnabled()){
@@ -146,10 +279,15 @@ public class JspWriterImpl extends JspWriter {
             // clear() is illegal after any unbuffered output (JSP.5.5)
             throw new IllegalStateException(
                     getLocalizeMessage("jsp.error.ise_on_clear"));
-        if (flushed)
+        if (flushed || (parent != null && parent.flushes != parentFlushes)
+                || (encoding && encoded.isWritten()))
             throw new IOException(
                     getLocalizeMessage("jsp.error.attempt_to_clear_flushed_buffer"));
         ensureOpen();
+        if (parent != null)
+            parent.nextChar = min(mark, parent.nextChar);
+        if (encoding)
+            encoded.clear();
         nextChar = 0;
     }
     
@@ -158,12 +296,39 @@ public class JspWriterImpl extends JspWriter {
             throw new IllegalStateException(
                     getLocalizeMessage("jsp.error.ise_on_clear"));
         ensureOpen();
+        if (parent != null) {
+            // once flushed, the parent buffer only holds output of this writer
+            if (parent.flushes != parentFlushes) {
+                mark = 0;
+                parentFlushes = parent.flushes;
+            }
+            parent.nextChar = min(mark, parent.nextChar);
+        }
+        if (encoding)
+            encoded.clear();
         nextChar = 0;
     }
     
     private final void bufferOverflow() throws IOException {
         throw new IOException(getLocalizeMessage("jsp.error.overflow"));
     }
+
+    /**
+     * The buffer is full, flush it or fail if it must not be flushed.
+     */
+    private void overflow() throws IOException {
+        if (metrics != null)
+            metrics.addBufferOverflow();
+        if (encoding) {
+            // the byte buffer is written to the stream once it is full
+            encode(false);
+            return;
+        }
+        if (autoFlush)
+            flushBuffer();
+        else
+            bufferOverflow();
+    }
     
     /**
      * Flush the stream.
@@ -171,7 +336,11 @@ public class JspWriterImpl extends JspWriter {
      */
     public void flush()  throws IOException {
         flushBuffer();
-        if (out != null) {
+        if (parent != null) {
+            parent.flush();
+        } else if (encoding) {
+            encoded.flush();
+        } else if (out != null) {
             out.flush();
         }
     }
@@ -185,16 +354,27 @@ public class JspWriterImpl extends JspWriter {
             // multiple calls to close is OK
             return;
         flush();
-        if (out != null)
+        if (parent != null)
+            parent.close();
+        else if (encoding)
+            encoded.close();
+        else if (out != null)
             out.close();
         out = null;
         closed = true;
     }
     
     /**
-     * @return the number of bytes unused in the buffer
+     * @return the number of bytes unused in the buffer. While writing to the
+     * output stream, the buffer size is the size of the byte buffer, and each
+     * character not encoded yet is counted as one byte, the least it takes
+     * in an ASCII compatible charset.
      */
     public int getRemaining() {
+        if (parent != null)
+            return parent.getRemaining();
+        if (encoding)
+            return Math.max(0, encoded.getCapacity() - encoded.size() - nextChar);
         return bufferSize - nextChar;
     }
     
@@ -210,16 +390,16 @@ public class JspWriterImpl extends JspWriter {
      */
     public void write(int c) throws IOException {
         ensureOpen();
-        if (bufferSize == 0) {
+        if (parent != null) {
+            parent.write(c);
+        }
+        else if (bufferSize == 0) {
             initOut();
             out.write(c);
         }
         else {
             if (nextChar >= bufferSize)
-                if (autoFlush)
-                    flushBuffer();
-                else
-                    bufferOverflow();
+                overflow();
             cb[nextChar++] = (char) c;
         }
     }
@@ -252,6 +432,11 @@ public class JspWriterImpl extends JspWriter {
     {
         ensureOpen();
         
+        if (parent != null) {
+            parent.write(cbuf, off, len);
+            return;
+        }
+        
         if (bufferSize == 0) {
             initOut();
             out.write(cbuf, off, len);
@@ -265,14 +450,11 @@ public class JspWriterImpl extends JspWriter {
             return;
         } 
         
-        if (len >= bufferSize) {
+        if (len >= bufferSize && !encoding) {
             /* If the request length exceeds the size of the output buffer,
              flush the buffer and then write the data directly.  In this
              way buffered streams will cascade harmlessly. */
-            if (autoFlush)
-                flushBuffer();
-            else
-                bufferOverflow();
+            overflow();
             initOut();
             out.write(cbuf, off, len);
             return;
@@ -285,14 +467,30 @@ public class JspWriterImpl extends JspWriter {
             b += d;
             nextChar += d;
             if (nextChar >= bufferSize) 
-                if (autoFlush)
-                    flushBuffer();
-                else
-                    bufferOverflow();
+                overflow();
         }
         
     }
     
+    /**
+     * Write pre-encoded template text. The bytes are written if the page
+     * writes to the output stream of the response, see
+     * {@link #startEncoding(Charset)}, and the text otherwise.
+     */
+    public void write(EncodedText text) throws IOException {
+        ensureOpen();
+        if (!encodingChecked) {
+            encodingChecked = true;
+            encoding = startEncoding(text.getCharset());
+        }
+        if (encoding && text.getCharset().equals(encoded.getCharset())) {
+            encode(true);
+            encoded.write(text.getBytes());
+        } else {
+            write(text.getText());
+        }
+    }
+    
     /**
      * Write an array of characters.  This method cannot be inherited from the
      * Writer class because it must suppress I/O exceptions.
@@ -310,6 +508,10 @@ public class JspWriterImpl extends JspWriter {
      */
     public void write(String s, int off, int len) throws IOException {
         ensureOpen();
+        if (parent != null) {
+            parent.write(s, off, len);
+            return;
+        }
         if (bufferSize == 0) {
             initOut();
             out.write(s, off, len);
@@ -322,10 +524,7 @@ public class JspWriterImpl extends JspWriter {
             b += d;
             nextChar += d;
             if (nextChar >= bufferSize) 
-                if (autoFlush)
-                    flushBuffer();
-                else
-                    bufferOverflow();
+                overflow();
         }
     }
     
@@ -36,6 +36,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -73,6 +74,17 @@ import org.apache.sling.scripting.jsp.jasper.security.SecurityUtil;
  */
 public class PageContextImpl extends PageContext {
 
+	/**
+	 * Whether a response wrapper class replaces the writer of the wrapped
+	 * response.
+	 */
+	private static final ClassValue<Boolean> DECLARES_WRITER = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(final Class<?> type) {
+			return EncodedOutput.declares(type, "getWriter");
+		}
+	};
+
 	private Log log = LogFactory.getLog(PageContextImpl.class);
 
 	private BodyContentImpl[] outs;
@@ -110,13 +122,36 @@ public class PageContextImpl extends PageContext {
 
 	private transient JspWriterImpl baseOut;
 
+	private final JspMetrics metrics;
+
+	// whether the output is written into the buffer of an including page
+	private final boolean includeWriteThrough;
+
 	/*
 	 * Constructor.
 	 */
 	PageContextImpl() {
+		this(null);
+	}
+
+	/*
+	 * Constructor recording the overflows of the page buffer.
+	 */
+	PageContextImpl(final JspMetrics metrics) {
+		this(metrics, false);
+	}
+
+	/*
+	 * Constructor recording the overflows of the page buffer and optionally
+	 * writing the output of an included page into the buffer of the
+	 * including page.
+	 */
+	PageContextImpl(final JspMetrics metrics, final boolean includeWriteThrough) {
+		this.includeWriteThrough = includeWriteThrough;
 		this.outs = new BodyContentImpl[0];
 		this.attributes = new HashMap<String, Object>(16);
 		this.depth = -1;
+		this.metrics = metrics;
 	}
 
 	public void initialize(Servlet servlet, ServletRequest request,
@@ -155,9 +190,18 @@ public class PageContextImpl extends PageContext {
 		depth = -1;
 		if (this.baseOut == null) {
 			this.baseOut = new JspWriterImpl(response, bufferSize, autoFlush);
+			this.baseOut.setMetrics(metrics);
 		} else {
 			this.baseOut.init(response, bufferSize, autoFlush);
 		}
+		if (includeWriteThrough && bufferSize > 0 && autoFlush) {
+			// write the output of an included page into the buffer of the
+			// including page instead of buffering and copying it again
+			final JspWriterImpl including = getIncludingWriter(request, response);
+			if (including != null) {
+				this.baseOut.attach(including);
+			}
+		}
 		this.out = baseOut;
 
 		// register names/values as per spec
@@ -176,6 +220,40 @@ public class PageContextImpl extends PageContext {
 		isIncluded = request.getAttribute("javax.servlet.include.servlet_path") != null;
 	}
 
+	/**
+	 * Returns the writer of the including page if the response is the
+	 * response wrapper of the current JSP include, as set by
+	 * {@link JspRuntimeLibrary#include}, and its writer has not been replaced
+	 * by any other wrapper. The writer of the response is not requested, as
+	 * the page might use the output stream instead.
+	 */
+	private static JspWriterImpl getIncludingWriter(final ServletRequest request,
+			final ServletResponse response) {
+		final Object include = request.getAttribute(
+				ServletResponseWrapperInclude.INCLUDE_RESPONSE);
+		if (!(include instanceof ServletResponseWrapperInclude)) {
+			return null;
+		}
+		ServletResponse wrapped = response;
+		while (wrapped != include) {
+			if (!(wrapped instanceof ServletResponseWrapper)
+					|| replacesWriter((ServletResponseWrapper) wrapped)) {
+				return null;
+			}
+			wrapped = ((ServletResponseWrapper) wrapped).getResponse();
+		}
+		final JspWriter jspWriter = ((ServletResponseWrapperInclude) include).getJspWriter();
+		return jspWriter instanceof JspWriterImpl ? (JspWriterImpl) jspWriter : null;
+	}
+
+	private static boolean replacesWriter(final ServletResponseWrapper wrapper) {
+		if (wrapper instanceof EncodedResponseWrapper) {
+			// returns the wrapped writer until the page writes to the stream
+			return ((EncodedResponseWrapper) wrapper).isEncoding();
+		}
+		return DECLARES_WRITER.get(wrapper.getClass());
+	}
+
 	public void release() {
 		out = baseOut;
 		try {
@@ -209,6 +287,18 @@ public class PageContextImpl extends PageContext {
         }
 	}
 
+	/**
+	 * Returns the number of buffer characters held by the writers of this
+	 * page context, used to decide whether it is worth pooling.
+	 */
+	int getRetainedBufferSize() {
+		int size = baseOut == null ? 0 : baseOut.getBufferCapacity();
+		for (int i = 0; i < outs.length; i++) {
+			size += outs[i].getBufferCapacity();
+		}
+		return size;
+	}
+
 	public Object getAttribute(final String name) {
 
 		if (name == null) {
@@ -903,29 +993,6 @@ public class PageContextImpl extends PageContext {
 		}
 	}
 
-	private static String XmlEscape(String s) {
-		if (s == null)
-			return null;
-		StringBuffer sb = new StringBuffer();
-		for (int i = 0; i < s.length(); i++) {
-			char c = s.charAt(i);
-			if (c == '<') {
-				sb.append("&lt;");
-			} else if (c == '>') {
-				sb.append("&gt;");
-			} else if (c == '\'') {
-				sb.append("&#039;"); // &apos;
-			} else if (c == '&') {
-				sb.append("&amp;");
-			} else if (c == '"') {
-				sb.append("&#034;"); // &quot;
-			} else {
-				sb.append(c);
-			}
-		}
-		return sb.toString();
-	}
-
 	/**
 	 * Proprietary method to evaluate EL expressions. XXX - This method should
 	 * go away once the EL interpreter moves out of JSTL and into its own
@@ -946,6 +1013,31 @@ public class PageContextImpl extends PageContext {
 			final Class expectedType, final PageContext pageContext,
 			final ProtectedFunctionMapper functionMap, final boolean escape)
 			throws ELException {
+		return proprietaryEvaluate(expression, expectedType, pageContext,
+				functionMap, escape, null);
+	}
+
+	/**
+	 * Proprietary method to evaluate EL expressions using a cache of
+	 * parsed expressions.
+	 *
+	 * @param expression
+	 *            The expression to be evaluated
+	 * @param expectedType
+	 *            The expected resulting type
+	 * @param pageContext
+	 *            The page context
+	 * @param functionMap
+	 *            Maps prefix and name to Method
+	 * @param expressionCache
+	 *            The cache of the calling page, might be null
+	 * @return The result of the evaluation
+	 */
+	public static Object proprietaryEvaluate(final String expression,
+			final Class expectedType, final PageContext pageContext,
+			final ProtectedFunctionMapper functionMap, final boolean escape,
+			final ELExpressionCache expressionCache)
+			throws ELException {
 		Object retValue;
         final ExpressionFactory exprFactory = JspFactory.getDefaultFactory().getJspApplicationContext(pageContext.getServletContext()).getExpressionFactory();
 		if (SecurityUtil.isPackageProtectionEnabled()) {
@@ -955,8 +1047,7 @@ public class PageContextImpl extends PageContext {
 
 							public Object run() throws Exception {
                                 ELContextImpl ctx = (ELContextImpl) pageContext.getELContext();
-                                ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
-								ValueExpression ve = exprFactory.createValueExpression(ctx, expression, expectedType);
+                                ValueExpression ve = getValueExpression(exprFactory, ctx, expression, expectedType, functionMap, expressionCache);
                                 return ve.getValue(ctx);
 							}
 						});
@@ -970,14 +1061,74 @@ public class PageContextImpl extends PageContext {
 			}
 		} else {
             ELContextImpl ctx = (ELContextImpl) pageContext.getELContext();
-            ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
-            ValueExpression ve = exprFactory.createValueExpression(ctx, expression, expectedType);
+            ValueExpression ve = getValueExpression(exprFactory, ctx, expression, expectedType, functionMap, expressionCache);
             retValue = ve.getValue(ctx);
 		}
 		if (escape && retValue != null) {
-			retValue = XmlEscape(retValue.toString());
+			retValue = JspRuntimeLibrary.escapeXml(retValue.toString());
+		}
+
+		return retValue;
+	}
+
+	private static ValueExpression getValueExpression(final ExpressionFactory exprFactory,
+			final ELContextImpl ctx, final String expression, final Class expectedType,
+			final ProtectedFunctionMapper functionMap, final ELExpressionCache expressionCache) {
+		if (expressionCache != null) {
+			return expressionCache.getValueExpression(exprFactory, ctx, expression, expectedType, functionMap);
 		}
+		ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
+		return exprFactory.createValueExpression(ctx, expression, expectedType);
+	}
+
+	/**
+	 * Proprietary method to parse an EL expression once, used by generated
+	 * classes to initialize the static fields holding their expressions.
+	 *
+	 * @param expression
+	 *            The expression to be parsed
+	 * @param expectedType
+	 *            The expected resulting type
+	 * @param functionMap
+	 *            Maps prefix and name to Method
+	 * @return The parsed expression
+	 */
+	public static ValueExpression createValueExpression(final String expression,
+			final Class expectedType, final ProtectedFunctionMapper functionMap) {
+		final ELContextImpl ctx = new ELContextImpl();
+		ctx.setFunctionMapper(new FunctionMapperImpl(functionMap));
+		return JspApplicationContextImpl.getDefaultExpressionFactory()
+				.createValueExpression(ctx, expression, expectedType);
+	}
 
+	/**
+	 * Proprietary method to evaluate an EL expression parsed by
+	 * {@link #createValueExpression(String, Class, ProtectedFunctionMapper)}.
+	 * If variables are mapped in the EL context, the expression is parsed
+	 * again to honour them.
+	 *
+	 * @param valueExpression
+	 *            The parsed expression
+	 * @param pageContext
+	 *            The page context
+	 * @param functionMap
+	 *            Maps prefix and name to Method
+	 * @return The result of the evaluation
+	 */
+	public static Object evaluateExpression(final ValueExpression valueExpression,
+			final PageContext pageContext,
+			final ProtectedFunctionMapper functionMap, final boolean escape)
+			throws ELException {
+		final ELContextImpl ctx = (ELContextImpl) pageContext.getELContext();
+		if (SecurityUtil.isPackageProtectionEnabled() || ctx.hasVariables()) {
+			return proprietaryEvaluate(valueExpression.getExpressionString(),
+					valueExpression.getExpectedType(), pageContext, functionMap,
+					escape);
+		}
+		Object retValue = valueExpression.getValue(ctx);
+		if (escape && retValue != null) {
+			retValue = JspRuntimeLibrary.escapeXml(retValue.toString());
+		}
 		return retValue;
 	}
 
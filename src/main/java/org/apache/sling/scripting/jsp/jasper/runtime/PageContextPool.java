@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of released page contexts.
+ *
+ * The pool is a fixed array of slots which are taken and filled with
+ * compare-and-set, it neither locks nor uses thread locals. Each thread
+ * starts probing at a slot derived from its id, so concurrent threads
+ * mostly use different slots. Page contexts retaining more buffer than
+ * allowed are not pooled.
+ */
+public final class PageContextPool {
+
+    /** Default maximum number of retained buffer characters per page context. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    private final AtomicReferenceArray<PageContextImpl> slots;
+
+    private final int maxBufferSize;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder discards = new LongAdder();
+
+    public PageContextPool(final int size) {
+        this(size, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    public PageContextPool(final int size, final int maxBufferSize) {
+        this.slots = new AtomicReferenceArray<PageContextImpl>(size);
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Takes a page context from the pool.
+     *
+     * @return A released page context or {@code null} if the pool is empty
+     */
+    PageContextImpl get() {
+        final int size = slots.length();
+        final int start = start(size);
+        for(int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            final PageContextImpl pc = slots.get(index);
+            if ( pc != null && slots.compareAndSet(index, pc, null) ) {
+                hits.increment();
+                return pc;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Returns a released page context to the pool.
+     *
+     * @param pc The page context
+     * @return {@code true} if the page context has been pooled
+     */
+    boolean put(final PageContextImpl pc) {
+        if ( pc.getRetainedBufferSize() <= maxBufferSize ) {
+            final int size = slots.length();
+            final int start = start(size);
+            for(int i = 0; i < size; i++) {
+                final int index = (start + i) % size;
+                if ( slots.get(index) == null && slots.compareAndSet(index, null, pc) ) {
+                    return true;
+                }
+            }
+        }
+        discards.increment();
+        return false;
+    }
+
+    private static int start(final int size) {
+        return size == 0 ? 0 : (int) (Thread.currentThread().getId() % size);
+    }
+
+    /**
+     * Returns the maximum number of pooled page contexts.
+     */
+    public int getMaxSize() {
+        return slots.length();
+    }
+
+    /**
+     * Returns the number of page contexts taken from the pool.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of page contexts which had to be created.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of released page contexts which were not pooled,
+     * either because the pool was full or because of their buffer size.
+     */
+    public long getDiscardCount() {
+        return discards.sum();
+    }
+
+    /**
+     * Removes all pooled page contexts.
+     */
+    public void clear() {
+        for(int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rendering, compiling and loading statistics of a single JSP or tag file.
+ */
+public final class ScriptMetrics {
+
+    private final String path;
+
+    private final TimeHistogram renderTimes = new TimeHistogram();
+
+    private final LongAdder renderTime = new LongAdder();
+
+    private final LongAdder renderFailures = new LongAdder();
+
+    private final LongAdder compiles = new LongAdder();
+
+    private final LongAdder compileTime = new LongAdder();
+
+    private final LongAdder compileFailures = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder reloads = new LongAdder();
+
+    ScriptMetrics(final String path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the path of the script.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Records a request rendered by the script.
+     *
+     * @param nanos The time spent in nanoseconds
+     * @param failed Whether the script threw an exception
+     */
+    public void addRender(final long nanos, final boolean failed) {
+        renderTimes.add(nanos);
+        renderTime.add(nanos);
+        if ( failed ) {
+            renderFailures.increment();
+        }
+    }
+
+    /**
+     * Records a compilation of the script.
+     *
+     * @param nanos The time spent in nanoseconds
+     * @param failed Whether the compilation failed
+     */
+    public void addCompile(final long nanos, final boolean failed) {
+        compiles.increment();
+        compileTime.add(nanos);
+        if ( failed ) {
+            compileFailures.increment();
+        }
+    }
+
+    /**
+     * Records a load of the servlet of the script, every load after the
+     * first one is a reload.
+     */
+    public void addLoad() {
+        if ( loads.sum() > 0 ) {
+            reloads.increment();
+        }
+        loads.increment();
+    }
+
+    /**
+     * Returns the distribution of the render times.
+     */
+    public TimeHistogram getRenderTimes() {
+        return renderTimes;
+    }
+
+    /**
+     * Returns the number of rendered requests.
+     */
+    public long getRenderCount() {
+        return renderTimes.getCount();
+    }
+
+    /**
+     * Returns the total render time in nanoseconds.
+     */
+    public long getRenderTime() {
+        return renderTime.sum();
+    }
+
+    /**
+     * Returns the number of requests for which the script threw an exception.
+     */
+    public long getRenderFailureCount() {
+        return renderFailures.sum();
+    }
+
+    /**
+     * Returns the number of compilations.
+     */
+    public long getCompileCount() {
+        return compiles.sum();
+    }
+
+    /**
+     * Returns the total compile time in nanoseconds.
+     */
+    public long getCompileTime() {
+        return compileTime.sum();
+    }
+
+    /**
+     * Returns the number of failed compilations.
+     */
+    public long getCompileFailureCount() {
+        return compileFailures.sum();
+    }
+
+    /**
+     * Returns the number of times the servlet has been loaded.
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of times the servlet has been loaded again.
+     */
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    /**
+     * Resets all statistics.
+     */
+    public void reset() {
+        renderTimes.reset();
+        renderTime.reset();
+        renderFailures.reset();
+        compiles.reset();
+        compileTime.reset();
+        compileFailures.reset();
+        loads.reset();
+        reloads.reset();
+    }
+}
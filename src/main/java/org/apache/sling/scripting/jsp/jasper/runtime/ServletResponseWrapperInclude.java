@@ -38,6 +38,11 @@ import javax.servlet.jsp.JspWriter;
 
 public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
 
+    /**
+     * The request attribute holding the wrapper of the current include.
+     */
+    static final String INCLUDE_RESPONSE = ServletResponseWrapperInclude.class.getName();
+
     /**
      * PrintWriter which appends to the JspWriter of the including page.
      */
@@ -59,6 +64,12 @@ public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
 	return printWriter;
     }
 
+    /** Package-level access
+     */
+    JspWriter getJspWriter() {
+	return jspWriter;
+    }
+
     public ServletOutputStream getOutputStream() throws IOException {
 	throw new IllegalStateException();
     }
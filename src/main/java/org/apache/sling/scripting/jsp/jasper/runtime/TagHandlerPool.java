@@ -43,8 +43,25 @@ public class TagHandlerPool {
     private int current;
     protected AnnotationProcessor annotationProcessor = null;
 
+    /** The metrics recording the use of the pool, might be null. */
+    protected JspMetrics metrics = null;
+
     public static TagHandlerPool getTagHandlerPool( ServletConfig config) {
-        final TagHandlerPool result = new TagHandlerPool();
+        TagHandlerPool result = null;
+        String tpClassName = getOption(config, OPTION_TAGPOOL, null);
+        if( tpClassName != null ) {
+            try {
+                Class<?> c = TagHandlerPool.class.getClassLoader().loadClass(tpClassName);
+                result = (TagHandlerPool) c.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                LogFactory.getLog(TagHandlerPool.class).warn(
+                        "Unable to create tag handler pool " + tpClassName, e);
+                result = null;
+            }
+        }
+        if( result == null ) {
+            result = new TagHandlerPool();
+        }
         result.init(config);
 
         return result;
@@ -67,6 +84,8 @@ public class TagHandlerPool {
         this.current = -1;
         this.annotationProcessor =
             (AnnotationProcessor) config.getServletContext().getAttribute(AnnotationProcessor.class.getName());
+        this.metrics =
+            (JspMetrics) config.getServletContext().getAttribute(JspMetrics.class.getName());
     }
 
     /**
@@ -104,9 +123,17 @@ public class TagHandlerPool {
         synchronized( this ) {
             if (current >= 0) {
                 handler = handlers[current--];
-                return handler;
             }
         }
+        if (handler != null) {
+            if (metrics != null) {
+                metrics.addTagHandlerHit();
+            }
+            return handler;
+        }
+        if (metrics != null) {
+            metrics.addTagHandlerMiss();
+        }
 
         // Out of sync block - there is no need for other threads to
         // wait for us to construct a tag for this thread.
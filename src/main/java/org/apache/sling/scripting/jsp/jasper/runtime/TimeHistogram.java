@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with exponential buckets.
+ *
+ * Bucket 0 counts durations below one microsecond, bucket {@code i} those
+ * from 2<sup>i-1</sup> up to 2<sup>i</sup> microseconds and the last bucket
+ * all longer durations. Recording only increments a counter, so the
+ * histogram can be updated by many threads without locking.
+ */
+public final class TimeHistogram {
+
+    /** The number of buckets, the last one starts at about 4 seconds. */
+    public static final int BUCKETS = 24;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    public TimeHistogram() {
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void add(final long nanos) {
+        final long micros = nanos / 1000;
+        final int index = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(index, BUCKETS - 1)].increment();
+    }
+
+    /**
+     * Returns the number of durations in a bucket.
+     */
+    public long getCount(final int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     */
+    public long getCount() {
+        long count = 0;
+        for(final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket in microseconds.
+     *
+     * @return The bound or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getUpperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Returns an estimate of a percentile, the upper bound of the bucket
+     * containing it.
+     *
+     * @param percentile The percentile between 0 and 100
+     * @return The estimate in microseconds, {@link Long#MAX_VALUE} if it
+     *         is in the last bucket or 0 if nothing has been recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if ( seen >= rank ) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Resets all buckets.
+     */
+    public void reset() {
+        for(final LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+}
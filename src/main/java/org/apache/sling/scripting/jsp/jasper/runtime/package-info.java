@@ -19,7 +19,7 @@
 /**
  * This package should only be used by compiled JSP scripts when being executed on the platform.
  */
-@Version("2.6.0")
+@Version("2.7.0")
 package org.apache.sling.scripting.jsp.jasper.runtime;
 
 import org.osgi.annotation.versioning.Version;
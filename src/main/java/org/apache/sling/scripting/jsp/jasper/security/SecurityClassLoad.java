@@ -46,12 +46,28 @@ public final class SecurityClassLoad {
 
             loader.loadClass( basePackage +
                 "runtime.JspRuntimeLibrary");
+            loader.loadClass( basePackage +
+                "runtime.BeanProperties");
+            loader.loadClass( basePackage +
+                "runtime.BeanProperties$Property");
             loader.loadClass( basePackage +
                 "runtime.ServletResponseWrapperInclude");
+            loader.loadClass( basePackage +
+                "runtime.EncodedText");
+            loader.loadClass( basePackage +
+                "runtime.EncodedResponseWrapper");
             loader.loadClass( basePackage +
                 "runtime.TagHandlerPool");
+            loader.loadClass( basePackage +
+                "runtime.ConcurrentTagHandlerPool");
+            loader.loadClass( basePackage +
+                "runtime.ConcurrentTagHandlerPool$Instantiator");
             loader.loadClass( basePackage +
                 "runtime.JspFragmentHelper");
+            loader.loadClass( basePackage +
+                "runtime.ELExpressionCache");
+            loader.loadClass( basePackage +
+                "runtime.PageContextPool");
 
             loader.loadClass( basePackage +
                 "runtime.ProtectedFunctionMapper");
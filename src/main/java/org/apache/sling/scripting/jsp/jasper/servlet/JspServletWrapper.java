@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -41,6 +42,7 @@ import javax.servlet.jsp.tagext.TagInfo;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.sling.api.SlingException;
+import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.SlingIOException;
 import org.apache.sling.api.SlingServletException;
 import org.apache.sling.api.scripting.ScriptEvaluationException;
@@ -50,12 +52,17 @@ import org.apache.sling.scripting.jsp.SlingPageException;
 import org.apache.sling.scripting.jsp.jasper.JasperException;
 import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
 import org.apache.sling.scripting.jsp.jasper.Options;
+import org.apache.sling.scripting.jsp.jasper.compiler.CompileRejectedException;
 import org.apache.sling.scripting.jsp.jasper.compiler.ErrorDispatcher;
+import org.apache.sling.scripting.jsp.jasper.compiler.FreshnessIndex;
 import org.apache.sling.scripting.jsp.jasper.compiler.JavacErrorDetail;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
 import org.apache.sling.scripting.jsp.jasper.compiler.Localizer;
 import org.apache.sling.scripting.jsp.jasper.runtime.AnnotationProcessor;
+import org.apache.sling.scripting.jsp.jasper.runtime.EncodedResponseWrapper;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspMetrics;
 import org.apache.sling.scripting.jsp.jasper.runtime.JspSourceDependent;
+import org.apache.sling.scripting.jsp.jasper.runtime.ScriptMetrics;
 
 /**
  * The JSP engine (a.k.a Jasper).
@@ -86,7 +93,7 @@ public class JspServletWrapper {
     private final String jspUri;
     private final JspCompilationContext ctxt;
 
-    private volatile Servlet theServlet;
+    private volatile LoadedServlet loaded;
     private volatile Class<?> tagFileClass;
 
     private volatile long available = 0L;
@@ -95,6 +102,24 @@ public class JspServletWrapper {
 
     private volatile List<String> dependents;
 
+    /** The generation of the reported changes before the last check. */
+    private long generation;
+
+    /** Guards the stale state. */
+    private final Object staleLock = new Object();
+
+    /**
+     * The time since the served servlet is outdated in milliseconds, 0 if
+     * it is current.
+     */
+    private volatile long staleSince;
+
+    /** Counts the changes which marked the servlet outdated. */
+    private int staleMarks;
+
+    /** The statistics of the page, {@code null} if they are not recorded. */
+    private final ScriptMetrics metrics;
+
     /**
      * JspServletWrapper for JSP pages.
      */
@@ -110,6 +135,7 @@ public class JspServletWrapper {
         this.ctxt = new JspCompilationContext(jspUri, isErrorPage, options,
 					 config.getServletContext(),
 					 rctxt);
+        this.metrics = getScriptMetrics(rctxt, jspUri);
         if ( log.isDebugEnabled() ) {
             log.debug("Creating new wrapper for servlet " + jspUri);
         }
@@ -131,7 +157,8 @@ public class JspServletWrapper {
         this.ctxt = new JspCompilationContext(jspUri, isErrorPage, options,
                              config.getServletContext(),
                              rctxt, null);
-        this.theServlet = servlet;
+        this.loaded = servlet == null ? null : new LoadedServlet(servlet);
+        this.metrics = getScriptMetrics(rctxt, jspUri);
         if ( log.isDebugEnabled() ) {
             log.debug("Creating new wrapper for servlet " + jspUri);
         }
@@ -153,24 +180,56 @@ public class JspServletWrapper {
         this.jspUri = tagFilePath;
         this.ctxt = new JspCompilationContext(jspUri, tagInfo, options,
 					 servletContext, rctxt, tagFileJarUrl);
+        this.metrics = null;
         if ( log.isDebugEnabled() ) {
             log.debug("Creating new wrapper for tagfile " + jspUri);
         }
     }
 
+    private static ScriptMetrics getScriptMetrics(final JspRuntimeContext rctxt, final String jspUri) {
+        final JspMetrics metrics = rctxt.getMetrics();
+        return metrics == null ? null : metrics.getScriptMetrics(jspUri);
+    }
+
     public JspCompilationContext getJspEngineContext() {
         return ctxt;
     }
 
     public boolean isValid() {
-        if ( theServlet != null ) {
-            if ( theServlet.getClass().getClassLoader() instanceof DynamicClassLoader ) {
-                return ((DynamicClassLoader)theServlet.getClass().getClassLoader()).isLive();
+        return isValid(false);
+    }
+
+    /**
+     * Is the class loader of the loaded servlet still usable?
+     *
+     * @param ignoreWrittenClasses Whether classes written since the servlet
+     *            has been loaded are ignored. The class loader of the class
+     *            loader writer is outdated by any written class, so if changed
+     *            pages are invalidated individually, only the parent class
+     *            loader has to be live.
+     */
+    public boolean isValid(final boolean ignoreWrittenClasses) {
+        final LoadedServlet current = loaded;
+        if ( current != null ) {
+            final ClassLoader loader = current.servlet.getClass().getClassLoader();
+            if ( loader instanceof DynamicClassLoader && !((DynamicClassLoader) loader).isLive() ) {
+                if ( !ignoreWrittenClasses ) {
+                    return false;
+                }
+                final ClassLoader parent = loader.getParent();
+                return !(parent instanceof DynamicClassLoader) || ((DynamicClassLoader) parent).isLive();
             }
         }
         return true;
     }
 
+    /**
+     * Is the servlet of the page loaded?
+     */
+    public boolean isLoaded() {
+        return loaded != null;
+    }
+
     @SuppressWarnings("unchecked")
     private Servlet loadServlet()
     throws ServletException, IOException {
@@ -207,6 +266,9 @@ public class JspServletWrapper {
         }
 
         servlet.init(config);
+        if ( metrics != null ) {
+            metrics.addLoad();
+        }
 
         return servlet;
     }
@@ -275,9 +337,9 @@ public class JspServletWrapper {
                     if ( log.isDebugEnabled() ) {
                         log.debug("Compiling tagfile " + jspUri);
                     }
-                    this.compileException = ctxt.compile();
-                    if ( compileException != null ) {
-                        throw compileException;
+                    final JasperException ex = this.compilePage();
+                    if ( ex != null ) {
+                        throw ex;
                     }
                     if ( log.isDebugEnabled() ) {
                         log.debug("Loading tagfile " + jspUri);
@@ -384,6 +446,36 @@ public class JspServletWrapper {
      * Check if the compiled class is still current
      */
     private boolean isOutDated() {
+        final FreshnessIndex index = ctxt.getRuntimeContext().getFreshnessIndex();
+        if ( index == null ) {
+            return isStale();
+        }
+        // changes are reported, only check if the class file still exists
+        this.generation = index.getGeneration();
+        if ( index.isChanged(jspUri, this.getDependants()) ) {
+            if (log.isDebugEnabled()) {
+                log.debug("Compiler: outdated: " + jspUri + " because of a reported change");
+            }
+            return true;
+        }
+        return ctxt.getRuntimeContext().getIOProvider().lastModified(ctxt.getClassFileName()) < 0;
+    }
+
+    /**
+     * Record a successful compilation.
+     */
+    private void compiled() {
+        final FreshnessIndex index = ctxt.getRuntimeContext().getFreshnessIndex();
+        if ( index != null ) {
+            index.compiled(jspUri, this.generation);
+        }
+    }
+
+    /**
+     * Check if the class file is missing or older than the page or one
+     * of its dependencies, regardless of the reported changes.
+     */
+    public boolean isStale() {
         // check if class file exists
         final String targetFile = ctxt.getClassFileName();
         final long targetLastModified = ctxt.getRuntimeContext().getIOProvider().lastModified(targetFile);
@@ -428,6 +520,132 @@ public class JspServletWrapper {
 
     }
 
+    /**
+     * Compile the page unless it is already loaded or its class is up to
+     * date. A request for the page waits until the compilation is done.
+     *
+     * @return The compile exception or {@code null} if the page compiled
+     */
+    public JasperException compile() {
+        synchronized ( this ) {
+            if ( loaded == null && compileException == null && isOutDated() ) {
+                if ( log.isDebugEnabled() ) {
+                    log.debug("Compiling servlet " + this.jspUri);
+                }
+                final JasperException ex = this.compilePage();
+                if ( ex == null ) {
+                    this.compiled();
+                }
+                return ex;
+            }
+            return this.compileException;
+        }
+    }
+
+    /**
+     * Mark the loaded servlet as outdated. It keeps serving requests until
+     * {@link #revalidate()} has replaced it.
+     *
+     * @return {@code false} if there is no servlet which could be served
+     */
+    public boolean markStale() {
+        if ( isTagFile || loaded == null || compileException != null ) {
+            return false;
+        }
+        synchronized ( staleLock ) {
+            staleMarks++;
+            if ( staleSince == 0 ) {
+                staleSince = System.currentTimeMillis();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Is the served servlet outdated?
+     */
+    public boolean isServingStale() {
+        return staleSince > 0;
+    }
+
+    /**
+     * Recompile the page if it has been marked as outdated and replace the
+     * served servlet. Requests are served by the previous servlet until the
+     * compilation is done, unless it takes too long. The previous servlet is
+     * destroyed once the requests it is still serving are done.
+     *
+     * @return {@code false} if the compilation has been rejected and the
+     *         page is still outdated
+     */
+    public boolean revalidate() {
+        synchronized ( this ) {
+            final long since;
+            final int marks;
+            synchronized ( staleLock ) {
+                since = staleSince;
+                marks = staleMarks;
+            }
+            if ( since == 0 ) {
+                // already revalidated
+                return true;
+            }
+            if ( log.isDebugEnabled() ) {
+                log.debug("Recompiling stale servlet " + this.jspUri);
+            }
+            final FreshnessIndex index = ctxt.getRuntimeContext().getFreshnessIndex();
+            if ( index != null ) {
+                this.generation = index.getGeneration();
+            }
+            final LoadedServlet previous = loaded;
+            Servlet servlet = null;
+            final JasperException ex = ctxt.compile();
+            if ( ex instanceof CompileRejectedException ) {
+                // still stale, try again later
+                return false;
+            }
+            if ( ex == null ) {
+                this.compiled();
+                try {
+                    servlet = this.loadServlet();
+                } catch ( final ServletException | IOException e ) {
+                    // keep serving the previous servlet, still stale
+                    log.error("Unable to load servlet " + this.jspUri, e);
+                    if ( previous != null ) {
+                        return true;
+                    }
+                }
+            } else {
+                this.compileException = ex;
+            }
+            this.loaded = servlet == null ? null : new LoadedServlet(servlet);
+
+            synchronized ( staleLock ) {
+                // a change during the compilation needs another one
+                if ( staleMarks == marks ) {
+                    staleSince = 0;
+                }
+            }
+            ctxt.getRuntimeContext().getStaleStatistics().add(
+                    System.currentTimeMillis() - since, servlet == null);
+            if ( previous != null ) {
+                previous.retire();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Compile the page. The error is kept as the result of the page unless
+     * the compilation has been rejected, then the next request tries again.
+     */
+    private JasperException compilePage() {
+        final JasperException ex = ctxt.compile();
+        if ( !(ex instanceof CompileRejectedException) ) {
+            this.compileException = ex;
+        }
+        return ex;
+    }
+
     /**
      * Prepare the servlet:
      * - compile it if it either hasn't been compiled yet or is out dated
@@ -442,14 +660,15 @@ public class JspServletWrapper {
             if ( log.isDebugEnabled() ) {
                 log.debug("Compiling servlet " + this.jspUri);
             }
-            this.compileException = ctxt.compile();
-            if ( compileException != null ) {
-                throw compileException;
+            final JasperException ex = this.compilePage();
+            if ( ex != null ) {
+                throw ex;
             }
+            this.compiled();
         }
 
         // (Re)load servlet class file
-        this.theServlet = this.loadServlet();
+        this.loaded = new LoadedServlet(this.loadServlet());
     }
 
     /**
@@ -461,8 +680,13 @@ public class JspServletWrapper {
      *
      */
     public void service(final SlingBindings bindings) {
+        SlingHttpServletResponse response = bindings.getResponse();
+        if ( response != null && options.genStringAsByteArray() ) {
+            // lets the page write its template text to the output stream
+            response = new EncodedResponseWrapper(response);
+        }
         try {
-            service(bindings.getRequest(), bindings.getResponse());
+            service(bindings.getRequest(), response);
         } catch (IOException ioe) {
             throw new SlingIOException(ioe);
         } catch (ServletException se) {
@@ -488,29 +712,28 @@ public class JspServletWrapper {
                 // Wait period has expired. Reset.
                 available = 0;
             }
-            if ( theServlet == null ) {
-                synchronized ( this ) {
-                    if ( compileException != null ) {
-                        throw compileException;
-                    }
-                    if ( theServlet == null ) {
-                        this.prepareServlet(request, response);
-                    }
-                }
-            }
-            if ( compileException != null ) {
-                throw compileException;
-            }
+            final LoadedServlet current = this.acquireServlet(request, response);
+            final Servlet servlet = current.servlet;
 
             // Service request
-            if (theServlet instanceof SingleThreadModel) {
-               // sync on the wrapper so that the freshness
-               // of the page is determined right before servicing
-               synchronized (this) {
-                   theServlet.service(request, response);
+            final long start = metrics == null ? 0 : System.nanoTime();
+            boolean failed = true;
+            try {
+                if (servlet instanceof SingleThreadModel) {
+                   // sync on the wrapper so that the freshness
+                   // of the page is determined right before servicing
+                   synchronized (this) {
+                       servlet.service(request, response);
+                    }
+                } else {
+                    servlet.service(request, response);
+                }
+                failed = false;
+            } finally {
+                current.release();
+                if ( metrics != null ) {
+                    metrics.addRender(System.nanoTime() - start, failed);
                 }
-            } else {
-                theServlet.service(request, response);
             }
 
         } catch (final UnavailableException ex) {
@@ -535,6 +758,51 @@ public class JspServletWrapper {
         }
     }
 
+    /**
+     * Get the servlet for a request, compiling and loading it if needed.
+     * It has to be released once the request is done.
+     */
+    private LoadedServlet acquireServlet(final HttpServletRequest request,
+            final HttpServletResponse response)
+    throws ServletException, IOException {
+        for(;;) {
+            // the servlet might be replaced by a revalidation at any time
+            LoadedServlet current = loaded;
+            if ( current == null ) {
+                synchronized ( this ) {
+                    if ( compileException != null ) {
+                        throw compileException;
+                    }
+                    if ( loaded == null ) {
+                        this.prepareServlet(request, response);
+                    }
+                    current = loaded;
+                }
+            }
+            if ( staleSince > 0 ) {
+                final long maxStaleness = ctxt.getRuntimeContext().getMaxStaleness();
+                if ( maxStaleness > 0 && System.currentTimeMillis() - staleSince > maxStaleness ) {
+                    // served the previous version for too long, wait for the new one
+                    synchronized ( this ) {
+                        this.revalidate();
+                        if ( loaded == null && compileException == null ) {
+                            this.prepareServlet(request, response);
+                        }
+                        current = loaded;
+                    }
+                }
+            }
+            final JasperException ce = compileException;
+            if ( ce != null ) {
+                throw ce;
+            }
+            // a replaced servlet might have been destroyed in the meantime
+            if ( current != null && current.acquire() ) {
+                return current;
+            }
+        }
+    }
+
     /**
      * Destroy this wrapper
      * @param deleteGeneratedFiles Should generated files be deleted as well?
@@ -555,7 +823,8 @@ public class JspServletWrapper {
             if ( log.isDebugEnabled() ) {
                 log.debug("Destroying servlet " + jspUri);
             }
-            if (theServlet != null) {
+            final LoadedServlet current = loaded;
+            if (current != null) {
                 if ( deleteGeneratedFiles ) {
                     if ( log.isDebugEnabled() ) {
                         log.debug("Deleting generated files for servlet " + jspUri);
@@ -575,17 +844,83 @@ public class JspServletWrapper {
                         c.removeGeneratedFiles();
                     }
                 }
-                theServlet.destroy();
-                AnnotationProcessor annotationProcessor = (AnnotationProcessor) config.getServletContext().getAttribute(AnnotationProcessor.class.getName());
-                if (annotationProcessor != null) {
-                    try {
-                        annotationProcessor.preDestroy(theServlet);
-                    } catch (Exception e) {
-                        // Log any exception, since it can't be passed along
-                        log.error(Localizer.getMessage("jsp.error.file.not.found",
-                               e.getMessage()), e);
-                    }
+                this.loaded = null;
+                current.retire();
+            }
+        }
+    }
+
+    /**
+     * Destroy a servlet instance of this page.
+     */
+    private void destroyServlet(final Servlet servlet) {
+        servlet.destroy();
+        AnnotationProcessor annotationProcessor = (AnnotationProcessor) config.getServletContext().getAttribute(AnnotationProcessor.class.getName());
+        if (annotationProcessor != null) {
+            try {
+                annotationProcessor.preDestroy(servlet);
+            } catch (Exception e) {
+                // Log any exception, since it can't be passed along
+                log.error(Localizer.getMessage("jsp.error.file.not.found",
+                       e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * A loaded servlet instance. Once it has been replaced, it is destroyed
+     * as soon as it is not serving any request anymore.
+     */
+    private final class LoadedServlet {
+
+        final Servlet servlet;
+
+        /** The number of requests being served, -1 once destroyed. */
+        private final AtomicInteger users = new AtomicInteger();
+
+        private volatile boolean retired;
+
+        LoadedServlet(final Servlet servlet) {
+            this.servlet = servlet;
+        }
+
+        /**
+         * Register a request.
+         *
+         * @return {@code false} if the servlet has already been destroyed
+         */
+        boolean acquire() {
+            for(;;) {
+                final int count = users.get();
+                if ( count < 0 ) {
+                    return false;
                 }
+                if ( users.compareAndSet(count, count + 1) ) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Unregister a request, destroying a replaced servlet after the last one.
+         */
+        void release() {
+            if ( users.decrementAndGet() == 0 && retired ) {
+                destroyIfUnused();
+            }
+        }
+
+        /**
+         * The servlet has been replaced, destroy it once it is not used anymore.
+         */
+        void retire() {
+            retired = true;
+            destroyIfUnused();
+        }
+
+        private void destroyIfUnused() {
+            if ( users.compareAndSet(0, -1) ) {
+                destroyServlet(servlet);
             }
         }
     }
@@ -657,7 +992,7 @@ public class JspServletWrapper {
             int javaLineNumber = jspFrame.getLineNumber();
             JavacErrorDetail detail = ErrorDispatcher.createJavacError(
                     jspFrame.getMethodName(),
-                    this.ctxt.getCompiler().getPageNodes(),
+                    this.ctxt.getCompiler().getJavaLineMap(),
                     null,
                     javaLineNumber,
                     ctxt);
@@ -21,9 +21,19 @@ package org.apache.sling.scripting.jsp.jasper.tagplugins.jstl;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
@@ -32,9 +42,11 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.PageContext;
 
 import org.apache.sling.scripting.jsp.jasper.Constants;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspRuntimeLibrary;
 
 /**
  * Util contains some often used consts, static methods and embedded class
@@ -49,18 +61,6 @@ public class Util {
     public static final String DEFAULT_ENCODING =
         "ISO-8859-1";
 
-    public static final int HIGHEST_SPECIAL = '>';
-
-    public static char[][] specialCharactersRepresentation = new char[HIGHEST_SPECIAL + 1][];
-
-    static {
-        specialCharactersRepresentation['&'] = "&amp;".toCharArray();
-        specialCharactersRepresentation['<'] = "&lt;".toCharArray();
-        specialCharactersRepresentation['>'] = "&gt;".toCharArray();
-        specialCharactersRepresentation['"'] = "&#034;".toCharArray();
-        specialCharactersRepresentation['\''] = "&#039;".toCharArray();
-    }
-
     /**
      * Converts the given string description of a scope to the corresponding
      * PageContext constant.
@@ -180,39 +180,38 @@ public class Util {
      * taken from org.apache.taglibs.standard.tag.common.core.Util
      */
     public static String escapeXml(String buffer) {
-        int start = 0;
-        int length = buffer.length();
-        char[] arrayBuffer = buffer.toCharArray();
-        StringBuffer escapedBuffer = null;
-
-        for (int i = 0; i < length; i++) {
-            char c = arrayBuffer[i];
-            if (c <= HIGHEST_SPECIAL) {
-                char[] escaped = specialCharactersRepresentation[c];
-                if (escaped != null) {
-                    // create StringBuffer to hold escaped xml string
-                    if (start == 0) {
-                        escapedBuffer = new StringBuffer(length + 5);
-                    }
-                    // add unescaped portion
-                    if (start < i) {
-                        escapedBuffer.append(arrayBuffer,start,i-start);
-                    }
-                    start = i + 1;
-                    // add escaped xml
-                    escapedBuffer.append(escaped);
+        return JspRuntimeLibrary.escapeXml(buffer);
+    }
+
+    /**
+     * Writes the value of an out tag, optionally escaped. The contents of a
+     * reader are copied, any other value is written as string. Null values
+     * are not written at all. Escaped text is streamed into the writer, see
+     * {@link JspRuntimeLibrary#writeEscapedXml(JspWriter, String)}.
+     *
+     * taken from org.apache.taglibs.standard.tag.common.core.OutSupport
+     */
+    public static void out(JspWriter out, Object value, boolean escapeXml)
+    throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Reader) {
+            Reader reader = (Reader) value;
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                if (escapeXml) {
+                    JspRuntimeLibrary.writeEscapedXml(out, buffer, 0, count);
+                } else {
+                    out.write(buffer, 0, count);
                 }
             }
+        } else if (escapeXml) {
+            JspRuntimeLibrary.writeEscapedXml(out, value.toString());
+        } else {
+            out.write(value.toString());
         }
-        // no xml escaping was necessary
-        if (start == 0) {
-            return buffer;
-        }
-        // add rest of unescaped portion
-        if (start < length) {
-            escapedBuffer.append(arrayBuffer,start,length-start);
-        }
-        return escapedBuffer.toString();
     }
 
     /** Utility methods
@@ -249,6 +248,60 @@ public class Util {
         }
     }
 
+    /**
+     * Returns an iterator over the items of a forEach loop. Arrays of
+     * primitives are iterated over their wrapped values, maps over their
+     * entries and strings over their comma separated tokens. No items
+     * result in an empty iteration.
+     *
+     * taken from org.apache.taglibs.standard.tag.common.core.ForEachSupport
+     */
+    public static Iterator<?> toIterator(final Object items)
+    throws JspTagException {
+        if (items == null) {
+            return Collections.emptyIterator();
+        } else if (items instanceof Collection) {
+            return ((Collection<?>) items).iterator();
+        } else if (items instanceof Object[]) {
+            return Arrays.asList((Object[]) items).iterator();
+        } else if (items.getClass().isArray()) {
+            return new Iterator<Object>() {
+                private final int length = Array.getLength(items);
+                private int index = 0;
+
+                public boolean hasNext() {
+                    return index < length;
+                }
+
+                public Object next() {
+                    if (index >= length) {
+                        throw new NoSuchElementException();
+                    }
+                    return Array.get(items, index++);
+                }
+            };
+        } else if (items instanceof Iterator) {
+            return (Iterator<?>) items;
+        } else if (items instanceof Enumeration) {
+            final Enumeration<?> e = (Enumeration<?>) items;
+            return new Iterator<Object>() {
+                public boolean hasNext() {
+                    return e.hasMoreElements();
+                }
+
+                public Object next() {
+                    return e.nextElement();
+                }
+            };
+        } else if (items instanceof Map) {
+            return ((Map<?, ?>) items).entrySet().iterator();
+        } else if (items instanceof String) {
+            return toIterator(new StringTokenizer((String) items, ","));
+        }
+        throw new JspTagException(
+        "Don't know how to iterate over supplied \"items\" in &lt;forEach&gt;");
+    }
+
     /** Wraps responses to allow us to retrieve results as Strings.
      * mainly taken from org.apache.taglibs.standard.tag.common.core.importSupport
      */
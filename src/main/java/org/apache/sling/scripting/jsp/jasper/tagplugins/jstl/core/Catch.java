@@ -45,7 +45,7 @@ public class Catch implements TagPlugin {
         //be set to the attribute "var" defines in page scope 
         if(hasVar){
             String strVar = ctxt.getConstantAttribute("var");
-            ctxt.generateJavaSource("    pageContext.setAttribute(\"" + strVar + "\", " 
+            ctxt.generateJavaSource("    _jspx_page_context.setAttribute(\"" + strVar + "\", " 
                     + exceptionName + ", PageContext.PAGE_SCOPE);");
         }
         
@@ -62,7 +62,7 @@ public class Catch implements TagPlugin {
         if(hasVar){
             String strVar = ctxt.getConstantAttribute("var");
             ctxt.generateJavaSource("    if(!" + caughtName + "){");
-            ctxt.generateJavaSource("        pageContext.removeAttribute(\"" + strVar + "\", PageContext.PAGE_SCOPE);");
+            ctxt.generateJavaSource("        _jspx_page_context.removeAttribute(\"" + strVar + "\", PageContext.PAGE_SCOPE);");
             ctxt.generateJavaSource("    }");
         }
         
@@ -25,7 +25,11 @@ public final class Choose implements TagPlugin {
     public void doTag(TagPluginContext ctxt) {
         
         // Not much to do here, much of the work will be done in the
-        // containing tags, <c:when> and <c:otherwise>.
+        // containing tags, <c:when> and <c:otherwise>. The leading "if"
+        // lets every <c:when> and <c:otherwise> continue with an "else",
+        // even if there is no <c:when> at all.
+        ctxt.setPluginAttribute("choose", "true");
+        ctxt.generateJavaSource("if (false) {");
         
         ctxt.generateBody();
         // See comments in When.java for the reason "}" is generated here.
@@ -22,323 +22,165 @@ import org.apache.sling.scripting.jsp.jasper.compiler.tagplugin.*;
 
 public final class ForEach implements TagPlugin {
     
-    private boolean hasVar, hasBegin, hasEnd, hasStep;
-    
     public void doTag(TagPluginContext ctxt) {
         
-        String index = null;
-        
-        boolean hasVarStatus = ctxt.isAttributeSpecified("varStatus");
-        if (hasVarStatus) {
+        // The loop status and deferred items are only supported by the
+        // tag handler
+        if (ctxt.isAttributeSpecified("varStatus")
+                || ctxt.isDeferredAttribute("items")) {
             ctxt.dontUseTagPlugin();
             return;
         }
         
-        hasVar = ctxt.isAttributeSpecified("var");
-        hasBegin = ctxt.isAttributeSpecified("begin");
-        hasEnd = ctxt.isAttributeSpecified("end");
-        hasStep = ctxt.isAttributeSpecified("step");
-        
         boolean hasItems = ctxt.isAttributeSpecified("items");
         if (hasItems) {
-            doCollection(ctxt);
+            String itemsV = ctxt.getTemporaryVariableName();
+            ctxt.generateJavaSource("java.util.Iterator " + itemsV + " = " +
+                    "org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.Util.toIterator(");
+            ctxt.generateAttribute("items");
+            ctxt.generateJavaSource(");");
+            generateIteration(ctxt, itemsV);
             return;
         }
         
         // We must have a begin and end attributes
-        index = ctxt.getTemporaryVariableName();
-        ctxt.generateJavaSource("for (int " + index + " = ");
-        ctxt.generateAttribute("begin");
-        ctxt.generateJavaSource("; " + index + " <= ");
+        String indexV = ctxt.getTemporaryVariableName();
+        String endV = ctxt.getTemporaryVariableName();
+        String stepV = null;
+        String beginV = generateBegin(ctxt);
+        ctxt.generateJavaSource("int " + endV + " = ");
         ctxt.generateAttribute("end");
-        if (hasStep) {
-            ctxt.generateJavaSource("; " + index + "+=");
-            ctxt.generateAttribute("step");
-            ctxt.generateJavaSource(") {");
+        ctxt.generateJavaSource(";");
+        if (ctxt.isAttributeSpecified("step")) {
+            stepV = generateStep(ctxt);
+        }
+        generateVarStart(ctxt);
+        ctxt.generateJavaSource("for (int " + indexV + " = " + beginV + "; " +
+                indexV + " <= " + endV + "; ");
+        if (stepV != null) {
+            ctxt.generateJavaSource(indexV + " += " + stepV + ") {");
         }
         else {
-            ctxt.generateJavaSource("; " + index + "++) {");
+            ctxt.generateJavaSource(indexV + "++) {");
         }
         
-        // If var is specified and the body contains an EL, then sycn
-        // the var attribute
-        if (hasVar /* && ctxt.hasEL() */) {
+        // The tag handler exposes the index as an Integer, not as String
+        if (ctxt.isAttributeSpecified("var")) {
             ctxt.generateJavaSource("_jspx_page_context.setAttribute(");
             ctxt.generateAttribute("var");
-            ctxt.generateJavaSource(", String.valueOf(" + index + "));");
+            ctxt.generateJavaSource(", Integer.valueOf(" + indexV + "));");
         }
         ctxt.generateBody();
         ctxt.generateJavaSource("}");
+        generateVarEnd(ctxt);
     }
     
     /**
-     * Generate codes for Collections
-     * The pseudo code is:
+     * Generate the loop over the given iterator, honoring the begin, end
+     * and step attributes the same way as the tag handler: begin and end
+     * are the inclusive indexes of the first and last item, step the
+     * distance between two items.
      */
-    private void doCollection(TagPluginContext ctxt) {
-        
-        ctxt.generateImport("java.util.*");
-        generateIterators(ctxt);
-        
-        String itemsV = ctxt.getTemporaryVariableName();
-        ctxt.generateJavaSource("Object " + itemsV + "= ");
-        ctxt.generateAttribute("items");
-        ctxt.generateJavaSource(";");
+    static void generateIteration(TagPluginContext ctxt, String iterV) {
         
-        String indexV=null, beginV=null, endV=null, stepV=null;
-        if (hasBegin) {
-            beginV = ctxt.getTemporaryVariableName();
-            ctxt.generateJavaSource("int " + beginV + " = ");
-            ctxt.generateAttribute("begin");
-            ctxt.generateJavaSource(";");
-        }
-        if (hasEnd) {
+        String indexV = null, endV = null, stepV = null;
+        if (ctxt.isAttributeSpecified("end")) {
             indexV = ctxt.getTemporaryVariableName();
-            ctxt.generateJavaSource("int " + indexV + " = 0;");
             endV = ctxt.getTemporaryVariableName();
             ctxt.generateJavaSource("int " + endV + " = ");
             ctxt.generateAttribute("end");
             ctxt.generateJavaSource(";");
         }
-        if (hasStep) {
-            stepV = ctxt.getTemporaryVariableName();
-            ctxt.generateJavaSource("int " + stepV + " = ");
-            ctxt.generateAttribute("step");
-            ctxt.generateJavaSource(";");
+        if (ctxt.isAttributeSpecified("step")) {
+            stepV = generateStep(ctxt);
         }
-        
-        String iterV = ctxt.getTemporaryVariableName();
-        ctxt.generateJavaSource("Iterator " + iterV + " = null;");
-        // Object[]
-        ctxt.generateJavaSource("if (" + itemsV + " instanceof Object[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((Object[])" + itemsV + ");");
-        // boolean[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof boolean[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((boolean[])" + itemsV + ");");
-        // byte[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof byte[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((byte[])" + itemsV + ");");
-        // char[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof char[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((char[])" + itemsV + ");");
-        // short[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof short[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((short[])" + itemsV + ");");
-        // int[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof int[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((int[])" + itemsV + ");");
-        // long[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof long[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((long[])" + itemsV + ");");
-        // float[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof float[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((float[])" + itemsV + ");");
-        // double[]
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof double[])");
-        ctxt.generateJavaSource(iterV + "=toIterator((double[])" + itemsV + ");");
-        
-        // Collection
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof Collection)");
-        ctxt.generateJavaSource(iterV + "=((Collection)" + itemsV + ").iterator();");
-        
-        // Iterator
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof Iterator)");
-        ctxt.generateJavaSource(iterV + "=(Iterator)" + itemsV + ";");
-        
-        // Enumeration
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof Enumeration)");
-        ctxt.generateJavaSource(iterV + "=toIterator((Enumeration)" + itemsV + ");");
-        
-        // Map
-        ctxt.generateJavaSource("else if (" + itemsV + " instanceof Map)");
-        ctxt.generateJavaSource(iterV + "=((Map)" + itemsV + ").entrySet().iterator();");
-        
-        if (hasBegin) {
-            String tV = ctxt.getTemporaryVariableName();
-            ctxt.generateJavaSource("for (int " + tV + "=" + beginV + ";" +
-                    tV + ">0 && " + iterV + ".hasNext(); " +
-                    tV + "--)");
+        if (indexV != null) {
+            ctxt.generateJavaSource("int " + indexV + " = 0;");
+        }
+        if (ctxt.isAttributeSpecified("begin")) {
+            String beginV = generateBegin(ctxt);
+            ctxt.generateJavaSource("for (; " + beginV + " > 0 && " +
+                    iterV + ".hasNext(); " + beginV + "--) {");
             ctxt.generateJavaSource(iterV + ".next();");
+            if (indexV != null) {
+                ctxt.generateJavaSource(indexV + "++;");
+            }
+            ctxt.generateJavaSource("}");
         }
         
-        ctxt.generateJavaSource("while (" + iterV + ".hasNext()){");
-        if (hasVar) {
+        generateVarStart(ctxt);
+        ctxt.generateJavaSource("while (" + iterV + ".hasNext()) {");
+        if (indexV != null) {
+            ctxt.generateJavaSource("if (" + indexV + " > " + endV + ") break;");
+        }
+        if (ctxt.isAttributeSpecified("var")) {
             ctxt.generateJavaSource("_jspx_page_context.setAttribute(");
             ctxt.generateAttribute("var");
             ctxt.generateJavaSource(", " + iterV + ".next());");
         }
+        else {
+            ctxt.generateJavaSource(iterV + ".next();");
+        }
         
         ctxt.generateBody();
         
-        if (hasStep) {
+        if (stepV != null) {
             String tV = ctxt.getTemporaryVariableName();
-            ctxt.generateJavaSource("for (int " + tV + "=" + stepV + "-1;" +
-                    tV + ">0 && " + iterV + ".hasNext(); " +
+            ctxt.generateJavaSource("for (int " + tV + " = " + stepV + " - 1; " +
+                    tV + " > 0 && " + iterV + ".hasNext(); " +
                     tV + "--)");
             ctxt.generateJavaSource(iterV + ".next();");
         }
-        if (hasEnd) {
-            if (hasStep) {
-                ctxt.generateJavaSource(indexV + "+=" + stepV + ";");
-            }
-            else {
-                ctxt.generateJavaSource(indexV + "++;");
-            }
-            if (hasBegin) {
-                ctxt.generateJavaSource("if(" + beginV + "+" + indexV +
-                        ">"+ endV + ")");
-            }
-            else {
-                ctxt.generateJavaSource("if(" + indexV + ">" + endV + ")");
-            }
-            ctxt.generateJavaSource("break;");
+        if (indexV != null) {
+            ctxt.generateJavaSource(indexV + " += " + (stepV != null ? stepV : "1") + ";");
         }
         ctxt.generateJavaSource("}");	// while
+        generateVarEnd(ctxt);
     }
     
     /**
-     * Generate iterators for data types supported in items
+     * Generate the begin variable, which must not be negative.
      */
-    private void generateIterators(TagPluginContext ctxt) {
-        
-        // Object[]
-        ctxt.generateDeclaration("ObjectArrayIterator", 
-                "private Iterator toIterator(final Object[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return a[index++];}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // boolean[]
-        ctxt.generateDeclaration("booleanArrayIterator", 
-                "private Iterator toIterator(final boolean[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Boolean(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // byte[]
-        ctxt.generateDeclaration("byteArrayIterator", 
-                "private Iterator toIterator(final byte[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Byte(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // char[]
-        ctxt.generateDeclaration("charArrayIterator", 
-                "private Iterator toIterator(final char[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Character(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // short[]
-        ctxt.generateDeclaration("shortArrayIterator", 
-                "private Iterator toIterator(final short[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Short(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // int[]
-        ctxt.generateDeclaration("intArrayIterator", 
-                "private Iterator toIterator(final int[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Integer(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // long[]
-        ctxt.generateDeclaration("longArrayIterator", 
-                "private Iterator toIterator(final long[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Long(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // float[]
-        ctxt.generateDeclaration("floatArrayIterator",
-                "private Iterator toIterator(final float[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Float(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // double[]
-        ctxt.generateDeclaration("doubleArrayIterator",
-                "private Iterator toIterator(final double[] a){\n" +
-                "  return (new Iterator() {\n" +
-                "    int index=0;\n" +
-                "    public boolean hasNext() {\n" +
-                "      return index < a.length;}\n" +
-                "    public Object next() {\n" +
-                "      return new Double(a[index++]);}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
-        // Enumeration
-        ctxt.generateDeclaration("enumIterator",
-                "private Iterator toIterator(final Enumeration e){\n" +
-                "  return (new Iterator() {\n" +
-                "    public boolean hasNext() {\n" +
-                "      return e.hasMoreElements();}\n" +
-                "    public Object next() {\n" +
-                "      return e.nextElement();}\n" +
-                "    public void remove() {}\n" +
-                "  });\n" +
-                "}"
-        );
-        
+    private static String generateBegin(TagPluginContext ctxt) {
+        String beginV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("int " + beginV + " = ");
+        ctxt.generateAttribute("begin");
+        ctxt.generateJavaSource(";");
+        ctxt.generateJavaSource("if (" + beginV + " < 0) throw new JspTagException(" +
+                "\"'begin' < 0\");");
+        return beginV;
+    }
+    
+    /**
+     * Generate the step variable, which must be positive.
+     */
+    private static String generateStep(TagPluginContext ctxt) {
+        String stepV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("int " + stepV + " = ");
+        ctxt.generateAttribute("step");
+        ctxt.generateJavaSource(";");
+        ctxt.generateJavaSource("if (" + stepV + " < 1) throw new JspTagException(" +
+                "\"'step' <= 0\");");
+        return stepV;
+    }
+    
+    /**
+     * Like the tag handler, the var attribute is removed from the page
+     * scope once the loop is done.
+     */
+    private static void generateVarStart(TagPluginContext ctxt) {
+        if (ctxt.isAttributeSpecified("var")) {
+            ctxt.generateJavaSource("try {");
+        }
+    }
+    
+    private static void generateVarEnd(TagPluginContext ctxt) {
+        if (ctxt.isAttributeSpecified("var")) {
+            ctxt.generateJavaSource("} finally {");
+            ctxt.generateJavaSource("_jspx_page_context.removeAttribute(");
+            ctxt.generateAttribute("var");
+            ctxt.generateJavaSource(", PageContext.PAGE_SCOPE);");
+            ctxt.generateJavaSource("}");
+        }
     }
 }
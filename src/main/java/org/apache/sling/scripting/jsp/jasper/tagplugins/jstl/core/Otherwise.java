@@ -24,6 +24,13 @@ public final class Otherwise implements TagPlugin {
     
     public void doTag(TagPluginContext ctxt) {
         
+        TagPluginContext parentContext = ctxt.getParentContext();
+        if (parentContext == null
+                || !"true".equals(parentContext.getPluginAttribute("choose"))) {
+            ctxt.dontUseTagPlugin();
+            return;
+        }
+        
         // See When.java for the reason whey "}" is need at the beginng and
         // not at the end.
         ctxt.generateJavaSource("} else {");
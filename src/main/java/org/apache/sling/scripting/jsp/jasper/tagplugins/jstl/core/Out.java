@@ -26,65 +26,45 @@ public final class Out implements TagPlugin {
     
     public void doTag(TagPluginContext ctxt) {
         
-        //these two data member are to indicate 
-        //whether the corresponding attribute is specified
-        boolean hasDefault=false, hasEscapeXml=false;
-        hasDefault = ctxt.isAttributeSpecified("default");
-        hasEscapeXml = ctxt.isAttributeSpecified("escapeXml");
+        //the tag handler writes the trimmed and escaped body if there is
+        //neither a value nor a default, this is left to the tag handler
+        if(!ctxt.hasEmptyBody()){
+            ctxt.dontUseTagPlugin();
+            return;
+        }
         
-        //strValName, strEscapeXmlName & strDefName are two variables' name 
-        //standing for value, escapeXml and default attribute
+        //strValName & strEscapeXmlName are the variables' names 
+        //standing for value and escapeXml attribute
         String strValName = ctxt.getTemporaryVariableName();
-        String strDefName = ctxt.getTemporaryVariableName();
         String strEscapeXmlName = ctxt.getTemporaryVariableName();
         
         //according to the tag file, the value attribute is mandatory.
-        ctxt.generateJavaSource("String " + strValName + " = null;");
-        ctxt.generateJavaSource("if(");
-        ctxt.generateAttribute("value");
-        ctxt.generateJavaSource("!=null){");
-        ctxt.generateJavaSource("    " + strValName + " = (");
+        //it is evaluated only once, like in the tag handler
+        ctxt.generateJavaSource("Object " + strValName + " = ");
         ctxt.generateAttribute("value");
-        ctxt.generateJavaSource(").toString();");
-        ctxt.generateJavaSource("}");
+        ctxt.generateJavaSource(";");
         
-        //initiate the strDefName with null.
-        //if the default has been specified, then assign the value to it;
-        ctxt.generateJavaSource("String " + strDefName + " = null;\n");
-        if(hasDefault){
-            ctxt.generateJavaSource("if(");
+        //if the default has been specified, it is used for a null value
+        if(ctxt.isAttributeSpecified("default")){
+            ctxt.generateJavaSource("if(" + strValName + " == null){");
+            ctxt.generateJavaSource("    " + strValName + " = ");
             ctxt.generateAttribute("default");
-            ctxt.generateJavaSource(" != null){");
-            ctxt.generateJavaSource(strDefName + " = (");
-            ctxt.generateAttribute("default");
-            ctxt.generateJavaSource(").toString();");
+            ctxt.generateJavaSource(";");
             ctxt.generateJavaSource("}");
         }
         
         //initiate the strEscapeXmlName with true;
         //if the escapeXml is specified, assign the value to it;
         ctxt.generateJavaSource("boolean " + strEscapeXmlName + " = true;");
-        if(hasEscapeXml){
-            ctxt.generateJavaSource(strEscapeXmlName + " = Boolean.parseBoolean((");
-            ctxt.generateAttribute("default");
-            ctxt.generateJavaSource(").toString());");
+        if(ctxt.isAttributeSpecified("escapeXml")){
+            ctxt.generateJavaSource(strEscapeXmlName + " = Boolean.parseBoolean(String.valueOf(");
+            ctxt.generateAttribute("escapeXml");
+            ctxt.generateJavaSource("));");
         }
         
         //main part. 
-        ctxt.generateJavaSource("if(null != " + strValName +"){");
-        ctxt.generateJavaSource("    if(" + strEscapeXmlName + "){");
-        ctxt.generateJavaSource("        " + strValName + " = org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.Util.escapeXml(" + strValName + ");");
-        ctxt.generateJavaSource("    }");
-        ctxt.generateJavaSource("    out.write(" + strValName + ");");
-        ctxt.generateJavaSource("}else{");
-        ctxt.generateJavaSource("    if(null != " + strDefName + "){");
-        ctxt.generateJavaSource("        if(" + strEscapeXmlName + "){");
-        ctxt.generateJavaSource("            " + strDefName + " = org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.Util.escapeXml(" + strDefName + ");");
-        ctxt.generateJavaSource("        }");
-        ctxt.generateJavaSource("        out.write(" + strDefName + ");");
-        ctxt.generateJavaSource("    }else{");
+        ctxt.generateJavaSource("org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.Util.out(" +
+                "out, " + strValName + ", " + strEscapeXmlName + ");");
         ctxt.generateBody();
-        ctxt.generateJavaSource("    }");
-        ctxt.generateJavaSource("}");   
     }
 }
@@ -23,21 +23,16 @@ import org.apache.sling.scripting.jsp.jasper.compiler.tagplugin.*;
 public final class When implements TagPlugin {
     
     public void doTag(TagPluginContext ctxt) {
-        // Get the parent context to determine if this is the first <c:when>
+        // Get the parent context to make sure we are in a <c:choose>
         TagPluginContext parentContext = ctxt.getParentContext();
-        if (parentContext == null) {
+        if (parentContext == null
+                || !"true".equals(parentContext.getPluginAttribute("choose"))) {
             ctxt.dontUseTagPlugin();
             return;
         }
         
-        if ("true".equals(parentContext.getPluginAttribute("hasBeenHere"))) {
-            ctxt.generateJavaSource("} else if(");
-            // See comment below for the reason we generate the extra "}" here.
-        }
-        else {
-            ctxt.generateJavaSource("if(");
-            parentContext.setPluginAttribute("hasBeenHere", "true");
-        }
+        // See comment below for the reason we generate the extra "}" here.
+        ctxt.generateJavaSource("} else if(");
         ctxt.generateAttribute("test");
         ctxt.generateJavaSource("){");
         ctxt.generateBody();
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.sling.scripting.jsp.jasper.xmlparser.TreeNode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+public class SlingTldLocationsCacheTest {
+
+    private static final String URI = "http://sling.apache.org/taglibs/test";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Bundle bundle;
+
+    private URL tldUrl;
+
+    private SlingTldLocationsCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        final File tld = folder.newFile("test.tld");
+        Files.write(tld.toPath(), ("<taglib><tlib-version>1.0</tlib-version>"
+                + "<short-name>test</short-name><uri>" + URI + "</uri></taglib>")
+                .getBytes(StandardCharsets.UTF_8));
+        tldUrl = tld.toURI().toURL();
+
+        bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(1L);
+        when(bundle.getState()).thenReturn(Bundle.RESOLVED);
+        when(bundle.findEntries("META-INF", "*.tld", false)).thenAnswer(
+                invocation -> Collections.enumeration(Collections.singletonList(tldUrl)));
+        final BundleContext context = mock(BundleContext.class);
+        when(context.getBundles()).thenReturn(new Bundle[] { bundle });
+        cache = new SlingTldLocationsCache(context);
+    }
+
+    @Test
+    public void testParsedTldIsShared() throws Exception {
+        final String[] location = cache.getLocation(URI);
+        assertArrayEquals(new String[] { "tld:" + URI, tldUrl.toString() }, location);
+        assertNull(cache.getParsedTld(location));
+
+        final TreeNode tld = new TreeNode("taglib");
+        cache.putParsedTld(location, tld);
+        assertSame(tld, cache.getParsedTld(cache.getLocation(URI)));
+        assertEquals(1, cache.getParsedTldCount());
+        assertEquals(1, cache.getParsedTldHitCount());
+        assertEquals(1, cache.getParsedTldMissCount());
+    }
+
+    @Test
+    public void testUnresolvedBundleRemovesParsedTld() throws Exception {
+        final String[] location = cache.getLocation(URI);
+        final TreeNode tld = new TreeNode("taglib");
+        cache.putParsedTld(location, tld);
+
+        cache.bundleChanged(new BundleEvent(BundleEvent.UNRESOLVED, bundle));
+        assertNull(cache.getLocation(URI));
+        assertNull(cache.getParsedTld(location));
+        assertEquals(0, cache.getParsedTldCount());
+
+        // resolved again, the TLD is parsed once more
+        cache.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+        assertArrayEquals(location, cache.getLocation(URI));
+        assertNull(cache.getParsedTld(location));
+    }
+
+    @Test
+    public void testResolvedBundleRemovesParsedTld() throws Exception {
+        final String[] location = new String[] { "tld:" + URI, tldUrl.toString() };
+        cache.bundleChanged(new BundleEvent(BundleEvent.UNRESOLVED, bundle));
+        // parsed while no bundle provided the TLD
+        cache.putParsedTld(location, new TreeNode("taglib"));
+
+        cache.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+        assertNull(cache.getParsedTld(location));
+    }
+
+    @Test
+    public void testChangedTldRemovesParsedTld() {
+        final String[] tld = new String[] { "/apps/test/test.tld", null };
+        final String[] archived = new String[] { "/apps/test/test.jar", "META-INF/test.tld" };
+        final String[] other = new String[] { "/apps/test/test.tld2", null };
+        cache.putParsedTld(tld, new TreeNode("taglib"));
+        cache.putParsedTld(archived, new TreeNode("taglib"));
+        cache.putParsedTld(other, new TreeNode("taglib"));
+
+        cache.removeParsedTld("/apps/test/test.tld");
+        assertNull(cache.getParsedTld(tld));
+        assertEquals(2, cache.getParsedTldCount());
+
+        // all TLDs of an archive
+        cache.removeParsedTld("/apps/test/test.jar");
+        assertNull(cache.getParsedTld(archived));
+        assertEquals(1, cache.getParsedTldCount());
+    }
+}
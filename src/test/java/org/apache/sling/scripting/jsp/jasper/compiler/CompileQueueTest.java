@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.junit.Test;
+
+public class CompileQueueTest {
+
+    @Test
+    public void testNestedCompilationUsesSlot() {
+        final CompileQueue queue = new CompileQueue(1, 0, 0, true);
+        final JasperException result = queue.compile("page", () -> queue.compile("tag", () -> null));
+        assertNull(result);
+        assertEquals(0, queue.getRejectedCount());
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        final CompileQueue queue = new CompileQueue(1, 0, 0, true);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread t = new Thread(() -> queue.compile("a", () -> {
+            started.countDown();
+            await(release);
+            return null;
+        }));
+        t.start();
+        started.await();
+
+        assertTrue(queue.compile("b", () -> null) instanceof CompileRejectedException);
+        assertEquals(1, queue.getRejectedCount());
+
+        release.countDown();
+        t.join();
+        assertNull(queue.compile("b", () -> null));
+    }
+
+    @Test
+    public void testRunningCompilationIsShared() throws Exception {
+        final CompileQueue queue = new CompileQueue(2, 0, 0, false);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final JasperException error = new JasperException("error");
+        final Thread t = new Thread(() -> queue.compile("a", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            await(release);
+            return error;
+        }));
+        t.start();
+        started.await();
+
+        final AtomicReference<JasperException> shared = new AtomicReference<JasperException>();
+        final Thread waiting = new Thread(() -> shared.set(queue.compile("a", () -> {
+            runs.incrementAndGet();
+            return null;
+        })));
+        waiting.start();
+        while ( queue.getDeduplicatedCount() == 0 ) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        t.join();
+        waiting.join();
+
+        assertEquals(1, runs.get());
+        assertEquals(error, shared.get());
+        assertEquals(1, queue.getCompileCount());
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        final CompileQueue queue = new CompileQueue(1, 1, 0, false);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread running = new Thread(() -> queue.compile("a", () -> {
+            started.countDown();
+            await(release);
+            return null;
+        }));
+        running.start();
+        started.await();
+
+        final Thread queued = new Thread(() -> queue.compile("b", () -> null));
+        queued.start();
+        while ( queue.getQueueDepth() == 0 ) {
+            Thread.sleep(1);
+        }
+        assertTrue(queue.compile("c", () -> null) instanceof CompileRejectedException);
+
+        release.countDown();
+        running.join();
+        queued.join();
+        assertEquals(2, queue.getCompileCount());
+        assertEquals(2, queue.getMaxQueueDepth());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FreshnessIndexTest {
+
+    private static final List<String> DEPS = Collections.singletonList("/apps/a/inc.jspf");
+
+    @Test
+    public void testUnchangedPageIsCurrent() {
+        final FreshnessIndex index = new FreshnessIndex();
+        assertFalse(index.isChanged("/apps/a/page.jsp", DEPS));
+        index.changed("/apps/b/other.jsp");
+        assertFalse(index.isChanged("/apps/a/page.jsp", DEPS));
+    }
+
+    @Test
+    public void testChangedDependency() {
+        final FreshnessIndex index = new FreshnessIndex();
+        index.changed("/apps/a/inc.jspf");
+        assertTrue(index.isChanged("/apps/a/page.jsp", DEPS));
+
+        index.compiled("/apps/a/page.jsp", index.getGeneration());
+        assertFalse(index.isChanged("/apps/a/page.jsp", DEPS));
+    }
+
+    @Test
+    public void testRemovedFolder() {
+        final FreshnessIndex index = new FreshnessIndex();
+        index.changed("/apps/a");
+        assertTrue(index.isChanged("/apps/a/page.jsp", null));
+        assertFalse(index.isChanged("/apps/ab/page.jsp", null));
+    }
+
+    @Test
+    public void testChangeWhileCompiling() {
+        final FreshnessIndex index = new FreshnessIndex();
+        final long generation = index.getGeneration();
+        index.changed("/apps/a/page.jsp");
+        index.compiled("/apps/a/page.jsp", generation);
+        assertTrue(index.isChanged("/apps/a/page.jsp", DEPS));
+    }
+
+    @Test
+    public void testRemovedPageIsForgotten() {
+        final FreshnessIndex index = new FreshnessIndex(2);
+        index.compiled("/apps/a/page.jsp", index.getGeneration());
+        index.changed("/apps/b/one.jsp");
+        // no compilation is left to keep the changes
+        index.removed("/apps/a");
+        assertEquals(0, index.getChangeCount());
+    }
+
+    @Test
+    public void testCompaction() {
+        final FreshnessIndex index = new FreshnessIndex(2);
+        index.changed("/apps/a/page.jsp");
+        index.compiled("/apps/a/page.jsp", index.getGeneration());
+        index.changed("/apps/b/one.jsp");
+        // the change of the page is older than its compilation
+        assertEquals(1, index.getChangeCount());
+        assertFalse(index.isChanged("/apps/a/page.jsp", DEPS));
+        assertTrue(index.isChanged("/apps/b/one.jsp", null));
+        // unknown whether a page without a compilation has been changed
+        assertTrue(index.isChanged("/apps/c/other.jsp", null));
+    }
+}
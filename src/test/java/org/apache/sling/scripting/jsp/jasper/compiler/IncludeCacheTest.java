@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import javax.servlet.ServletContext;
+
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+import org.apache.sling.scripting.jsp.jasper.Options;
+import org.junit.Test;
+
+public class IncludeCacheTest {
+
+    private static IncludeCache.Entry entry(final long lastModified) {
+        return new IncludeCache.Entry(lastModified, false, "UTF-8", false, false, true,
+                "<%@ taglib prefix=\"c\" uri=\"http://java.sun.com/jsp/jstl/core\" %>".toCharArray());
+    }
+
+    @Test
+    public void testHit() {
+        final IncludeCache cache = new IncludeCache(10);
+        assertNull(cache.get("/apps/a/global.jspf", 1000));
+        final IncludeCache.Entry entry = entry(1000);
+        cache.put("/apps/a/global.jspf", entry);
+
+        assertSame(entry, cache.get("/apps/a/global.jspf", 1000));
+        assertSame(entry, cache.get("/apps/a/global.jspf", 1000));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testModified() {
+        final IncludeCache cache = new IncludeCache(10);
+        cache.put("/apps/a/global.jspf", entry(1000));
+
+        // changed without a reported modification
+        assertNull(cache.get("/apps/a/global.jspf", 2000));
+        final IncludeCache.Entry entry = entry(2000);
+        cache.put("/apps/a/global.jspf", entry);
+        assertSame(entry, cache.get("/apps/a/global.jspf", 2000));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testRemoved() {
+        final JspRuntimeContext rctxt = new JspRuntimeContext(mock(ServletContext.class),
+                mock(Options.class), mock(IOProvider.class));
+        rctxt.setIncludeCacheSize(10);
+        final IncludeCache cache = rctxt.getIncludeCache();
+        cache.put("/apps/a/global.jspf", entry(1000));
+        cache.put("/apps/a/b/header.jspf", entry(1000));
+        cache.put("/apps/ab/footer.jspf", entry(1000));
+
+        rctxt.handleModification("/apps/a/global.jspf", false);
+        assertNull(cache.get("/apps/a/global.jspf", 1000));
+        assertEquals(2, cache.getSize());
+
+        // a removed folder removes the resources below it
+        rctxt.handleModification("/apps/a", true);
+        assertNull(cache.get("/apps/a/b/header.jspf", 1000));
+        assertEquals(1, cache.getSize());
+        assertEquals(1000, cache.get("/apps/ab/footer.jspf", 1000).lastModified);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreRemoved() {
+        final IncludeCache cache = new IncludeCache(2);
+        cache.put("/apps/a/1.jspf", entry(1000));
+        cache.put("/apps/a/2.jspf", entry(1000));
+        cache.get("/apps/a/1.jspf", 1000);
+        cache.put("/apps/a/3.jspf", entry(1000));
+
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("/apps/a/2.jspf", 1000));
+        assertEquals(1000, cache.get("/apps/a/1.jspf", 1000).lastModified);
+    }
+}
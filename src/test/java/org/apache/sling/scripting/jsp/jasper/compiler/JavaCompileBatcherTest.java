@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.commons.compiler.CompilationResult;
+import org.apache.sling.commons.compiler.CompilationUnit;
+import org.apache.sling.commons.compiler.CompilationUnitWithSource;
+import org.apache.sling.commons.compiler.CompilerMessage;
+import org.apache.sling.commons.compiler.JavaCompiler;
+import org.apache.sling.commons.compiler.Options;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavaCompileBatcherTest {
+
+    private final JavaCompileBatcher batcher = new JavaCompileBatcher();
+
+    /** The file names of the units of each compiler run. */
+    private final List<List<String>> runs = Collections.synchronizedList(new ArrayList<List<String>>());
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private volatile boolean overlapping;
+
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private JavaCompiler compiler;
+
+    @Before
+    public void setUp() {
+        compiler = mock(JavaCompiler.class);
+        when(compiler.compile(any(CompilationUnit[].class), any(Options.class))).thenAnswer(invocation -> {
+            if (running.incrementAndGet() > 1) {
+                overlapping = true;
+            }
+            try {
+                started.countDown();
+                release.await();
+                final List<String> names = new ArrayList<String>();
+                final List<CompilerMessage> errors = new ArrayList<CompilerMessage>();
+                for (final CompilationUnit unit : (CompilationUnit[]) invocation.getArgument(0)) {
+                    final String name = ((CompilationUnitWithSource) unit).getFileName();
+                    names.add(name);
+                    if (name.startsWith("bad")) {
+                        errors.add(message(name));
+                    }
+                }
+                runs.add(names);
+                final CompilationResult result = mock(CompilationResult.class);
+                when(result.getErrors()).thenReturn(errors.isEmpty() ? null : errors);
+                return result;
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    private static CompilerMessage message(final String file) {
+        final CompilerMessage message = mock(CompilerMessage.class);
+        when(message.getFile()).thenReturn(file);
+        when(message.getMessage()).thenReturn("error in " + file);
+        return message;
+    }
+
+    private static CompilationUnitWithSource unit(final String name) {
+        final CompilationUnitWithSource unit = mock(CompilationUnitWithSource.class);
+        when(unit.getFileName()).thenReturn(name);
+        return unit;
+    }
+
+    private List<CompilerMessage> compile(final String name) {
+        return batcher.compile(unit(name), new Options(), compiler);
+    }
+
+    /**
+     * Start a thread compiling the unit, the errors are stored in the result.
+     */
+    private Thread submit(final String name, final List<List<CompilerMessage>> results) {
+        final Thread t = new Thread(() -> results.add(compile(name)), name);
+        t.start();
+        return t;
+    }
+
+    private static void awaitWaiting(final Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.WAITING) {
+            assertTrue("Thread " + t.getName() + " ended", t.isAlive());
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testBatchWithFailingUnit() throws Exception {
+        release = new CountDownLatch(1);
+        final List<List<CompilerMessage>> leader = Collections.synchronizedList(new ArrayList<List<CompilerMessage>>());
+        final Thread first = submit("first.java", leader);
+        started.await();
+
+        // queued while the first unit is compiled
+        final List<List<CompilerMessage>> bad = Collections.synchronizedList(new ArrayList<List<CompilerMessage>>());
+        final List<List<CompilerMessage>> good = Collections.synchronizedList(new ArrayList<List<CompilerMessage>>());
+        final Thread badThread = submit("bad.java", bad);
+        awaitWaiting(badThread);
+        final Thread goodThread = submit("good.java", good);
+        awaitWaiting(goodThread);
+
+        release.countDown();
+        first.join();
+        badThread.join();
+        goodThread.join();
+
+        assertEquals(Arrays.asList(Collections.singletonList("first.java"),
+                Arrays.asList("bad.java", "good.java"),
+                // compiled again to get its classes written
+                Collections.singletonList("good.java")), runs);
+        assertNull(leader.get(0));
+        assertEquals(1, bad.get(0).size());
+        assertEquals("bad.java", bad.get(0).get(0).getFile());
+        assertNull(good.get(0));
+    }
+
+    @Test
+    public void testConcurrentSubmitters() throws Exception {
+        final int count = 16;
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<CompilerMessage>[] results = newResults(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final String name = (i % 4 == 0 ? "bad" : "good") + i + ".java";
+            final Thread t = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (final InterruptedException ie) {
+                    return;
+                }
+                results[index] = compile(name);
+            });
+            t.start();
+            threads.add(t);
+        }
+        go.countDown();
+        for (final Thread t : threads) {
+            t.join();
+        }
+
+        assertTrue("Compiler invoked concurrently", !overlapping);
+        for (int i = 0; i < count; i++) {
+            if (i % 4 == 0) {
+                assertEquals(1, results[i].size());
+                assertEquals("bad" + i + ".java", results[i].get(0).getFile());
+            } else {
+                assertNull(results[i]);
+                // the last run of a good unit contains no bad unit
+                assertTrue(lastRun("good" + i + ".java").stream().noneMatch(n -> n.startsWith("bad")));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<CompilerMessage>[] newResults(final int count) {
+        return new List[count];
+    }
+
+    private List<String> lastRun(final String name) {
+        List<String> last = null;
+        synchronized (runs) {
+            for (final List<String> run : runs) {
+                if (run.contains(name)) {
+                    last = run;
+                }
+            }
+        }
+        return last;
+    }
+}
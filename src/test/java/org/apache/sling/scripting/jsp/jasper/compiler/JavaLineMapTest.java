@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavaLineMapTest {
+
+    private static final String PAGE = "/apps/a/page.jsp";
+
+    private static final String INCLUDE = "/apps/a/inc.jspf";
+
+    private Node.Nodes page;
+
+    @Before
+    public void setUp() {
+        final Node.Root root = new Node.Root(new Mark(null, PAGE, 1, 1), null, false);
+        lines(root, 10, 60);
+        page = new Node.Nodes(root);
+        lines(new Node.TemplateText("<p>", new Mark(null, PAGE, 1, 1), root), 12, 14);
+        lines(new Node.Scriptlet(" int i = 0; ", new Mark(null, PAGE, 2, 1), root), 14, 20);
+
+        // included page without code of its own
+        final Node.Root included = new Node.Root(new Mark(null, INCLUDE, 1, 1), root, false);
+        lines(new Node.Scriptlet(" i++; ", new Mark(null, INCLUDE, 3, 1), included), 22, 25);
+        lines(new Node.TemplateText("", new Mark(null, INCLUDE, 4, 1), included), 25, 25);
+
+        // generated code without a location
+        lines(new Node.Scriptlet(" i--; ", null, root), 30, 32);
+        lines(new Node.TemplateText("</p>", new Mark(null, PAGE, 6, 1), root), 40, 45);
+    }
+
+    private static void lines(final Node node, final int begin, final int end) {
+        node.setBeginJavaLine(begin);
+        node.setEndJavaLine(end);
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        final JavaLineMap map = JavaLineMap.create(page);
+        // the root, the two scriptlets and the two texts with code
+        assertEquals(6, map.size());
+
+        int index = map.find(15);
+        assertEquals(PAGE, map.getJspFile(index));
+        assertEquals(2, map.getJspLine(index));
+
+        index = map.find(24);
+        assertEquals(INCLUDE, map.getJspFile(index));
+        assertEquals(3, map.getJspLine(index));
+
+        // between the nodes only the root contains the line
+        index = map.find(35);
+        assertEquals(PAGE, map.getJspFile(index));
+        assertEquals(1, map.getJspLine(index));
+
+        index = map.find(31);
+        assertNull(map.getJspFile(index));
+
+        assertEquals(-1, map.find(5));
+        assertEquals(-1, map.find(60));
+    }
+
+    @Test
+    public void testSameAsErrorVisitor() throws Exception {
+        final JavaLineMap map = JavaLineMap.create(page);
+        for(int line = 0; line <= 70; line++) {
+            final StringBuffer msg = new StringBuffer("error");
+            final JavacErrorDetail expected = ErrorDispatcher.createJavacError("Page.java", page, msg, line);
+            final JavacErrorDetail actual = ErrorDispatcher.createJavacError("Page.java", map, msg, line, null);
+            assertEquals("line " + line, expected.getJspFileName(), actual.getJspFileName());
+            assertEquals("line " + line, expected.getJspBeginLineNumber(), actual.getJspBeginLineNumber());
+            assertEquals("line " + line, expected.getJavaLineNumber(), actual.getJavaLineNumber());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.Options;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavacErrorDetailTest {
+
+    private static final String JSP = "a\nb\n<% int i = 0;\nfoo(i); %>\nc\n";
+
+    private JspCompilationContext ctxt;
+
+    private Compiler compiler;
+
+    private Options options;
+
+    @Before
+    public void setUp() {
+        ctxt = mock(JspCompilationContext.class);
+        compiler = mock(Compiler.class);
+        options = mock(Options.class);
+        when(ctxt.getCompiler()).thenReturn(compiler);
+        when(ctxt.getOptions()).thenReturn(options);
+        when(ctxt.getResourceAsStream("/page.jsp")).thenAnswer(invocation ->
+                new ByteArrayInputStream(JSP.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private JavacErrorDetail create() {
+        return new JavacErrorDetail("page.java", 2, "/page.jsp", 3,
+                new StringBuffer("error"), ctxt);
+    }
+
+    @Test
+    public void testSourceInMemory() {
+        when(options.getCompileInMemory()).thenReturn(true);
+        when(compiler.getJavaSource()).thenReturn("int i = 0;\nfoo(i);\n");
+        final JavacErrorDetail detail = create();
+        // the line of the scriptlet containing the Java line
+        assertEquals(4, detail.getJspBeginLineNumber());
+        assertEquals("1: a\n2: b\n3: <% int i = 0;\n4: foo(i); %>\n5: c\n", detail.getJspExtract());
+    }
+
+    @Test
+    public void testSourceNotKept() {
+        // at runtime the source compiled in memory is gone, the runtime
+        // context must not be asked to read it
+        when(options.getCompileInMemory()).thenReturn(true);
+        final JavacErrorDetail detail = create();
+        assertEquals(3, detail.getJspBeginLineNumber());
+        assertEquals("1: a\n2: b\n3: <% int i = 0;\n4: foo(i); %>\n5: c\n", detail.getJspExtract());
+    }
+}
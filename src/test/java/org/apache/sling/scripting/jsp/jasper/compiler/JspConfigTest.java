@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.ServletContext;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspConfigTest {
+
+    private static final String WEB_XML = "<web-app version=\"2.5\"><jsp-config>"
+            + group("*.jsp", "<page-encoding>A</page-encoding><include-prelude>/p1</include-prelude>")
+            + group("/apps/*", "<page-encoding>B</page-encoding><include-prelude>/p2</include-prelude>")
+            + group("/apps/x/*", "<is-xml>true</is-xml><include-coda>/c1</include-coda>")
+            + group("/apps/x/page.jsp", "<page-encoding>C</page-encoding><include-coda>/c2</include-coda>")
+            + group("/ap/*", "<page-encoding>D</page-encoding>")
+            + "</jsp-config></web-app>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JspConfig config;
+
+    private static String group(String pattern, String properties) {
+        return "<jsp-property-group><url-pattern>" + pattern + "</url-pattern>"
+                + properties + "</jsp-property-group>";
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final File webXml = folder.newFile("web.xml");
+        Files.write(webXml.toPath(), WEB_XML.getBytes(StandardCharsets.UTF_8));
+        final ServletContext ctxt = mock(ServletContext.class);
+        when(ctxt.getResource("/WEB-INF/web.xml")).thenReturn(webXml.toURI().toURL());
+        config = new JspConfig(ctxt);
+    }
+
+    @Test
+    public void testExactMatchWins() throws Exception {
+        final JspConfig.JspProperty property = config.findJspProperty("/apps/x/page.jsp");
+        assertEquals("C", property.getPageEncoding());
+        assertEquals("true", property.isXml());
+        assertEquals(Arrays.asList("/p1", "/p2"), property.getIncludePrelude());
+        assertEquals(Arrays.asList("/c1", "/c2"), property.getIncludeCoda());
+    }
+
+    @Test
+    public void testLongestPathWins() throws Exception {
+        final JspConfig.JspProperty property = config.findJspProperty("/apps/x/y/z.jsp");
+        assertEquals("B", property.getPageEncoding());
+        assertEquals("true", property.isXml());
+        assertEquals(Collections.singletonList("/c1"), property.getIncludeCoda());
+    }
+
+    @Test
+    public void testPathMatchesWholeSegments() throws Exception {
+        assertEquals("D", config.findJspProperty("/ap/a.jsp").getPageEncoding());
+        final JspConfig.JspProperty property = config.findJspProperty("/app/s.jsp");
+        assertEquals("A", property.getPageEncoding());
+        assertNull(property.isXml());
+    }
+
+    @Test
+    public void testResultIsReused() throws Exception {
+        assertSame(config.findJspProperty("/apps/a.jsp"), config.findJspProperty("/apps/a.jsp"));
+    }
+}
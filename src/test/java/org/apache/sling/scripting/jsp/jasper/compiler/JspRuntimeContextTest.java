@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+import org.apache.sling.scripting.jsp.jasper.Options;
+import org.apache.sling.scripting.jsp.jasper.servlet.JspServletWrapper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JspRuntimeContextTest {
+
+    private JspRuntimeContext rctxt;
+
+    @Before
+    public void setUp() {
+        rctxt = new JspRuntimeContext(mock(ServletContext.class), mock(Options.class), mock(IOProvider.class));
+    }
+
+    private JspServletWrapper addWrapper(final String jspUri, final String... deps) {
+        final JspServletWrapper wrapper = mock(JspServletWrapper.class);
+        final List<String> dependants = Arrays.asList(deps);
+        when(wrapper.getJspUri()).thenReturn(jspUri);
+        when(wrapper.getDependants()).thenReturn(dependants);
+        assertSame(wrapper, rctxt.addWrapper(jspUri, wrapper));
+        return wrapper;
+    }
+
+    @Test
+    public void testTransitiveInvalidation() {
+        final JspServletWrapper page = addWrapper("/apps/a/page.jsp", "/apps/a/menu.jsp");
+        final JspServletWrapper menu = addWrapper("/apps/a/menu.jsp", "/apps/a/inc.jspf");
+        final JspServletWrapper other = addWrapper("/apps/b/other.jsp", "/apps/b/inc.jspf");
+
+        assertTrue(rctxt.handleModification("/apps/a/inc.jspf", false));
+
+        assertNull(rctxt.getWrapper("/apps/a/page.jsp"));
+        assertNull(rctxt.getWrapper("/apps/a/menu.jsp"));
+        assertSame(other, rctxt.getWrapper("/apps/b/other.jsp"));
+        verify(page).destroy(true);
+        verify(menu).destroy(true);
+        verify(other, never()).destroy(true);
+    }
+
+    @Test
+    public void testUnrelatedModification() {
+        final JspServletWrapper page = addWrapper("/apps/a/page.jsp", "/apps/a/inc.jspf");
+
+        assertFalse(rctxt.handleModification("/apps/b/inc.jspf", false));
+        assertSame(page, rctxt.getWrapper("/apps/a/page.jsp"));
+        verify(page, never()).destroy(true);
+    }
+}
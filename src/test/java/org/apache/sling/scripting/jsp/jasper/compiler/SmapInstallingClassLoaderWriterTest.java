@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.Options;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmapInstallingClassLoaderWriterTest {
+
+    private static final String SMAP = "SMAP\npage_jsp.java\nJSP\n*S JSP\n*F\n+ 0 page.jsp\n"
+            + "apps/test/page.jsp\n*L\n1:60\n*E\n";
+
+    /** The classes written to the underlying writer by path. */
+    private final Map<String, ByteArrayOutputStream> written = new HashMap<String, ByteArrayOutputStream>();
+
+    private ClassLoaderWriter delegate;
+
+    private JspCompilationContext ctxt;
+
+    private byte[] classFile;
+
+    @Before
+    public void setUp() throws IOException {
+        delegate = mock(ClassLoaderWriter.class);
+        when(delegate.getOutputStream(anyString())).thenAnswer(invocation -> {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            written.put(invocation.getArgument(0), out);
+            return out;
+        });
+        final Options options = mock(Options.class);
+        when(options.getScratchDir()).thenReturn(":");
+        ctxt = mock(JspCompilationContext.class);
+        when(ctxt.getOptions()).thenReturn(options);
+        classFile = read(Sample.class);
+    }
+
+    private static byte[] read(final Class<?> type) throws IOException {
+        final InputStream in = type.getResourceAsStream(type.getName()
+                .substring(type.getName().lastIndexOf('.') + 1) + ".class");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private SmapInstallingClassLoaderWriter writer(final String... smap) throws IOException {
+        return new SmapInstallingClassLoaderWriter(delegate,
+                SmapUtil.getSmapsByClassPath(ctxt, smap), new CompileTimings());
+    }
+
+    private void write(final ClassLoaderWriter writer, final String path) throws IOException {
+        final OutputStream out = writer.getOutputStream(path);
+        out.write(classFile);
+        out.close();
+    }
+
+    private void assertSmapInstalled(final String path) {
+        final byte[] bytes = written.get(path).toByteArray();
+        assertTrue(contains(bytes, "SourceDebugExtension".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(contains(bytes, SMAP.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static boolean contains(final byte[] bytes, final byte[] part) {
+        outer: for (int i = 0; i + part.length <= bytes.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testPage() throws IOException {
+        final ClassLoaderWriter writer = writer(
+                ":/org/apache/jsp/apps/test/page_jsp.class", SMAP,
+                ":/org/apache/jsp/apps/test/page_jsp$Helper.class", SMAP);
+        write(writer, "/org/apache/jsp/apps/test/page_jsp.class");
+        write(writer, "/org/apache/jsp/apps/test/page_jsp$Helper.class");
+        write(writer, "/org/apache/jsp/apps/test/other_jsp.class");
+
+        assertSmapInstalled("/org/apache/jsp/apps/test/page_jsp.class");
+        assertSmapInstalled("/org/apache/jsp/apps/test/page_jsp$Helper.class");
+        assertArrayEquals(classFile, written.get("/org/apache/jsp/apps/test/other_jsp.class").toByteArray());
+    }
+
+    @Test
+    public void testTagFile() throws IOException {
+        // the output dir of a tag file in the default package, with the
+        // separator of the platform
+        final ClassLoaderWriter writer = writer(
+                ":\\org/apache/jsp/tag/web/test\\foo_tag.class", SMAP,
+                ":\\\\bar_tag.class", SMAP);
+        write(writer, "/org/apache/jsp/tag/web/test/foo_tag.class");
+        write(writer, "/bar_tag.class");
+
+        assertSmapInstalled("/org/apache/jsp/tag/web/test/foo_tag.class");
+        assertSmapInstalled("/bar_tag.class");
+    }
+
+    /** A class to install the SMAPs into. */
+    public static class Sample {
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.InvocationTargetException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import org.junit.Test;
+
+public class ConcurrentTagHandlerPoolTest {
+
+    public static class TestTag extends TagSupport {
+
+        private static final long serialVersionUID = 1L;
+
+        boolean released;
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    public static class FailingTag extends TagSupport {
+
+        private static final long serialVersionUID = 1L;
+
+        public FailingTag() {
+            throw new AssertionError("broken");
+        }
+    }
+
+    private TagHandlerPool createPool(final String maxSize) {
+        final ServletContext context = mock(ServletContext.class);
+        final ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(context);
+        when(config.getInitParameter(TagHandlerPool.OPTION_TAGPOOL)).thenReturn(ConcurrentTagHandlerPool.class.getName());
+        when(config.getInitParameter(TagHandlerPool.OPTION_MAXSIZE)).thenReturn(maxSize);
+        return TagHandlerPool.getTagHandlerPool(config);
+    }
+
+    @Test
+    public void testSelectedByOption() {
+        assertTrue(createPool(null) instanceof ConcurrentTagHandlerPool);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final ConcurrentTagHandlerPool pool = (ConcurrentTagHandlerPool) createPool("2");
+        final Tag tag = pool.get(TestTag.class);
+        pool.reuse(tag);
+        assertSame(tag, pool.get(TestTag.class));
+        assertNotSame(tag, pool.get(TestTag.class));
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void testGrowthAndEviction() throws Exception {
+        final ConcurrentTagHandlerPool pool = (ConcurrentTagHandlerPool) createPool("2");
+        final TestTag t1 = (TestTag) pool.get(TestTag.class);
+        final TestTag t2 = (TestTag) pool.get(TestTag.class);
+        final TestTag t3 = (TestTag) pool.get(TestTag.class);
+        assertEquals(1, pool.getSize());
+
+        pool.reuse(t1);
+        pool.reuse(t2);
+        pool.reuse(t3);
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getEvictionCount());
+        assertTrue(t3.released);
+
+        pool.release();
+        assertTrue(t1.released);
+        assertTrue(t2.released);
+    }
+
+    @Test
+    public void testConstructorError() {
+        final TagHandlerPool pool = createPool(null);
+        try {
+            pool.get(FailingTag.class);
+            fail("Constructor error");
+        } catch (final JspException expected) {
+            assertTrue(expected.getCause() instanceof InvocationTargetException);
+            assertTrue(expected.getCause().getCause() instanceof AssertionError);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ ~ Licensed to the Apache Software Foundation (ASF) under one
+ ~ or more contributor license agreements.  See the NOTICE file
+ ~ distributed with this work for additional information
+ ~ regarding copyright ownership.  The ASF licenses this file
+ ~ to you under the Apache License, Version 2.0 (the
+ ~ "License"); you may not use this file except in compliance
+ ~ with the License.  You may obtain a copy of the License at
+ ~
+ ~   http://www.apache.org/licenses/LICENSE-2.0
+ ~
+ ~ Unless required by applicable law or agreed to in writing,
+ ~ software distributed under the License is distributed on an
+ ~ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ ~ KIND, either express or implied.  See the License for the
+ ~ specific language governing permissions and limitations
+ ~ under the License.
+ ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~*/
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+
+import org.apache.el.ExpressionFactoryImpl;
+import org.apache.sling.scripting.jsp.jasper.el.ELContextImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ELExpressionCacheTest {
+
+    private ExpressionFactory factory;
+    private ELContextImpl ctx;
+    private ELExpressionCache underTest;
+
+    @Before
+    public void setUp() {
+        factory = new ExpressionFactoryImpl();
+        ctx = new ELContextImpl();
+        underTest = new ELExpressionCache(2);
+    }
+
+    @Test
+    public void cachedExpressionIsReused() {
+        ValueExpression ve1 = underTest.getValueExpression(factory, ctx, "${1 + 2}", Object.class, null);
+        ValueExpression ve2 = underTest.getValueExpression(factory, ctx, "${1 + 2}", Object.class, null);
+        assertSame(ve1, ve2);
+        assertEquals(3L, ve2.getValue(ctx));
+        assertEquals(1, underTest.getHitCount());
+        assertEquals(1, underTest.getMissCount());
+    }
+
+    @Test
+    public void expectedTypeIsPartOfKey() {
+        ValueExpression ve1 = underTest.getValueExpression(factory, ctx, "${1 + 2}", Object.class, null);
+        ValueExpression ve2 = underTest.getValueExpression(factory, ctx, "${1 + 2}", String.class, null);
+        assertNotSame(ve1, ve2);
+        assertEquals("3", ve2.getValue(ctx));
+        assertSame(ve1, underTest.getValueExpression(factory, ctx, "${1 + 2}", Object.class, null));
+        assertSame(ve2, underTest.getValueExpression(factory, ctx, "${1 + 2}", String.class, null));
+    }
+
+    @Test
+    public void expressionsWithMappedVariablesAreNotCached() {
+        ctx.getVariableMapper().setVariable("a", factory.createValueExpression(1L, Long.class));
+        underTest.getValueExpression(factory, ctx, "${a}", Object.class, null);
+        assertEquals(0, underTest.size());
+
+        ctx.getVariableMapper().setVariable("a", null);
+        underTest.getValueExpression(factory, ctx, "${a}", Object.class, null);
+        assertEquals(1, underTest.size());
+    }
+
+    @Test
+    public void cachedExpressionsAreNotUsedWithMappedVariables() {
+        ValueExpression cached = underTest.getValueExpression(factory, ctx, "${a}", Object.class, null);
+        assertEquals(1, underTest.size());
+
+        ctx.getVariableMapper().setVariable("a", factory.createValueExpression(1L, Long.class));
+        ValueExpression mapped = underTest.getValueExpression(factory, ctx, "${a}", Object.class, null);
+        assertNotSame(cached, mapped);
+        assertEquals(1L, mapped.getValue(ctx));
+        assertEquals(0, underTest.getHitCount());
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        underTest.getValueExpression(factory, ctx, "${1}", Object.class, null);
+        underTest.getValueExpression(factory, ctx, "${2}", Object.class, null);
+        underTest.getValueExpression(factory, ctx, "${3}", Object.class, null);
+        assertEquals(2, underTest.size());
+    }
+}
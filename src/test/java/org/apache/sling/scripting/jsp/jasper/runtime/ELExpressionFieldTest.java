@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.jsp.JspFactory;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.el.ExpressionFactoryImpl;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspUtil;
+import org.apache.sling.scripting.jsp.jasper.el.ELContextImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The expressions of pages generated with static expression fields, see
+ * the genELExpressionFields option.
+ */
+public class ELExpressionFieldTest {
+
+    private JspFactory previousFactory;
+
+    private JspFactoryImpl factory;
+
+    private PageContext pageContext;
+
+    @Before
+    public void setUp() {
+        previousFactory = JspFactory.getDefaultFactory();
+        factory = new JspFactoryImpl();
+        // used by the fallback to parse the expression again
+        JspFactory.setDefaultFactory(factory);
+
+        final ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        final Servlet servlet = mock(Servlet.class);
+        when(servlet.getServletConfig()).thenReturn(config);
+        pageContext = factory.getPageContext(servlet, mock(ServletRequest.class),
+                mock(ServletResponse.class), null, false, 8192, true);
+    }
+
+    @After
+    public void tearDown() {
+        factory.releasePageContext(pageContext);
+        JspFactory.setDefaultFactory(previousFactory);
+    }
+
+    @Test
+    public void generatedFieldAndCall() {
+        assertEquals("org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl.createValueExpression"
+                + "(\"${a + 1}\", java.lang.Long.class, _jspx_fnmap_0)",
+                JspUtil.expressionFieldInitializer("${a + 1}", long.class, "_jspx_fnmap_0"));
+        assertEquals("((java.lang.Long) "
+                + "org.apache.sling.scripting.jsp.jasper.runtime.PageContextImpl.evaluateExpression"
+                + "(_el_expression_0, (PageContext)_jspx_page_context, _jspx_fnmap_0, false)).longValue()",
+                JspUtil.expressionFieldCall(false, "_el_expression_0", long.class, "_jspx_fnmap_0", false));
+    }
+
+    @Test
+    public void fieldIsEvaluatedWithPageContext() {
+        final ValueExpression field = PageContextImpl.createValueExpression("${a + 1}", Long.class, null);
+        pageContext.setAttribute("a", 2L);
+        assertEquals(3L, PageContextImpl.evaluateExpression(field, pageContext, null, false));
+        // the same field for another request
+        pageContext.setAttribute("a", 4L);
+        assertEquals(5L, PageContextImpl.evaluateExpression(field, pageContext, null, false));
+    }
+
+    @Test
+    public void resultIsEscaped() {
+        final ValueExpression field = PageContextImpl.createValueExpression("${a}", String.class, null);
+        pageContext.setAttribute("a", "<b>");
+        assertEquals("&lt;b&gt;", PageContextImpl.evaluateExpression(field, pageContext, null, true));
+        assertEquals("<b>", PageContextImpl.evaluateExpression(field, pageContext, null, false));
+    }
+
+    @Test
+    public void functionsAreMapped() {
+        final ProtectedFunctionMapper functions = ProtectedFunctionMapper.getMapForFunction(
+                "fn:valueOf", String.class, "valueOf", new Class<?>[] { int.class });
+        final ValueExpression field = PageContextImpl.createValueExpression("${fn:valueOf(7)}",
+                String.class, functions);
+        assertEquals("7", PageContextImpl.evaluateExpression(field, pageContext, functions, false));
+    }
+
+    @Test
+    public void mappedVariablesAreHonoured() {
+        final ValueExpression field = PageContextImpl.createValueExpression("${a}", Object.class, null);
+        pageContext.setAttribute("a", "attribute");
+        assertEquals("attribute", PageContextImpl.evaluateExpression(field, pageContext, null, false));
+
+        // the field has been parsed without the variable, the expression is
+        // parsed again
+        final ExpressionFactory expressionFactory = new ExpressionFactoryImpl();
+        final ELContextImpl ctx = (ELContextImpl) pageContext.getELContext();
+        ctx.getVariableMapper().setVariable("a",
+                expressionFactory.createValueExpression("mapped", String.class));
+        assertEquals("mapped", PageContextImpl.evaluateExpression(field, pageContext, null, false));
+
+        ctx.getVariableMapper().setVariable("a", null);
+        assertEquals("attribute", PageContextImpl.evaluateExpression(field, pageContext, null, false));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletResponse;
+
+import org.junit.Test;
+
+public class JspMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        final TimeHistogram histogram = new TimeHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.add(500);
+        histogram.add(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.add(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.add(TimeUnit.HOURS.toNanos(1));
+
+        assertEquals(4, histogram.getCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(TimeHistogram.BUCKETS - 1));
+
+        assertEquals(1, histogram.getPercentile(25));
+        assertEquals(4, histogram.getPercentile(50));
+        assertEquals(4, histogram.getPercentile(75));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testScripts() {
+        final JspMetrics metrics = new JspMetrics();
+        final ScriptMetrics a = metrics.getScriptMetrics("/apps/a.jsp");
+        assertSame(a, metrics.getScriptMetrics("/apps/a.jsp"));
+        final ScriptMetrics b = metrics.getScriptMetrics("/apps/b.jsp");
+
+        a.addCompile(100, false);
+        a.addLoad();
+        a.addRender(1000, false);
+        a.addRender(2000, true);
+        a.addCompile(200, true);
+        a.addLoad();
+        b.addLoad();
+        b.addRender(3000, false);
+
+        assertEquals(2, metrics.getLoadedCount());
+        assertEquals(1, metrics.getReloadCount());
+        assertEquals(3, metrics.getRenderCount());
+        assertEquals(6000, metrics.getRenderTime());
+        assertEquals(1, metrics.getRenderFailureCount());
+        assertEquals(2, metrics.getCompileCount());
+        assertEquals(300, metrics.getCompileTime());
+        assertEquals(1, metrics.getCompileFailureCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getRenderCount());
+        assertEquals(0, metrics.getLoadedCount());
+        assertEquals(2, metrics.getScriptMetrics().size());
+    }
+
+    @Test
+    public void testRemovedScripts() {
+        final JspMetrics metrics = new JspMetrics();
+        metrics.getScriptMetrics("/apps/a/page.jsp").addLoad();
+        metrics.getScriptMetrics("/apps/a/b/inc.jsp").addLoad();
+        metrics.getScriptMetrics("/apps/ab/page.jsp").addLoad();
+
+        metrics.removed("/apps/a/page.jsp");
+        assertEquals(2, metrics.getScriptMetrics().size());
+
+        metrics.removed("/apps/a");
+        assertEquals(1, metrics.getScriptMetrics().size());
+        assertEquals("/apps/ab/page.jsp", metrics.getScriptMetrics().get(0).getPath());
+        assertEquals(1, metrics.getLoadedCount());
+    }
+
+    @Test
+    public void testBufferOverflow() throws Exception {
+        final StringWriter output = new StringWriter();
+        final ServletResponse response = mock(ServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+
+        final JspMetrics metrics = new JspMetrics();
+        final JspWriterImpl out = new JspWriterImpl(response, 4, true);
+        out.setMetrics(metrics);
+        out.write("abc");
+        assertEquals(0, metrics.getBufferOverflowCount());
+        out.write("def");
+        assertEquals(1, metrics.getBufferOverflowCount());
+        out.flush();
+        assertEquals("abcdef", output.toString());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.sling.scripting.jsp.jasper.JasperException;
+import org.junit.Test;
+
+public class JspRuntimeLibraryTest {
+
+    public static class Bean {
+
+        private String name;
+
+        private long size;
+
+        private int count;
+
+        private Object value;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(final long size) {
+            this.size = size;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(final int count) {
+            this.count = count;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public void setValue(final Object value) {
+            this.value = value;
+        }
+
+        public void setFailing(final String failing) {
+            throw new IllegalStateException(failing);
+        }
+
+        public String getBroken() {
+            throw new AssertionError("broken");
+        }
+
+        public String getItem(final int index) {
+            return name;
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        assertSame(BeanProperties.get(Bean.class), BeanProperties.get(Bean.class));
+        assertNull(BeanProperties.get(Bean.class).getProperty("missing"));
+        assertSame(Bean.class.getMethod("setName", String.class),
+                JspRuntimeLibrary.getWriteMethod(Bean.class, "name"));
+        assertSame(Bean.class.getMethod("getName"), JspRuntimeLibrary.getReadMethod(Bean.class, "name"));
+    }
+
+    @Test
+    public void testSetAndGetProperty() throws Exception {
+        final Bean bean = new Bean();
+        JspRuntimeLibrary.handleSetProperty(bean, "name", (Object) "foo");
+        JspRuntimeLibrary.handleSetProperty(bean, "count", 3);
+        // widened by reflection
+        JspRuntimeLibrary.handleSetProperty(bean, "size", 4);
+        JspRuntimeLibrary.handleSetProperty(bean, "value", (Object) null);
+        assertEquals("foo", JspRuntimeLibrary.handleGetProperty(bean, "name"));
+        assertEquals(3, JspRuntimeLibrary.handleGetProperty(bean, "count"));
+        assertEquals(4L, JspRuntimeLibrary.handleGetProperty(bean, "size"));
+        assertNull(JspRuntimeLibrary.handleGetProperty(bean, "value"));
+    }
+
+    @Test
+    public void testIntrospecthelper() throws Exception {
+        final Bean bean = new Bean();
+        JspRuntimeLibrary.introspecthelper(bean, "count", "42", null, null, false);
+        JspRuntimeLibrary.introspecthelper(bean, "name", "bar", null, null, false);
+        JspRuntimeLibrary.introspecthelper(bean, "missing", "x", null, null, true);
+        assertEquals(42, bean.getCount());
+        assertEquals("bar", bean.getName());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        final Bean bean = new Bean();
+        try {
+            JspRuntimeLibrary.handleSetProperty(bean, "failing", (Object) "message");
+            fail("Setter exception");
+        } catch (final JasperException expected) {
+            assertTrue(expected.getCause() instanceof InvocationTargetException);
+            assertEquals("message", expected.getCause().getCause().getMessage());
+        }
+        try {
+            JspRuntimeLibrary.handleGetProperty(bean, "failing");
+            fail("Write only property");
+        } catch (final JasperException expected) {
+            // no read method
+        }
+        try {
+            JspRuntimeLibrary.introspecthelper(bean, "missing", "x", null, null, false);
+            fail("Missing property");
+        } catch (final JasperException expected) {
+            // no such property
+        }
+        try {
+            JspRuntimeLibrary.handleGetProperty(bean, "broken");
+            fail("Getter error");
+        } catch (final JasperException expected) {
+            assertTrue(expected.getCause() instanceof InvocationTargetException);
+            assertTrue(expected.getCause().getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test
+    public void testIndexedProperty() throws Exception {
+        try {
+            JspRuntimeLibrary.getWriteMethod(Bean.class, "item");
+            fail("Indexed property");
+        } catch (final JasperException expected) {
+            // reported as missing, like before the cache
+        }
+        try {
+            JspRuntimeLibrary.getReadMethod(Bean.class, "item");
+            fail("Indexed property");
+        } catch (final JasperException expected) {
+            // reported as missing, like before the cache
+        }
+    }
+
+    @Test
+    public void testEscapeXml() {
+        final String plain = "plain text";
+        assertSame(plain, JspRuntimeLibrary.escapeXml(plain));
+        assertNull(JspRuntimeLibrary.escapeXml(null));
+        assertEquals("a&lt;b&gt; &amp; &#034;c&#039;\u00e9",
+                JspRuntimeLibrary.escapeXml("a<b> & \"c'\u00e9"));
+    }
+
+    @Test
+    public void testWriteEscapedXml() throws Exception {
+        final BodyContentImpl out = new BodyContentImpl(null);
+        JspRuntimeLibrary.writeEscapedXml(out, "<a href=\"x\">");
+        JspRuntimeLibrary.writeEscapedXml(out, "");
+        JspRuntimeLibrary.writeEscapedXml(out, "&".toCharArray(), 0, 1);
+        JspRuntimeLibrary.writeEscapedXml(out, "[it's]".toCharArray(), 1, 4);
+        assertEquals("&lt;a href=&#034;x&#034;&gt;&amp;it&#039;s", out.getString());
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JspWriterImplTest {
+
+    private StringWriter output;
+
+    private JspWriterImpl including;
+
+    @Before
+    public void setUp() throws IOException {
+        output = new StringWriter();
+        final ServletResponse response = mock(ServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        including = new JspWriterImpl(response, 16, true);
+    }
+
+    private JspWriterImpl included(final int bufferSize, final boolean autoFlush) {
+        return new JspWriterImpl(mock(ServletResponse.class), bufferSize, autoFlush);
+    }
+
+    @Test
+    public void testWriteThrough() throws IOException {
+        final JspWriterImpl included = included(16, true);
+        assertTrue(included.attach(including));
+
+        including.write("<a>");
+        included.write("<b>");
+        included.write('|');
+        included.write("<c>".toCharArray(), 0, 3);
+        assertEquals(16 - 10, included.getRemaining());
+        included.flushBuffer();
+        including.write("</a>");
+        including.flush();
+        assertEquals("<a><b>|<c></a>", output.toString());
+    }
+
+    @Test
+    public void testNestedWriteThrough() throws IOException {
+        final JspWriterImpl first = included(16, true);
+        final JspWriterImpl second = included(16, true);
+        assertTrue(first.attach(including));
+        first.write("1");
+        assertTrue(second.attach(first));
+        second.write("2");
+        second.clear();
+        second.write("3");
+        first.write("4");
+        including.flush();
+        assertEquals("134", output.toString());
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        including.write("<a>");
+        final JspWriterImpl included = included(16, true);
+        included.attach(including);
+        included.write("<b>");
+        included.clear();
+        included.write("<c>");
+        including.flush();
+        assertEquals("<a><c>", output.toString());
+    }
+
+    @Test
+    public void testClearAfterFlush() throws IOException {
+        including.write("<a>");
+        final JspWriterImpl included = included(16, true);
+        included.attach(including);
+        included.write("0123456789abcdef");
+        try {
+            included.clear();
+            fail("Clearing flushed output");
+        } catch (final IOException expected) {
+            // the output of the included page has been flushed
+        }
+        included.clearBuffer();
+        included.write("<b>");
+        including.flush();
+        assertEquals("<a>0123456789abc<b>", output.toString());
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        final JspWriterImpl included = included(16, true);
+        included.attach(including);
+        included.write("<b>");
+        included.flush();
+        assertEquals("<b>", output.toString());
+        try {
+            included.clear();
+            fail("Clearing flushed output");
+        } catch (final IOException expected) {
+            // the included page has been flushed
+        }
+    }
+
+    @Test
+    public void testNotAttached() throws IOException {
+        assertFalse(included(0, true).attach(including));
+        assertFalse(included(16, false).attach(including));
+        // a larger buffer declared by the included page is kept
+        assertFalse(included(32, true).attach(including));
+        final JspWriterImpl unbuffered = new JspWriterImpl(mock(ServletResponse.class), 0, true);
+        assertFalse(included(16, true).attach(unbuffered));
+    }
+
+    @Test
+    public void testRecycle() throws IOException {
+        final ServletResponse response = mock(ServletResponse.class);
+        final JspWriterImpl included = included(16, true);
+        included.attach(including);
+        included.recycle();
+        included.init(response, 8192, true);
+        included.write("<b>");
+        including.flush();
+        assertEquals("", output.toString());
+        verifyZeroInteractions(response);
+    }
+
+    private SlingHttpServletResponse encodingResponse(final String encoding, final ByteArrayOutputStream bytes)
+            throws IOException {
+        final SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(response.getCharacterEncoding()).thenReturn(encoding);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+                // not used
+            }
+        });
+        return response;
+    }
+
+    @Test
+    public void testEncodedText() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ServletResponse response = encodingResponse("utf-8", bytes);
+        final JspWriterImpl out = new JspWriterImpl(response, 8, true);
+
+        out.write("\u00e4");
+        out.write(new EncodedText("<p>\u00e9</p>", "UTF-8"));
+        out.write("x\ud83d\ude00");
+        out.write(new EncodedText("<p>long text</p>", "UTF-8"));
+        out.flushBuffer();
+        assertEquals("\u00e4<p>\u00e9</p>x\ud83d\ude00<p>long text</p>",
+                new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    public void testEncodedTextSplitSurrogate() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JspWriterImpl out = new JspWriterImpl(encodingResponse("UTF-8", bytes), 4, true);
+
+        out.write(new EncodedText("<p>", "UTF-8"));
+        // the buffer overflows between the two surrogates
+        out.write("abc\ud83d\ude00def");
+        out.flushBuffer();
+        assertEquals("<p>abc\ud83d\ude00def", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncodedTextOtherCharset() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ServletResponse response = encodingResponse("ISO-8859-1", bytes);
+        final JspWriterImpl out = new JspWriterImpl(response, 8, true);
+
+        out.write(new EncodedText("<p>\u00e9</p>", "UTF-8"));
+        out.flushBuffer();
+        assertEquals("<p>\u00e9</p>", output.toString());
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testEncodedTextAfterWriter() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JspWriterImpl out = new JspWriterImpl(encodingResponse("UTF-8", bytes), 4, true);
+
+        out.write("0123456789");
+        out.write(new EncodedText("<p>", "UTF-8"));
+        out.flushBuffer();
+        assertEquals("0123456789<p>", output.toString());
+        assertEquals(0, bytes.size());
+    }
+
+    @Test
+    public void testEncodedTextClear() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JspWriterImpl out = new JspWriterImpl(encodingResponse("UTF-8", bytes), 16, true);
+
+        out.write(new EncodedText("<p>", "UTF-8"));
+        out.write("text");
+        out.clear();
+        out.write(new EncodedText("<div>", "UTF-8"));
+        out.write(new EncodedText("0123456789abcdef", "UTF-8"));
+        assertEquals("<div>0123456789abcdef", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        try {
+            out.clear();
+            fail("Clearing written output");
+        } catch (final IOException expected) {
+            // the byte buffer has been written
+        }
+        out.clearBuffer();
+        out.write("</div>");
+        out.flushBuffer();
+        assertEquals("<div>0123456789abcdef</div>", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncodedTextClearAttached() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JspWriterImpl out = new JspWriterImpl(encodingResponse("UTF-8", bytes), 8, true);
+        out.write(new EncodedText("<p>", "UTF-8"));
+
+        final JspWriterImpl included = included(8, true);
+        assertTrue(included.attach(out));
+        // the overflow moves the character buffer into the byte buffer
+        included.write("0123456789");
+        try {
+            included.clear();
+            fail("Clearing encoded output");
+        } catch (final IOException expected) {
+            // the output of the included page has left the character buffer
+        }
+        included.clearBuffer();
+        included.write("x");
+        out.flushBuffer();
+        assertEquals("<p>01234567x", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncodedTextWithInclude() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final SlingHttpServletResponse original = encodingResponse("UTF-8", bytes);
+        final EncodedResponseWrapper response = new EncodedResponseWrapper(original);
+        final JspWriterImpl out = new JspWriterImpl(response, 16, true);
+
+        final RequestDispatcher dispatcher = mock(RequestDispatcher.class);
+        doAnswer(invocation -> {
+            final PrintWriter writer = invocation.<ServletResponse>getArgument(1).getWriter();
+            writer.print("\u00e9");
+            writer.flush();
+            return null;
+        }).when(dispatcher).include(any(ServletRequest.class), any(ServletResponse.class));
+        final ServletRequest request = mock(ServletRequest.class);
+        when(request.getRequestDispatcher("/inc")).thenReturn(dispatcher);
+
+        out.write(new EncodedText("<p>", "UTF-8"));
+        // the include action of the page
+        JspRuntimeLibrary.include(request, response, "/inc", out, false);
+        out.write(new EncodedText("|", "UTF-8"));
+        // an include with the response of the page
+        request.getRequestDispatcher("/inc").include(request, response);
+        out.write(new EncodedText("</p>", "UTF-8"));
+        out.flushBuffer();
+        assertEquals("<p>\u00e9|\u00e9</p>", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        verify(original, never()).getWriter();
+
+        // the page is done, the response is back to the servlet API rules
+        out.recycle();
+        response.getWriter().print("after");
+        verify(original).getWriter();
+    }
+
+    @Test
+    public void testEncodedRemaining() throws IOException {
+        final JspWriterImpl out = new JspWriterImpl(encodingResponse("UTF-8", new ByteArrayOutputStream()), 16, true);
+        out.write(new EncodedText("<p>", "UTF-8"));
+        out.write("ab");
+        // bytes in the byte buffer and characters not encoded yet
+        assertEquals(16 - 3 - 2, out.getRemaining());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.jsp.JspWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PageContextImplTest {
+
+    private StringWriter output;
+
+    private JspWriterImpl including;
+
+    private Servlet servlet;
+
+    @Before
+    public void setUp() throws IOException {
+        output = new StringWriter();
+        final ServletResponse response = mock(ServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        including = new JspWriterImpl(response, 16, true);
+
+        final ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        servlet = mock(Servlet.class);
+        when(servlet.getServletConfig()).thenReturn(config);
+    }
+
+    private PageContextImpl include(final boolean includeWriteThrough) throws IOException {
+        final ServletResponseWrapperInclude response =
+                new ServletResponseWrapperInclude(mock(HttpServletResponse.class), including);
+        return include(includeWriteThrough, response, response);
+    }
+
+    private PageContextImpl include(final boolean includeWriteThrough,
+            final ServletResponseWrapperInclude include,
+            final ServletResponse response) throws IOException {
+        final ServletRequest request = mock(ServletRequest.class);
+        when(request.getAttribute(ServletResponseWrapperInclude.INCLUDE_RESPONSE)).thenReturn(include);
+        final PageContextImpl pc = new PageContextImpl(null, includeWriteThrough);
+        pc.initialize(servlet, request, response, null, false, 16, true);
+        return pc;
+    }
+
+    @Test
+    public void testClearAfterIncludingFlush() throws IOException {
+        including.write("<a>");
+        final PageContextImpl pc = include(false);
+        final JspWriter out = pc.getOut();
+        // the own buffer of the included page still holds all its output
+        out.write("0123456789abc");
+        out.clear();
+        out.write("<b>");
+        pc.release();
+        including.flush();
+        assertEquals("<a><b>", output.toString());
+    }
+
+    @Test
+    public void testClearAfterIncludingFlushWriteThrough() throws IOException {
+        including.write("<a>");
+        final PageContextImpl pc = include(true);
+        final JspWriter out = pc.getOut();
+        // the buffer of the including page is flushed
+        out.write("0123456789abc");
+        try {
+            out.clear();
+            fail("Clearing flushed output");
+        } catch (final IOException expected) {
+            // the output has been written to the response
+        } finally {
+            pc.release();
+        }
+        including.flush();
+        assertEquals("<a>0123456789abc", output.toString());
+    }
+
+    @Test
+    public void testWrappedIncludeWriteThrough() throws IOException {
+        final ServletResponseWrapperInclude include =
+                new ServletResponseWrapperInclude(mock(HttpServletResponse.class), including);
+        final PageContextImpl pc = include(true, include, new HttpServletResponseWrapper(include));
+        // written into the buffer of the including page
+        pc.getOut().write("<b>");
+        assertEquals(13, including.getRemaining());
+        pc.release();
+    }
+
+    @Test
+    public void testReplacedWriterIsNotWrittenThrough() throws IOException {
+        final ServletResponseWrapperInclude include =
+                new ServletResponseWrapperInclude(mock(HttpServletResponse.class), including);
+        final PrintWriter captured = new PrintWriter(new StringWriter());
+        final HttpServletResponse response = new HttpServletResponseWrapper(include) {
+            @Override
+            public PrintWriter getWriter() {
+                return captured;
+            }
+        };
+        final PageContextImpl pc = include(true, include, response);
+        pc.getOut().write("<b>");
+        assertEquals(16, including.getRemaining());
+        pc.release();
+    }
+
+    @Test
+    public void testOtherIncludeIsNotWrittenThrough() throws IOException {
+        final ServletResponseWrapperInclude include =
+                new ServletResponseWrapperInclude(mock(HttpServletResponse.class), including);
+        final PageContextImpl pc = include(true,
+                new ServletResponseWrapperInclude(mock(HttpServletResponse.class), including),
+                include);
+        pc.getOut().write("<b>");
+        assertEquals(16, including.getRemaining());
+        pc.release();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PageContextPoolTest {
+
+    @Test
+    public void testReuse() {
+        final PageContextPool pool = new PageContextPool(2);
+        assertNull(pool.get());
+
+        final PageContextImpl pc = new PageContextImpl();
+        assertTrue(pool.put(pc));
+        assertSame(pc, pool.get());
+        assertNull(pool.get());
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        final PageContextPool pool = new PageContextPool(2);
+        assertTrue(pool.put(new PageContextImpl()));
+        assertTrue(pool.put(new PageContextImpl()));
+        assertFalse(pool.put(new PageContextImpl()));
+        assertEquals(1, pool.getDiscardCount());
+
+        pool.clear();
+        assertNull(pool.get());
+    }
+
+    @Test
+    public void testBufferLimit() {
+        final PageContextImpl pc = new PageContextImpl();
+        pc.pushBody();
+
+        final PageContextPool pool = new PageContextPool(2, pc.getRetainedBufferSize() - 1);
+        assertFalse(pool.put(pc));
+        assertEquals(1, pool.getDiscardCount());
+    }
+}
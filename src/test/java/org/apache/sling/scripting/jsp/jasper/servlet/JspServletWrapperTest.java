@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.SlingServletException;
+import org.apache.sling.api.scripting.SlingBindings;
+import org.apache.sling.commons.classloader.DynamicClassLoader;
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+import org.apache.sling.scripting.jsp.jasper.Options;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JspServletWrapperTest {
+
+    private JspRuntimeContext rctxt;
+
+    private ServletConfig config;
+
+    private Options options;
+
+    /** The class loader of the dynamic class loader manager. */
+    private TestClassLoader parentLoader;
+
+    /** The class loader of the class loader writer. */
+    private TestClassLoader writerLoader;
+
+    @Before
+    public void setUp() {
+        final ServletContext context = mock(ServletContext.class);
+        config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(context);
+        options = mock(Options.class);
+        rctxt = new JspRuntimeContext(context, options, mock(IOProvider.class));
+        parentLoader = new TestClassLoader(getClass().getClassLoader());
+        writerLoader = new TestClassLoader(parentLoader);
+    }
+
+    private JspServletWrapper addWrapper(final String jspUri) throws Exception {
+        final Servlet servlet = (Servlet) writerLoader.loadClass(TestServlet.class.getName()).newInstance();
+        final JspServletWrapper wrapper = new JspServletWrapper(config, options, jspUri, false, rctxt, servlet);
+        assertSame(wrapper, rctxt.addWrapper(jspUri, wrapper));
+        return wrapper;
+    }
+
+    @Test
+    public void testOtherPagesSurviveChangedPage() throws Exception {
+        final JspServletWrapper page = addWrapper("/apps/a/page.jsp");
+        final JspServletWrapper other = addWrapper("/apps/b/other.jsp");
+        assertTrue(other.isValid(true));
+
+        // writing the recompiled page outdates the class loader of the writer
+        assertTrue(rctxt.handleModification("/apps/a/page.jsp", false));
+        writerLoader.live = false;
+
+        assertNull(rctxt.getWrapper("/apps/a/page.jsp"));
+        assertSame(other, rctxt.getWrapper("/apps/b/other.jsp"));
+        assertTrue(other.isLoaded());
+        assertTrue(other.isValid(true));
+        assertFalse(other.isValid());
+    }
+
+    @Test
+    public void testRefreshedParentInvalidatesPages() throws Exception {
+        final JspServletWrapper page = addWrapper("/apps/a/page.jsp");
+
+        parentLoader.live = false;
+        writerLoader.live = false;
+
+        assertFalse(page.isValid(true));
+        assertFalse(page.isValid(false));
+    }
+
+    @Test
+    public void testUnloadedPageIsValid() {
+        final JspServletWrapper page = new JspServletWrapper(config, options, "/apps/a/page.jsp", false, rctxt);
+        writerLoader.live = false;
+
+        assertTrue(page.isValid(true));
+        assertTrue(page.isValid(false));
+    }
+
+    @Test
+    public void testStaleServletIsServedUntilReplaced() throws Exception {
+        final List<JspServletWrapper> revalidations = new ArrayList<>();
+        rctxt.setRevalidator(revalidations::add, 0);
+        final BlockingServlet servlet = new BlockingServlet();
+        final JspServletWrapper page = new JspServletWrapper(config, options, "/apps/a/page.jsp", false, rctxt, servlet);
+        rctxt.addWrapper("/apps/a/page.jsp", page);
+        final SlingBindings bindings = new SlingBindings();
+        bindings.setRequest(mock(SlingHttpServletRequest.class));
+        bindings.setResponse(mock(SlingHttpServletResponse.class));
+
+        assertFalse(rctxt.handleModification("/apps/a/page.jsp", false));
+        assertSame(page, rctxt.getWrapper("/apps/a/page.jsp"));
+        assertEquals(Collections.singletonList(page), revalidations);
+        assertTrue(page.isServingStale());
+
+        page.service(bindings);
+        assertEquals(1, servlet.served.get());
+
+        // a request is still served by the previous servlet during the revalidation
+        servlet.gate = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread request = new Thread(() -> {
+            try {
+                page.service(bindings);
+            } catch (final Throwable t) {
+                failure.set(t);
+            }
+        });
+        request.start();
+        servlet.entered.await();
+
+        // the page cannot be compiled
+        when(options.getJspConfig()).thenThrow(new IllegalStateException("broken"));
+        assertTrue(page.revalidate());
+        assertFalse(page.isServingStale());
+        assertFalse(page.isLoaded());
+        assertEquals(0, servlet.destroyed.get());
+
+        servlet.gate.countDown();
+        request.join();
+        assertNull(failure.get());
+        assertEquals(2, servlet.served.get());
+        assertEquals(1, servlet.destroyed.get());
+
+        try {
+            page.service(bindings);
+            fail("compile error expected");
+        } catch (final SlingServletException expected) {
+            // the compile error is the result of the page now
+        }
+        assertEquals(2, servlet.served.get());
+        assertEquals(1, servlet.destroyed.get());
+    }
+
+    @Test
+    public void testDestroyWaitsForServedRequests() throws Exception {
+        final BlockingServlet servlet = new BlockingServlet();
+        final JspServletWrapper page = new JspServletWrapper(config, options, "/apps/a/page.jsp", false, rctxt, servlet);
+        final SlingBindings bindings = new SlingBindings();
+        bindings.setRequest(mock(SlingHttpServletRequest.class));
+        bindings.setResponse(mock(SlingHttpServletResponse.class));
+
+        servlet.gate = new CountDownLatch(1);
+        final Thread request = new Thread(() -> page.service(bindings));
+        request.start();
+        servlet.entered.await();
+
+        page.destroy(false);
+        assertFalse(page.isLoaded());
+        assertEquals(0, servlet.destroyed.get());
+
+        servlet.gate.countDown();
+        request.join();
+        assertEquals(1, servlet.served.get());
+        assertEquals(1, servlet.destroyed.get());
+    }
+
+    /**
+     * Waits for the gate, if there is one, while serving a request.
+     */
+    private static final class BlockingServlet extends GenericServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final AtomicInteger served = new AtomicInteger();
+
+        final AtomicInteger destroyed = new AtomicInteger();
+
+        volatile CountDownLatch gate;
+
+        @Override
+        public void service(final ServletRequest req, final ServletResponse res) {
+            final CountDownLatch g = gate;
+            if ( g != null ) {
+                entered.countDown();
+                try {
+                    g.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            served.incrementAndGet();
+        }
+
+        @Override
+        public void destroy() {
+            destroyed.incrementAndGet();
+        }
+    }
+
+    public static class TestServlet extends GenericServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void service(final ServletRequest req, final ServletResponse res) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Defines its own copy of the test servlet class, like the class loader
+     * of the class loader writer does for compiled pages.
+     */
+    private static final class TestClassLoader extends ClassLoader implements DynamicClassLoader {
+
+        volatile boolean live = true;
+
+        TestClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        public boolean isLive() {
+            return live;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if ( !name.equals(TestServlet.class.getName()) || !(getParent() instanceof DynamicClassLoader) ) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if ( c == null ) {
+                final byte[] bytes = readClass(name);
+                c = defineClass(name, bytes, 0, bytes.length);
+            }
+            return c;
+        }
+
+        private byte[] readClass(final String name) throws ClassNotFoundException {
+            try (final InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                int n;
+                while ( (n = in.read(buf)) != -1 ) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } catch (final IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.tagplugins.jstl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.JspWriter;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.BodyContentImpl;
+import org.junit.Test;
+
+public class UtilTest {
+
+    private static List<Object> toList(final Object items) throws JspTagException {
+        final List<Object> result = new ArrayList<Object>();
+        final Iterator<?> i = Util.toIterator(items);
+        while ( i.hasNext() ) {
+            result.add(i.next());
+        }
+        return result;
+    }
+
+    @Test
+    public void testIterateNothing() throws Exception {
+        assertFalse(Util.toIterator(null).hasNext());
+        assertFalse(Util.toIterator(new int[0]).hasNext());
+    }
+
+    @Test
+    public void testIterateArrays() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), toList(new String[] {"a", "b"}));
+        assertEquals(Arrays.asList(1, 2), toList(new int[] {1, 2}));
+        assertEquals(Arrays.asList(true), toList(new boolean[] {true}));
+        assertEquals(Arrays.asList('x'), toList(new char[] {'x'}));
+    }
+
+    @Test
+    public void testIterateCollectionsAndMaps() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), toList(Arrays.asList("a", "b")));
+        assertEquals(Arrays.asList("a"), toList(Arrays.asList("a").iterator()));
+        assertEquals(Arrays.asList("a"), toList(Collections.enumeration(Arrays.asList("a"))));
+        final List<Object> entries = toList(Collections.singletonMap("k", "v"));
+        assertEquals(1, entries.size());
+        assertEquals("k", ((Map.Entry<?, ?>) entries.get(0)).getKey());
+    }
+
+    @Test
+    public void testIterateTokens() throws Exception {
+        assertEquals(Arrays.asList("a", "b", "c"), toList("a,b,,c"));
+    }
+
+    @Test
+    public void testIterateUnsupported() throws Exception {
+        try {
+            Util.toIterator(Integer.valueOf(1));
+            fail();
+        } catch ( final JspTagException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOut() throws Exception {
+        final BodyContentImpl out = new BodyContentImpl(null);
+        Util.out(out, "<a & b>", true);
+        Util.out(out, "<a>", false);
+        Util.out(out, Integer.valueOf(5), true);
+        assertEquals("&lt;a &amp; b&gt;<a>5", out.getString());
+    }
+
+    @Test
+    public void testOutReader() throws Exception {
+        final BodyContentImpl out = new BodyContentImpl(null);
+        Util.out(out, new StringReader("\"x\""), true);
+        Util.out(out, new StringReader("<y>"), false);
+        assertEquals("&#034;x&#034;<y>", out.getString());
+    }
+
+    @Test
+    public void testOutNull() throws Exception {
+        final JspWriter out = mock(JspWriter.class);
+        Util.out(out, null, true);
+        verifyZeroInteractions(out);
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.tagplugins.jstl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.jstl.core.LoopTagSupport;
+import javax.servlet.jsp.tagext.IterationTag;
+import javax.servlet.jsp.tagext.Tag;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.apache.sling.scripting.jsp.jasper.compiler.tagplugin.TagPlugin;
+import org.apache.sling.scripting.jsp.jasper.compiler.tagplugin.TagPluginContext;
+import org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl;
+import org.apache.taglibs.standard.tag.common.core.ChooseTag;
+import org.apache.taglibs.standard.tag.common.core.OtherwiseTag;
+import org.apache.taglibs.standard.tag.rt.core.ForEachTag;
+import org.apache.taglibs.standard.tag.rt.core.OutTag;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compiles the code generated by the tag plugins and compares its output
+ * with the output of the JSTL tag handlers they replace.
+ */
+public class TagPluginTest {
+
+    /** A page, either compiled from the generated code or using the handlers. */
+    public interface Page {
+        void run(PageContext pageContext) throws Throwable;
+    }
+
+    private static final String ITEMS = "java.util.Arrays.asList(\"a\", \"b\", \"c\", \"d\", \"e\")";
+
+    private static final String WRITE_VAR = "out.write(_jspx_page_context.getAttribute(\"i\") + \",\");";
+
+    private JspFactoryImpl factory;
+
+    private Servlet servlet;
+
+    @Before
+    public void setUp() {
+        factory = new JspFactoryImpl();
+        final ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        servlet = mock(Servlet.class);
+        when(servlet.getServletConfig()).thenReturn(config);
+    }
+
+    @Test
+    public void testForEachItems() throws Throwable {
+        final String generated = renderLoop(compile(new PluginContext(null)
+                .attribute("items", ITEMS)
+                .attribute("begin", "1")
+                .attribute("end", "3")
+                .attribute("step", "2")
+                .attribute("var", "\"i\"")
+                .body(WRITE_VAR)
+                .generate(new ForEach())));
+        final String handled = renderLoop(pageContext -> {
+            final ForEachTag tag = new ForEachTag();
+            tag.setPageContext(pageContext);
+            tag.setItems(Arrays.asList("a", "b", "c", "d", "e"));
+            tag.setBegin(1);
+            tag.setEnd(3);
+            tag.setStep(2);
+            tag.setVar("i");
+            iterate(tag, () -> pageContext.getOut().write(pageContext.getAttribute("i") + ","));
+        });
+        assertEquals("b,d,|null", handled);
+        assertEquals(handled, generated);
+    }
+
+    @Test
+    public void testForEachItemsStep() throws Throwable {
+        final String generated = renderLoop(compile(new PluginContext(null)
+                .attribute("items", ITEMS)
+                .attribute("step", "3")
+                .attribute("var", "\"i\"")
+                .body(WRITE_VAR)
+                .generate(new ForEach())));
+        final String handled = renderLoop(pageContext -> {
+            final ForEachTag tag = new ForEachTag();
+            tag.setPageContext(pageContext);
+            tag.setItems(Arrays.asList("a", "b", "c", "d", "e"));
+            tag.setStep(3);
+            tag.setVar("i");
+            iterate(tag, () -> pageContext.getOut().write(pageContext.getAttribute("i") + ","));
+        });
+        assertEquals("a,d,|null", handled);
+        assertEquals(handled, generated);
+    }
+
+    @Test
+    public void testForEachRange() throws Throwable {
+        final String generated = renderLoop(compile(new PluginContext(null)
+                .attribute("begin", "1")
+                .attribute("end", "5")
+                .attribute("step", "2")
+                .attribute("var", "\"i\"")
+                .body(WRITE_VAR)
+                .generate(new ForEach())));
+        final String handled = renderLoop(pageContext -> {
+            final ForEachTag tag = new ForEachTag();
+            tag.setPageContext(pageContext);
+            tag.setBegin(1);
+            tag.setEnd(5);
+            tag.setStep(2);
+            tag.setVar("i");
+            iterate(tag, () -> pageContext.getOut().write(pageContext.getAttribute("i") + ","));
+        });
+        assertEquals("1,3,5,|null", handled);
+        assertEquals(handled, generated);
+    }
+
+    @Test
+    public void testForEachNegativeBegin() throws Throwable {
+        try {
+            render(pageContext -> new ForEachTag().setBegin(-1));
+            fail("Negative begin accepted by the handler");
+        } catch (final JspTagException expected) {
+            // the handler rejects it
+        }
+        for (final String items : Arrays.asList(ITEMS, null)) {
+            final PluginContext ctxt = new PluginContext(null)
+                    .attribute("begin", "-1")
+                    .attribute("end", "3")
+                    .body(WRITE_VAR);
+            if (items != null) {
+                ctxt.attribute("items", items);
+            }
+            final Page page = compile(ctxt.generate(new ForEach()));
+            try {
+                render(page);
+                fail("Negative begin accepted by the plugin");
+            } catch (final JspTagException expected) {
+                // like the handler
+            }
+        }
+    }
+
+    @Test
+    public void testChooseOtherwise() throws Throwable {
+        final String generated = render(new PluginContext(null)
+                .body(new Otherwise(), otherwise -> otherwise.body("out.write(\"x\");"))
+                .generate(new Choose()));
+        final String handled = render(pageContext -> {
+            final ChooseTag choose = new ChooseTag();
+            choose.setPageContext(pageContext);
+            choose.doStartTag();
+            final OtherwiseTag otherwise = new OtherwiseTag();
+            otherwise.setPageContext(pageContext);
+            otherwise.setParent(choose);
+            if (otherwise.doStartTag() == Tag.EVAL_BODY_INCLUDE) {
+                pageContext.getOut().write("x");
+            }
+            otherwise.doEndTag();
+            choose.doEndTag();
+        });
+        assertEquals("x", handled);
+        assertEquals(handled, generated);
+    }
+
+    @Test
+    public void testOutDefault() throws Throwable {
+        final String generated = render(new PluginContext(null)
+                .attribute("value", "null")
+                .attribute("default", "\"<d>\"")
+                .generate(new Out()));
+        final String handled = render(pageContext -> {
+            final OutTag tag = new OutTag();
+            tag.setPageContext(pageContext);
+            tag.setValue(null);
+            tag.setDefault("<d>");
+            tag.doStartTag();
+            tag.doEndTag();
+        });
+        assertEquals("&lt;d&gt;", handled);
+        assertEquals(handled, generated);
+    }
+
+    @Test
+    public void testOutReader() throws Throwable {
+        final String generated = render(new PluginContext(null)
+                .attribute("value", "new java.io.StringReader(\"a<b\")")
+                .attribute("escapeXml", "true")
+                .generate(new Out()));
+        final String handled = render(pageContext -> {
+            final OutTag tag = new OutTag();
+            tag.setPageContext(pageContext);
+            tag.setValue(new StringReader("a<b"));
+            tag.setEscapeXml(true);
+            tag.doStartTag();
+            tag.doEndTag();
+        });
+        assertEquals("a&lt;b", handled);
+        assertEquals(handled, generated);
+    }
+
+    private interface Body {
+        void run() throws Throwable;
+    }
+
+    /**
+     * Drive an iteration tag like the generated code of a page does.
+     */
+    private static void iterate(final LoopTagSupport tag, final Body body) throws Throwable {
+        try {
+            if (tag.doStartTag() != Tag.SKIP_BODY) {
+                do {
+                    body.run();
+                } while (tag.doAfterBody() == IterationTag.EVAL_BODY_AGAIN);
+            }
+            tag.doEndTag();
+        } catch (final Throwable t) {
+            tag.doCatch(t);
+        } finally {
+            tag.doFinally();
+        }
+    }
+
+    private String render(final String source) throws Throwable {
+        return render(compile(source));
+    }
+
+    /**
+     * Render the loop and the "i" page attribute remaining afterwards.
+     */
+    private String renderLoop(final Page page) throws Throwable {
+        return render(pageContext -> {
+            page.run(pageContext);
+            pageContext.getOut().write("|" + pageContext.getAttribute("i"));
+        });
+    }
+
+    private String render(final Page page) throws Throwable {
+        final StringWriter output = new StringWriter();
+        final ServletResponse response = mock(ServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+        final PageContext pageContext = factory.getPageContext(servlet,
+                mock(ServletRequest.class), response, null, false, 8192, true);
+        try {
+            page.run(pageContext);
+        } finally {
+            factory.releasePageContext(pageContext);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Compile the generated code into a page.
+     */
+    private static Page compile(final String code) throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        final String source = "import javax.servlet.jsp.*;\n"
+                + "public class Generated implements " + Page.class.getCanonicalName() + " {\n"
+                + "public void run(PageContext _jspx_page_context) throws Throwable {\n"
+                + "JspWriter out = _jspx_page_context.getOut();\n"
+                + code + "\n"
+                + "}\n"
+                + "}\n";
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        final JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(final Location location,
+                    final String className, final Kind kind, final FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        final JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///Generated.java"), Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        final StringWriter errors = new StringWriter();
+        assertTrue(source + errors, compiler.getTask(errors, files, null,
+                Arrays.asList("-classpath", System.getProperty("java.class.path")),
+                null, Collections.singleton(unit)).call());
+        final ClassLoader loader = new ClassLoader(TagPluginTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(final String name) throws ClassNotFoundException {
+                final ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        return (Page) loader.loadClass("Generated").getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Records the code generated by a plugin, the attributes are given as
+     * Java expressions and the body as Java source or a nested tag.
+     */
+    private static final class PluginContext implements TagPluginContext {
+
+        private final PluginContext parent;
+
+        private final StringBuilder source;
+
+        private final Map<String, String> attributes = new HashMap<>();
+
+        private final Map<String, Object> pluginAttributes = new HashMap<>();
+
+        private Consumer<PluginContext> body;
+
+        private boolean useTagPlugin = true;
+
+        private int temporaryVariables;
+
+        PluginContext(final PluginContext parent) {
+            this.parent = parent;
+            this.source = parent != null ? parent.source : new StringBuilder();
+        }
+
+        PluginContext attribute(final String name, final String expression) {
+            attributes.put(name, expression);
+            return this;
+        }
+
+        PluginContext body(final String code) {
+            body = ctxt -> ctxt.generateJavaSource(code);
+            return this;
+        }
+
+        PluginContext body(final TagPlugin plugin, final Consumer<PluginContext> nested) {
+            body = ctxt -> {
+                final PluginContext child = new PluginContext(ctxt);
+                nested.accept(child);
+                child.generate(plugin);
+            };
+            return this;
+        }
+
+        String generate(final TagPlugin plugin) {
+            plugin.doTag(this);
+            assertTrue("Plugin not used", useTagPlugin);
+            return source.toString();
+        }
+
+        public boolean isScriptless() {
+            return true;
+        }
+
+        public boolean isAttributeSpecified(final String attribute) {
+            return attributes.containsKey(attribute);
+        }
+
+        public boolean hasEmptyBody() {
+            return body == null;
+        }
+
+        public boolean isDeferredAttribute(final String attribute) {
+            return false;
+        }
+
+        public String getTemporaryVariableName() {
+            if (parent != null) {
+                return parent.getTemporaryVariableName();
+            }
+            return "_jspx_temp" + temporaryVariables++;
+        }
+
+        public void generateImport(final String s) {
+            fail("Unexpected import " + s);
+        }
+
+        public void generateDeclaration(final String id, final String text) {
+            fail("Unexpected declaration " + id);
+        }
+
+        public void generateJavaSource(final String s) {
+            source.append(s).append('\n');
+        }
+
+        public boolean isConstantAttribute(final String attribute) {
+            return false;
+        }
+
+        public String getConstantAttribute(final String attribute) {
+            return null;
+        }
+
+        public void generateAttribute(final String attribute) {
+            source.append(attributes.get(attribute));
+        }
+
+        public void generateBody() {
+            if (body != null) {
+                body.accept(this);
+            }
+        }
+
+        public void dontUseTagPlugin() {
+            useTagPlugin = false;
+        }
+
+        public TagPluginContext getParentContext() {
+            return parent;
+        }
+
+        public void setPluginAttribute(final String attr, final Object value) {
+            pluginAttributes.put(attr, value);
+        }
+
+        public Object getPluginAttribute(final String attr) {
+            return pluginAttributes.get(attr);
+        }
+    }
+}